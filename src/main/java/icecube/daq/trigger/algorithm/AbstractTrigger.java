@@ -16,13 +16,20 @@ import icecube.daq.payload.impl.TriggerRequest;
 import icecube.daq.payload.impl.TriggerRequestFactory;
 import icecube.daq.trigger.config.TriggerParameter;
 import icecube.daq.trigger.config.TriggerReadout;
+import icecube.daq.trigger.control.AlgorithmLatency;
+import icecube.daq.trigger.control.ChannelMask;
 import icecube.daq.trigger.control.DummyPayload;
 import icecube.daq.trigger.control.HitFilter;
+import icecube.daq.trigger.control.HitTracer;
 import icecube.daq.trigger.control.ITriggerCollector;
 import icecube.daq.trigger.control.ITriggerManager;
 import icecube.daq.trigger.control.Interval;
 import icecube.daq.trigger.control.PayloadSubscriber;
+import icecube.daq.trigger.control.RateLimitedLog;
 import icecube.daq.trigger.control.SubscribedList;
+import icecube.daq.trigger.control.ThreadUsage;
+import icecube.daq.trigger.control.TriggerEvents;
+import icecube.daq.trigger.control.TriggerRequestEncoder;
 import icecube.daq.trigger.exceptions.ConfigException;
 import icecube.daq.trigger.exceptions.IllegalParameterValueException;
 import icecube.daq.trigger.exceptions.TriggerException;
@@ -54,6 +61,8 @@ public abstract class AbstractTrigger
     protected int triggerPrescale;
     protected int domSetId = -1;
     protected HitFilter hitFilter = new HitFilter();
+    /** Channels ignored by the hit filter (<tt>null</tt> if none) */
+    private ChannelMask channelMask;
 
     protected String triggerName;
     private int trigCfgId;
@@ -71,17 +80,52 @@ public abstract class AbstractTrigger
     private int printMod = 1000;
 
     private IPayload earliestPayloadOfInterest;
+    /** Time of the most recent input stream marker */
+    private volatile long markerTime = Long.MIN_VALUE;
+    /** Has load shedding paused this algorithm's input? */
+    private volatile boolean paused;
+    /** Extra prescale applied while shedding load (1 if not shedding) */
+    private volatile int shedPrescale = 1;
+    /** Number of requests which passed the configured prescale */
+    private int shedCounter;
 
     private long releaseTime = Long.MIN_VALUE;
 
     private ArrayList<ITriggerRequestPayload> requests =
         new ArrayList<ITriggerRequestPayload>();
+    /**
+     * Ring of System.nanoTime() values recording when each entry in
+     * <tt>requests</tt> was added, kept in step with that list
+     */
+    private long[] requestTimes = new long[64];
+    /** Index of the time for <tt>requests.get(0)</tt> */
+    private int requestTimeHead;
+
+    /** Latency histograms */
+    private AlgorithmLatency latency = new AlgorithmLatency();
+    /** If non-null, sampled hits are traced through the trigger */
+    private HitTracer tracer;
+    /** CPU time and allocation used by this algorithm's thread */
+    private ThreadUsage threadUsage = new ThreadUsage();
     private ITriggerCollector collector;
 
     private PayloadSubscriber subscriber;
 
     private long earliestMonitorTime = Long.MIN_VALUE;
 
+    /** Limit the errors logged for out-of-order requests */
+    private RateLimitedLog orderLog =
+        new RateLimitedLog(LOG, "AbstractTrigger requests");
+
+    /** If non-null, requests are encoded directly into output buffers */
+    private TriggerRequestEncoder requestEncoder;
+    /** Reusable readout element fields for the request encoder */
+    private int[] elemTypes;
+    private int[] elemSrcIds;
+    private long[] elemFirst;
+    private long[] elemLast;
+    private long[] elemDoms;
+
     /**
      * Add a trigger parameter.
      *
@@ -112,6 +156,49 @@ public abstract class AbstractTrigger
         readouts.add(new TriggerReadout(rdoutType, offset, minus, plus));
     }
 
+    /**
+     * The input stream has reached the specified time.  If this algorithm
+     * is not building a trigger which could start before that time, move
+     * the earliest payload of interest up to the marker so cached requests
+     * can be released without waiting for the next hit.
+     *
+     * @param utcTime time of the input stream
+     */
+    @Override
+    public void advanceTime(long utcTime)
+    {
+        if (utcTime <= markerTime) {
+            return;
+        }
+        markerTime = utcTime;
+
+        if (paused || isIdle(utcTime)) {
+            advanceEarliest(utcTime);
+        }
+
+        if (hasCachedRequests()) {
+            collector.setChanged();
+        }
+    }
+
+    /**
+     * Move the earliest payload of interest up to the specified time.
+     *
+     * @param utcTime new earliest time
+     */
+    private void advanceEarliest(long utcTime)
+    {
+        final boolean advance;
+        synchronized (this) {
+            advance = earliestPayloadOfInterest == null ||
+                earliestPayloadOfInterest.getUTCTime() < utcTime;
+        }
+
+        if (advance) {
+            setEarliestPayloadOfInterest(new DummyPayload(utcTime));
+        }
+    }
+
     /**
      * Check the trigger type.
      *
@@ -150,6 +237,7 @@ public abstract class AbstractTrigger
         throws ConfigException
     {
         hitFilter = new HitFilter(domSetId);
+        hitFilter.setChannelMask(channelMask);
     }
 
     /**
@@ -168,42 +256,38 @@ public abstract class AbstractTrigger
                                                           IDOMID domId,
                                                           ISourceID stringId)
     {
-        IUTCTime timeOffset;
-        IUTCTime timeMinus;
-        IUTCTime timePlus;
+        final int cfgType = roCfg.getType();
+        final int type = checkReadoutType(cfgType, domId, stringId);
+        final boolean useOffset = isOffsetReadout(type);
+
+        return new ReadoutRequestElement(type,
+                                         getReadoutSourceId(cfgType, stringId),
+                                         getReadoutStart(useOffset,
+                                                         firstTime.longValue(),
+                                                         roCfg),
+                                         getReadoutEnd(useOffset,
+                                                       firstTime.longValue(),
+                                                       lastTime.longValue(),
+                                                       roCfg),
+                                         getReadoutDomId(cfgType, domId));
+    }
 
-        int type = roCfg.getType();
+    /**
+     * Check that the string and DOM needed by a readout type are present.
+     *
+     * @param type configured readout type
+     * @param domId DOM ID (may be <tt>null</tt>)
+     * @param stringId string ID (may be <tt>null</tt>)
+     *
+     * @return readout type (unknown types are turned into global readouts)
+     */
+    private static int checkReadoutType(int type, IDOMID domId,
+                                        ISourceID stringId)
+    {
         switch (type) {
         case IReadoutRequestElement.READOUT_TYPE_GLOBAL:
-            if (null != stringId) {
-                stringId = null;
-            }
-            if (null != domId) {
-                domId = null;
-            }
-            timeMinus = firstTime.getOffsetUTCTime(-roCfg.getMinus() * 10L);
-            timePlus = lastTime.getOffsetUTCTime(roCfg.getPlus() * 10L);
-            break;
         case IReadoutRequestElement.READOUT_TYPE_II_GLOBAL:
-            if (null != stringId) {
-                stringId = null;
-            }
-            if (null != domId) {
-                domId = null;
-            }
-            if (srcId == SourceIdRegistry.ICETOP_TRIGGER_SOURCE_ID) {
-                timeOffset =
-                    firstTime.getOffsetUTCTime(roCfg.getOffset() * 10L);
-                timeMinus =
-                    timeOffset.getOffsetUTCTime(-roCfg.getMinus() * 10L);
-                timePlus =
-                    timeOffset.getOffsetUTCTime(roCfg.getPlus() * 10L);
-            } else {
-                timeMinus =
-                    firstTime.getOffsetUTCTime(-roCfg.getMinus() * 10L);
-                timePlus =
-                    lastTime.getOffsetUTCTime(roCfg.getPlus() * 10L);
-            }
+        case IReadoutRequestElement.READOUT_TYPE_IT_GLOBAL:
             break;
         case IReadoutRequestElement.READOUT_TYPE_II_STRING:
             // need stringId
@@ -211,52 +295,8 @@ public abstract class AbstractTrigger
                 LOG.error("ReadoutType = " + type +
                           " but StringId is NULL!");
             }
-            if (null != domId) {
-                domId = null;
-            }
-            if (srcId == SourceIdRegistry.ICETOP_TRIGGER_SOURCE_ID) {
-                timeOffset = firstTime.getOffsetUTCTime(roCfg.getOffset() * 10L);
-                timeMinus = timeOffset.getOffsetUTCTime(-roCfg.getMinus() * 10L);
-                timePlus = timeOffset.getOffsetUTCTime(roCfg.getPlus() * 10L);
-            } else {
-                timeMinus = firstTime.getOffsetUTCTime(-roCfg.getMinus() * 10L);
-                timePlus = lastTime.getOffsetUTCTime(roCfg.getPlus() * 10L);
-            }
             break;
         case IReadoutRequestElement.READOUT_TYPE_II_MODULE:
-            // need stringId and domId
-            if (null == stringId) {
-                LOG.error("ReadoutType = " + type +
-                          " but StringId is NULL!");
-            }
-            if (null == domId) {
-                LOG.error("ReadoutType = " + type + " but DomId is NULL!");
-            }
-            if (srcId == SourceIdRegistry.ICETOP_TRIGGER_SOURCE_ID) {
-                timeOffset = firstTime.getOffsetUTCTime(roCfg.getOffset() * 10L);
-                timeMinus = timeOffset.getOffsetUTCTime(-roCfg.getMinus() * 10L);
-                timePlus = timeOffset.getOffsetUTCTime(roCfg.getPlus() * 10L);
-            } else {
-                timeMinus = firstTime.getOffsetUTCTime(-roCfg.getMinus() * 10L);
-                timePlus = lastTime.getOffsetUTCTime(roCfg.getPlus() * 10L);
-            }
-            break;
-        case IReadoutRequestElement.READOUT_TYPE_IT_GLOBAL:
-            if (null != stringId) {
-                stringId = null;
-            }
-            if (null != domId) {
-                domId = null;
-            }
-            if (srcId == SourceIdRegistry.INICE_TRIGGER_SOURCE_ID) {
-                timeOffset = firstTime.getOffsetUTCTime(roCfg.getOffset() * 10L);
-                timeMinus = timeOffset.getOffsetUTCTime(-roCfg.getMinus() * 10L);
-                timePlus = timeOffset.getOffsetUTCTime(roCfg.getPlus() * 10L);
-            } else {
-                timeMinus = firstTime.getOffsetUTCTime(-roCfg.getMinus() * 10L);
-                timePlus = lastTime.getOffsetUTCTime(roCfg.getPlus() * 10L);
-            }
-            break;
         case IReadoutRequestElement.READOUT_TYPE_IT_MODULE:
             // need stringId and domId
             if (null == stringId) {
@@ -266,42 +306,130 @@ public abstract class AbstractTrigger
             if (null == domId) {
                 LOG.error("ReadoutType = " + type + " but DomId is NULL!");
             }
-            if (srcId == SourceIdRegistry.INICE_TRIGGER_SOURCE_ID) {
-                timeOffset = firstTime.getOffsetUTCTime(roCfg.getOffset() * 10L);
-                timeMinus = timeOffset.getOffsetUTCTime(-roCfg.getMinus() * 10L);
-                timePlus = timeOffset.getOffsetUTCTime(roCfg.getPlus() * 10L);
-            } else {
-                timeMinus = firstTime.getOffsetUTCTime(-roCfg.getMinus() * 10L);
-                timePlus = lastTime.getOffsetUTCTime(roCfg.getPlus() * 10L);
-            }
             break;
         default:
             LOG.error("Unknown ReadoutType: " + type +
                       " -> Making it GLOBAL");
-            type = IReadoutRequestElement.READOUT_TYPE_GLOBAL;
-            timeMinus = firstTime.getOffsetUTCTime(-roCfg.getMinus() * 10L);
-            timePlus = lastTime.getOffsetUTCTime(roCfg.getPlus() * 10L);
-            break;
+            return IReadoutRequestElement.READOUT_TYPE_GLOBAL;
         }
 
-        int rreSrcId;
-        if (stringId == null) {
-            rreSrcId = -1;
-        } else {
-            rreSrcId = stringId.getSourceID();
+        return type;
+    }
+
+    /**
+     * Get the DOM ID for a readout element.
+     *
+     * @param type configured readout type
+     * @param domId DOM ID (may be <tt>null</tt>)
+     *
+     * @return DOM ID or <tt>-1</tt> if the readout is not for a single DOM
+     */
+    private static long getReadoutDomId(int type, IDOMID domId)
+    {
+        switch (type) {
+        case IReadoutRequestElement.READOUT_TYPE_GLOBAL:
+        case IReadoutRequestElement.READOUT_TYPE_II_GLOBAL:
+        case IReadoutRequestElement.READOUT_TYPE_IT_GLOBAL:
+        case IReadoutRequestElement.READOUT_TYPE_II_STRING:
+            return -1;
+        default:
+            if (domId == null) {
+                return -1;
+            }
+
+            return domId.longValue();
         }
+    }
 
-        long rreDomId;
-        if (domId == null) {
-            rreDomId = -1;
-        } else {
-            rreDomId = domId.longValue();
+    /**
+     * Get the ending time for a readout element.
+     *
+     * @param useOffset if <tt>true</tt>, window is relative to the
+     *                  configured offset
+     * @param firstTime earliest time of trigger
+     * @param lastTime latest time of trigger
+     * @param roCfg readout configuration
+     *
+     * @return ending time
+     */
+    private static long getReadoutEnd(boolean useOffset, long firstTime,
+                                      long lastTime, TriggerReadout roCfg)
+    {
+        if (useOffset) {
+            return firstTime + roCfg.getOffset() * 10L +
+                roCfg.getPlus() * 10L;
+        }
+
+        return lastTime + roCfg.getPlus() * 10L;
+    }
+
+    /**
+     * Get the source ID for a readout element.
+     *
+     * @param type configured readout type
+     * @param stringId string ID (may be <tt>null</tt>)
+     *
+     * @return source ID or <tt>-1</tt> if the readout is not for a string
+     */
+    private static int getReadoutSourceId(int type, ISourceID stringId)
+    {
+        switch (type) {
+        case IReadoutRequestElement.READOUT_TYPE_GLOBAL:
+        case IReadoutRequestElement.READOUT_TYPE_II_GLOBAL:
+        case IReadoutRequestElement.READOUT_TYPE_IT_GLOBAL:
+            return -1;
+        default:
+            if (stringId == null) {
+                return -1;
+            }
+
+            return stringId.getSourceID();
         }
+    }
 
-        return new ReadoutRequestElement(type, rreSrcId,
-                                         timeMinus.longValue(),
-                                         timePlus.longValue(),
-                                         rreDomId);
+    /**
+     * Get the starting time for a readout element.
+     *
+     * @param useOffset if <tt>true</tt>, window is relative to the
+     *                  configured offset
+     * @param firstTime earliest time of trigger
+     * @param roCfg readout configuration
+     *
+     * @return starting time
+     */
+    private static long getReadoutStart(boolean useOffset, long firstTime,
+                                        TriggerReadout roCfg)
+    {
+        if (useOffset) {
+            return firstTime + roCfg.getOffset() * 10L -
+                roCfg.getMinus() * 10L;
+        }
+
+        return firstTime - roCfg.getMinus() * 10L;
+    }
+
+    /**
+     * Is the readout window for this type relative to the configured offset?
+     * In-ice readouts use the offset for IceTop triggers and IceTop readouts
+     * use it for in-ice triggers.
+     *
+     * @param type readout type
+     *
+     * @return <tt>true</tt> if the offset should be applied
+     */
+    private boolean isOffsetReadout(int type)
+    {
+        switch (type) {
+        case IReadoutRequestElement.READOUT_TYPE_II_GLOBAL:
+        case IReadoutRequestElement.READOUT_TYPE_II_STRING:
+        case IReadoutRequestElement.READOUT_TYPE_II_MODULE:
+            return srcId == SourceIdRegistry.ICETOP_TRIGGER_SOURCE_ID;
+        case IReadoutRequestElement.READOUT_TYPE_IT_GLOBAL:
+        case IReadoutRequestElement.READOUT_TYPE_IT_MODULE:
+            return srcId == SourceIdRegistry.INICE_TRIGGER_SOURCE_ID;
+        default:
+            return false;
+        }
     }
 
     /**
@@ -354,13 +482,55 @@ public abstract class AbstractTrigger
             throw new Error("TriggerFactory is not set!");
         }
 
+        if (hits != null && hits.size() == 0) {
+            throw new Error("Cannot form trigger from empty list of hits");
+        }
+
+        TriggerEvents.TriggerFormed evt = new TriggerEvents.TriggerFormed();
+        evt.begin();
+
+        final int uid = getNextUID();
+
+        ITriggerRequestPayload triggerPayload = null;
+        if (requestEncoder != null) {
+            triggerPayload = encodeTrigger(uid, hits, firstTime.longValue(),
+                                           lastTime.longValue(), dom, string);
+        }
+        final boolean encoded = triggerPayload != null;
+        if (triggerPayload == null) {
+            triggerPayload =
+                createTrigger(uid, hits, firstTime, lastTime, dom, string);
+        }
+
+        evt.end();
+        if (evt.shouldCommit()) {
+            evt.algorithm = triggerName;
+            evt.numHits = (hits == null ? 0 : hits.size());
+            evt.span = lastTime.longValue() - firstTime.longValue();
+            evt.encoded = encoded;
+            evt.commit();
+        }
+
+        // report it
+        reportTrigger(triggerPayload);
+
+        // set earliest payload of interest to 1/10 ns after the last hit
+        IPayload dummy = new DummyPayload(lastTime.getOffsetUTCTime(1));
+        setEarliestPayloadOfInterest(dummy);
+    }
+
+    /**
+     * Build a trigger request from payload objects.
+     */
+    private ITriggerRequestPayload createTrigger(int uid,
+                                                 Collection<IHitPayload> hits,
+                                                 IUTCTime firstTime,
+                                                 IUTCTime lastTime,
+                                                 IDOMID dom, ISourceID string)
+    {
         // copy hits so they can be recycled
         ArrayList<IPayload> hitList = new ArrayList<IPayload>();
         if (hits != null) {
-            if (hits.size() == 0) {
-                throw new Error("Cannot form trigger from empty list of hits");
-            }
-
             for (IHitPayload hit : hits) {
                 IHitPayload copy = (IHitPayload) hit.deepCopy();
                 if (copy.getUTCTime() < 0) {
@@ -382,28 +552,66 @@ public abstract class AbstractTrigger
                                                      readout, dom, string));
         }
 
-        final int uid = getNextUID();
-
         IReadoutRequest readoutRequest =
             new ReadoutRequest(firstTime.longValue(), uid, srcId,
                                readoutElements);
 
         // make payload
-        TriggerRequest triggerPayload =
-            (TriggerRequest) triggerFactory.createPayload(uid,
-                                                          getTriggerType(),
-                                                          trigCfgId, srcId,
-                                                          firstTime.longValue(),
-                                                          lastTime.longValue(),
-                                                          readoutRequest,
-                                                          hitList);
+        return (TriggerRequest) triggerFactory.createPayload(uid,
+                                                             getTriggerType(),
+                                                             trigCfgId, srcId,
+                                                             firstTime.longValue(),
+                                                             lastTime.longValue(),
+                                                             readoutRequest,
+                                                             hitList);
+    }
 
-        // report it
-        reportTrigger(triggerPayload);
+    /**
+     * Encode a trigger request directly into an output buffer.
+     *
+     * @return encoded request, or <tt>null</tt> if the request should be
+     *         built from payload objects
+     */
+    private ITriggerRequestPayload encodeTrigger(int uid,
+                                                 Collection<IHitPayload> hits,
+                                                 long firstTime, long lastTime,
+                                                 IDOMID dom, ISourceID string)
+    {
+        if (hits != null) {
+            for (IHitPayload hit : hits) {
+                if (hit.getUTCTime() < 0) {
+                    // let the standard code complain about bad hits
+                    return null;
+                }
+            }
+        }
 
-        // set earliest payload of interest to 1/10 ns after the last hit
-        IPayload dummy = new DummyPayload(lastTime.getOffsetUTCTime(1));
-        setEarliestPayloadOfInterest(dummy);
+        final int numElems = readouts.size();
+        if (elemTypes == null || elemTypes.length < numElems) {
+            elemTypes = new int[numElems];
+            elemSrcIds = new int[numElems];
+            elemFirst = new long[numElems];
+            elemLast = new long[numElems];
+            elemDoms = new long[numElems];
+        }
+
+        for (int i = 0; i < numElems; i++) {
+            final TriggerReadout roCfg = readouts.get(i);
+            final int cfgType = roCfg.getType();
+            final int type = checkReadoutType(cfgType, dom, string);
+            final boolean useOffset = isOffsetReadout(type);
+
+            elemTypes[i] = type;
+            elemSrcIds[i] = getReadoutSourceId(cfgType, string);
+            elemFirst[i] = getReadoutStart(useOffset, firstTime, roCfg);
+            elemLast[i] = getReadoutEnd(useOffset, firstTime, lastTime, roCfg);
+            elemDoms[i] = getReadoutDomId(cfgType, dom);
+        }
+
+        return requestEncoder.encode(uid, getTriggerType(), trigCfgId, srcId,
+                                     firstTime, lastTime, numElems, elemTypes,
+                                     elemSrcIds, elemFirst, elemLast,
+                                     elemDoms, hits);
     }
 
     static DOMInfo getDOMFromHit(IDOMRegistry registry, IHitPayload hit)
@@ -466,6 +674,16 @@ public abstract class AbstractTrigger
         return hit.getTriggerType() & 0xf;
     }
 
+    /**
+     * Get the extra prescale applied while shedding load.
+     *
+     * @return prescale (1 if no requests are being dropped)
+     */
+    public int getShedPrescale()
+    {
+        return shedPrescale;
+    }
+
     /**
      * Get the input queue size.
      *
@@ -560,8 +778,10 @@ public abstract class AbstractTrigger
                     final long finalTime =
                         lastReq.getLastTimeUTC().longValue();
                     // wait until the interval is significantly past
-                    // the most recent request
-                    if (end + REQUEST_WIDTH > finalTime) {
+                    // the most recent request or the input stream
+                    if (end + REQUEST_WIDTH > finalTime &&
+                        end + REQUEST_WIDTH > markerTime)
+                    {
                         return null;
                     }
                 }
@@ -589,6 +809,29 @@ public abstract class AbstractTrigger
         return new Interval(start, end);
     }
 
+    /**
+     * Get the latency histograms for this algorithm.
+     *
+     * @return latency histograms
+     */
+    @Override
+    public AlgorithmLatency getAlgorithmLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * Get the queue wait, service time and request hold time percentiles
+     * (in microseconds) recorded since the start of the run.
+     *
+     * @return map of percentile names to values
+     */
+    @Override
+    public Map<String, Long> getLatencyPercentiles()
+    {
+        return latency.getPercentiles();
+    }
+
     /**
      * Return the difference between the start of the first cached request
      * and the earliest payload of interest (in DAQ ticks).
@@ -687,6 +930,29 @@ public abstract class AbstractTrigger
         return subscriber;
     }
 
+    /**
+     * Get the CPU time and heap allocation rates and totals for this
+     * algorithm's thread.
+     *
+     * @return map of statistic names to values
+     */
+    @Override
+    public Map<String, Long> getThreadStatistics()
+    {
+        return threadUsage.getStatistics();
+    }
+
+    /**
+     * Get the CPU time and allocation used by this algorithm's thread.
+     *
+     * @return thread usage
+     */
+    @Override
+    public ThreadUsage getThreadUsage()
+    {
+        return threadUsage;
+    }
+
     /**
      * Get the configuration ID.
      *
@@ -788,6 +1054,22 @@ public abstract class AbstractTrigger
     @Override
     public abstract boolean isConfigured();
 
+    /**
+     * Can the earliest payload of interest move up to the specified time
+     * without passing a trigger which is still being built?  Algorithms
+     * which carry partial triggers from one hit to the next should keep
+     * this default.
+     *
+     * @param utcTime proposed earliest time
+     *
+     * @return <tt>true</tt> if no pending trigger could start before
+     *         <tt>utcTime</tt>
+     */
+    protected boolean isIdle(long utcTime)
+    {
+        return false;
+    }
+
     /**
      * Has this algorithm's input stream been stopped?
      *
@@ -813,6 +1095,7 @@ public abstract class AbstractTrigger
             }
         }
         requests.clear();
+        requestTimeHead = 0;
 
         if (count > 0) {
             LOG.error("Recycled " + count + " unused " + toString() +
@@ -876,6 +1159,18 @@ public abstract class AbstractTrigger
                     }
                 }
 
+                // record how long each released request was cached
+                final long now = System.nanoTime();
+                final int timeLen = requestTimes.length;
+                for (int j = 0; j < i; j++) {
+                    if (!(sub.get(j) instanceof FlushRequest)) {
+                        final int idx = (requestTimeHead + j) % timeLen;
+                        latency.getRequestHold().record(now -
+                                                        requestTimes[idx]);
+                    }
+                }
+                requestTimeHead = (requestTimeHead + i) % timeLen;
+
                 // add released requests to the list and remove from the cache
                 released.addAll(sub);
                 num += sub.size();
@@ -886,6 +1181,27 @@ public abstract class AbstractTrigger
         return num;
     }
 
+    /**
+     * Record the time the most recently added request was cached.
+     * Must be called while holding the <tt>requests</tt> lock.
+     */
+    private void addRequestTime()
+    {
+        final int num = requests.size();
+        if (num > requestTimes.length) {
+            final int oldLen = requestTimes.length;
+            long[] tmpTimes = new long[oldLen * 2];
+            for (int i = 0; i < num - 1; i++) {
+                tmpTimes[i] = requestTimes[(requestTimeHead + i) % oldLen];
+            }
+            requestTimes = tmpTimes;
+            requestTimeHead = 0;
+        }
+
+        requestTimes[(requestTimeHead + num - 1) % requestTimes.length] =
+            System.nanoTime();
+    }
+
     public void reportHit(IHitPayload hit)
     {
         throw new UnimplementedError();
@@ -899,18 +1215,27 @@ public abstract class AbstractTrigger
     public void reportTrigger(ITriggerRequestPayload trigReq)
     {
         // if prescaling, should we throw out this trigger request?
-        if ((triggerPrescale != 0) &&
-            ((triggerCounter % triggerPrescale) != 0))
+        // (load shedding prescales the requests which survive the
+        // configured prescale, so it needs its own counter)
+        if (((triggerPrescale != 0) &&
+             ((triggerCounter % triggerPrescale) != 0)) ||
+            ((shedPrescale > 1) && ((shedCounter++ % shedPrescale) != 0)))
         {
             trigReq.recycle();
         } else {
             synchronized (requests) {
                 requests.add(trigReq);
+                addRequestTime();
+                if (tracer != null) {
+                    tracer.requested(trigReq);
+                }
                 if (releaseTime != Long.MIN_VALUE &&
                     trigReq.getFirstTimeUTC().longValue() < releaseTime)
                 {
-                    LOG.error(triggerName + " added " + trigReq +
-                              " preceding release time " + releaseTime);
+                    if (orderLog.allow("precedesRelease")) {
+                        LOG.error(triggerName + " added " + trigReq +
+                                  " preceding release time " + releaseTime);
+                    }
                 }
                 sentTriggerCounter++;
             }
@@ -929,6 +1254,8 @@ public abstract class AbstractTrigger
 
         onTrigger = false;
         earliestPayloadOfInterest = null;
+        markerTime = Long.MIN_VALUE;
+        paused = false;
         releaseTime = Long.MIN_VALUE;
     }
 
@@ -939,6 +1266,7 @@ public abstract class AbstractTrigger
     public void resetUID()
     {
         triggerCounter = 0;
+        shedCounter = 0;
     }
 
     /**
@@ -960,14 +1288,28 @@ public abstract class AbstractTrigger
     {
         flush();
 
+        orderLog.report();
+
         FlushRequest flushReq = new FlushRequest();
         setEarliestPayloadOfInterest(flushReq);
         synchronized (requests) {
             requests.add(flushReq);
+            addRequestTime();
         }
         collector.setChanged();
     }
 
+    /**
+     * Set the mask of channels whose hits are ignored by this algorithm.
+     *
+     * @param mask channel mask (<tt>null</tt> to use every channel)
+     */
+    public void setChannelMask(ChannelMask mask)
+    {
+        channelMask = mask;
+        hitFilter.setChannelMask(mask);
+    }
+
     /**
      * Set DOM set ID
      *
@@ -1003,6 +1345,47 @@ public abstract class AbstractTrigger
         }
     }
 
+    /**
+     * Stop or resume this algorithm's input.  Pausing drops any partially
+     * built trigger so the earliest time can follow the input stream.
+     *
+     * @param paused <tt>true</tt> to pause, <tt>false</tt> to resume
+     * @param utcTime time of the input stream
+     */
+    @Override
+    public void setPaused(boolean paused, long utcTime)
+    {
+        if (paused == this.paused) {
+            return;
+        }
+
+        if (paused) {
+            flush();
+            this.paused = true;
+            advanceEarliest(utcTime);
+
+            if (hasCachedRequests()) {
+                collector.setChanged();
+            }
+        } else {
+            this.paused = false;
+        }
+    }
+
+    /**
+     * Set the extra prescale applied while shedding load.
+     *
+     * @param prescale prescale (1 to keep every request)
+     */
+    public void setShedPrescale(int prescale)
+    {
+        if (prescale < 1) {
+            throw new Error("Bad shedding prescale " + prescale);
+        }
+
+        shedPrescale = prescale;
+    }
+
     /**
      * Set source ID.
      *
@@ -1063,6 +1446,30 @@ public abstract class AbstractTrigger
         this.triggerFactory = triggerFactory;
     }
 
+    /**
+     * Set the tracer used to follow sampled hits.
+     *
+     * @param tracer hit tracer (may be <tt>null</tt>)
+     */
+    public void setHitTracer(HitTracer tracer)
+    {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Set the encoder used to write requests directly to output buffers.
+     *
+     * @param encoder request encoder (<tt>null</tt> to build request objects)
+     */
+    public void setRequestEncoder(TriggerRequestEncoder encoder)
+    {
+        if (encoder != null && !encoder.isValid()) {
+            encoder = null;
+        }
+
+        requestEncoder = encoder;
+    }
+
     /**
      * Set the trigger manager for this trigger.
      *
@@ -1,5 +1,7 @@
 package icecube.daq.trigger.algorithm;
 
+import java.util.Map;
+
 public interface AbstractTriggerMBean
 {
     /**
@@ -31,6 +33,14 @@ public interface AbstractTriggerMBean
      */
     int getNumberOfCachedRequests();
 
+    /**
+     * Get the queue wait, service time and request hold time percentiles
+     * (in microseconds) recorded since the start of the run.
+     *
+     * @return map of percentile names to values
+     */
+    Map<String, Long> getLatencyPercentiles();
+
     /**
      * Get the number of trigger sent to the collector.
      *
@@ -38,6 +48,15 @@ public interface AbstractTriggerMBean
      */
     long getSentTriggerCount();
 
+    /**
+     * Get the CPU time and heap allocation rates of this algorithm's
+     * thread ("cpuMillisPerSec", "allocBytesPerSec") along with the totals
+     * for the current run ("cpuMillis", "allocBytes").
+     *
+     * @return map of statistic names to values
+     */
+    Map<String, Long> getThreadStatistics();
+
     /**
      * Get the ID of the most recent trigger request.
      *
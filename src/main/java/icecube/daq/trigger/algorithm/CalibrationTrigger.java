@@ -39,6 +39,7 @@ import org.apache.log4j.Logger;
  */
 public class CalibrationTrigger
     extends AbstractTrigger
+    implements InlineAlgorithm
 {
     /** Log object for this class */
     private static final Logger LOG =
@@ -160,6 +161,19 @@ public class CalibrationTrigger
         return configHitType;
     }
 
+    /**
+     * Calibration hits are reported as soon as they arrive.
+     *
+     * @param utcTime proposed earliest time
+     *
+     * @return <tt>true</tt>
+     */
+    @Override
+    protected boolean isIdle(long utcTime)
+    {
+        return true;
+    }
+
     /**
      * Run the trigger algorithm on a payload.
      *
@@ -28,6 +28,7 @@ import org.apache.log4j.Logger;
  */
 public class FixedRateTrigger
     extends AbstractTrigger
+    implements InlineAlgorithm
 {
     /** Log object for this class */
     private static final Logger LOG =
@@ -186,6 +187,21 @@ public class FixedRateTrigger
         return configInterval;
     }
 
+    /**
+     * Triggers are only formed when a hit passes the next trigger time,
+     * so the earliest time cannot move past that time.
+     *
+     * @param utcTime proposed earliest time
+     *
+     * @return <tt>true</tt> if the next trigger is after <tt>utcTime</tt>
+     */
+    @Override
+    protected boolean isIdle(long utcTime)
+    {
+        return numberOfHitsProcessed == 0 ||
+            nextTrigger.longValue() > utcTime;
+    }
+
     /**
      * Reset the algorithm to its initial condition.
      */
@@ -3,11 +3,13 @@ package icecube.daq.trigger.algorithm;
 import icecube.daq.payload.IPayload;
 import icecube.daq.payload.ITriggerRequestPayload;
 import icecube.daq.payload.impl.TriggerRequestFactory;
+import icecube.daq.trigger.control.AlgorithmLatency;
 import icecube.daq.trigger.control.ITriggerCollector;
 import icecube.daq.trigger.control.ITriggerManager;
 import icecube.daq.trigger.control.Interval;
 import icecube.daq.trigger.control.PayloadSubscriber;
 import icecube.daq.trigger.control.SubscribedList;
+import icecube.daq.trigger.control.ThreadUsage;
 import icecube.daq.trigger.exceptions.ConfigException;
 import icecube.daq.trigger.exceptions.TriggerException;
 import icecube.daq.trigger.exceptions.IllegalParameterValueException;
@@ -47,6 +49,14 @@ public interface ITriggerAlgorithm
      */
     void addReadout(int rdoutType, int offset, int minus, int plus);
 
+    /**
+     * The input stream has reached the specified time, so no later input
+     * payload will be earlier than this.
+     *
+     * @param utcTime time of the input stream
+     */
+    void advanceTime(long utcTime);
+
     /**
      * Check the trigger type.
      *
@@ -62,6 +72,13 @@ public interface ITriggerAlgorithm
      */
     void flush();
 
+    /**
+     * Get the latency histograms for this algorithm.
+     *
+     * @return latency histograms
+     */
+    AlgorithmLatency getAlgorithmLatency();
+
     /**
      * Get the earliest payload of interest for this algorithm.
      *
@@ -135,6 +152,13 @@ public interface ITriggerAlgorithm
      */
     PayloadSubscriber getSubscriber();
 
+    /**
+     * Get the CPU time and allocation used by this algorithm's thread.
+     *
+     * @return thread usage
+     */
+    ThreadUsage getThreadUsage();
+
     /**
      * Get the configuration ID.
      *
@@ -246,6 +270,15 @@ public interface ITriggerAlgorithm
      */
     void sendLast();
 
+    /**
+     * Stop or resume the algorithm's input.  A paused algorithm drops any
+     * partially built trigger and only follows the input stream time.
+     *
+     * @param paused <tt>true</tt> to pause, <tt>false</tt> to resume
+     * @param utcTime time of the input stream
+     */
+    void setPaused(boolean paused, long utcTime);
+
     /**
      * Set source ID.
      *
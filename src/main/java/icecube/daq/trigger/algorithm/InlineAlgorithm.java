@@ -0,0 +1,12 @@
+package icecube.daq.trigger.algorithm;
+
+/**
+ * Marker for algorithms which do only a few comparisons per hit and keep
+ * no state which depends on which thread calls them.  When fused mode is
+ * enabled these are run directly on the thread which fans hits out to the
+ * algorithm queues instead of on their own thread.
+ */
+public interface InlineAlgorithm
+    extends ITriggerAlgorithm
+{
+}
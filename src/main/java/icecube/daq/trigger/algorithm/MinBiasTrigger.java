@@ -30,6 +30,7 @@ import org.apache.log4j.Logger;
  */
 public class MinBiasTrigger
     extends AbstractTrigger
+    implements InlineAlgorithm
 {
     /** Log object for this class */
     private static final Logger LOG = Logger.getLogger(MinBiasTrigger.class);
@@ -149,6 +150,19 @@ public class MinBiasTrigger
         return configPrescale;
     }
 
+    /**
+     * Each trigger is formed from a single hit, so nothing is ever pending.
+     *
+     * @param utcTime proposed earliest time
+     *
+     * @return <tt>true</tt>
+     */
+    @Override
+    protected boolean isIdle(long utcTime)
+    {
+        return true;
+    }
+
     /**
      * Run the trigger algorithm on a payload.
      *
@@ -32,6 +32,7 @@ import org.apache.log4j.Logger;
  */
 public class PhysicsMinBiasTrigger
     extends AbstractTrigger
+    implements InlineAlgorithm
 {
     /** Log object for this class */
     private static final Logger LOG =
@@ -144,6 +145,20 @@ public class PhysicsMinBiasTrigger
         return (configPrescale && configDeadtime);
     }
 
+    /**
+     * Hits outside the deadtime window are reported immediately, so no
+     * trigger is ever pending.
+     *
+     * @param utcTime proposed earliest time
+     *
+     * @return <tt>true</tt>
+     */
+    @Override
+    protected boolean isIdle(long utcTime)
+    {
+        return true;
+    }
+
     /**
      * Run the trigger algorithm on a payload.
      *
@@ -270,6 +270,19 @@ public final class SimpleMajorityTrigger
         return (configThreshold && configTimeWindow);
     }
 
+    /**
+     * Is there nothing in the sliding window or the trigger window?
+     *
+     * @param utcTime proposed earliest time
+     *
+     * @return <tt>true</tt> if no trigger is being built
+     */
+    @Override
+    protected boolean isIdle(long utcTime)
+    {
+        return slidingTimeWindow.size() == 0 && !haveTrigger();
+    }
+
     /**
      * Run the trigger algorithm on a payload.
      *
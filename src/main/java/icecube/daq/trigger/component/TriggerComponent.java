@@ -22,10 +22,13 @@ import icecube.daq.splicer.SpliceableFactory;
 import icecube.daq.splicer.Splicer;
 import icecube.daq.splicer.SplicerException;
 import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+import icecube.daq.trigger.config.ConfigSnapshot;
 import icecube.daq.trigger.config.DomSetFactory;
 import icecube.daq.trigger.config.TriggerCreator;
 import icecube.daq.trigger.control.ITriggerManager;
+import icecube.daq.trigger.control.MetricsServer;
 import icecube.daq.trigger.control.TriggerManager;
+import icecube.daq.trigger.control.WarmUp;
 import icecube.daq.trigger.exceptions.TriggerException;
 import icecube.daq.util.DOMRegistryFactory;
 import icecube.daq.util.IDOMRegistry;
@@ -36,12 +39,36 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.log4j.Logger;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
+/**
+ * Load the DOM registry.
+ */
+class RegistryLoader
+    implements Callable<IDOMRegistry>
+{
+    private File configDir;
+
+    RegistryLoader(File configDir)
+    {
+        this.configDir = configDir;
+    }
+
+    @Override
+    public IDOMRegistry call()
+        throws Exception
+    {
+        return DOMRegistryFactory.load(configDir);
+    }
+}
+
 /**
  * Base class for trigger handlers.
  */
@@ -59,6 +86,8 @@ public class TriggerComponent
     private ISourceID sourceId;
 
     private TriggerManager triggerManager;
+    /** If non-null, serves trigger metrics in Prometheus format */
+    private MetricsServer metricsServer;
 
     private IByteBufferCache inCache;
     private IByteBufferCache outCache;
@@ -131,6 +160,9 @@ public class TriggerComponent
         triggerManager = new TriggerManager(sourceId, outCache);
         addMBean("manager", triggerManager);
 
+        metricsServer =
+            MetricsServer.create(triggerManager.getMetricsRegistry());
+
         // Create splicer and introduce it to the trigger manager
         SpliceableComparator splCmp =
             new SpliceableComparator(LAST_SPLICEABLE);
@@ -182,6 +214,13 @@ public class TriggerComponent
         inputEngine.destroyProcessor();
         outputEngine.destroyProcessor();
 
+        triggerManager.closePipeline();
+
+        if (metricsServer != null) {
+            metricsServer.stop();
+            metricsServer = null;
+        }
+
         super.closeAll();
     }
 
@@ -202,15 +241,12 @@ public class TriggerComponent
                                        " not been set");
         }
 
-        // Initialize DOMRegistry
-        IDOMRegistry registry;
-        try {
-            registry = DOMRegistryFactory.load(configDir);
-            LOG.info("loaded DOM registry");
-        } catch (Exception ex) {
-            throw new DAQCompException("Error loading DOM registry", ex);
-        }
-        triggerManager.setDOMRegistry(registry);
+        // load the DOM registry while the configuration files are parsed
+        FutureTask<IDOMRegistry> registryTask =
+            new FutureTask<IDOMRegistry>(new RegistryLoader(configDir));
+        Thread registryThread = new Thread(registryTask, "RegistryLoader");
+        registryThread.setDaemon(true);
+        registryThread.start();
 
         // Inform DomSetFactory of the configuration directory location
         try {
@@ -253,13 +289,32 @@ public class TriggerComponent
             throw new DAQCompException("Source ID has not been set");
         }
 
-        Document tcDoc;
+        ConfigSnapshot snapshot;
         try {
-            tcDoc = JAXPUtil.loadXMLDocument(trigCfgDir, tcName);
-        } catch (JAXPUtilException jux) {
-            throw new DAQCompException(jux);
+            snapshot = ConfigSnapshot.get(trigCfgDir, tcName);
+        } catch (TriggerException te) {
+            throw new DAQCompException("Cannot load trigger configuration " +
+                                       trigCfgDir + "/" + tcName, te);
         }
 
+        // DomSets are resolved while building triggers, so the registry
+        //  must be loaded first
+        IDOMRegistry registry;
+        try {
+            registry = registryTask.get();
+            LOG.info("loaded DOM registry");
+        } catch (ExecutionException ee) {
+            final String errMsg = "Error loading DOM registry";
+            if (ee.getCause() instanceof Exception) {
+                throw new DAQCompException(errMsg, (Exception) ee.getCause());
+            }
+            throw new DAQCompException(errMsg, ee);
+        } catch (InterruptedException ie) {
+            throw new DAQCompException("Interrupted while loading DOM" +
+                                       " registry", ie);
+        }
+        triggerManager.setDOMRegistry(registry);
+
         // initialize algorithm list
         algorithms = new ArrayList<ITriggerAlgorithm>();
 
@@ -275,7 +330,7 @@ public class TriggerComponent
         }
 
         try {
-            TriggerCreator.buildTriggers(tcDoc, sourceId.getSourceID(),
+            TriggerCreator.buildTriggers(snapshot, sourceId.getSourceID(),
                                          algorithms, extraAlgorithms);
         } catch (TriggerException te) {
             throw new DAQCompException("Cannot build triggers in " +
@@ -296,6 +351,16 @@ public class TriggerComponent
         if (extraAlgorithms != null) {
             triggerManager.addExtraAlgorithms(extraAlgorithms);
         }
+
+        // JIT-compile the algorithms on throwaway copies before the run
+        WarmUp warmUp = WarmUp.create(sourceId);
+        if (warmUp != null) {
+            try {
+                warmUp.run(snapshot, registry);
+            } catch (Throwable thr) {
+                LOG.error("Cannot warm up " + tcName + " algorithms", thr);
+            }
+        }
     }
 
     /**
@@ -503,6 +568,8 @@ public class TriggerComponent
         if (isGlobalTrigger) {
             triggerManager.sendFinalMoni();
         }
+
+        triggerManager.sendThreadUsage();
     }
 
     /**
@@ -0,0 +1,603 @@
+package icecube.daq.trigger.config;
+
+import icecube.daq.trigger.exceptions.ConfigException;
+import icecube.daq.trigger.exceptions.TriggerException;
+import icecube.daq.util.JAXPUtil;
+import icecube.daq.util.JAXPUtilException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Compiled form of a trigger configuration file.  Every
+ * <tt>triggerConfig</tt> entry is reduced to its name, IDs, parameters and
+ * readouts, so algorithms can be built without touching the XML.
+ *
+ * Snapshots are keyed by the SHA-1 hash of the trigger configuration file
+ * and kept in memory for the life of the component.  If
+ * <tt>icecube.daq.trigger.snapshot-dir</tt> is set, they are also written
+ * to that directory as compact binary files so a restarted component can
+ * skip the XML parse as well.
+ */
+public class ConfigSnapshot
+{
+    /**
+     * Set this property to the directory used to store binary snapshots
+     */
+    public static final String DIR_PROPERTY =
+        "icecube.daq.trigger.snapshot-dir";
+
+    private static final Logger LOG = Logger.getLogger(ConfigSnapshot.class);
+
+    /** Snapshot file header */
+    private static final int MAGIC = 0x54524753;
+    /** Snapshot file format version */
+    private static final int VERSION = 1;
+
+    /** Previously loaded snapshots, keyed by hash */
+    private static HashMap<String, ConfigSnapshot> cache =
+        new HashMap<String, ConfigSnapshot>();
+
+    private String hash;
+    private List<TriggerDef> triggers;
+
+    /**
+     * Configuration for a single trigger algorithm.
+     */
+    public static final class TriggerDef
+    {
+        private String name;
+        private int configId;
+        private int type;
+        private int sourceId;
+        private String[] paramNames;
+        private String[] paramValues;
+        /** Readout type, offset, minus and plus values for each readout */
+        private int[] readouts;
+
+        TriggerDef(String name, int configId, int type, int sourceId,
+                   String[] paramNames, String[] paramValues, int[] readouts)
+        {
+            this.name = name;
+            this.configId = configId;
+            this.type = type;
+            this.sourceId = sourceId;
+            this.paramNames = paramNames;
+            this.paramValues = paramValues;
+            this.readouts = readouts;
+        }
+
+        public int getConfigId()
+        {
+            return configId;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public int getNumParameters()
+        {
+            return paramNames.length;
+        }
+
+        public int getNumReadouts()
+        {
+            return readouts.length / 4;
+        }
+
+        public String getParameterName(int idx)
+        {
+            return paramNames[idx];
+        }
+
+        public String getParameterValue(int idx)
+        {
+            return paramValues[idx];
+        }
+
+        public int getReadoutMinus(int idx)
+        {
+            return readouts[idx * 4 + 2];
+        }
+
+        public int getReadoutOffset(int idx)
+        {
+            return readouts[idx * 4 + 1];
+        }
+
+        public int getReadoutPlus(int idx)
+        {
+            return readouts[idx * 4 + 3];
+        }
+
+        public int getReadoutType(int idx)
+        {
+            return readouts[idx * 4];
+        }
+
+        public int getSourceId()
+        {
+            return sourceId;
+        }
+
+        public int getType()
+        {
+            return type;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + "#" + configId + "[type " + type + ", src " +
+                sourceId + ", " + paramNames.length + " params, " +
+                getNumReadouts() + " readouts]";
+        }
+    }
+
+    /**
+     * Create a snapshot.
+     *
+     * @param hash hash of the source configuration file
+     * @param triggers trigger definitions
+     */
+    ConfigSnapshot(String hash, List<TriggerDef> triggers)
+    {
+        this.hash = hash;
+        this.triggers = Collections.unmodifiableList(triggers);
+    }
+
+    /**
+     * Find the configuration file, adding a ".xml" suffix if needed.
+     *
+     * @param dir directory
+     * @param name file name (with or without trailing ".xml")
+     *
+     * @return configuration file
+     */
+    private static File findFile(File dir, String name)
+    {
+        File file = new File(dir, name);
+        if (!file.exists() && !name.endsWith(".xml")) {
+            file = new File(dir, name + ".xml");
+        }
+
+        return file;
+    }
+
+    /**
+     * Forget all snapshots loaded into memory.
+     */
+    static void clearCache()
+    {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Get the snapshot for a trigger configuration file.  The file is
+     * parsed only if no matching snapshot is found in memory or in the
+     * snapshot directory.
+     *
+     * @param dir trigger configuration directory
+     * @param name trigger configuration file name
+     *
+     * @return snapshot
+     *
+     * @throws TriggerException if the configuration cannot be loaded
+     */
+    public static ConfigSnapshot get(File dir, String name)
+        throws TriggerException
+    {
+        final File file = findFile(dir, name);
+
+        final String hash;
+        try {
+            hash = hash(file);
+        } catch (IOException ioe) {
+            throw new ConfigException("Cannot read trigger configuration " +
+                                      file, ioe);
+        }
+
+        synchronized (cache) {
+            ConfigSnapshot snap = cache.get(hash);
+            if (snap != null) {
+                return snap;
+            }
+        }
+
+        final File snapFile = getSnapshotFile(hash);
+
+        ConfigSnapshot snap = null;
+        if (snapFile != null && snapFile.exists()) {
+            try {
+                snap = read(snapFile, hash);
+            } catch (IOException ioe) {
+                LOG.error("Ignoring bad trigger snapshot " + snapFile, ioe);
+            }
+        }
+
+        if (snap == null) {
+            Document doc;
+            try {
+                doc = JAXPUtil.loadXMLDocument(dir, name);
+            } catch (JAXPUtilException jux) {
+                throw new ConfigException(jux);
+            }
+
+            snap = parse(doc, hash);
+
+            if (snapFile != null) {
+                try {
+                    snap.write(snapFile);
+                } catch (IOException ioe) {
+                    LOG.error("Cannot write trigger snapshot " + snapFile,
+                              ioe);
+                }
+            }
+        }
+
+        synchronized (cache) {
+            cache.put(hash, snap);
+        }
+
+        return snap;
+    }
+
+    private static String getElementText(Node n, String tag)
+    {
+        if (n.getNodeType() != Node.ELEMENT_NODE) {
+            return null;
+        }
+
+        NodeList list = ((Element) n).getElementsByTagName(tag);
+        if (list.getLength() == 0) {
+            return null;
+        }
+
+        String val = "";
+        for (int i = 0; i < list.getLength(); i++) {
+            val += list.item(i).getTextContent();
+        }
+
+        return val;
+    }
+
+    /**
+     * Get the hash of the source configuration file.
+     *
+     * @return hex-encoded SHA-1 hash
+     */
+    public String getHash()
+    {
+        return hash;
+    }
+
+    /**
+     * Get the snapshot file for a hash.
+     *
+     * @param hash configuration hash
+     *
+     * @return snapshot file (or <tt>null</tt> if snapshots are not saved)
+     */
+    private static File getSnapshotFile(String hash)
+    {
+        final String dirName = System.getProperty(DIR_PROPERTY);
+        if (dirName == null) {
+            return null;
+        }
+
+        File dir = new File(dirName);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            LOG.error("Cannot create trigger snapshot directory " + dir);
+            return null;
+        }
+
+        return new File(dir, "trigger-" + hash + ".snap");
+    }
+
+    /**
+     * Get the trigger definitions.
+     *
+     * @return list of trigger definitions
+     */
+    public List<TriggerDef> getTriggers()
+    {
+        return triggers;
+    }
+
+    /**
+     * Compute the SHA-1 hash of a file.
+     *
+     * @param file file
+     *
+     * @return hex-encoded hash
+     *
+     * @throws IOException if the file cannot be read
+     */
+    public static String hash(File file)
+        throws IOException
+    {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new Error("SHA-1 is not available", nsae);
+        }
+
+        // include the format version so old snapshots are never reused
+        md.update((byte) VERSION);
+        md.update(Files.readAllBytes(file.toPath()));
+
+        StringBuilder buf = new StringBuilder(40);
+        for (byte b : md.digest()) {
+            buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+            buf.append(Character.forDigit(b & 0xf, 16));
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Parse a single integer value.
+     *
+     * @param trigName trigger name
+     * @param tag XML tag
+     * @param str string value
+     *
+     * @return integer value
+     *
+     * @throws ConfigException if the value is not a valid integer
+     */
+    private static int parseInt(String trigName, String tag, String str)
+        throws ConfigException
+    {
+        try {
+            return Integer.parseInt(str);
+        } catch (NumberFormatException nfe) {
+            throw new ConfigException("Bad <" + tag + "> value \"" + str +
+                                      "\" for trigger " + trigName);
+        }
+    }
+
+    /**
+     * Compile a trigger configuration document.
+     *
+     * @param doc trigger configuration
+     * @param hash hash of the source file (may be <tt>null</tt>)
+     *
+     * @return snapshot
+     *
+     * @throws TriggerException if the document cannot be parsed
+     */
+    public static ConfigSnapshot parse(Document doc, String hash)
+        throws TriggerException
+    {
+        NodeList nodeList;
+        try {
+            nodeList =
+                JAXPUtil.extractNodeList(doc, "activeTriggers/triggerConfig");
+        } catch (JAXPUtilException jux) {
+            throw new TriggerException(jux);
+        }
+
+        ArrayList<TriggerDef> list = new ArrayList<TriggerDef>();
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Node n = nodeList.item(i);
+
+            String name = getElementText(n, "triggerName");
+
+            int srcId = parseInt(name, "sourceId",
+                                 getElementText(n, "sourceId"));
+            int cfgId = parseInt(name, "triggerConfigId",
+                                 getElementText(n, "triggerConfigId"));
+            int trigType = parseInt(name, "triggerType",
+                                    getElementText(n, "triggerType"));
+
+            NodeList paramList;
+            try {
+                paramList = JAXPUtil.extractNodeList(n, "parameterConfig");
+            } catch (JAXPUtilException jux) {
+                throw new TriggerException(jux);
+            }
+
+            String[] pnames = new String[paramList.getLength()];
+            String[] pvals = new String[paramList.getLength()];
+            for (int j = 0; j < paramList.getLength(); j++) {
+                Node pnode = paramList.item(j);
+
+                pnames[j] = getElementText(pnode, "parameterName");
+                pvals[j] = getElementText(pnode, "parameterValue");
+            }
+
+            NodeList rdoutList;
+            try {
+                rdoutList = JAXPUtil.extractNodeList(n, "readoutConfig");
+            } catch (JAXPUtilException jux) {
+                throw new TriggerException(jux);
+            }
+
+            int[] readouts = new int[rdoutList.getLength() * 4];
+            for (int j = 0; j < rdoutList.getLength(); j++) {
+                Node rnode = rdoutList.item(j);
+
+                readouts[j * 4] =
+                    parseInt(name, "readoutType",
+                             getElementText(rnode, "readoutType"));
+                readouts[j * 4 + 1] =
+                    parseInt(name, "timeOffset",
+                             getElementText(rnode, "timeOffset"));
+                readouts[j * 4 + 2] =
+                    parseInt(name, "timeMinus",
+                             getElementText(rnode, "timeMinus"));
+                readouts[j * 4 + 3] =
+                    parseInt(name, "timePlus",
+                             getElementText(rnode, "timePlus"));
+            }
+
+            list.add(new TriggerDef(name, cfgId, trigType, srcId, pnames,
+                                    pvals, readouts));
+        }
+
+        return new ConfigSnapshot(hash, list);
+    }
+
+    /**
+     * Read a binary snapshot.
+     *
+     * @param file snapshot file
+     * @param hash expected hash
+     *
+     * @return snapshot
+     *
+     * @throws IOException if the file cannot be read or does not match
+     */
+    static ConfigSnapshot read(File file, String hash)
+        throws IOException
+    {
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new
+                                                    FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Bad snapshot header");
+            }
+
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " +
+                                      version);
+            }
+
+            final String fileHash = in.readUTF();
+            if (!fileHash.equals(hash)) {
+                throw new IOException("Snapshot hash " + fileHash +
+                                      " does not match " + hash);
+            }
+
+            final int num = in.readInt();
+            ArrayList<TriggerDef> list = new ArrayList<TriggerDef>(num);
+            for (int i = 0; i < num; i++) {
+                String name = readString(in);
+                int cfgId = in.readInt();
+                int type = in.readInt();
+                int srcId = in.readInt();
+
+                final int numParams = in.readInt();
+                String[] pnames = new String[numParams];
+                String[] pvals = new String[numParams];
+                for (int j = 0; j < numParams; j++) {
+                    pnames[j] = readString(in);
+                    pvals[j] = readString(in);
+                }
+
+                int[] readouts = new int[in.readInt() * 4];
+                for (int j = 0; j < readouts.length; j++) {
+                    readouts[j] = in.readInt();
+                }
+
+                list.add(new TriggerDef(name, cfgId, type, srcId, pnames,
+                                        pvals, readouts));
+            }
+
+            return new ConfigSnapshot(hash, list);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String readString(DataInputStream in)
+        throws IOException
+    {
+        if (!in.readBoolean()) {
+            return null;
+        }
+
+        return in.readUTF();
+    }
+
+    /**
+     * Write this snapshot.  The data is written to a temporary file which
+     * is then renamed, so readers never see a partial snapshot.
+     *
+     * @param file snapshot file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    void write(File file)
+        throws IOException
+    {
+        File tmpFile = new File(file.getPath() + ".tmp");
+
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new
+                                                FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(hash);
+
+            out.writeInt(triggers.size());
+            for (TriggerDef def : triggers) {
+                writeString(out, def.name);
+                out.writeInt(def.configId);
+                out.writeInt(def.type);
+                out.writeInt(def.sourceId);
+
+                out.writeInt(def.paramNames.length);
+                for (int j = 0; j < def.paramNames.length; j++) {
+                    writeString(out, def.paramNames[j]);
+                    writeString(out, def.paramValues[j]);
+                }
+
+                out.writeInt(def.getNumReadouts());
+                for (int j = 0; j < def.readouts.length; j++) {
+                    out.writeInt(def.readouts[j]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        Files.move(tmpFile.toPath(), file.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeString(DataOutputStream out, String str)
+        throws IOException
+    {
+        out.writeBoolean(str != null);
+        if (str != null) {
+            out.writeUTF(str);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ConfigSnapshot[" + hash + ": " + triggers + "]";
+    }
+}
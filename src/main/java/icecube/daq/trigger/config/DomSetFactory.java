@@ -9,6 +9,8 @@ import icecube.daq.util.JAXPUtilException;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
 
@@ -24,6 +26,12 @@ import org.w3c.dom.NodeList;
 
 /**
  * Configuration file utility
+ *
+ * DomSet definition files are parsed once and cached, along with every
+ * DomSet built from them, so algorithms which use the same DomSet share a
+ * single instance.  A cached file is reloaded if its modification time or
+ * size changes, or if the configuration directory or DOM registry is
+ * changed.
  */
 public abstract class DomSetFactory
 {
@@ -46,6 +54,113 @@ public abstract class DomSetFactory
     /** DOMRegistry */
     private static IDOMRegistry domRegistry;
 
+    /** Parsed definition files, keyed by file name */
+    private static HashMap<String, Definitions> cache =
+        new HashMap<String, Definitions>();
+
+    /**
+     * Parsed contents of a single DomSet definitions file.
+     */
+    private static final class Definitions
+    {
+        private File file;
+        private long lastModified;
+        private long length;
+        private IDOMRegistry registry;
+
+        /** DomSet elements keyed by ID (first definition wins) */
+        private HashMap<Integer, Element> byId =
+            new HashMap<Integer, Element>();
+        /** DomSet elements keyed by name (first definition wins) */
+        private HashMap<String, Element> byName =
+            new HashMap<String, Element>();
+        /** DomSets which have already been built */
+        private IdentityHashMap<Element, DomSet> compiled =
+            new IdentityHashMap<Element, DomSet>();
+
+        Definitions(File file, IDOMRegistry registry)
+        {
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+            this.registry = registry;
+        }
+
+        /**
+         * Add all DomSet elements from a definitions document.
+         *
+         * @param nodeList list of <tt>domset</tt> nodes
+         */
+        void addAll(NodeList nodeList)
+        {
+            for (int i = 0; i < nodeList.getLength(); i++) {
+                Node n = nodeList.item(i);
+
+                if (n.getNodeType() != Node.ELEMENT_NODE) {
+                    continue;
+                }
+
+                Element elem = (Element) n;
+
+                final String name = elem.getAttribute("name");
+                if (!byName.containsKey(name)) {
+                    byName.put(name, elem);
+                }
+
+                int dsid;
+                try {
+                    dsid = Integer.parseInt(elem.getAttribute("id"));
+                } catch (NumberFormatException nfe) {
+                    LOG.error("Ignoring bad DomSet ID \"" +
+                              elem.getAttribute("id") + "\"");
+                    continue;
+                }
+
+                if (!byId.containsKey(dsid)) {
+                    byId.put(dsid, elem);
+                }
+            }
+        }
+
+        /**
+         * Get the DomSet for an element, building it if necessary.
+         *
+         * @param elem DomSet element
+         *
+         * @return DomSet (or <tt>null</tt> if the DOM registry is not set)
+         *
+         * @throws ConfigException if there is a problem
+         */
+        DomSet get(Element elem)
+            throws ConfigException
+        {
+            DomSet domSet = compiled.get(elem);
+            if (domSet == null) {
+                domSet = loadDomSet(elem.getAttribute("name"), elem);
+                if (domSet != null) {
+                    compiled.put(elem, domSet);
+                }
+            }
+
+            return domSet;
+        }
+
+        /**
+         * Is this cached data still valid?
+         *
+         * @param curFile current definitions file
+         * @param curRegistry current DOM registry
+         *
+         * @return <tt>true</tt> if the file and registry have not changed
+         */
+        boolean isCurrent(File curFile, IDOMRegistry curRegistry)
+        {
+            return file.equals(curFile) && registry == curRegistry &&
+                curFile.lastModified() == lastModified &&
+                curFile.length() == length;
+        }
+    }
+
     /**
      * Add all DOMs from <tt>hub</tt> within the range
      * [<tt>low</tt>-<tt>high</tt>] to the DOM set.
@@ -102,51 +217,16 @@ public abstract class DomSetFactory
             throw new ConfigException("DOM registry has not been set");
         }
 
-        String realname;
-        if (filename == null) {
-            realname = DOMSET_DEFS_FILE;
-        } else {
-            realname = filename;
-        }
+        synchronized (cache) {
+            Definitions defs = getDefinitions(filename);
 
-        Document doc;
-        try {
-            doc = JAXPUtil.loadXMLDocument(triggerConfigDir, realname);
-        } catch (JAXPUtilException jux) {
-            throw new ConfigException(jux);
-        }
-
-        NodeList nodeList;
-        try {
-            nodeList = JAXPUtil.extractNodeList(doc, "//domsets/domset");
-        } catch (JAXPUtilException jux) {
-            throw new ConfigException(jux);
-        }
-
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node n = nodeList.item(i);
-
-            if (n.getNodeType() != Node.ELEMENT_NODE) {
-                continue;
+            Element elem = defs.byId.get(id);
+            if (elem == null) {
+                throw new ConfigException("Cannot find DomSet #" + id);
             }
 
-            Element elem = (Element) n;
-
-            int dsid;
-            try {
-                dsid = Integer.parseInt(elem.getAttribute("id"));
-            } catch (NumberFormatException nfe) {
-                LOG.error("Ignoring bad DomSet ID \"" +
-                          elem.getAttribute("id") + "\"");
-                continue;
-            }
-
-            if (dsid == id) {
-                return loadDomSet(elem.getAttribute("name"), n);
-            }
+            return defs.get(elem);
         }
-
-        throw new ConfigException("Cannot find DomSet #" + id);
     }
 
     /**
@@ -186,6 +266,34 @@ public abstract class DomSetFactory
                                       " has not been set");
         }
 
+        synchronized (cache) {
+            Definitions defs = getDefinitions(filename);
+
+            Element elem = defs.byName.get(name);
+            if (elem == null) {
+                throw new ConfigException("Cannot find DomSet \"" + name +
+                                          "\"");
+            }
+
+            return defs.get(elem);
+        }
+    }
+
+    /**
+     * Get the parsed contents of a DomSet definitions file, loading the
+     * file if it has not been loaded or has changed.
+     * The caller must hold the <tt>cache</tt> lock.
+     *
+     * @param filename name of XML file containing DomSet definitions
+     *                 (if <tt>null</tt>, use the default file)
+     *
+     * @return parsed definitions
+     *
+     * @throws ConfigException if the file cannot be loaded
+     */
+    private static Definitions getDefinitions(String filename)
+        throws ConfigException
+    {
         String realname;
         if (filename == null) {
             realname = DOMSET_DEFS_FILE;
@@ -193,6 +301,16 @@ public abstract class DomSetFactory
             realname = filename;
         }
 
+        final File file = new File(triggerConfigDir, realname);
+
+        Definitions defs = cache.get(realname);
+        if (defs != null && defs.isCurrent(file, domRegistry)) {
+            return defs;
+        }
+
+        // note file details before parsing so later changes are noticed
+        defs = new Definitions(file, domRegistry);
+
         Document doc;
         try {
             doc = JAXPUtil.loadXMLDocument(triggerConfigDir, realname);
@@ -207,21 +325,11 @@ public abstract class DomSetFactory
             throw new ConfigException(jux);
         }
 
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node n = nodeList.item(i);
-
-            if (n.getNodeType() != Node.ELEMENT_NODE) {
-                continue;
-            }
-
-            Element elem = (Element) n;
+        defs.addAll(nodeList);
 
-            if (name.equals(elem.getAttribute("name"))) {
-                return loadDomSet(name, n);
-            }
-        }
+        cache.put(realname, defs);
 
-        throw new ConfigException("Cannot find DomSet \"" + name + "\"");
+        return defs;
     }
 
     private static DomSet loadDomSet(String name, Node topNode)
@@ -517,6 +625,16 @@ public abstract class DomSetFactory
         return values;
     }
 
+    /**
+     * Forget all cached DomSet definitions.
+     */
+    public static void clearCache()
+    {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
     /**
      * Translate a string like "1,3,7-9,17" into a list of Integers.
      * @param name DomSet name
@@ -600,6 +718,10 @@ public abstract class DomSetFactory
                                           "\" does not exist");
             }
 
+            if (!tmpDir.equals(triggerConfigDir)) {
+                clearCache();
+            }
+
             triggerConfigDir = tmpDir;
         }
     }
@@ -611,6 +733,10 @@ public abstract class DomSetFactory
      */
     public static void setDomRegistry(IDOMRegistry dr)
     {
+        if (dr != domRegistry) {
+            clearCache();
+        }
+
         domRegistry = dr;
     }
 }
@@ -3,15 +3,10 @@ package icecube.daq.trigger.config;
 import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
 import icecube.daq.trigger.exceptions.ConfigException;
 import icecube.daq.trigger.exceptions.TriggerException;
-import icecube.daq.util.JAXPUtil;
-import icecube.daq.util.JAXPUtilException;
 
 import java.util.List;
 
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  * Create and configure all trigger algorithm objects.
@@ -31,25 +26,33 @@ public abstract class TriggerCreator
                                      List<ITriggerAlgorithm> extraList)
         throws TriggerException
     {
-        NodeList nodeList;
-        try {
-            nodeList =
-                JAXPUtil.extractNodeList(doc, "activeTriggers/triggerConfig");
-        } catch (JAXPUtilException jux) {
-            throw new TriggerException(jux);
-        }
-
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node n = nodeList.item(i);
+        buildTriggers(ConfigSnapshot.parse(doc, null), compId, trigList,
+                      extraList);
+    }
 
-            int srcId = Integer.parseInt(getElementText(n, "sourceId"));
+    /**
+     * Build and configure all the trigger algorithms in a compiled
+     * configuration.
+     *
+     * @param snap compiled trigger configuration
+     * @param compId component source ID
+     *
+     * @throws TriggerException if there is a problem
+     */
+    public static void buildTriggers(ConfigSnapshot snap, int compId,
+                                     List<ITriggerAlgorithm> trigList,
+                                     List<ITriggerAlgorithm> extraList)
+        throws TriggerException
+    {
+        for (ConfigSnapshot.TriggerDef def : snap.getTriggers()) {
+            final int srcId = def.getSourceId();
             if (compId != srcId && extraList == null) {
                 // this algorithm is for a different trigger handler;
                 //  if we don't want to save all configured algorithms, skip it
                 continue;
             }
 
-            String name = getElementText(n, "triggerName");
+            String name = def.getName();
 
             ITriggerAlgorithm trig;
             try {
@@ -62,49 +65,20 @@ public abstract class TriggerCreator
             }
 
             trig.setTriggerName(name);
-
-            int cfgId = Integer.parseInt(getElementText(n, "triggerConfigId"));
-            trig.setTriggerConfigId(cfgId);
-
-            int trigType = Integer.parseInt(getElementText(n, "triggerType"));
-            trig.checkTriggerType(trigType);
-
+            trig.setTriggerConfigId(def.getConfigId());
+            trig.checkTriggerType(def.getType());
             trig.setSourceId(srcId);
 
-            NodeList paramList;
-            try {
-                paramList = JAXPUtil.extractNodeList(n, "parameterConfig");
-            } catch (JAXPUtilException jux) {
-                throw new TriggerException(jux);
+            for (int j = 0; j < def.getNumParameters(); j++) {
+                trig.addParameter(def.getParameterName(j),
+                                  def.getParameterValue(j));
             }
 
-            for (int j = 0; j < paramList.getLength(); j++) {
-                Node pnode = paramList.item(j);
-
-                String pname = getElementText(pnode, "parameterName");
-                String pval = getElementText(pnode, "parameterValue");
-                trig.addParameter(pname, pval);
-            }
-
-            NodeList rdoutList;
-            try {
-                rdoutList = JAXPUtil.extractNodeList(n, "readoutConfig");
-            } catch (JAXPUtilException jux) {
-                throw new TriggerException(jux);
-            }
-
-            for (int j = 0; j < rdoutList.getLength(); j++) {
-                Node rnode = rdoutList.item(j);
-
-                int rtype = Integer.parseInt(getElementText(rnode,
-                                                            "readoutType"));
-                int roff = Integer.parseInt(getElementText(rnode,
-                                                           "timeOffset"));
-                int rminus = Integer.parseInt(getElementText(rnode,
-                                                             "timeMinus"));
-                int rplus = Integer.parseInt(getElementText(rnode,
-                                                            "timePlus"));
-                trig.addReadout(rtype, roff, rminus, rplus);
+            for (int j = 0; j < def.getNumReadouts(); j++) {
+                trig.addReadout(def.getReadoutType(j),
+                                def.getReadoutOffset(j),
+                                def.getReadoutMinus(j),
+                                def.getReadoutPlus(j));
             }
 
             if (!trig.isConfigured()) {
@@ -119,23 +93,4 @@ public abstract class TriggerCreator
             }
         }
     }
-
-    private static String getElementText(Node n, String tag)
-    {
-        if (n.getNodeType() != Node.ELEMENT_NODE) {
-            return null;
-        }
-
-        NodeList list = ((Element) n).getElementsByTagName(tag);
-        if (list.getLength() == 0) {
-            return null;
-        }
-
-        String val = "";
-        for (int i = 0; i < list.getLength(); i++) {
-            val += list.item(i).getTextContent();
-        }
-
-        return val;
-    }
 }
@@ -0,0 +1,90 @@
+package icecube.daq.trigger.control;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Latency histograms for a single trigger algorithm.
+ */
+public class AlgorithmLatency
+{
+    /** Time a hit waits in the algorithm's input subscriber */
+    private LatencyHistogram queueWait = new LatencyHistogram();
+    /** Time spent inside <tt>runTrigger()</tt> for each hit */
+    private LatencyHistogram serviceTime = new LatencyHistogram();
+    /** Time a request is cached before it is released to the collector */
+    private LatencyHistogram requestHold = new LatencyHistogram();
+
+    /**
+     * Add the percentiles for all histograms to a map, with each entry name
+     * prefixed by <tt>prefix</tt>.
+     *
+     * @param map map to fill
+     * @param prefix prefix for each entry name
+     */
+    public void addPercentiles(Map<String, Long> map, String prefix)
+    {
+        queueWait.addPercentiles(map, prefix + "queueWait.");
+        serviceTime.addPercentiles(map, prefix + "serviceTime.");
+        requestHold.addPercentiles(map, prefix + "requestHold.");
+    }
+
+    /**
+     * Get the percentiles (in microseconds) for all histograms.
+     *
+     * @return map of names to values
+     */
+    public Map<String, Long> getPercentiles()
+    {
+        HashMap<String, Long> map = new HashMap<String, Long>();
+        addPercentiles(map, "");
+        return map;
+    }
+
+    /**
+     * Get the input queue wait histogram.
+     *
+     * @return histogram
+     */
+    public LatencyHistogram getQueueWait()
+    {
+        return queueWait;
+    }
+
+    /**
+     * Get the request hold time histogram.
+     *
+     * @return histogram
+     */
+    public LatencyHistogram getRequestHold()
+    {
+        return requestHold;
+    }
+
+    /**
+     * Get the <tt>runTrigger()</tt> service time histogram.
+     *
+     * @return histogram
+     */
+    public LatencyHistogram getServiceTime()
+    {
+        return serviceTime;
+    }
+
+    /**
+     * Clear all histograms.
+     */
+    public void reset()
+    {
+        queueWait.reset();
+        serviceTime.reset();
+        requestHold.reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AlgorithmLatency[wait " + queueWait + ", service " +
+            serviceTime + ", hold " + requestHold + "]";
+    }
+}
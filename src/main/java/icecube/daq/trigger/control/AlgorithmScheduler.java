@@ -0,0 +1,532 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.payload.IPayload;
+import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Run trigger algorithms as tasks on a fixed-size work-stealing pool
+ * instead of giving each algorithm its own thread.
+ *
+ * Each algorithm has a single task which is either idle or scheduled, so
+ * an algorithm never runs on two pool threads at once and its input is
+ * always processed in order.  A task handles a bounded batch of payloads
+ * before giving its pool thread back, and is rescheduled whenever new
+ * input is pushed to the subscribed list.
+ *
+ * The collector can only release requests up to the earliest time of
+ * interest across all algorithms, so the algorithm which is furthest
+ * behind sets the latency of the output stream.  If the critical-path
+ * policy is enabled, ready tasks are not run in FIFO order; instead each
+ * free pool thread runs the ready algorithm with the lowest watermark.
+ */
+public class AlgorithmScheduler
+    implements Runnable
+{
+    /**
+     * Set this property to the number of pool threads used to run the
+     * algorithms (each algorithm gets its own thread if this is not set)
+     */
+    public static final String THREADS_PROPERTY =
+        "icecube.daq.trigger.scheduler-threads";
+    /**
+     * Set this property to <tt>true</tt> to run the ready algorithm with
+     * the lowest watermark first
+     */
+    public static final String CRITICAL_PATH_PROPERTY =
+        "icecube.daq.trigger.scheduler-critical-path";
+
+    /** Maximum number of payloads handled before a task yields */
+    static final int BATCH_SIZE = 256;
+
+    private static final Logger LOG =
+        Logger.getLogger(AlgorithmScheduler.class);
+
+    private ForkJoinPool pool;
+    private AlgorithmTask[] tasks;
+
+    /**
+     * If non-null, scheduled tasks wait here and are run in watermark
+     * order by the dispatcher
+     */
+    private ArrayList<AlgorithmTask> ready;
+    /** Runs the most critical ready task */
+    private Runnable dispatcher;
+
+    /** If non-null, sampled hits are traced through the trigger */
+    private HitTracer tracer;
+
+    /**
+     * Create a scheduler.
+     *
+     * @param algorithms algorithms to run
+     * @param numThreads number of pool threads
+     */
+    public AlgorithmScheduler(List<ITriggerAlgorithm> algorithms,
+                              int numThreads)
+    {
+        this(algorithms, numThreads, false);
+    }
+
+    /**
+     * Create a scheduler.
+     *
+     * @param algorithms algorithms to run
+     * @param numThreads number of pool threads
+     * @param criticalPath if <tt>true</tt>, run the ready algorithm with
+     *                     the lowest watermark first
+     */
+    public AlgorithmScheduler(List<ITriggerAlgorithm> algorithms,
+                              int numThreads, boolean criticalPath)
+    {
+        if (numThreads <= 0) {
+            throw new Error("Bad number of scheduler threads " + numThreads);
+        }
+
+        tasks = new AlgorithmTask[algorithms.size()];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new AlgorithmTask(algorithms.get(i));
+        }
+
+        if (criticalPath) {
+            ready = new ArrayList<AlgorithmTask>(tasks.length);
+            dispatcher = new Dispatcher();
+        }
+
+        // FIFO mode suits event-style tasks which are never joined
+        pool = new ForkJoinPool(numThreads, new SchedulerThreadFactory(),
+                                null, true);
+    }
+
+    /**
+     * Create a scheduler if one has been requested.
+     *
+     * @param algorithms algorithms to run
+     *
+     * @return new scheduler or <tt>null</tt> if each algorithm should
+     *         get its own thread
+     */
+    public static AlgorithmScheduler create(List<ITriggerAlgorithm> algorithms)
+    {
+        final int numThreads = Integer.getInteger(THREADS_PROPERTY, 0);
+        if (numThreads <= 0) {
+            return null;
+        }
+
+        final boolean criticalPath =
+            Boolean.getBoolean(CRITICAL_PATH_PROPERTY);
+
+        return new AlgorithmScheduler(algorithms, numThreads, criticalPath);
+    }
+
+    /**
+     * Shut down the pool threads.
+     */
+    public void close()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * Get the number of times each algorithm had the lowest watermark when
+     * a task was dispatched.
+     *
+     * @return map of algorithm names to critical path counts (empty if the
+     *         critical-path policy is not enabled)
+     */
+    public Map<String, Long> getCriticalPathCounts()
+    {
+        HashMap<String, Long> map = new HashMap<String, Long>();
+        if (ready != null) {
+            synchronized (ready) {
+                for (AlgorithmTask task : tasks) {
+                    map.put(task.algorithm.getTriggerName(),
+                            task.numCritical);
+                }
+            }
+        }
+
+        return map;
+    }
+
+    /**
+     * Describe the algorithms which have not stopped.
+     *
+     * @return description of unstopped algorithms
+     */
+    String getDiagnostics()
+    {
+        StringBuilder buf = new StringBuilder();
+        for (AlgorithmTask task : tasks) {
+            if (!task.stopped) {
+                if (buf.length() > 0) {
+                    buf.append(", ");
+                }
+                buf.append(task);
+            }
+        }
+
+        return buf.append(" on ").append(pool).toString();
+    }
+
+    /**
+     * Get the number of pool threads.
+     *
+     * @return number of threads
+     */
+    public int getNumThreads()
+    {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Is the critical-path policy enabled?
+     *
+     * @return <tt>true</tt> if ready algorithms are run in watermark order
+     */
+    public boolean isCriticalPath()
+    {
+        return ready != null;
+    }
+
+    /**
+     * Have all algorithms stopped?
+     *
+     * @return <tt>true</tt> if every algorithm has seen the end of its input
+     */
+    public boolean isStopped()
+    {
+        for (AlgorithmTask task : tasks) {
+            if (!task.stopped) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Wait for all algorithms to see the end of their input.
+     *
+     * @param deadline <tt>System.currentTimeMillis()</tt> value after which
+     *                 we give up
+     *
+     * @return <tt>false</tt> if one or more algorithms did not stop
+     */
+    public synchronized boolean join(long deadline)
+    {
+        while (!isStopped()) {
+            final long millis = deadline - System.currentTimeMillis();
+            if (millis <= 0) {
+                return false;
+            }
+
+            try {
+                wait(millis);
+            } catch (InterruptedException ie) {
+                // ignore interrupts
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Wake every algorithm which has input waiting or has been stopped.
+     * This is registered as the subscribed list's push listener, so idle
+     * algorithms are left alone.
+     */
+    @Override
+    public void run()
+    {
+        for (AlgorithmTask task : tasks) {
+            PayloadSubscriber sub = task.algorithm.getSubscriber();
+            if (sub == null || sub.size() > 0 || sub.isStopped()) {
+                task.wake();
+            }
+        }
+    }
+
+    /**
+     * Set the tracer used to follow sampled hits.
+     *
+     * @param tracer hit tracer
+     */
+    void setHitTracer(HitTracer tracer)
+    {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Prepare all algorithms for a new run.
+     */
+    public void start()
+    {
+        for (AlgorithmTask task : tasks) {
+            task.reset();
+        }
+
+        wakeAll();
+    }
+
+    /**
+     * Tell all algorithms that no more input will arrive.
+     */
+    public void stop()
+    {
+        for (AlgorithmTask task : tasks) {
+            PayloadSubscriber sub = task.algorithm.getSubscriber();
+            if (sub == null) {
+                LOG.error(task.algorithm.toString() +
+                          " is not subscribed to any lists");
+            } else {
+                sub.stop();
+            }
+        }
+
+        run();
+    }
+
+    /**
+     * Signal that an algorithm has stopped.
+     */
+    private synchronized void taskStopped()
+    {
+        notifyAll();
+    }
+
+    /**
+     * Wake every algorithm, whether or not it has input waiting.
+     */
+    private void wakeAll()
+    {
+        for (AlgorithmTask task : tasks) {
+            task.wake();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AlgorithmScheduler[" + tasks.length + " algorithms, " +
+            pool.getParallelism() + " threads]";
+    }
+
+    /**
+     * Feed queued payloads to a single algorithm.
+     */
+    private final class AlgorithmTask
+        implements Runnable
+    {
+        private static final int IDLE = 0;
+        private static final int SCHEDULED = 1;
+
+        private final ITriggerAlgorithm algorithm;
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+        private final RateLimitedLog errorLog;
+
+        private volatile boolean stopped;
+        private long numSent;
+
+        /** Earliest time of interest after the most recent batch */
+        private volatile long watermark;
+        /** Number of dispatches where this had the lowest watermark */
+        private long numCritical;
+
+        AlgorithmTask(ITriggerAlgorithm algorithm)
+        {
+            this.algorithm = algorithm;
+
+            errorLog = new RateLimitedLog(LOG, algorithm.getTriggerName());
+        }
+
+        /**
+         * Note that the algorithm has seen the end of its input.
+         */
+        private void markStopped()
+        {
+            errorLog.report();
+            stopped = true;
+            taskStopped();
+        }
+
+        /**
+         * Clear per-run state.
+         */
+        void reset()
+        {
+            stopped = false;
+            numSent = 0;
+            watermark = 0L;
+
+            // the dispatcher updates this while holding the ready lock
+            if (ready == null) {
+                numCritical = 0;
+            } else {
+                synchronized (ready) {
+                    numCritical = 0;
+                }
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            final PayloadSubscriber sub = algorithm.getSubscriber();
+            if (sub == null) {
+                // if there's no subscriber, we're done
+                markStopped();
+                state.set(IDLE);
+                return;
+            }
+
+            final LatencyHistogram serviceTime =
+                algorithm.getAlgorithmLatency().getServiceTime();
+
+            for (int n = 0; n < BATCH_SIZE && sub.size() > 0; n++) {
+                IPayload pay = sub.pop();
+                if (tracer != null) {
+                    tracer.dequeued(pay);
+                }
+                if (pay == PayloadSubscriber.STOPPED_PAYLOAD) {
+                    if (!sub.isStopped()) {
+                        // miscoded subscriber, STOPPED_PAYLOAD means stopped
+                        LOG.error("Ignoring STOPPED_PAYLOAD for " +
+                                  algorithm.getTriggerName());
+                    } else {
+                        break;
+                    }
+                } else if (TriggerThread.dispatch(algorithm, pay, serviceTime,
+                                                  errorLog))
+                {
+                    numSent++;
+                }
+            }
+
+            if (ready != null) {
+                // read here since only the algorithm's thread may touch it
+                IPayload earliest = algorithm.getEarliestPayloadOfInterest();
+                watermark = (earliest == null ? 0L : earliest.getUTCTime());
+            }
+
+            if (sub.isStopped() && sub.size() == 0) {
+                markStopped();
+            }
+
+            state.set(IDLE);
+
+            // input may have arrived after the last check
+            if (sub.size() > 0) {
+                wake();
+            }
+        }
+
+        /**
+         * Schedule this task if it isn't already scheduled.
+         */
+        void wake()
+        {
+            if (!stopped && state.get() == IDLE &&
+                state.compareAndSet(IDLE, SCHEDULED))
+            {
+                try {
+                    if (ready == null) {
+                        pool.execute(this);
+                    } else {
+                        synchronized (ready) {
+                            ready.add(this);
+                        }
+                        pool.execute(dispatcher);
+                    }
+                } catch (RejectedExecutionException ree) {
+                    // pool was closed after a timed-out stop
+                    if (ready != null) {
+                        synchronized (ready) {
+                            ready.remove(this);
+                        }
+                    }
+                    state.set(IDLE);
+                }
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            PayloadSubscriber sub = algorithm.getSubscriber();
+
+            return algorithm.getTriggerName() + "[" + sub + "]" +
+                ",sent#" + numSent +
+                ",q#" + (sub == null ? -1 : sub.size()) +
+                (state.get() == SCHEDULED ? ":scheduled" : "") +
+                (stopped ? ":stopped" : "");
+        }
+    }
+
+    /**
+     * Run the ready task with the lowest watermark.  One dispatcher run is
+     * submitted for each ready task, so every ready task is eventually run.
+     */
+    private final class Dispatcher
+        implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            AlgorithmTask next = null;
+            synchronized (ready) {
+                for (AlgorithmTask task : ready) {
+                    if (next == null || task.watermark < next.watermark) {
+                        next = task;
+                    }
+                }
+                if (next == null) {
+                    return;
+                }
+                ready.remove(next);
+
+                // note which algorithm is currently gating request release
+                AlgorithmTask lowest = null;
+                for (AlgorithmTask task : tasks) {
+                    if (!task.stopped &&
+                        (lowest == null || task.watermark < lowest.watermark))
+                    {
+                        lowest = task;
+                    }
+                }
+                if (lowest != null) {
+                    lowest.numCritical++;
+                }
+            }
+
+            next.run();
+        }
+    }
+
+    /**
+     * Give pool threads recognizable names.
+     */
+    private static final class SchedulerThreadFactory
+        implements ForkJoinPool.ForkJoinWorkerThreadFactory
+    {
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+        {
+            ForkJoinWorkerThread thrd =
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory.
+                newThread(pool);
+            thrd.setName("AlgorithmScheduler-" + thrd.getPoolIndex());
+            return thrd;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.payload.IHitPayload;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Set of channels whose hits are temporarily ignored.
+ *
+ * Each mask or unmask takes effect at a hit time rather than when it is
+ * made, so an algorithm which trails the ingest thread makes the same
+ * decision for every hit no matter when it reads the mask.  Only the most
+ * recent changes for each channel are kept, so hits which precede all of
+ * a channel's remembered changes are never masked.
+ *
+ * The mask is changed rarely and read for every hit, so changes copy the
+ * whole array and readers never lock.
+ */
+public class ChannelMask
+{
+    /** Most changes remembered for one channel (must be even) */
+    private static final int MAX_CHANGES = 8;
+
+    /**
+     * Times of each channel's changes, indexed by channel ID.  Channels
+     * are masked at even indices and unmasked at odd indices, so a channel
+     * with an odd number of changes is currently masked.
+     */
+    private volatile long[][] changes = new long[0][];
+
+    /**
+     * Unmask all channels and forget all changes.
+     */
+    public synchronized void clear()
+    {
+        changes = new long[0][];
+    }
+
+    /**
+     * Get the list of masked channels.
+     *
+     * @return list of channel IDs
+     */
+    public List<Integer> getMasked()
+    {
+        final long[][] times = changes;
+
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        for (int ch = 0; ch < times.length; ch++) {
+            if (times[ch] != null && times[ch].length % 2 == 1) {
+                list.add(ch);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Is this channel currently masked?
+     *
+     * @param channel channel ID
+     *
+     * @return <tt>true</tt> if the most recent change masked the channel
+     */
+    public boolean isMasked(int channel)
+    {
+        final long[][] times = changes;
+        return channel >= 0 && channel < times.length &&
+            times[channel] != null && times[channel].length % 2 == 1;
+    }
+
+    /**
+     * Was this channel masked at the specified time?
+     *
+     * @param channel channel ID
+     * @param utcTime hit time
+     *
+     * @return <tt>true</tt> if hits from this channel at this time should
+     *         be ignored
+     */
+    public boolean isMasked(int channel, long utcTime)
+    {
+        final long[][] times = changes;
+        if (channel < 0 || channel >= times.length ||
+            times[channel] == null)
+        {
+            return false;
+        }
+
+        // count the changes which took effect at or before this time
+        final long[] chTimes = times[channel];
+        int num = 0;
+        while (num < chTimes.length && chTimes[num] <= utcTime) {
+            num++;
+        }
+
+        return num % 2 == 1;
+    }
+
+    /**
+     * Is this hit from a masked channel?  Hits without a channel ID are
+     * never masked.
+     *
+     * @param hit hit
+     *
+     * @return <tt>true</tt> if the hit should be ignored
+     */
+    public boolean isMasked(IHitPayload hit)
+    {
+        return hit.hasChannelID() &&
+            isMasked(hit.getChannelID(), hit.getUTCTime());
+    }
+
+    /**
+     * Mask or unmask a channel for all hits at or after the specified time.
+     * Changes for each channel must be made in time order.
+     *
+     * @param channel channel ID
+     * @param mask <tt>true</tt> to mask the channel
+     * @param utcTime time of the first hit affected by the change
+     */
+    public synchronized void setMasked(int channel, boolean mask,
+                                       long utcTime)
+    {
+        if (channel < 0) {
+            throw new Error("Bad channel " + channel);
+        }
+
+        final long[][] times = changes;
+        if (isMasked(channel) == mask) {
+            return;
+        }
+
+        final long[] chTimes =
+            (channel < times.length && times[channel] != null ?
+             times[channel] : new long[0]);
+        if (chTimes.length > 0 && utcTime < chTimes[chTimes.length - 1]) {
+            throw new Error("Channel " + channel + " change at " + utcTime +
+                            " precedes previous change at " +
+                            chTimes[chTimes.length - 1]);
+        }
+
+        // drop the oldest mask/unmask pair to keep the history bounded
+        final int skip = (chTimes.length >= MAX_CHANGES ? 2 : 0);
+
+        long[] newTimes = new long[chTimes.length - skip + 1];
+        System.arraycopy(chTimes, skip, newTimes, 0, chTimes.length - skip);
+        newTimes[newTimes.length - 1] = utcTime;
+
+        long[][] newChanges = new long[Math.max(times.length, channel + 1)][];
+        System.arraycopy(times, 0, newChanges, 0, times.length);
+        newChanges[channel] = newTimes;
+
+        changes = newChanges;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ChannelMask" + getMasked();
+    }
+}
@@ -214,6 +214,10 @@ public abstract class ElementMerger
 {
     private static final Logger LOG = Logger.getLogger(ElementMerger.class);
 
+    /** Limit the errors logged for each unmerged element type */
+    private static final RateLimitedLog MERGE_LOG =
+        new RateLimitedLog(LOG, "ElementMerger");
+
     private static List<ElementData> addToList(List<ElementData> list,
                                                int type,
                                                ElementData glbl)
@@ -276,11 +280,14 @@ public abstract class ElementMerger
                     other = new ArrayList<ElementData>();
                 }
 
-                final String errMsg =
-                    String.format("Not merging ReadoutRequestElement type#%d" +
-                                  " (range [%d-%d])", d.getType(),
-                                  d.getFirstTime(), d.getLastTime());
-                LOG.error(errMsg);
+                if (MERGE_LOG.allow(d.getType())) {
+                    final String errMsg =
+                        String.format("Not merging ReadoutRequestElement" +
+                                      " type#%d (range [%d-%d])",
+                                      d.getType(), d.getFirstTime(),
+                                      d.getLastTime());
+                    LOG.error(errMsg);
+                }
 
                 other.add(d);
                 break;
@@ -362,4 +369,21 @@ public abstract class ElementMerger
             ed.convertToElement(rReq);
         }
     }
+
+    /**
+     * Log the number of unmerged element messages suppressed since the last
+     * summary.
+     */
+    static void reportLogLimits()
+    {
+        MERGE_LOG.report();
+    }
+
+    /**
+     * Forget how many unmerged elements have been logged.
+     */
+    static void resetLogLimits()
+    {
+        MERGE_LOG.reset();
+    }
 }
@@ -0,0 +1,336 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.payload.IByteBufferCache;
+import icecube.daq.payload.IPayload;
+import icecube.daq.payload.IReadoutRequest;
+import icecube.daq.payload.ISourceID;
+import icecube.daq.payload.ITriggerRequestPayload;
+import icecube.daq.payload.IUTCTime;
+import icecube.daq.payload.impl.SourceID;
+import icecube.daq.payload.impl.UTCTime;
+import icecube.daq.splicer.Spliceable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Trigger request which has already been written to an output buffer by
+ * TriggerRequestEncoder.  Only the fields needed by the collector and the
+ * monitoring code are kept; the readout request and hit list are decoded
+ * from the buffer if anyone asks for them.
+ */
+public class EncodedTriggerRequest
+    implements IPayload, ITriggerRequestPayload, Spliceable
+{
+    private TriggerRequestEncoder encoder;
+    private ByteBuffer buf;
+
+    private int uid;
+    private int trigType;
+    private int cfgId;
+    private int srcId;
+    private long firstTime;
+    private long lastTime;
+
+    private IUTCTime firstUTC;
+    private IUTCTime lastUTC;
+    private ISourceID srcObj;
+
+    /** Decoded version of this request */
+    private ITriggerRequestPayload decoded;
+
+    EncodedTriggerRequest(TriggerRequestEncoder encoder, ByteBuffer buf,
+                          int uid, int trigType, int cfgId, int srcId,
+                          long firstTime, long lastTime)
+    {
+        this.encoder = encoder;
+        this.buf = buf;
+        this.uid = uid;
+        this.trigType = trigType;
+        this.cfgId = cfgId;
+        this.srcId = srcId;
+        this.firstTime = firstTime;
+        this.lastTime = lastTime;
+    }
+
+    @Override
+    public int compareSpliceable(Spliceable spl)
+    {
+        if (!(spl instanceof IPayload)) {
+            return getClass().getName().compareTo(spl.getClass().getName());
+        }
+
+        long val = firstTime - ((IPayload) spl).getUTCTime();
+        if (val < 0) {
+            return -1;
+        } else if (val > 0) {
+            return 1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Decode the buffer into a standard request.
+     *
+     * @return decoded request (or <tt>null</tt> if it could not be decoded)
+     */
+    private ITriggerRequestPayload decode()
+    {
+        if (decoded == null && buf != null) {
+            // decode a private copy so the pooled buffer can be released
+            ByteBuffer copy = ByteBuffer.allocate(buf.limit());
+            ByteBuffer dup = buf.duplicate();
+            dup.position(0);
+            copy.put(dup);
+            copy.flip();
+
+            decoded = encoder.decode(copy);
+        }
+
+        return decoded;
+    }
+
+    @Override
+    public Object deepCopy()
+    {
+        ITriggerRequestPayload req = decode();
+        if (req == null) {
+            return null;
+        }
+
+        return req.deepCopy();
+    }
+
+    /**
+     * Take ownership of the encoded buffer.  After this call the request
+     * no longer returns the buffer to the cache when it is recycled.
+     *
+     * @return encoded buffer
+     */
+    public ByteBuffer detachBuffer()
+    {
+        ByteBuffer tmpBuf = buf;
+        buf = null;
+        return tmpBuf;
+    }
+
+    @Override
+    public IUTCTime getFirstTimeUTC()
+    {
+        if (firstUTC == null) {
+            firstUTC = new UTCTime(firstTime);
+        }
+
+        return firstUTC;
+    }
+
+    @Override
+    public IUTCTime getLastTimeUTC()
+    {
+        if (lastUTC == null) {
+            lastUTC = new UTCTime(lastTime);
+        }
+
+        return lastUTC;
+    }
+
+    @Override
+    public ByteBuffer getPayloadBacking()
+    {
+        return buf;
+    }
+
+    @Override
+    public IUTCTime getPayloadTimeUTC()
+    {
+        return getFirstTimeUTC();
+    }
+
+    @Override
+    public int getPayloadType()
+    {
+        if (buf == null) {
+            return -1;
+        }
+
+        return buf.getInt(4);
+    }
+
+    @Override
+    public List getPayloads()
+    {
+        ITriggerRequestPayload req = decode();
+        if (req == null) {
+            return null;
+        }
+
+        try {
+            return req.getPayloads();
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public IReadoutRequest getReadoutRequest()
+    {
+        ITriggerRequestPayload req = decode();
+        if (req == null) {
+            return null;
+        }
+
+        return req.getReadoutRequest();
+    }
+
+    @Override
+    public ISourceID getSourceID()
+    {
+        if (srcObj == null) {
+            srcObj = new SourceID(srcId);
+        }
+
+        return srcObj;
+    }
+
+    @Override
+    public int getTriggerConfigID()
+    {
+        return cfgId;
+    }
+
+    @Override
+    public String getTriggerName()
+    {
+        ITriggerRequestPayload req = decode();
+        if (req == null) {
+            return null;
+        }
+
+        return req.getTriggerName();
+    }
+
+    @Override
+    public int getTriggerType()
+    {
+        return trigType;
+    }
+
+    @Override
+    public int getUID()
+    {
+        return uid;
+    }
+
+    @Override
+    public long getUTCTime()
+    {
+        return firstTime;
+    }
+
+    /**
+     * Encoded requests are never merged.
+     *
+     * @return <tt>false</tt>
+     */
+    @Override
+    public boolean isMerged()
+    {
+        return false;
+    }
+
+    @Override
+    public int length()
+    {
+        if (buf == null) {
+            return 0;
+        }
+
+        return buf.limit();
+    }
+
+    /**
+     * Do nothing, the request is already loaded.
+     */
+    @Override
+    public void loadPayload()
+    {
+        // do nothing
+    }
+
+    /**
+     * Return the encoded buffer to the cache if it has not been handed off.
+     */
+    @Override
+    public void recycle()
+    {
+        if (buf != null) {
+            encoder.returnBuffer(buf);
+            buf = null;
+        }
+
+        if (decoded != null) {
+            decoded.recycle();
+            decoded = null;
+        }
+    }
+
+    @Override
+    public void setCache(IByteBufferCache cache)
+    {
+        // do nothing
+    }
+
+    /**
+     * Set the universal ID for global requests which will become events.
+     *
+     * @param uid new UID
+     */
+    @Override
+    public void setUID(int uid)
+    {
+        this.uid = uid;
+
+        if (buf != null) {
+            buf.putInt(TriggerRequestEncoder.OFFSET_UID, uid);
+        }
+        if (decoded != null) {
+            decoded.setUID(uid);
+        }
+    }
+
+    @Override
+    public int writePayload(boolean writeLoaded, int destOffset,
+                            ByteBuffer destBuf)
+        throws IOException
+    {
+        if (buf == null) {
+            throw new IOException("Encoded request has been released");
+        }
+
+        final int len = buf.limit();
+        if (destBuf.capacity() - destOffset < len) {
+            throw new IOException("Cannot write " + len + " bytes at " +
+                                  destOffset + " into " + destBuf);
+        }
+
+        ByteBuffer src = buf.duplicate();
+        src.position(0);
+        src.limit(len);
+
+        ByteBuffer dest = destBuf.duplicate();
+        dest.position(destOffset);
+        dest.put(src);
+
+        return len;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("EncodedTriggerRequest[%d#%d cfg %d src %d" +
+                             " %d-%d len %d]", trigType, uid, cfgId, srcId,
+                             firstTime, lastTime, length());
+    }
+}
@@ -25,6 +25,11 @@ public class HitFilter
      */
     private DomSet domSet;
 
+    /**
+     * Channels which are temporarily ignored
+     */
+    private ChannelMask channelMask;
+
     /**
      * Default constructor
      */
@@ -54,6 +59,15 @@ public class HitFilter
         setDomSet(DomSetFactory.getDomSet(domSetId));
     }
 
+    /**
+     * Install a mask of channels whose hits are ignored
+     * @param channelMask channel mask (<tt>null</tt> to remove the mask)
+     */
+    public void setChannelMask(ChannelMask channelMask)
+    {
+        this.channelMask = channelMask;
+    }
+
     /**
      * Set the DOM registry
      *
@@ -76,7 +90,7 @@ public class HitFilter
     /**
      * Check if hit is from a dom that should be used. By default all hits
      * are used. If a DomSet has been installed, then only hits from doms in
-     * the set are used.
+     * the set are used.  Hits from masked channels are never used.
      *
      * @param hit hit to check
      *
@@ -84,6 +98,11 @@ public class HitFilter
      */
     public boolean useHit(IHitPayload hit)
     {
+        // drop hits from masked channels
+        if (channelMask != null && channelMask.isMasked(hit)) {
+            return false;
+        }
+
         // if domSet is not initialized, use the hit
         if (null == domSet) {
             return true;
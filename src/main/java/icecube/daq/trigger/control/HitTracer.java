@@ -0,0 +1,328 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.payload.IPayload;
+import icecube.daq.payload.ITriggerRequestPayload;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Follow one sampled hit at a time from the splicer hand-off through the
+ * algorithm queue, the algorithm, the collector and the output channel,
+ * recording the time spent between each stage.
+ *
+ * Every check made for an unsampled payload is a single volatile read and
+ * reference or integer comparison; only the traced hit takes the lock.
+ */
+public class HitTracer
+{
+    /**
+     * Set this property to N to trace one out of every N hits
+     * (tracing is disabled if it is not set or is less than 1)
+     */
+    public static final String INTERVAL_PROPERTY =
+        "icecube.daq.trigger.trace-interval";
+
+    /** Give up on a trace which has not completed after this long */
+    private static final long TIMEOUT_NANOS = 60L * 1000000000L;
+
+    /** Trace stages */
+    private static final int IDLE = 0;
+    private static final int INGESTED = 1;
+    private static final int DEQUEUED = 2;
+    private static final int REQUESTED = 3;
+    private static final int COLLECTED = 4;
+    private static final int QUEUED = 5;
+
+    /** Sampling interval */
+    private final int interval;
+
+    /** Number of hits seen since the last sample (ingest thread only) */
+    private int numSeen;
+
+    /** Current stage */
+    private volatile int stage = IDLE;
+    /** Hit being traced */
+    private volatile IPayload tracedHit;
+    /** Request which includes the traced hit, once it is collected */
+    private volatile ITriggerRequestPayload tracedRequest;
+    /** Output buffer holding the traced request */
+    private volatile ByteBuffer tracedBuffer;
+
+    /** UTC time of the traced hit */
+    private long tracedTime;
+    /** Time the trace was started */
+    private long startNanos;
+    /** Time the most recent stage was reached */
+    private long stageNanos;
+
+    /** Per-stage histograms */
+    private LatencyHistogram ingestToDequeue = new LatencyHistogram();
+    private LatencyHistogram dequeueToRequest = new LatencyHistogram();
+    private LatencyHistogram requestToCollect = new LatencyHistogram();
+    private LatencyHistogram collectToOutput = new LatencyHistogram();
+    private LatencyHistogram endToEnd = new LatencyHistogram();
+
+    private long numStarted;
+    private long numCompleted;
+    private long numAbandoned;
+
+    /**
+     * Create a tracer.
+     *
+     * @param interval trace one out of every <tt>interval</tt> hits
+     */
+    public HitTracer(int interval)
+    {
+        if (interval < 1) {
+            throw new Error("Bad trace interval " + interval);
+        }
+
+        this.interval = interval;
+    }
+
+    /**
+     * Create a tracer if one has been requested.
+     *
+     * @return new tracer or <tt>null</tt> if tracing is disabled
+     */
+    public static HitTracer create()
+    {
+        final int interval = Integer.getInteger(INTERVAL_PROPERTY, 0);
+        if (interval < 1) {
+            return null;
+        }
+
+        return new HitTracer(interval);
+    }
+
+    /**
+     * Note that the collector has released requests for an interval and
+     * is about to push them to the output thread.
+     *
+     * @param interval released interval
+     * @param req request being pushed
+     */
+    public void collected(Interval interval, ITriggerRequestPayload req)
+    {
+        if (stage == IDLE) {
+            return;
+        }
+
+        synchronized (this) {
+            if (stage == REQUESTED && interval.start <= tracedTime &&
+                interval.end >= tracedTime)
+            {
+                advance(COLLECTED, requestToCollect);
+                tracedRequest = req;
+            } else if (stage > INGESTED && stage < COLLECTED &&
+                       interval.end >= tracedTime)
+            {
+                // collector has moved past the hit; it was not triggered
+                abandon();
+            }
+        }
+    }
+
+    /**
+     * Note that a payload has been taken from an algorithm's input queue.
+     *
+     * @param pay payload
+     */
+    public void dequeued(IPayload pay)
+    {
+        if (pay != tracedHit) {
+            return;
+        }
+
+        synchronized (this) {
+            if (stage == INGESTED && pay == tracedHit) {
+                advance(DEQUEUED, ingestToDequeue);
+            }
+        }
+    }
+
+    /**
+     * Get the per-stage percentiles (in microseconds) and trace counts.
+     *
+     * @return map of names to values
+     */
+    public Map<String, Long> getStatistics()
+    {
+        HashMap<String, Long> map = new HashMap<String, Long>();
+        ingestToDequeue.addPercentiles(map, "ingestToDequeue.");
+        dequeueToRequest.addPercentiles(map, "dequeueToRequest.");
+        requestToCollect.addPercentiles(map, "requestToCollect.");
+        collectToOutput.addPercentiles(map, "collectToOutput.");
+        endToEnd.addPercentiles(map, "endToEnd.");
+        synchronized (this) {
+            map.put("started", numStarted);
+            map.put("completed", numCompleted);
+            map.put("abandoned", numAbandoned);
+        }
+        return map;
+    }
+
+    /**
+     * Possibly start tracing a hit which is about to be queued for the
+     * algorithms.  Must only be called from the ingest thread.
+     *
+     * @param pay payload
+     */
+    public void ingested(IPayload pay)
+    {
+        if (++numSeen < interval) {
+            return;
+        }
+
+        numSeen = 0;
+
+        final long now = System.nanoTime();
+        synchronized (this) {
+            if (stage != IDLE) {
+                if (now - startNanos < TIMEOUT_NANOS) {
+                    // previous trace is still active
+                    return;
+                }
+
+                abandon();
+            }
+
+            tracedTime = pay.getUTCTime();
+            startNanos = now;
+            stageNanos = now;
+            tracedHit = pay;
+            numStarted++;
+            stage = INGESTED;
+        }
+    }
+
+    /**
+     * Note that an algorithm has produced a request.
+     *
+     * @param req new request
+     */
+    public void requested(ITriggerRequestPayload req)
+    {
+        if (stage != DEQUEUED) {
+            return;
+        }
+
+        final long first = req.getFirstTimeUTC().longValue();
+        final long last = req.getLastTimeUTC().longValue();
+
+        synchronized (this) {
+            if (stage == DEQUEUED && first <= tracedTime &&
+                last >= tracedTime)
+            {
+                advance(REQUESTED, dequeueToRequest);
+            }
+        }
+    }
+
+    /**
+     * Note that a request is being queued for output.
+     *
+     * @param req request
+     * @param buf serialized request
+     */
+    public void queued(ITriggerRequestPayload req, ByteBuffer buf)
+    {
+        if (req != tracedRequest) {
+            return;
+        }
+
+        synchronized (this) {
+            if (stage == COLLECTED && req == tracedRequest) {
+                tracedBuffer = buf;
+                stage = QUEUED;
+            }
+        }
+    }
+
+    /**
+     * Clear all statistics and abandon any trace in progress.
+     */
+    public void reset()
+    {
+        synchronized (this) {
+            clear();
+
+            numStarted = 0;
+            numCompleted = 0;
+            numAbandoned = 0;
+        }
+
+        ingestToDequeue.reset();
+        dequeueToRequest.reset();
+        requestToCollect.reset();
+        collectToOutput.reset();
+        endToEnd.reset();
+    }
+
+    /**
+     * Note that a buffer has been written to the output channel.
+     *
+     * @param buf buffer
+     */
+    public void written(ByteBuffer buf)
+    {
+        if (buf != tracedBuffer) {
+            return;
+        }
+
+        synchronized (this) {
+            if (stage == QUEUED && buf == tracedBuffer) {
+                final long now = System.nanoTime();
+                collectToOutput.record(now - stageNanos);
+                endToEnd.record(now - startNanos);
+                numCompleted++;
+                clear();
+            }
+        }
+    }
+
+    /**
+     * Abandon the current trace.  Must be called while holding the lock.
+     */
+    private void abandon()
+    {
+        numAbandoned++;
+        clear();
+    }
+
+    /**
+     * Move to the next stage, recording the time spent in the previous
+     * stage.  Must be called while holding the lock.
+     *
+     * @param newStage next stage
+     * @param hist histogram for the previous stage
+     */
+    private void advance(int newStage, LatencyHistogram hist)
+    {
+        final long now = System.nanoTime();
+        hist.record(now - stageNanos);
+        stageNanos = now;
+        stage = newStage;
+    }
+
+    /**
+     * Forget the current trace.  Must be called while holding the lock.
+     */
+    private void clear()
+    {
+        stage = IDLE;
+        tracedHit = null;
+        tracedRequest = null;
+        tracedBuffer = null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HitTracer[1/" + interval + ",stage " + stage + ",started " +
+            numStarted + ",completed " + numCompleted + ",abandoned " +
+            numAbandoned + "]";
+    }
+}
@@ -0,0 +1,345 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.juggler.alert.AlertException;
+import icecube.daq.juggler.alert.AlertQueue;
+import icecube.daq.juggler.alert.Alerter;
+import icecube.daq.payload.IHitPayload;
+import icecube.daq.trigger.algorithm.AbstractTrigger;
+import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Count input hits for each channel and mask any channel whose rate stays
+ * above the limit, so a single noisy or flashing DOM cannot keep the
+ * multiplicity and cluster algorithms triggering continuously.
+ *
+ * Rates are measured over fixed windows of hit time.  A channel is masked
+ * after it exceeds the limit for a number of consecutive windows, and is
+ * unmasked after it stays below the limit for the same number of windows.
+ * Masked hits are still counted, and are only hidden from the selected
+ * algorithms by their <tt>HitFilter</tt>.  Each change applies to hits
+ * from the end of the window which caused it, so the algorithms see the
+ * same mask however far they trail the input.  Every change is logged and
+ * sent as an alert.
+ *
+ * All methods except <tt>setAlertQueue()</tt> and <tt>setRunNumber()</tt>
+ * must be called from the thread which reads the input hits.
+ */
+public class HotDomDetector
+{
+    /**
+     * Set this property to the highest hit rate (in Hz) allowed for one
+     * channel (detection is disabled if this is not set)
+     */
+    public static final String RATE_PROPERTY =
+        "icecube.daq.trigger.hot-dom-rate";
+    /** Set this property to the length of each rate window in milliseconds */
+    public static final String WINDOW_PROPERTY =
+        "icecube.daq.trigger.hot-dom-window-millis";
+    /**
+     * Set this property to the number of consecutive windows needed to mask
+     * or unmask a channel
+     */
+    public static final String SUSTAIN_PROPERTY =
+        "icecube.daq.trigger.hot-dom-windows";
+    /**
+     * Set this property to a comma-separated list of the algorithm class
+     * names which ignore masked channels
+     */
+    public static final String ALGORITHMS_PROPERTY =
+        "icecube.daq.trigger.hot-dom-algorithms";
+
+    /** Name of the I3Live alert */
+    public static final String ALERT_NAME = "trigger_hot_dom";
+
+    private static final Logger LOG = Logger.getLogger(HotDomDetector.class);
+
+    /** Number of DAQ ticks (0.1 ns) in a millisecond */
+    private static final long TICKS_PER_MILLI = 10000000L;
+
+    private static final long DEFAULT_WINDOW_MILLIS = 1000L;
+    private static final int DEFAULT_SUSTAIN = 5;
+    private static final String DEFAULT_ALGORITHMS =
+        "SimpleMajorityTrigger,ClusterTrigger,CylinderTrigger,SlowMPTrigger";
+
+    private List<ITriggerAlgorithm> algorithms;
+    private List<String> names;
+    private double maxRate;
+    private long windowTicks;
+    private int sustain;
+
+    /** Most hits allowed in one window */
+    private double limit;
+
+    /** Channels hidden from the selected algorithms */
+    private ChannelMask mask = new ChannelMask();
+
+    /** Hits in the current window, indexed by channel ID */
+    private int[] counts = new int[0];
+    /**
+     * Number of consecutive windows each unmasked channel has been over the
+     * limit, or each masked channel has been under the limit
+     */
+    private int[] streaks = new int[0];
+    /** End of the current window */
+    private long windowEnd = Long.MIN_VALUE;
+
+    private AlertQueue alertQueue;
+    private volatile int runNumber = Integer.MIN_VALUE;
+
+    /**
+     * Create a hot DOM detector.
+     *
+     * @param algorithms all algorithms
+     * @param maxRate highest hit rate (in Hz) allowed for one channel
+     * @param windowMillis length of each rate window in milliseconds
+     * @param sustain number of windows needed to mask or unmask a channel
+     * @param names class names of the algorithms which ignore masked
+     *              channels
+     */
+    public HotDomDetector(List<ITriggerAlgorithm> algorithms, double maxRate,
+                          long windowMillis, int sustain, List<String> names)
+    {
+        if (maxRate <= 0.0) {
+            throw new Error("Bad hot DOM rate " + maxRate);
+        } else if (windowMillis <= 0 || sustain < 1) {
+            throw new Error("Bad hot DOM window " + windowMillis + "ms*" +
+                            sustain);
+        }
+
+        this.algorithms = algorithms;
+        this.maxRate = maxRate;
+        this.windowTicks = windowMillis * TICKS_PER_MILLI;
+        this.sustain = sustain;
+        this.names = names;
+
+        limit = maxRate * (double) windowMillis / 1000.0;
+    }
+
+    /**
+     * Create a hot DOM detector if one has been requested.
+     *
+     * @param algorithms all algorithms
+     *
+     * @return new detector or <tt>null</tt> if detection is disabled
+     */
+    public static HotDomDetector create(List<ITriggerAlgorithm> algorithms)
+    {
+        final String rateStr = System.getProperty(RATE_PROPERTY);
+        if (rateStr == null) {
+            return null;
+        }
+
+        final double maxRate;
+        try {
+            maxRate = Double.parseDouble(rateStr);
+        } catch (NumberFormatException nfe) {
+            LOG.error("Bad value \"" + rateStr + "\" for " + RATE_PROPERTY);
+            return null;
+        }
+
+        ArrayList<String> names = new ArrayList<String>();
+        for (String name : System.getProperty(ALGORITHMS_PROPERTY,
+                                              DEFAULT_ALGORITHMS).split(","))
+        {
+            if (name.trim().length() > 0) {
+                names.add(name.trim());
+            }
+        }
+
+        return new HotDomDetector(algorithms, maxRate,
+                                  Long.getLong(WINDOW_PROPERTY,
+                                               DEFAULT_WINDOW_MILLIS),
+                                  Integer.getInteger(SUSTAIN_PROPERTY,
+                                                     DEFAULT_SUSTAIN),
+                                  names);
+    }
+
+    /**
+     * Count an input hit.  Hits without a channel ID are ignored.
+     *
+     * @param hit input hit
+     */
+    public void add(IHitPayload hit)
+    {
+        if (!hit.hasChannelID()) {
+            return;
+        }
+
+        final long time = hit.getUTCTime();
+        if (windowEnd == Long.MIN_VALUE) {
+            windowEnd = time + windowTicks;
+        } else if (time >= windowEnd) {
+            closeWindow();
+
+            // skip over any empty windows
+            windowEnd += ((time - windowEnd) / windowTicks + 1) * windowTicks;
+        }
+
+        final int channel = hit.getChannelID();
+        if (channel < 0) {
+            return;
+        }
+
+        if (channel >= counts.length) {
+            final int newLen = Math.max(channel + 1, counts.length * 2);
+
+            int[] newCounts = new int[newLen];
+            System.arraycopy(counts, 0, newCounts, 0, counts.length);
+            counts = newCounts;
+
+            int[] newStreaks = new int[newLen];
+            System.arraycopy(streaks, 0, newStreaks, 0, streaks.length);
+            streaks = newStreaks;
+        }
+
+        counts[channel]++;
+    }
+
+    /**
+     * Update each channel's streak at the end of a window, and mask or
+     * unmask any channel whose streak is long enough.  Changes take effect
+     * for hits at or after the end of the window.
+     */
+    private void closeWindow()
+    {
+        for (int ch = 0; ch < counts.length; ch++) {
+            final int num = counts[ch];
+            counts[ch] = 0;
+
+            final boolean masked = mask.isMasked(ch);
+            if ((num > limit) == masked) {
+                // not yet (or no longer) in the expected state
+                streaks[ch] = 0;
+            } else if (++streaks[ch] >= sustain) {
+                streaks[ch] = 0;
+                mask.setMasked(ch, !masked, windowEnd);
+                report(ch, !masked, num);
+            }
+        }
+    }
+
+    /**
+     * Get the channel mask installed in the selected algorithms.
+     *
+     * @return channel mask
+     */
+    ChannelMask getChannelMask()
+    {
+        return mask;
+    }
+
+    /**
+     * Get the channels which are currently masked.
+     *
+     * @return list of channel IDs
+     */
+    public List<Integer> getMaskedChannels()
+    {
+        return mask.getMasked();
+    }
+
+    /**
+     * Install the channel mask in the selected algorithms.
+     */
+    public void install()
+    {
+        for (ITriggerAlgorithm algo : algorithms) {
+            if (algo instanceof AbstractTrigger &&
+                names.contains(algo.getClass().getSimpleName()))
+            {
+                ((AbstractTrigger) algo).setChannelMask(mask);
+            }
+        }
+    }
+
+    /**
+     * Log and send an alert describing a masked or unmasked channel.
+     *
+     * @param channel channel ID
+     * @param masked <tt>true</tt> if the channel has been masked
+     * @param numHits number of hits in the final window
+     */
+    private void report(int channel, boolean masked, int numHits)
+    {
+        final double rate = (double) numHits * (double) TICKS_PER_MILLI *
+            1000.0 / (double) windowTicks;
+
+        final String msg = (masked ? "Masking" : "Unmasking") + " channel " +
+            channel + " (" + rate + " Hz, limit " + maxRate + " Hz) for " +
+            names;
+        if (masked) {
+            LOG.error(msg);
+        } else {
+            LOG.info(msg);
+        }
+
+        if (alertQueue == null || alertQueue.isStopped()) {
+            return;
+        }
+
+        HashMap<String, Object> values = new HashMap<String, Object>();
+        if (runNumber != Integer.MIN_VALUE) {
+            values.put("runNumber", runNumber);
+        }
+        values.put("channel", channel);
+        values.put("masked", masked);
+        values.put("rate", rate);
+        values.put("maxRate", maxRate);
+        values.put("algorithms", names);
+        values.put("maskedChannels", mask.getMasked());
+
+        try {
+            alertQueue.push(ALERT_NAME, Alerter.Priority.EMAIL, values);
+        } catch (AlertException ae) {
+            LOG.error("Cannot send hot DOM alert", ae);
+        }
+    }
+
+    /**
+     * Unmask all channels and clear all counts.
+     */
+    public void reset()
+    {
+        if (!mask.getMasked().isEmpty()) {
+            LOG.info("Unmasking hot channels " + mask.getMasked());
+            mask.clear();
+        }
+
+        counts = new int[0];
+        streaks = new int[0];
+        windowEnd = Long.MIN_VALUE;
+    }
+
+    /**
+     * Set the queue used to send alerts.
+     *
+     * @param alertQueue alert queue
+     */
+    public void setAlertQueue(AlertQueue alertQueue)
+    {
+        this.alertQueue = alertQueue;
+    }
+
+    /**
+     * Set the current run number (included in alerts).
+     *
+     * @param runNumber run number
+     */
+    public void setRunNumber(int runNumber)
+    {
+        this.runNumber = runNumber;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HotDomDetector[" + maxRate + "Hz*" + sustain + ", " +
+            mask + "]";
+    }
+}
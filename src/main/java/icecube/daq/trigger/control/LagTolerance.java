@@ -0,0 +1,264 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.payload.IPayload;
+import icecube.daq.trigger.algorithm.FlushRequest;
+import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Decide which algorithms have fallen so far behind the input stream that
+ * the collector should stop waiting for them.
+ *
+ * The collector releases the other algorithms' requests without a lagging
+ * algorithm, and sends the lagging algorithm's requests separately as
+ * they are finished, merged into a request whose configuration ID is
+ * <tt>LATE_CONFIG_ID</tt>.  A lagging algorithm rejoins the normal output
+ * once it is back within its limit and all its remaining requests follow
+ * everything the collector has already released.
+ *
+ * Late requests which overlap the requests the collector is still holding
+ * are merged into them, but any other late request is sent as soon as it
+ * is finished, so it may precede or overlap requests which have already
+ * been sent.  The global trigger counts and discards
+ * <tt>LATE_CONFIG_ID</tt> requests instead of passing them to its
+ * algorithms, so its output stays in time order but late requests never
+ * become events; they are still included in the local multiplicity data.
+ * Because the event builder depends on that ordering, lag tolerance is
+ * never used by the global trigger itself.
+ *
+ * <tt>setInputTime()</tt> is called from the ingest thread, all other
+ * methods from the collector thread.
+ */
+public class LagTolerance
+{
+    /**
+     * Set this property to the number of milliseconds an algorithm may
+     * trail the input before the collector stops waiting for it (lag
+     * tolerance is disabled if this is not set).  Append
+     * "<tt>.</tt><i>triggerName</i>" to set the limit for one algorithm.
+     */
+    public static final String MAX_LAG_PROPERTY =
+        "icecube.daq.trigger.max-lag-millis";
+
+    /** Configuration ID of merged requests holding late requests */
+    public static final int LATE_CONFIG_ID = -2;
+
+    private static final Logger LOG = Logger.getLogger(LagTolerance.class);
+
+    /** Number of DAQ ticks (0.1 ns) in a millisecond */
+    private static final long TICKS_PER_MILLI = 10000000L;
+
+    /** Default limit in DAQ ticks */
+    private long maxLagTicks;
+    /** Limits for each algorithm, filled in as algorithms are seen */
+    private HashMap<String, Long> limits = new HashMap<String, Long>();
+
+    /** Time of the most recent input payload */
+    private volatile long inputTime = Long.MIN_VALUE;
+
+    /** Algorithms which are currently lagging */
+    private ArrayList<ITriggerAlgorithm> lagging =
+        new ArrayList<ITriggerAlgorithm>();
+
+    /** Number of requests sent late */
+    private volatile long numLate;
+    /** Number of times an algorithm has started lagging */
+    private volatile long numLagged;
+
+    /**
+     * Create a lag tolerance policy.
+     *
+     * @param maxLagMillis default limit in milliseconds
+     */
+    public LagTolerance(long maxLagMillis)
+    {
+        if (maxLagMillis <= 0) {
+            throw new Error("Bad maximum lag " + maxLagMillis);
+        }
+
+        maxLagTicks = maxLagMillis * TICKS_PER_MILLI;
+    }
+
+    /**
+     * Create a lag tolerance policy if one has been requested.
+     *
+     * @return new policy or <tt>null</tt> if lag tolerance is disabled
+     */
+    public static LagTolerance create()
+    {
+        final long millis = Long.getLong(MAX_LAG_PROPERTY, 0L);
+        if (millis <= 0) {
+            return null;
+        }
+
+        return new LagTolerance(millis);
+    }
+
+    /**
+     * Record requests which have been sent late.
+     *
+     * @param num number of requests
+     */
+    void addLate(int num)
+    {
+        numLate += num;
+    }
+
+    /**
+     * Get the number of DAQ ticks by which this algorithm trails the input.
+     *
+     * @param algo algorithm
+     *
+     * @return lag in DAQ ticks (0 if it is not known)
+     */
+    private long getLag(ITriggerAlgorithm algo)
+    {
+        final IPayload earliest = algo.getEarliestPayloadOfInterest();
+        if (earliest == null || inputTime == Long.MIN_VALUE) {
+            return 0L;
+        }
+
+        final long time = earliest.getUTCTime();
+        if (time == FlushRequest.FLUSH_TIME || time >= inputTime) {
+            return 0L;
+        }
+
+        return inputTime - time;
+    }
+
+    /**
+     * Get the limit for this algorithm.
+     *
+     * @param algo algorithm
+     *
+     * @return limit in DAQ ticks
+     */
+    private long getMaxLag(ITriggerAlgorithm algo)
+    {
+        Long limit = limits.get(algo.getTriggerName());
+        if (limit == null) {
+            final long millis =
+                Long.getLong(MAX_LAG_PROPERTY + "." + algo.getTriggerName(),
+                             0L);
+            if (millis > 0) {
+                limit = millis * TICKS_PER_MILLI;
+            } else {
+                limit = maxLagTicks;
+            }
+            limits.put(algo.getTriggerName(), limit);
+        }
+
+        return limit;
+    }
+
+    /**
+     * Get the number of times an algorithm has started lagging.
+     *
+     * @return number of lagging episodes
+     */
+    public long getNumLagged()
+    {
+        return numLagged;
+    }
+
+    /**
+     * Get the number of requests sent late.
+     *
+     * @return number of late requests
+     */
+    public long getNumLate()
+    {
+        return numLate;
+    }
+
+    /**
+     * Has this lagging algorithm caught up with the requests which have
+     * already been released?
+     *
+     * @param algo algorithm
+     * @param releaseTime end of the latest interval released without it
+     *
+     * @return <tt>true</tt> if the algorithm can rejoin the normal output
+     */
+    private static boolean hasCaughtUp(ITriggerAlgorithm algo,
+                                       long releaseTime)
+    {
+        final IPayload earliest = algo.getEarliestPayloadOfInterest();
+        if (earliest == null || earliest.getUTCTime() <= releaseTime) {
+            return false;
+        }
+
+        // any remaining request must follow the released requests
+        final Interval first = algo.getInterval(new Interval());
+        return first == null || first.isEmpty() || first.start > releaseTime;
+    }
+
+    /**
+     * Forget all lagging algorithms before a new run starts.
+     */
+    public void reset()
+    {
+        lagging.clear();
+        inputTime = Long.MIN_VALUE;
+        numLate = 0;
+        numLagged = 0;
+    }
+
+    /**
+     * Set the time of the most recent input payload.
+     *
+     * @param time input time
+     */
+    public void setInputTime(long time)
+    {
+        inputTime = time;
+    }
+
+    /**
+     * Update the set of lagging algorithms.
+     *
+     * @param algorithms all algorithms
+     * @param releaseTime end of the latest interval released normally
+     *
+     * @return lagging algorithms
+     */
+    public List<ITriggerAlgorithm> update(List<ITriggerAlgorithm> algorithms,
+                                          long releaseTime)
+    {
+        for (ITriggerAlgorithm algo : algorithms) {
+            final long lag = getLag(algo);
+            final long limit = getMaxLag(algo);
+
+            if (!lagging.contains(algo)) {
+                if (lag > limit) {
+                    lagging.add(algo);
+                    numLagged++;
+
+                    LOG.error(algo.getTriggerName() + " trails input by " +
+                              lag / TICKS_PER_MILLI + " ms (limit " +
+                              limit / TICKS_PER_MILLI +
+                              " ms); releasing requests without it");
+                }
+            } else if (lag <= limit && hasCaughtUp(algo, releaseTime)) {
+                lagging.remove(algo);
+
+                LOG.info(algo.getTriggerName() + " has caught up;" +
+                         " releasing its requests normally");
+            }
+        }
+
+        return lagging;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LagTolerance[" + maxLagTicks / TICKS_PER_MILLI + "ms, late#" +
+            numLate + ", lagging " + lagging + "]";
+    }
+}
@@ -0,0 +1,208 @@
+package icecube.daq.trigger.control;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size log-linear histogram of nanosecond durations, in the style
+ * of HdrHistogram.  Each power-of-two range is split into 32 linear
+ * sub-buckets, so recorded values are accurate to about 3%.  Recording
+ * a value never allocates or locks.
+ */
+public class LatencyHistogram
+{
+    /** Number of bits used for the linear sub-buckets */
+    private static final int SUB_BITS = 5;
+    /** Number of linear sub-buckets in each power-of-two range */
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    /** Total number of buckets needed to cover all positive longs */
+    private static final int NUM_BUCKETS =
+        (64 - SUB_BITS) * SUB_COUNT;
+
+    /** Nanoseconds per reported unit (microseconds) */
+    private static final long NANOS_PER_UNIT = 1000L;
+
+    /** Percentiles reported by <tt>getPercentiles()</tt> */
+    private static final double[] PERCENTILES =
+        new double[] { 50.0, 90.0, 99.0, 99.9 };
+    private static final String[] PERCENTILE_NAMES =
+        new String[] { "p50", "p90", "p99", "p999" };
+
+    private AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private AtomicLong count = new AtomicLong();
+    private AtomicLong max = new AtomicLong();
+    private AtomicLong sum = new AtomicLong();
+
+    /**
+     * Get the bucket index for a value.
+     *
+     * @param value non-negative value
+     *
+     * @return bucket index
+     */
+    static int bucketIndex(long value)
+    {
+        if (value < SUB_COUNT << 1) {
+            return (int) value;
+        }
+
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_COUNT + (int) (value >>> shift);
+    }
+
+    /**
+     * Get the highest value which falls into a bucket.
+     *
+     * @param index bucket index
+     *
+     * @return highest value for the bucket
+     */
+    static long bucketLimit(int index)
+    {
+        if (index < SUB_COUNT << 1) {
+            return index;
+        }
+
+        final int shift = index / SUB_COUNT - 1;
+        final long sub = (index % SUB_COUNT) + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Get the number of recorded values.
+     *
+     * @return number of values
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * Get the largest recorded value.
+     *
+     * @return maximum value in nanoseconds
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Get the sum of all recorded values.
+     *
+     * @return total in nanoseconds
+     */
+    public long getSum()
+    {
+        return sum.get();
+    }
+
+    /**
+     * Get the value below which <tt>pct</tt> percent of the recorded
+     * values fall.
+     *
+     * @param pct percentile (0.0 - 100.0)
+     *
+     * @return value in nanoseconds (<tt>0</tt> if nothing was recorded)
+     */
+    public long getPercentile(double pct)
+    {
+        final long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(total * pct / 100.0);
+        if (target < 1) {
+            target = 1;
+        }
+
+        long sum = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            sum += buckets.get(i);
+            if (sum >= target) {
+                return Math.min(bucketLimit(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Get the count, standard percentiles and maximum value.  Times are
+     * reported in microseconds.
+     *
+     * @return map of names to values
+     */
+    public Map<String, Long> getPercentiles()
+    {
+        HashMap<String, Long> map = new HashMap<String, Long>();
+        addPercentiles(map, "");
+        return map;
+    }
+
+    /**
+     * Add the count, standard percentiles and maximum value to a map.
+     * Times are reported in microseconds.
+     *
+     * @param map map to fill
+     * @param prefix prefix for each entry name
+     */
+    public void addPercentiles(Map<String, Long> map, String prefix)
+    {
+        map.put(prefix + "count", count.get());
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            map.put(prefix + PERCENTILE_NAMES[i],
+                    getPercentile(PERCENTILES[i]) / NANOS_PER_UNIT);
+        }
+        map.put(prefix + "max", max.get() / NANOS_PER_UNIT);
+    }
+
+    /**
+     * Record a duration.
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        buckets.incrementAndGet(bucketIndex(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+
+        long prev = max.get();
+        while (nanos > prev) {
+            if (max.compareAndSet(prev, nanos)) {
+                break;
+            }
+            prev = max.get();
+        }
+    }
+
+    /**
+     * Clear all recorded values.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        max.set(0);
+        sum.set(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LatencyHistogram[#" + count.get() + ",p50=" +
+            getPercentile(50.0) + ",p99=" + getPercentile(99.0) + ",max=" +
+            max.get() + "]";
+    }
+}
@@ -0,0 +1,493 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.juggler.alert.AlertException;
+import icecube.daq.juggler.alert.AlertQueue;
+import icecube.daq.juggler.alert.Alerter;
+import icecube.daq.trigger.algorithm.AbstractTrigger;
+import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TimerTask;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Degrade the trigger in ordered steps when the algorithm input queues or
+ * the output queue grow past their limits, and undo each step once the
+ * queues drain.
+ *
+ * <ol>
+ * <li>Prescale the requests from the min-bias algorithms.</li>
+ * <li>Pause the expensive algorithms.  Paused algorithms drop their
+ *     partial triggers and receive only time markers, so they never
+ *     hold back request release.</li>
+ * </ol>
+ *
+ * Every step is logged and sent as an alert.  Algorithms which are not
+ * named in either step (SMT in particular) are never touched.
+ */
+public class LoadShedder
+{
+    /**
+     * Set this property to the largest algorithm input queue allowed
+     * before load is shed (shedding is disabled if this is not set)
+     */
+    public static final String QUEUE_LIMIT_PROPERTY =
+        "icecube.daq.trigger.shed-queue-limit";
+    /**
+     * Set this property to the largest number of queued output requests
+     * allowed before load is shed (defaults to the input queue limit)
+     */
+    public static final String OUTPUT_LIMIT_PROPERTY =
+        "icecube.daq.trigger.shed-output-limit";
+    /** Set this property to the prescale applied in the first step */
+    public static final String PRESCALE_PROPERTY =
+        "icecube.daq.trigger.shed-prescale";
+    /**
+     * Set this property to a comma-separated list of the algorithm class
+     * names which are prescaled in the first step
+     */
+    public static final String PRESCALED_PROPERTY =
+        "icecube.daq.trigger.shed-prescaled";
+    /**
+     * Set this property to a comma-separated list of the algorithm class
+     * names which are paused in the second step
+     */
+    public static final String PAUSE_PROPERTY =
+        "icecube.daq.trigger.shed-pause";
+
+    /** Name of the I3Live alert */
+    public static final String ALERT_NAME = "trigger_load_shedding";
+
+    /** Nothing is being shed */
+    public static final int NORMAL = 0;
+    /** Min-bias algorithms are prescaled */
+    public static final int PRESCALED = 1;
+    /** Expensive algorithms are also paused */
+    public static final int PAUSED = 2;
+
+    /** Time between checks */
+    public static final long PERIOD_MILLIS = 1000L;
+
+    private static final Logger LOG = Logger.getLogger(LoadShedder.class);
+
+    private static final String[] LEVEL_NAMES =
+        new String[] { "normal", "prescaled", "paused" };
+
+    private static final int DEFAULT_PRESCALE = 10;
+    private static final String DEFAULT_PRESCALED =
+        "MinBiasTrigger,PhysicsMinBiasTrigger";
+    private static final String DEFAULT_PAUSE =
+        "SlowMPTrigger,CylinderTrigger";
+
+    private List<ITriggerAlgorithm> algorithms;
+    private int queueLimit;
+    private long outputLimit;
+    private int prescale;
+    private List<String> prescaleNames;
+    private List<String> pauseNames;
+
+    private AlertQueue alertQueue;
+    private volatile int runNumber = Integer.MIN_VALUE;
+
+    /** Current step */
+    private volatile int level = NORMAL;
+
+    /** Have the expensive algorithms been paused?  (ingest thread only) */
+    private boolean pauseApplied;
+    /** Subscribers of the paused algorithms (ingest thread only) */
+    private ArrayList<PayloadSubscriber> pausedSubs =
+        new ArrayList<PayloadSubscriber>();
+    /** Time of the most recent marker sent to the paused algorithms */
+    private long markerTime = Long.MIN_VALUE;
+
+    /**
+     * Create a load shedder.
+     *
+     * @param algorithms all algorithms
+     * @param queueLimit largest input queue allowed
+     * @param outputLimit largest output queue allowed
+     * @param prescale prescale applied to min-bias algorithms
+     * @param prescaleNames class names of the algorithms which may be
+     *                      prescaled
+     * @param pauseNames class names of the algorithms which may be paused
+     */
+    public LoadShedder(List<ITriggerAlgorithm> algorithms, int queueLimit,
+                       long outputLimit, int prescale,
+                       List<String> prescaleNames, List<String> pauseNames)
+    {
+        if (queueLimit <= 0 || outputLimit <= 0) {
+            throw new Error("Bad queue limits " + queueLimit + "/" +
+                            outputLimit);
+        }
+        if (prescale < 1) {
+            throw new Error("Bad shedding prescale " + prescale);
+        }
+
+        this.algorithms = algorithms;
+        this.queueLimit = queueLimit;
+        this.outputLimit = outputLimit;
+        this.prescale = prescale;
+        this.prescaleNames = prescaleNames;
+        this.pauseNames = pauseNames;
+    }
+
+    /**
+     * Create a load shedder if one has been requested.
+     *
+     * @param algorithms all algorithms
+     *
+     * @return new shedder or <tt>null</tt> if shedding is disabled
+     */
+    public static LoadShedder create(List<ITriggerAlgorithm> algorithms)
+    {
+        final int queueLimit = Integer.getInteger(QUEUE_LIMIT_PROPERTY, 0);
+        if (queueLimit <= 0) {
+            return null;
+        }
+
+        final long outputLimit =
+            Long.getLong(OUTPUT_LIMIT_PROPERTY, (long) queueLimit);
+        final int prescale =
+            Integer.getInteger(PRESCALE_PROPERTY, DEFAULT_PRESCALE);
+
+        return new LoadShedder(algorithms, queueLimit, outputLimit,
+                               prescale,
+                               parseNames(PRESCALED_PROPERTY,
+                                          DEFAULT_PRESCALED),
+                               parseNames(PAUSE_PROPERTY, DEFAULT_PAUSE));
+    }
+
+    /**
+     * Compare the queue sizes against the limits and move at most one
+     * step up or down.  The queues must fall to half their limits before
+     * a step is undone.
+     *
+     * @param inputQueued size of the longest algorithm input queue
+     * @param outputQueued number of requests waiting to be written
+     */
+    public void check(int inputQueued, long outputQueued)
+    {
+        final int newLevel;
+        if (inputQueued > queueLimit || outputQueued > outputLimit) {
+            if (level >= PAUSED) {
+                return;
+            }
+
+            newLevel = level + 1;
+        } else if (inputQueued <= queueLimit / 2 &&
+                   outputQueued <= outputLimit / 2)
+        {
+            if (level <= NORMAL) {
+                return;
+            }
+
+            newLevel = level - 1;
+        } else {
+            return;
+        }
+
+        final int oldLevel = level;
+        level = newLevel;
+
+        // prescaling does not depend on input order, so apply it now
+        final int newPrescale = (newLevel >= PRESCALED ? prescale : 1);
+        for (AbstractTrigger trig : getPrescaled()) {
+            trig.setShedPrescale(newPrescale);
+        }
+
+        report(oldLevel, newLevel, inputQueued, outputQueued);
+    }
+
+    /**
+     * Create a task which checks the queues of this manager.
+     *
+     * @param mgr trigger manager
+     * @param list algorithm input list
+     *
+     * @return timer task
+     */
+    public TimerTask createTask(TriggerManager mgr, SubscribedList list)
+    {
+        return new CheckTask(this, mgr, list);
+    }
+
+    /**
+     * Get the current step.
+     *
+     * @return <tt>NORMAL</tt>, <tt>PRESCALED</tt> or <tt>PAUSED</tt>
+     */
+    public int getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * Get a list of class names from a property.
+     *
+     * @param property property name
+     * @param defaultValue comma-separated names used if the property is
+     *                     not set
+     *
+     * @return list of names
+     */
+    private static List<String> parseNames(String property,
+                                           String defaultValue)
+    {
+        ArrayList<String> names = new ArrayList<String>();
+        for (String name : System.getProperty(property,
+                                              defaultValue).split(","))
+        {
+            if (name.trim().length() > 0) {
+                names.add(name.trim());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Get the algorithms which are paused in the second step.
+     *
+     * @return list of algorithms
+     */
+    private List<ITriggerAlgorithm> getPausable()
+    {
+        ArrayList<ITriggerAlgorithm> list = new ArrayList<ITriggerAlgorithm>();
+        for (ITriggerAlgorithm algo : algorithms) {
+            if (pauseNames.contains(algo.getClass().getSimpleName())) {
+                list.add(algo);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get the algorithms which are prescaled in the first step.
+     *
+     * @return list of algorithms
+     */
+    private List<AbstractTrigger> getPrescaled()
+    {
+        ArrayList<AbstractTrigger> list = new ArrayList<AbstractTrigger>();
+        for (ITriggerAlgorithm algo : algorithms) {
+            if (algo instanceof AbstractTrigger &&
+                prescaleNames.contains(algo.getClass().getSimpleName()))
+            {
+                list.add((AbstractTrigger) algo);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get the names of a list of algorithms.
+     *
+     * @param list algorithms
+     *
+     * @return list of names
+     */
+    private static List<String> getNames(List<? extends ITriggerAlgorithm>
+                                         list)
+    {
+        ArrayList<String> names = new ArrayList<String>(list.size());
+        for (ITriggerAlgorithm algo : list) {
+            names.add(algo.getTriggerName());
+        }
+        return names;
+    }
+
+    /**
+     * Log and send an alert describing the new step.
+     *
+     * @param oldLevel previous step
+     * @param newLevel new step
+     * @param inputQueued size of the longest algorithm input queue
+     * @param outputQueued number of requests waiting to be written
+     */
+    private void report(int oldLevel, int newLevel, int inputQueued,
+                        long outputQueued)
+    {
+        final List<String> prescaled;
+        if (newLevel >= PRESCALED) {
+            prescaled = getNames(getPrescaled());
+        } else {
+            prescaled = new ArrayList<String>();
+        }
+
+        final List<String> paused;
+        if (newLevel >= PAUSED) {
+            paused = getNames(getPausable());
+        } else {
+            paused = new ArrayList<String>();
+        }
+
+        final String msg = "Load shedding " +
+            (newLevel > oldLevel ? "raised" : "lowered") + " to " +
+            LEVEL_NAMES[newLevel] + " (input queue " + inputQueued + "/" +
+            queueLimit + ", output queue " + outputQueued + "/" +
+            outputLimit + "), prescaled " + prescaled + ", paused " + paused;
+        if (newLevel > oldLevel) {
+            LOG.error(msg);
+        } else {
+            LOG.info(msg);
+        }
+
+        if (alertQueue == null || alertQueue.isStopped()) {
+            return;
+        }
+
+        HashMap<String, Object> values = new HashMap<String, Object>();
+        if (runNumber != Integer.MIN_VALUE) {
+            values.put("runNumber", runNumber);
+        }
+        values.put("level", LEVEL_NAMES[newLevel]);
+        values.put("previous", LEVEL_NAMES[oldLevel]);
+        values.put("inputQueued", inputQueued);
+        values.put("inputLimit", queueLimit);
+        values.put("outputQueued", outputQueued);
+        values.put("outputLimit", outputLimit);
+        values.put("prescale", prescale);
+        values.put("prescaled", prescaled);
+        values.put("paused", paused);
+
+        try {
+            alertQueue.push(ALERT_NAME, Alerter.Priority.EMAIL, values);
+        } catch (AlertException ae) {
+            LOG.error("Cannot send load shedding alert", ae);
+        }
+    }
+
+    /**
+     * Undo all steps before a new run starts.
+     *
+     * @param list algorithm input list
+     */
+    public void reset(SubscribedList list)
+    {
+        level = NORMAL;
+
+        for (AbstractTrigger trig : getPrescaled()) {
+            trig.setShedPrescale(1);
+        }
+
+        if (pauseApplied) {
+            for (ITriggerAlgorithm algo : getPausable()) {
+                if (algo.getSubscriber() != null) {
+                    list.setPaused(algo.getSubscriber(), false);
+                }
+                algo.setPaused(false, Long.MIN_VALUE);
+            }
+            pausedSubs.clear();
+            pauseApplied = false;
+        }
+        markerTime = Long.MIN_VALUE;
+    }
+
+    /**
+     * Set the queue used to send alerts.
+     *
+     * @param alertQueue alert queue
+     */
+    public void setAlertQueue(AlertQueue alertQueue)
+    {
+        this.alertQueue = alertQueue;
+    }
+
+    /**
+     * Set the current run number (included in alerts).
+     *
+     * @param runNumber run number
+     */
+    public void setRunNumber(int runNumber)
+    {
+        this.runNumber = runNumber;
+    }
+
+    /**
+     * Pause or resume the expensive algorithms to match the current step.
+     * This must be called from the thread which pushes input to the list
+     * so the markers are queued in order with the hits.
+     *
+     * @param list algorithm input list
+     * @param inputTime time of the most recent input payload
+     */
+    public void update(SubscribedList list, long inputTime)
+    {
+        final boolean pause = level >= PAUSED;
+        if (pause != pauseApplied) {
+            for (ITriggerAlgorithm algo : getPausable()) {
+                PayloadSubscriber sub = algo.getSubscriber();
+                if (sub == null) {
+                    continue;
+                }
+
+                if (pause) {
+                    sub.push(new PauseMarker(inputTime, true));
+                    list.setPaused(sub, true);
+                    pausedSubs.add(sub);
+                } else {
+                    list.setPaused(sub, false);
+                    sub.push(new PauseMarker(inputTime, false));
+                }
+            }
+
+            if (!pause) {
+                pausedSubs.clear();
+            }
+            pauseApplied = pause;
+            markerTime = inputTime;
+        }
+
+        if (pauseApplied && inputTime != Long.MIN_VALUE &&
+            inputTime > markerTime)
+        {
+            // paused algorithms only move forward with the markers, and
+            // the others still get hits and the regular heartbeat
+            for (PayloadSubscriber sub : pausedSubs) {
+                sub.push(new TimeMarker(inputTime));
+            }
+            markerTime = inputTime;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LoadShedder[" + LEVEL_NAMES[level] + ", limits " +
+            queueLimit + "/" + outputLimit + ", prescale " +
+            Arrays.toString(prescaleNames.toArray()) + ", pause " +
+            Arrays.toString(pauseNames.toArray()) + "]";
+    }
+
+    /**
+     * Periodic task which checks the queues.
+     */
+    private static class CheckTask
+        extends TimerTask
+    {
+        private LoadShedder shedder;
+        private TriggerManager mgr;
+        private SubscribedList list;
+
+        CheckTask(LoadShedder shedder, TriggerManager mgr,
+                  SubscribedList list)
+        {
+            this.shedder = shedder;
+            this.mgr = mgr;
+            this.list = list;
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                shedder.check(list.size(), mgr.getNumOutputsQueued());
+            } catch (Throwable thr) {
+                LOG.error("Load shedding check failed", thr);
+            }
+        }
+    }
+}
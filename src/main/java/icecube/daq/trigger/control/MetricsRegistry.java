@@ -0,0 +1,450 @@
+package icecube.daq.trigger.control;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of counters, gauges and latency summaries which can be written
+ * in the Prometheus text exposition format.
+ *
+ * Hot paths hold on to the <tt>Counter</tt> returned at registration time
+ * and update it directly; counters never lock.  Gauges and summaries are
+ * only read when the registry is formatted, so registering a gauge which
+ * reads an existing field adds no cost to the code which updates that
+ * field.
+ */
+public class MetricsRegistry
+{
+    /** Quantiles reported for each latency summary */
+    private static final double[] QUANTILES =
+        new double[] { 0.5, 0.9, 0.99, 0.999 };
+
+    /** Nanoseconds per second (summaries are reported in seconds) */
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    /** Prometheus metric types */
+    private static final String COUNTER = "counter";
+    private static final String GAUGE = "gauge";
+    private static final String SUMMARY = "summary";
+
+    /** Metric families, keyed by name */
+    private ConcurrentMap<String, Family> families =
+        new ConcurrentHashMap<String, Family>();
+
+    /**
+     * Source for a value which is read only when metrics are scraped.
+     */
+    public interface Gauge
+    {
+        /**
+         * Get the current value.
+         *
+         * @return value
+         */
+        long getValue();
+    }
+
+    /**
+     * Monotonically increasing count which may be updated from any thread.
+     */
+    public static final class Counter
+    {
+        private LongAdder value = new LongAdder();
+
+        /**
+         * Add to this counter.
+         *
+         * @param num amount to add
+         */
+        public void add(long num)
+        {
+            value.add(num);
+        }
+
+        /**
+         * Get the current count.
+         *
+         * @return count
+         */
+        public long get()
+        {
+            return value.sum();
+        }
+
+        /**
+         * Increment this counter.
+         */
+        public void inc()
+        {
+            value.increment();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Counter[" + value.sum() + "]";
+        }
+    }
+
+    /**
+     * All metrics sharing a name, type and help text.
+     */
+    private static final class Family
+    {
+        private String name;
+        private String type;
+        private String help;
+
+        /** Metrics keyed by their formatted label string */
+        private ConcurrentMap<String, Object> metrics =
+            new ConcurrentHashMap<String, Object>();
+
+        Family(String name, String type, String help)
+        {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    /**
+     * Append a number in Prometheus format.
+     *
+     * @param buf output buffer
+     * @param value value
+     */
+    private static void appendDouble(StringBuilder buf, double value)
+    {
+        if (Double.isNaN(value)) {
+            buf.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            buf.append(value > 0 ? "+Inf" : "-Inf");
+        } else {
+            buf.append(value);
+        }
+    }
+
+    /**
+     * Append a single sample line.
+     *
+     * @param buf output buffer
+     * @param name sample name
+     * @param labels formatted labels (may be empty)
+     * @param extra extra formatted label (may be <tt>null</tt>)
+     * @param value sample value
+     */
+    private static void appendSample(StringBuilder buf, String name,
+                                     String labels, String extra,
+                                     String value)
+    {
+        buf.append(name);
+        if (labels.length() > 0 || extra != null) {
+            buf.append('{').append(labels);
+            if (extra != null) {
+                if (labels.length() > 0) {
+                    buf.append(',');
+                }
+                buf.append(extra);
+            }
+            buf.append('}');
+        }
+        buf.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Escape a label value.
+     *
+     * @param value raw value
+     *
+     * @return escaped value
+     */
+    private static String escape(String value)
+    {
+        if (value == null) {
+            return "";
+        }
+
+        StringBuilder buf = null;
+        for (int i = 0; i < value.length(); i++) {
+            final char ch = value.charAt(i);
+
+            String repl;
+            if (ch == '\\') {
+                repl = "\\\\";
+            } else if (ch == '"') {
+                repl = "\\\"";
+            } else if (ch == '\n') {
+                repl = "\\n";
+            } else {
+                repl = null;
+            }
+
+            if (repl != null && buf == null) {
+                buf = new StringBuilder(value.length() + 8);
+                buf.append(value, 0, i);
+            }
+            if (buf != null) {
+                if (repl == null) {
+                    buf.append(ch);
+                } else {
+                    buf.append(repl);
+                }
+            }
+        }
+
+        if (buf == null) {
+            return value;
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * Build the label string from name/value pairs.
+     *
+     * @param labels alternating label names and values
+     *
+     * @return formatted labels
+     */
+    private static String formatLabels(String[] labels)
+    {
+        if (labels == null || labels.length == 0) {
+            return "";
+        }
+        if (labels.length % 2 != 0) {
+            throw new Error("Labels must be name/value pairs");
+        }
+
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (!isValidName(labels[i])) {
+                throw new Error("Bad label name \"" + labels[i] + "\"");
+            }
+
+            if (i > 0) {
+                buf.append(',');
+            }
+            buf.append(labels[i]).append("=\"").append(escape(labels[i + 1])).
+                append('"');
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * Is this a valid Prometheus metric or label name?
+     *
+     * @param name name
+     *
+     * @return <tt>true</tt> if the name is valid
+     */
+    private static boolean isValidName(String name)
+    {
+        if (name == null || name.length() == 0) {
+            return false;
+        }
+
+        for (int i = 0; i < name.length(); i++) {
+            final char ch = name.charAt(i);
+            if (!((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') ||
+                  ch == '_' || ch == ':' || (i > 0 && ch >= '0' && ch <= '9')))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get a counter, creating it if necessary.
+     *
+     * @param name metric name
+     * @param help description
+     * @param labels alternating label names and values
+     *
+     * @return counter
+     */
+    public Counter counter(String name, String help, String... labels)
+    {
+        Family family = getFamily(name, COUNTER, help);
+
+        final String key = formatLabels(labels);
+
+        Object obj = family.metrics.get(key);
+        if (obj == null) {
+            Counter counter = new Counter();
+            obj = family.metrics.putIfAbsent(key, counter);
+            if (obj == null) {
+                return counter;
+            }
+        }
+
+        return (Counter) obj;
+    }
+
+    /**
+     * Register a counter whose value is read from an existing field only
+     * when metrics are scraped.  Any previous counter with the same name
+     * and labels is replaced.
+     *
+     * @param name metric name
+     * @param help description
+     * @param source value source
+     * @param labels alternating label names and values
+     */
+    public void counter(String name, String help, Gauge source,
+                        String... labels)
+    {
+        getFamily(name, COUNTER, help).metrics.put(formatLabels(labels),
+                                                    source);
+    }
+
+    /**
+     * Write all metrics in Prometheus text format.
+     *
+     * @return formatted metrics
+     */
+    public String format()
+    {
+        StringBuilder buf = new StringBuilder();
+
+        TreeMap<String, Family> sorted =
+            new TreeMap<String, Family>(families);
+        for (Family family : sorted.values()) {
+            TreeMap<String, Object> metrics =
+                new TreeMap<String, Object>(family.metrics);
+            if (metrics.isEmpty()) {
+                continue;
+            }
+
+            buf.append("# HELP ").append(family.name).append(' ').
+                append(family.help.replace("\\", "\\\\").
+                       replace("\n", "\\n")).append('\n');
+            buf.append("# TYPE ").append(family.name).append(' ').
+                append(family.type).append('\n');
+
+            for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+                formatMetric(buf, family.name, entry.getKey(),
+                             entry.getValue());
+            }
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * Write a single metric.
+     *
+     * @param buf output buffer
+     * @param name metric name
+     * @param labels formatted labels
+     * @param metric metric object
+     */
+    private static void formatMetric(StringBuilder buf, String name,
+                                     String labels, Object metric)
+    {
+        if (metric instanceof Counter) {
+            appendSample(buf, name, labels, null,
+                         Long.toString(((Counter) metric).get()));
+        } else if (metric instanceof Gauge) {
+            appendSample(buf, name, labels, null,
+                         Long.toString(((Gauge) metric).getValue()));
+        } else if (metric instanceof LatencyHistogram) {
+            LatencyHistogram hist = (LatencyHistogram) metric;
+
+            StringBuilder valBuf = new StringBuilder();
+            for (int i = 0; i < QUANTILES.length; i++) {
+                valBuf.setLength(0);
+                appendDouble(valBuf,
+                             hist.getPercentile(QUANTILES[i] * 100.0) /
+                             NANOS_PER_SECOND);
+                appendSample(buf, name, labels,
+                             "quantile=\"" + QUANTILES[i] + "\"",
+                             valBuf.toString());
+            }
+
+            valBuf.setLength(0);
+            appendDouble(valBuf, hist.getSum() / NANOS_PER_SECOND);
+            appendSample(buf, name + "_sum", labels, null, valBuf.toString());
+            appendSample(buf, name + "_count", labels, null,
+                         Long.toString(hist.getCount()));
+        } else {
+            throw new Error("Unknown metric " + metric.getClass().getName());
+        }
+    }
+
+    /**
+     * Register a gauge.  Any previous gauge with the same name and labels
+     * is replaced.
+     *
+     * @param name metric name
+     * @param help description
+     * @param gauge value source
+     * @param labels alternating label names and values
+     */
+    public void gauge(String name, String help, Gauge gauge,
+                      String... labels)
+    {
+        getFamily(name, GAUGE, help).metrics.put(formatLabels(labels),
+                                                  gauge);
+    }
+
+    /**
+     * Get a metric family, creating it if necessary.
+     *
+     * @param name metric name
+     * @param type metric type
+     * @param help description
+     *
+     * @return metric family
+     */
+    private Family getFamily(String name, String type, String help)
+    {
+        Family family = families.get(name);
+        if (family == null) {
+            if (!isValidName(name)) {
+                throw new Error("Bad metric name \"" + name + "\"");
+            }
+
+            Family newFamily = new Family(name, type, help);
+            family = families.putIfAbsent(name, newFamily);
+            if (family == null) {
+                return newFamily;
+            }
+        }
+
+        if (!family.type.equals(type)) {
+            throw new Error("Metric " + name + " is a " + family.type +
+                            ", not a " + type);
+        }
+
+        return family;
+    }
+
+    /**
+     * Register a latency histogram, reported as a Prometheus summary in
+     * seconds.  Any previous histogram with the same name and labels is
+     * replaced.
+     *
+     * @param name metric name
+     * @param help description
+     * @param hist latency histogram
+     * @param labels alternating label names and values
+     */
+    public void summary(String name, String help, LatencyHistogram hist,
+                        String... labels)
+    {
+        getFamily(name, SUMMARY, help).metrics.put(formatLabels(labels),
+                                                    hist);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MetricsRegistry" + families.keySet();
+    }
+}
@@ -0,0 +1,205 @@
+package icecube.daq.trigger.control;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Embedded HTTP server which serves the contents of a
+ * <tt>MetricsRegistry</tt> in Prometheus text format at
+ * <tt>/metrics</tt>.  The server uses the JDK's built-in HTTP server and
+ * its single dispatcher thread, so it needs no external services.  It only
+ * listens on the loopback interface unless another address is requested.
+ */
+public class MetricsServer
+{
+    /**
+     * Set this property to the port used to serve metrics (the server is
+     * disabled if this is not set)
+     */
+    public static final String PORT_PROPERTY =
+        "icecube.daq.trigger.metrics.port";
+    /**
+     * Set this property to the address the server listens on (defaults to
+     * the loopback address; use <tt>0.0.0.0</tt> for all interfaces)
+     */
+    public static final String BIND_PROPERTY =
+        "icecube.daq.trigger.metrics.bind-address";
+
+    /** Path used to serve metrics */
+    public static final String PATH = "/metrics";
+
+    /** Prometheus text format content type */
+    private static final String CONTENT_TYPE =
+        "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final Logger LOG = Logger.getLogger(MetricsServer.class);
+
+    private MetricsRegistry registry;
+    private HttpServer server;
+
+    /**
+     * Create and start a metrics server on the loopback interface.
+     *
+     * @param registry metrics to serve
+     * @param port port number (<tt>0</tt> picks a free port)
+     *
+     * @throws IOException if the server cannot be started
+     */
+    public MetricsServer(MetricsRegistry registry, int port)
+        throws IOException
+    {
+        this(registry, null, port);
+    }
+
+    /**
+     * Create and start a metrics server.
+     *
+     * @param registry metrics to serve
+     * @param bindAddress address to listen on (<tt>null</tt> for the
+     *                    loopback address)
+     * @param port port number (<tt>0</tt> picks a free port)
+     *
+     * @throws IOException if the server cannot be started
+     */
+    public MetricsServer(MetricsRegistry registry, String bindAddress,
+                         int port)
+        throws IOException
+    {
+        this.registry = registry;
+
+        final InetAddress addr;
+        if (bindAddress == null) {
+            addr = InetAddress.getLoopbackAddress();
+        } else {
+            addr = InetAddress.getByName(bindAddress);
+        }
+
+        server = HttpServer.create(new InetSocketAddress(addr, port), 0);
+        server.createContext(PATH, new MetricsHandler(registry));
+        server.start();
+    }
+
+    /**
+     * Create a metrics server if one has been requested.
+     *
+     * @param registry metrics to serve
+     *
+     * @return new server or <tt>null</tt> if the server is disabled or
+     *         cannot be started
+     */
+    public static MetricsServer create(MetricsRegistry registry)
+    {
+        final Integer port = Integer.getInteger(PORT_PROPERTY);
+        if (port == null || port < 0) {
+            return null;
+        }
+
+        final String bindAddress = System.getProperty(BIND_PROPERTY);
+        try {
+            return new MetricsServer(registry, bindAddress, port);
+        } catch (IOException ioe) {
+            LOG.error("Cannot start metrics server on " +
+                      (bindAddress == null ? "" : bindAddress + " ") +
+                      "port " + port, ioe);
+            return null;
+        }
+    }
+
+    /**
+     * Get the address used by this server.
+     *
+     * @return bound address
+     */
+    public InetAddress getAddress()
+    {
+        return server.getAddress().getAddress();
+    }
+
+    /**
+     * Get the port used by this server.
+     *
+     * @return port number
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stop the server.
+     */
+    public void stop()
+    {
+        server.stop(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MetricsServer[" + getAddress().getHostAddress() + ":" +
+            getPort() + ", " + registry + "]";
+    }
+
+    /**
+     * Write the registry contents in response to every request.
+     */
+    private static class MetricsHandler
+        implements HttpHandler
+    {
+        private MetricsRegistry registry;
+
+        MetricsHandler(MetricsRegistry registry)
+        {
+            this.registry = registry;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange)
+            throws IOException
+        {
+            try {
+                final String method = exchange.getRequestMethod();
+                if (!method.equals("GET") && !method.equals("HEAD")) {
+                    exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+
+                byte[] body;
+                try {
+                    body = registry.format().getBytes(StandardCharsets.UTF_8);
+                } catch (Throwable thr) {
+                    LOG.error("Cannot format metrics", thr);
+                    exchange.sendResponseHeaders(500, -1);
+                    return;
+                }
+
+                exchange.getResponseHeaders().set("Content-Type",
+                                                  CONTENT_TYPE);
+                if (method.equals("HEAD")) {
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(body);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
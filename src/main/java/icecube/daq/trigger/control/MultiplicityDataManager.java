@@ -5,7 +5,6 @@ import icecube.daq.juggler.alert.AlertQueue;
 import icecube.daq.juggler.alert.Alerter;
 import icecube.daq.payload.IPayload;
 import icecube.daq.payload.ITriggerRequestPayload;
-import icecube.daq.payload.IUTCTime;
 import icecube.daq.payload.PayloadFormatException;
 import icecube.daq.payload.impl.UTCTime;
 import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
@@ -20,6 +19,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.apache.log4j.Logger;
 
@@ -66,7 +67,34 @@ class HashKey
                                                 cfgId);
         }
 
-        key = tmpSrc + (type << 5) + (cfgId << 13);
+        key = computeKey(srcId, type, cfgId);
+    }
+
+    /**
+     * Compute the integer key for a trigger triplet without building
+     * a HashKey.
+     *
+     * @param srcId source ID
+     * @param type trigger type
+     * @param cfgId trigger configuration ID
+     *
+     * @return key value, or <tt>-1</tt> if the triplet is not valid
+     */
+    static int computeKey(int srcId, int type, int cfgId)
+    {
+        final int tmpSrc = srcId / 1000;
+        if (tmpSrc < 0 || tmpSrc > 31 || type < 0 || type > 255 ||
+            cfgId < 0 || cfgId > Integer.MAX_VALUE >> 13)
+        {
+            return -1;
+        }
+
+        return tmpSrc + (type << 5) + (cfgId << 13);
+    }
+
+    int getKey()
+    {
+        return key;
     }
 
     @Override
@@ -156,6 +184,11 @@ class CountData
     }
 }
 
+/**
+ * Per-algorithm request counters.  Counts are updated without locking by
+ * the thread which calls <tt>inc()</tt>; completed one-minute bins are
+ * handed to the (locked) summary methods through a concurrent queue.
+ */
 class Bins
 {
     public static final int RATE_VERSION = 0;
@@ -168,37 +201,45 @@ class Bins
     public static final long WIDTH =
         DAQ_TICKS_PER_SECOND * SECONDS_PER_BIN;
 
-    private int[] bins;
-    private int overflow;
-    private int maxLen;
+    private AtomicIntegerArray bins;
+    private volatile int overflow;
+    private volatile int maxLen;
+
+    /** Has anything been counted? */
+    private volatile boolean used;
 
+    /** Current one-minute bin, only touched by <tt>inc()</tt> */
     private long endTime = Long.MIN_VALUE;
     private int count;
 
-    private ArrayList<CountData> counts = new ArrayList<CountData>();
+    /** Completed one-minute bins */
+    private ConcurrentLinkedDeque<CountData> counts =
+        new ConcurrentLinkedDeque<CountData>();
 
     Bins(int maxBins)
     {
-        bins = new int[maxBins];
+        bins = new AtomicIntegerArray(maxBins);
     }
 
     private void addBin(int runNumber)
     {
-        counts.add(new CountData(runNumber, endTime, count));
+        counts.addLast(new CountData(runNumber, endTime, count));
         count = 0;
     }
 
     synchronized Map<String, Object> getBinData()
     {
-        int[] finalBins;
-        if (maxLen >= bins.length) {
-            finalBins = bins;
+        final int len;
+        if (maxLen >= bins.length()) {
+            len = bins.length();
         } else {
-            finalBins = Arrays.copyOfRange(bins, 0, maxLen);
+            len = maxLen;
         }
 
+        int[] finalBins = new int[len];
         int sum = 0;
         for (int i = 0; i < finalBins.length; i++) {
+            finalBins[i] = bins.get(i);
             sum += finalBins[i];
         }
 
@@ -219,13 +260,14 @@ class Bins
                                                 int cfgId, int numBins,
                                                 boolean allowPartial)
     {
-        if (counts.size() == 0 || (!allowPartial && counts.size() < numBins)) {
+        final int numCounts = counts.size();
+        if (numCounts == 0 || (!allowPartial && numCounts < numBins)) {
             return null;
         }
 
         // if we're returning a partial summary, get the correct number of bins
-        if (counts.size() < numBins) {
-            numBins = counts.size();
+        if (numCounts < numBins) {
+            numBins = numCounts;
         }
 
         int runNumber = Integer.MAX_VALUE;
@@ -234,13 +276,13 @@ class Bins
         int total = 0;
 
         for (int i = 0; i < numBins; i++) {
-            CountData cd = counts.remove(0);
+            CountData cd = counts.pollFirst();
             if (i == 0) {
                 runNumber = cd.getRunNumber();
                 startTime = cd.getEndTime() - WIDTH + 1;
             } else if (cd.getRunNumber() != runNumber) {
                 // next bin is for a different run
-                counts.add(0, cd);
+                counts.addFirst(cd);
                 break;
             }
 
@@ -272,30 +314,40 @@ class Bins
      * @param runNumber current run number
      * @param bin bin number
      */
-    synchronized void inc(IUTCTime firstTime, IUTCTime lastTime, int runNumber,
-                          int bin)
+    void inc(long firstTime, long lastTime, int runNumber, int bin)
     {
         if (bin >= maxLen) {
             maxLen = bin + 1;
         }
-        if (bin >= bins.length) {
+        if (bin >= bins.length()) {
             overflow = 1;
         } else {
-            bins[bin]++;
+            bins.incrementAndGet(bin);
         }
 
         if (endTime == Long.MIN_VALUE) {
-            endTime = firstTime.longValue() + WIDTH;
+            endTime = firstTime + WIDTH;
         }
 
         // (lastTime - firstTime) may span multiple bins;
         // first bin gets full count, remaining bins set to 0
-        while (lastTime.longValue() > endTime) {
+        while (lastTime > endTime) {
             addBin(runNumber);
             endTime += WIDTH;
         }
 
         count++;
+        used = true;
+    }
+
+    /**
+     * Has anything been counted?
+     *
+     * @return <tt>true</tt> if <tt>inc()</tt> has been called
+     */
+    boolean isUsed()
+    {
+        return used;
     }
 
     @Override
@@ -306,6 +358,115 @@ class Bins
     }
 }
 
+/**
+ * Immutable table of counters for all registered algorithms, sorted by key
+ */
+class BinTable
+{
+    private int[] keys;
+    private HashKey[] hashKeys;
+    private Bins[] bins;
+
+    BinTable()
+    {
+        this(new HashKey[0], 0);
+    }
+
+    private BinTable(HashKey[] list, int maxBins)
+    {
+        keys = new int[list.length];
+        hashKeys = list;
+        bins = new Bins[list.length];
+
+        for (int i = 0; i < list.length; i++) {
+            keys[i] = list[i].getKey();
+            bins[i] = new Bins(maxBins);
+        }
+    }
+
+    /**
+     * Return a new table which includes <tt>newKey</tt>.
+     *
+     * @param newKey key to add
+     * @param maxBins maximum number of multiplicity bins
+     *
+     * @return new table (or this table if the key is already registered)
+     */
+    BinTable add(HashKey newKey, int maxBins)
+    {
+        int idx = Arrays.binarySearch(keys, newKey.getKey());
+        if (idx >= 0) {
+            return this;
+        }
+
+        final int insIdx = -(idx + 1);
+
+        HashKey[] list = new HashKey[hashKeys.length + 1];
+        System.arraycopy(hashKeys, 0, list, 0, insIdx);
+        list[insIdx] = newKey;
+        System.arraycopy(hashKeys, insIdx, list, insIdx + 1,
+                         hashKeys.length - insIdx);
+
+        BinTable newTable = new BinTable(list, maxBins);
+        for (int i = 0; i < hashKeys.length; i++) {
+            newTable.bins[i < insIdx ? i : i + 1] = bins[i];
+        }
+        return newTable;
+    }
+
+    /**
+     * Find the counters for a key.
+     *
+     * @param key key computed by HashKey
+     *
+     * @return counters, or <tt>null</tt> if the key is not registered
+     */
+    Bins find(int key)
+    {
+        int lo = 0;
+        int hi = keys.length - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else if (keys[mid] > key) {
+                hi = mid - 1;
+            } else {
+                return bins[mid];
+            }
+        }
+
+        return null;
+    }
+
+    Bins getBins(int idx)
+    {
+        return bins[idx];
+    }
+
+    HashKey getHashKey(int idx)
+    {
+        return hashKeys[idx];
+    }
+
+    /**
+     * Return a copy of this table with empty counters.
+     *
+     * @param maxBins maximum number of multiplicity bins
+     *
+     * @return new table
+     */
+    BinTable reset(int maxBins)
+    {
+        return new BinTable(hashKeys, maxBins);
+    }
+
+    int size()
+    {
+        return keys.length;
+    }
+}
+
 public class MultiplicityDataManager
     implements IMonitoringDataManager
 {
@@ -323,7 +484,10 @@ public class MultiplicityDataManager
     private List<ITriggerAlgorithm> algorithms;
 
     private AlertQueue alertQueue;
+    /** Counters for requests from unregistered algorithms */
     private HashMap<HashKey, Bins> binmap;
+    /** Counters for all registered algorithms */
+    private volatile BinTable binTable = new BinTable();
 
     private Calendar startTime;
     private int runNumber = NO_NUMBER;
@@ -348,8 +512,10 @@ public class MultiplicityDataManager
             throw new MultiplicityDataException(msg);
         }
 
-        if (req.isMerged() || req.getTriggerConfigID() == -1) {
-            // extract list of merged triggers
+        if (req.isMerged() || req.getTriggerConfigID() == -1 ||
+            req.getTriggerConfigID() == LagTolerance.LATE_CONFIG_ID)
+        {
+            // extract list of merged (or late) triggers
             Collection<IPayload> subList;
             try {
                 subList = req.getPayloads();
@@ -410,12 +576,18 @@ public class MultiplicityDataManager
         }
 
         // and we've finally got something we can monitor!
-        HashKey key;
-        try {
-            key = new HashKey(req);
-        } catch (MultiplicityDataException mde) {
-            throw new MultiplicityDataException("Cannot build key for " +
-                                                req, mde);
+        final int keyVal =
+            HashKey.computeKey(req.getSourceID().getSourceID(),
+                               req.getTriggerType(),
+                               req.getTriggerConfigID());
+        if (keyVal < 0) {
+            try {
+                // build a HashKey to get a detailed error
+                new HashKey(req);
+            } catch (MultiplicityDataException mde) {
+                throw new MultiplicityDataException("Cannot build key for " +
+                                                    req, mde);
+            }
         }
 
         Collection<IPayload> payloads;
@@ -433,6 +605,13 @@ public class MultiplicityDataManager
             bin = payloads.size();
         }
 
+        Bins bins = binTable.find(keyVal);
+        if (bins != null) {
+            bins.inc(reqFirst, reqLast, runNumber, bin);
+            return;
+        }
+
+        HashKey key = new HashKey(req);
         synchronized (binmap) {
             if (!binmap.containsKey(key)) {
                 // will this provide a valid multiplicity value?
@@ -441,19 +620,41 @@ public class MultiplicityDataManager
                 // add new algorithm
                 binmap.put(key, new Bins(MAX_BINS));
             }
-            binmap.get(key).inc(req.getFirstTimeUTC(), req.getLastTimeUTC(),
-                                runNumber, bin);
+            binmap.get(key).inc(reqFirst, reqLast, runNumber, bin);
         }
     }
 
     /**
-     * Add an algorithm to the list.
+     * Add an algorithm to the list and register its counters.
      *
      * @param algorithm trigger algorithm
      */
     public void addAlgorithm(ITriggerAlgorithm algorithm)
     {
         algorithms.add(algorithm);
+
+        final int srcId = algorithm.getSourceId();
+        final int type = algorithm.getTriggerType();
+        final int cfgId = algorithm.getTriggerConfigId();
+        if (HashKey.computeKey(srcId, type, cfgId) < 0) {
+            // merged requests (cfgId -1) are counted by subrequest
+            return;
+        }
+
+        HashKey key;
+        try {
+            key = new HashKey(srcId, type, cfgId);
+        } catch (MultiplicityDataException mde) {
+            LOG.error("Cannot register " + algorithm.getTriggerName(), mde);
+            return;
+        }
+
+        synchronized (algorithms) {
+            if (binTable.find(key.getKey()) == null) {
+                key.setValidMultiplicity(algorithm.hasValidMultiplicity());
+                binTable = binTable.add(key, MAX_BINS);
+            }
+        }
     }
 
     /**
@@ -476,33 +677,70 @@ public class MultiplicityDataManager
             throw new MultiplicityDataException(msg);
         }
 
+        final BinTable table = binTable;
+
         List<Map<String, Object>> list = null;
         synchronized (binmap) {
-            if (binmap.size() == 0 && !allowEmptyBins) {
+            if (binmap.size() == 0 && countUsed(table) == 0 &&
+                !allowEmptyBins)
+            {
                 // don't bother sending empty list
                 list = null;
             } else {
                 list = new ArrayList<Map<String, Object>>();
-                for (HashKey key : binmap.keySet()) {
-                    Bins bins = binmap.get(key);
-                    while (true) {
-                        Map<String, Object> values =
-                            bins.getSummary(key.getSourceID(), key.getType(),
-                                            key.getConfigID(), numBins,
-                                            allowPartial);
-                        if (values == null) {
-                            break;
-                        }
-
-                        list.add(values);
+                for (int i = 0; i < table.size(); i++) {
+                    if (table.getBins(i).isUsed()) {
+                        addSummary(list, table.getHashKey(i),
+                                   table.getBins(i), numBins, allowPartial);
                     }
                 }
+                for (HashKey key : binmap.keySet()) {
+                    addSummary(list, key, binmap.get(key), numBins,
+                               allowPartial);
+                }
             }
         }
 
         return list;
     }
 
+    /**
+     * Add all available summaries for one algorithm to the list.
+     */
+    private static void addSummary(List<Map<String, Object>> list,
+                                   HashKey key, Bins bins, int numBins,
+                                   boolean allowPartial)
+    {
+        while (true) {
+            Map<String, Object> values =
+                bins.getSummary(key.getSourceID(), key.getType(),
+                                key.getConfigID(), numBins, allowPartial);
+            if (values == null) {
+                break;
+            }
+
+            list.add(values);
+        }
+    }
+
+    /**
+     * Count the registered algorithms which have seen a request.
+     *
+     * @param table table of registered algorithms
+     *
+     * @return number of active algorithms
+     */
+    private static int countUsed(BinTable table)
+    {
+        int num = 0;
+        for (int i = 0; i < table.size(); i++) {
+            if (table.getBins(i).isUsed()) {
+                num++;
+            }
+        }
+        return num;
+    }
+
     /**
      * Is this request from an algorithm which includes all the relevant hits?
      *
@@ -543,6 +781,7 @@ public class MultiplicityDataManager
         synchronized (binmap) {
             start(nextRunNumber);
             binmap.clear();
+            binTable = binTable.reset(MAX_BINS);
         }
 
         nextRunNumber = NO_NUMBER;
@@ -596,11 +835,13 @@ public class MultiplicityDataManager
         ArrayList<Map<String, Object>> valueList =
             new ArrayList<Map<String, Object>>();
 
+        final BinTable table = binTable;
+
         synchronized (binmap) {
             if (runNumber == NO_NUMBER) {
                 final String msg = "Run number has not been set";
                 throw new MultiplicityDataException(msg);
-            } else if (binmap.size() == 0) {
+            } else if (binmap.size() == 0 && countUsed(table) == 0) {
                 // don't bother sending empty list
                 return false;
             } else if (alertQueue == null) {
@@ -616,26 +857,18 @@ public class MultiplicityDataManager
             SimpleDateFormat dateFormat =
                 new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSSSSSSSS");
 
-            for (HashKey key : binmap.keySet()) {
-                if (!key.hasValidMultiplicity()) {
-                    continue;
-                }
-
-                HashMap<String, Object> values = new HashMap<String, Object>();
+            final String firstEntry = dateFormat.format(startTime.getTime());
+            final String lastEntry = dateFormat.format(endTime.getTime());
 
-                values.put("sourceid", key.getSourceID());
-                values.put("trigid", key.getType());
-                values.put("configid", key.getConfigID());
-
-                values.put("hist", binmap.get(key).getBinData());
-                values.put("timeOfFirstEntry",
-                           dateFormat.format(startTime.getTime()));
-                values.put("timeOfLastEntry",
-                           dateFormat.format(endTime.getTime()));
-                values.put("runNumber", runNumber);
-                values.put("version", MULTIPLICITY_VERSION);
-
-                valueList.add(values);
+            for (int i = 0; i < table.size(); i++) {
+                if (table.getBins(i).isUsed()) {
+                    addMultiplicity(valueList, table.getHashKey(i),
+                                    table.getBins(i), firstEntry, lastEntry);
+                }
+            }
+            for (HashKey key : binmap.keySet()) {
+                addMultiplicity(valueList, key, binmap.get(key), firstEntry,
+                                lastEntry);
             }
 
             startTime = Calendar.getInstance();
@@ -653,6 +886,32 @@ public class MultiplicityDataManager
         return true;
     }
 
+    /**
+     * Add the multiplicity histogram for one algorithm to the list.
+     */
+    private void addMultiplicity(List<Map<String, Object>> valueList,
+                                 HashKey key, Bins bins, String firstEntry,
+                                 String lastEntry)
+    {
+        if (!key.hasValidMultiplicity()) {
+            return;
+        }
+
+        HashMap<String, Object> values = new HashMap<String, Object>();
+
+        values.put("sourceid", key.getSourceID());
+        values.put("trigid", key.getType());
+        values.put("configid", key.getConfigID());
+
+        values.put("hist", bins.getBinData());
+        values.put("timeOfFirstEntry", firstEntry);
+        values.put("timeOfLastEntry", lastEntry);
+        values.put("runNumber", runNumber);
+        values.put("version", MULTIPLICITY_VERSION);
+
+        valueList.add(values);
+    }
+
     /**
      * Send the current bin of data to I3Live
      *
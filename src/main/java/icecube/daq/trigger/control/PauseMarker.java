@@ -0,0 +1,58 @@
+package icecube.daq.trigger.control;
+
+/**
+ * Marker sent to a single algorithm when load shedding stops or resumes
+ * its input.  While an algorithm is paused it only sees control payloads
+ * such as time markers and the final flush.
+ */
+public class PauseMarker
+    extends DummyPayload
+{
+    private boolean paused;
+
+    /**
+     * Create a pause marker.
+     *
+     * @param time time of the input stream
+     * @param paused <tt>true</tt> if input is being stopped,
+     *               <tt>false</tt> if it is being resumed
+     */
+    public PauseMarker(long time, boolean paused)
+    {
+        super(time);
+
+        this.paused = paused;
+    }
+
+    /**
+     * Make a copy of this marker.
+     *
+     * @return copy of marker
+     */
+    @Override
+    public Object deepCopy()
+    {
+        return new PauseMarker(getUTCTime(), paused);
+    }
+
+    /**
+     * Is input being stopped?
+     *
+     * @return <tt>true</tt> if the algorithm is being paused
+     */
+    public boolean isPaused()
+    {
+        return paused;
+    }
+
+    /**
+     * Return a debugging string.
+     *
+     * @return debugging string
+     */
+    @Override
+    public String toString()
+    {
+        return (paused ? "Pause@" : "Resume@") + getUTCTime();
+    }
+}
@@ -50,6 +50,13 @@ public interface PayloadSubscriber
      */
     void push(IPayload pay);
 
+    /**
+     * Discard any queued payloads and clear the stopped state so this
+     * subscriber can be reused for another run.  Must not be called while
+     * the consumer is active.
+     */
+    void reset();
+
     /**
      * Get the number of queued payloads
      *
@@ -0,0 +1,187 @@
+package icecube.daq.trigger.control;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Limit the number of messages logged from one site for each cause.
+ *
+ * Callers check <tt>allow()</tt> before building a message, so nothing is
+ * formatted for suppressed occurrences:
+ * <pre>
+ * if (badHitLog.allow("outOfOrder")) {
+ *     LOG.error("Hit " + hit + " out of order");
+ * }
+ * </pre>
+ * The first few occurrences of each cause in every interval are allowed
+ * and the rest are counted.  The number suppressed during an interval is
+ * logged by the first call after the interval ends, or by
+ * <tt>report()</tt>.
+ */
+public class RateLimitedLog
+{
+    /** Set this property to the length of each interval in milliseconds */
+    public static final String INTERVAL_PROPERTY =
+        "icecube.daq.trigger.log-interval-millis";
+    /**
+     * Set this property to the number of messages allowed for each cause
+     * in each interval
+     */
+    public static final String BURST_PROPERTY =
+        "icecube.daq.trigger.log-burst";
+
+    /** Default interval length */
+    private static final long DEFAULT_INTERVAL_MILLIS = 10000L;
+    /** Default number of messages allowed in each interval */
+    private static final int DEFAULT_BURST = 10;
+
+    private Logger log;
+    private String site;
+
+    private long intervalNanos;
+    private int burst;
+
+    /** Counts for each cause */
+    private HashMap<Object, Cause> causes = new HashMap<Object, Cause>();
+
+    /**
+     * Create a rate limiter for one logging site.
+     *
+     * @param log logger used for summaries
+     * @param site name of the logging site
+     */
+    public RateLimitedLog(Logger log, String site)
+    {
+        this(log, site,
+             Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL_MILLIS),
+             Integer.getInteger(BURST_PROPERTY, DEFAULT_BURST));
+    }
+
+    /**
+     * Create a rate limiter for one logging site.
+     *
+     * @param log logger used for summaries
+     * @param site name of the logging site
+     * @param intervalMillis length of each interval in milliseconds
+     * @param burst number of messages allowed for each cause per interval
+     */
+    public RateLimitedLog(Logger log, String site, long intervalMillis,
+                          int burst)
+    {
+        this.log = log;
+        this.site = site;
+        this.intervalNanos = intervalMillis * 1000000L;
+        this.burst = burst;
+    }
+
+    /**
+     * Should a message for this cause be logged?
+     *
+     * @param cause cause of the message (compared with <tt>equals()</tt>)
+     *
+     * @return <tt>true</tt> if the caller should log its message
+     */
+    public synchronized boolean allow(Object cause)
+    {
+        final long now = System.nanoTime();
+
+        Cause entry = causes.get(cause);
+        if (entry == null) {
+            entry = new Cause(now);
+            causes.put(cause, entry);
+        } else if (now - entry.start >= intervalNanos) {
+            summarize(cause, entry, now);
+            entry.start = now;
+            entry.numAllowed = 0;
+        }
+
+        if (entry.numAllowed < burst) {
+            entry.numAllowed++;
+            return true;
+        }
+
+        entry.numSuppressed++;
+        entry.totalSuppressed++;
+        return false;
+    }
+
+    /**
+     * Get the total number of suppressed messages for each cause.
+     *
+     * @return map of causes to suppressed counts
+     */
+    public synchronized Map<String, Long> getSuppressed()
+    {
+        HashMap<String, Long> map = new HashMap<String, Long>();
+        for (Map.Entry<Object, Cause> entry : causes.entrySet()) {
+            map.put(String.valueOf(entry.getKey()),
+                    entry.getValue().totalSuppressed);
+        }
+        return map;
+    }
+
+    /**
+     * Log the number of messages suppressed since the last summary.
+     */
+    public synchronized void report()
+    {
+        final long now = System.nanoTime();
+        for (Map.Entry<Object, Cause> entry : causes.entrySet()) {
+            summarize(entry.getKey(), entry.getValue(), now);
+        }
+    }
+
+    /**
+     * Forget all counts.
+     */
+    public synchronized void reset()
+    {
+        causes.clear();
+    }
+
+    /**
+     * Log the number of suppressed messages for one cause.
+     *
+     * @param cause cause
+     * @param entry counts for the cause
+     * @param now current time in nanoseconds
+     */
+    private void summarize(Object cause, Cause entry, long now)
+    {
+        if (entry.numSuppressed > 0) {
+            log.error(String.format("%s: suppressed %d \"%s\" messages" +
+                                    " in the last %d ms", site,
+                                    entry.numSuppressed, cause,
+                                    (now - entry.start) / 1000000L));
+            entry.numSuppressed = 0;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RateLimitedLog[" + site + "]";
+    }
+
+    /**
+     * Counts for one cause.
+     */
+    private static final class Cause
+    {
+        /** Start of the current interval */
+        private long start;
+        /** Number of messages allowed in the current interval */
+        private int numAllowed;
+        /** Number of messages suppressed since the last summary */
+        private long numSuppressed;
+        /** Number of messages suppressed since this was created */
+        private long totalSuppressed;
+
+        Cause(long start)
+        {
+            this.start = start;
+        }
+    }
+}
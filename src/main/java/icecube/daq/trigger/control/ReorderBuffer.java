@@ -0,0 +1,291 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.payload.IPayload;
+
+/**
+ * Hold input payloads for a fixed span of DAQ time so small out-of-order
+ * arrivals can be put back in time order before they reach the
+ * algorithms.
+ *
+ * Payloads are kept in a min-heap built on parallel arrays of times and
+ * payloads.  The earliest payload is released once the newest payload
+ * is at least <tt>window</tt> ticks later.  A payload which is earlier
+ * than one which has already been released cannot be reordered, so it
+ * is counted and rejected.
+ *
+ * This class is not thread-safe; it is only used by the splicer thread.
+ */
+public class ReorderBuffer
+{
+    /**
+     * Set this property to the number of DAQ ticks each hit is held so
+     * it can be reordered (reordering is disabled if this is not set)
+     */
+    public static final String WINDOW_PROPERTY =
+        "icecube.daq.trigger.reorder-ticks";
+
+    /** Initial heap capacity */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Number of DAQ ticks each payload is held */
+    private long window;
+
+    /** Heap of payload times */
+    private long[] times = new long[INITIAL_CAPACITY];
+    /** Heap of payloads, kept in step with <tt>times</tt> */
+    private IPayload[] payloads = new IPayload[INITIAL_CAPACITY];
+    /** Number of payloads in the heap */
+    private int size;
+
+    /** Time of the newest payload added to the heap */
+    private long newestTime = Long.MIN_VALUE;
+    /** Time of the most recently released payload */
+    private long releasedTime = Long.MIN_VALUE;
+
+    /** Number of payloads which arrived too late to be reordered */
+    private long numLate;
+    /** Number of payloads which were released out of arrival order */
+    private long numReordered;
+    /** Largest number of payloads held at once */
+    private int maxHeld;
+
+    /**
+     * Create a reorder buffer.
+     *
+     * @param window number of DAQ ticks each payload is held
+     */
+    public ReorderBuffer(long window)
+    {
+        if (window <= 0) {
+            throw new Error("Reorder window must be positive, not " + window);
+        }
+
+        this.window = window;
+    }
+
+    /**
+     * Add a payload to the buffer.
+     *
+     * @param pay payload
+     *
+     * @return <tt>false</tt> if the payload is earlier than a payload
+     *         which has already been released
+     */
+    public boolean add(IPayload pay)
+    {
+        final long time = pay.getUTCTime();
+        if (time < releasedTime) {
+            numLate++;
+            return false;
+        }
+
+        if (time < newestTime) {
+            numReordered++;
+        } else {
+            newestTime = time;
+        }
+
+        if (size == times.length) {
+            grow();
+        }
+
+        // sift the new entry up from the bottom of the heap
+        int idx = size++;
+        while (idx > 0) {
+            final int parent = (idx - 1) >>> 1;
+            if (times[parent] <= time) {
+                break;
+            }
+
+            times[idx] = times[parent];
+            payloads[idx] = payloads[parent];
+            idx = parent;
+        }
+
+        times[idx] = time;
+        payloads[idx] = pay;
+
+        if (size > maxHeld) {
+            maxHeld = size;
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove all payloads from the buffer and reset the counters.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < size; i++) {
+            payloads[i].recycle();
+            payloads[i] = null;
+        }
+        size = 0;
+
+        newestTime = Long.MIN_VALUE;
+        releasedTime = Long.MIN_VALUE;
+        numLate = 0;
+        numReordered = 0;
+        maxHeld = 0;
+    }
+
+    /**
+     * Create a reorder buffer if reordering has been requested.
+     *
+     * @return new buffer or <tt>null</tt> if reordering is disabled
+     */
+    public static ReorderBuffer create()
+    {
+        final long window = Long.getLong(WINDOW_PROPERTY, 0L);
+        if (window <= 0) {
+            return null;
+        }
+
+        return new ReorderBuffer(window);
+    }
+
+    /**
+     * Get the largest number of payloads held at once.
+     *
+     * @return maximum number of payloads held
+     */
+    public int getMaxHeld()
+    {
+        return maxHeld;
+    }
+
+    /**
+     * Get the number of payloads which arrived too late to be reordered.
+     *
+     * @return number of late payloads
+     */
+    public long getNumLate()
+    {
+        return numLate;
+    }
+
+    /**
+     * Get the number of payloads which arrived earlier than a payload
+     * already in the buffer.
+     *
+     * @return number of reordered payloads
+     */
+    public long getNumReordered()
+    {
+        return numReordered;
+    }
+
+    /**
+     * Get the number of DAQ ticks each payload is held.
+     *
+     * @return reorder window
+     */
+    public long getWindow()
+    {
+        return window;
+    }
+
+    /**
+     * Double the heap capacity.
+     */
+    private void grow()
+    {
+        final int newLen = times.length * 2;
+
+        long[] newTimes = new long[newLen];
+        System.arraycopy(times, 0, newTimes, 0, size);
+        times = newTimes;
+
+        IPayload[] newPayloads = new IPayload[newLen];
+        System.arraycopy(payloads, 0, newPayloads, 0, size);
+        payloads = newPayloads;
+    }
+
+    /**
+     * Remove the earliest payload if it has been held long enough.
+     *
+     * @return earliest payload or <tt>null</tt> if nothing is ready
+     */
+    public IPayload poll()
+    {
+        if (size == 0 || newestTime - times[0] < window) {
+            return null;
+        }
+
+        return remove();
+    }
+
+    /**
+     * Remove the earliest payload, however long it has been held.
+     *
+     * @return earliest payload or <tt>null</tt> if the buffer is empty
+     */
+    public IPayload pollAny()
+    {
+        if (size == 0) {
+            return null;
+        }
+
+        return remove();
+    }
+
+    /**
+     * Remove the top of the heap.
+     *
+     * @return earliest payload
+     */
+    private IPayload remove()
+    {
+        final IPayload top = payloads[0];
+        releasedTime = times[0];
+
+        // sift the last entry down from the top of the heap
+        final int last = --size;
+        final long time = times[last];
+        final IPayload pay = payloads[last];
+        payloads[last] = null;
+
+        if (last > 0) {
+            int idx = 0;
+            while (true) {
+                int child = (idx << 1) + 1;
+                if (child >= last) {
+                    break;
+                }
+                if (child + 1 < last && times[child + 1] < times[child]) {
+                    child++;
+                }
+                if (time <= times[child]) {
+                    break;
+                }
+
+                times[idx] = times[child];
+                payloads[idx] = payloads[child];
+                idx = child;
+            }
+
+            times[idx] = time;
+            payloads[idx] = pay;
+        }
+
+        return top;
+    }
+
+    /**
+     * Get the number of payloads in the buffer.
+     *
+     * @return number of payloads held
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ReorderBuffer[" + window + " ticks, " + size + " held, " +
+            numLate + " late]";
+    }
+}
@@ -6,18 +6,50 @@ import icecube.daq.juggler.alert.Alerter;
 import icecube.daq.juggler.alert.ZMQAlerter;
 import icecube.daq.payload.ITriggerRequestPayload;
 import icecube.daq.payload.PayloadFormatException;
+import icecube.daq.payload.impl.UTCTime;
 import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
 import icecube.daq.trigger.algorithm.SimpleMajorityTrigger;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 
+/**
+ * Send SMT8 request times and hit counts to the supernova DAQ.
+ *
+ * By default each SMT8 request is sent as a separate message.  If
+ * <tt>icecube.sndaq.bin-millis</tt> is set, requests are instead packed
+ * into one message per fixed-width time bin, holding the offset of each
+ * request from the start of the bin and its hit count as primitive arrays.
+ * A bin is also sent early if it fills up with
+ * <tt>icecube.sndaq.bin-max-requests</tt> requests, so the message rate
+ * and the cost to the collector thread are bounded no matter how quickly
+ * SMT8 fires.  The collector calls <tt>flushBin()</tt> as it releases
+ * requests, which sends a bin once the released requests have passed its
+ * end, or once it has been held for its own width in wall-clock time, so
+ * a bin is never held indefinitely after the last SMT8 request.
+ */
 public class SNDAQAlerter
 {
     public static final String PROPERTY = "icecube.sndaq.zmq.address";
 
+    /**
+     * Set this property to the bin width in milliseconds to send binned
+     * SMT8 messages
+     */
+    public static final String BIN_PROPERTY = "icecube.sndaq.bin-millis";
+    /** Maximum number of requests in a single binned message */
+    public static final String BIN_MAX_PROPERTY =
+        "icecube.sndaq.bin-max-requests";
+
+    /** Default maximum number of requests in a single binned message */
+    private static final int DEFAULT_BIN_MAX = 1000;
+
+    /** Number of DAQ ticks (0.1 ns) in a millisecond */
+    private static final long TICKS_PER_MILLI = 10000000L;
+
     private static final Logger LOG = Logger.getLogger(SNDAQAlerter.class);
 
     private Alerter alerter;
@@ -26,9 +58,23 @@ public class SNDAQAlerter
     private int smt8type;
     private boolean smt8init;
 
-    private String lastTime;
+    /** Time of the most recent SMT8 request */
+    private long lastTime = Long.MIN_VALUE;
     private boolean sentStart;
 
+    /** Bin width in DAQ ticks (if <tt>0</tt>, send individual requests) */
+    private long binWidth;
+    /** Start of the current bin */
+    private long binStart = Long.MIN_VALUE;
+    /** Number of requests in the current bin */
+    private int binCount;
+    /** Offset of each request from the start of the bin */
+    private long[] binOffsets;
+    /** Number of hits in each request */
+    private int[] binHits;
+    /** Wall-clock time (in milliseconds) by which the bin must be sent */
+    private long binDeadline;
+
     private AlertQueue alertQueue;
 
     private int runNumber = Integer.MIN_VALUE;
@@ -71,9 +117,53 @@ public class SNDAQAlerter
 
         alerter = createZMQAlerter(host, port);
 
+        final long binMillis = Long.getLong(BIN_PROPERTY, 0L);
+        if (binMillis > 0) {
+            final int binMax = Integer.getInteger(BIN_MAX_PROPERTY,
+                                                  DEFAULT_BIN_MAX);
+            if (binMax <= 0) {
+                throw new AlertException("Bad " + BIN_MAX_PROPERTY +
+                                         " value " + binMax);
+            }
+
+            binWidth = binMillis * TICKS_PER_MILLI;
+            binOffsets = new long[binMax];
+            binHits = new int[binMax];
+        }
+
         loadAlgorithms(algorithms);
     }
 
+    /**
+     * Add a request to the current bin, sending the bin if the request
+     * falls outside it or if the bin is full.
+     *
+     * @param time request time
+     * @param numHits number of hits in the request
+     */
+    private void addToBin(long time, int numHits)
+    {
+        if (binCount > 0 &&
+            (time < binStart || time >= binStart + binWidth))
+        {
+            sendBin();
+        }
+
+        if (binCount == 0) {
+            binStart = time - Math.floorMod(time, binWidth);
+            binDeadline = System.currentTimeMillis() +
+                binWidth / TICKS_PER_MILLI;
+        }
+
+        binOffsets[binCount] = time - binStart;
+        binHits[binCount] = numHits;
+        binCount++;
+
+        if (binCount == binOffsets.length) {
+            sendBin();
+        }
+    }
+
     /**
      * Close any open files/sockets.
      */
@@ -105,6 +195,37 @@ public class SNDAQAlerter
         return z;
     }
 
+    /**
+     * Send the current bin if no later request can fall inside it, or if
+     * it has been held for longer than its width.
+     *
+     * @param releaseTime end of the latest interval released by the
+     *                    collector
+     */
+    public void flushBin(long releaseTime)
+    {
+        if (binCount > 0 &&
+            (binStart + binWidth <= releaseTime ||
+             System.currentTimeMillis() >= binDeadline))
+        {
+            sendBin();
+        }
+    }
+
+    /**
+     * Get the number of milliseconds until the current bin must be sent.
+     *
+     * @return milliseconds, or <tt>-1</tt> if no bin is waiting
+     */
+    public long getFlushDelay()
+    {
+        if (binCount == 0) {
+            return -1L;
+        }
+
+        return Math.max(binDeadline - System.currentTimeMillis(), 0L);
+    }
+
     /**
      * Get number of alerts dropped
      *
@@ -214,13 +335,13 @@ public class SNDAQAlerter
             return;
         }
 
-        final String timeStr = req.getLastTimeUTC().toDateString();
+        final long time = req.getLastTimeUTC().longValue();
 
         if (!sentStart) {
             // send 'start' message
             HashMap<String, Object> startMap = new HashMap<String, Object>();
             startMap.put("start", runNumber);
-            startMap.put("t", timeStr);
+            startMap.put("t", UTCTime.toDateString(time));
 
             try {
                 alertQueue.push(startMap);
@@ -231,9 +352,16 @@ public class SNDAQAlerter
             sentStart = true;
         }
 
+        lastTime = time;
+
+        if (binWidth > 0) {
+            addToBin(time, numHits);
+            return;
+        }
+
         HashMap<String, Object> map = new HashMap<String, Object>();
         map.put("trigger", "SMT8");
-        map.put("t", timeStr);
+        map.put("t", UTCTime.toDateString(time));
         map.put("num", numHits);
 
         try {
@@ -241,15 +369,44 @@ public class SNDAQAlerter
         } catch (AlertException ae) {
             LOG.error("Cannot send SNDAQ message", ae);
         }
+    }
+
+    /**
+     * Send all requests in the current bin as a single message.
+     */
+    private void sendBin()
+    {
+        if (binCount == 0) {
+            return;
+        }
+
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("trigger", "SMT8");
+        map.put("t", UTCTime.toDateString(binStart));
+        map.put("width", binWidth);
+        map.put("dt", Arrays.copyOf(binOffsets, binCount));
+        map.put("num", Arrays.copyOf(binHits, binCount));
+
+        binCount = 0;
 
-        lastTime = timeStr;
+        try {
+            alertQueue.push(map);
+        } catch (AlertException ae) {
+            LOG.error("Cannot send binned SNDAQ message", ae);
+        }
     }
 
     private void sendStop()
     {
+        sendBin();
+
         HashMap<String, Object> map = new HashMap<String, Object>();
         map.put("stop", runNumber);
-        map.put("t", lastTime);
+        if (lastTime == Long.MIN_VALUE) {
+            map.put("t", null);
+        } else {
+            map.put("t", UTCTime.toDateString(lastTime));
+        }
 
         try {
             alertQueue.push(map);
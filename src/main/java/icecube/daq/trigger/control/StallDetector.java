@@ -0,0 +1,311 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.juggler.alert.AlertException;
+import icecube.daq.juggler.alert.AlertQueue;
+import icecube.daq.juggler.alert.Alerter;
+import icecube.daq.payload.IPayload;
+import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Watchdog which compares each algorithm's earliest payload of interest
+ * and release time against the time of the most recent input payload,
+ * and flags any algorithm which has fallen too far behind.
+ *
+ * An algorithm which has not finished anything yet is measured from the
+ * first input payload of the run, so one which never gets going is still
+ * flagged.  A summary is logged and an alert is sent only when the set of
+ * stalled algorithms changes, not on every check.
+ */
+public class StallDetector
+{
+    /**
+     * Set this property to the number of seconds an algorithm may lag
+     * behind the input before it is flagged (the detector is disabled if
+     * this is not set)
+     */
+    public static final String THRESHOLD_PROPERTY =
+        "icecube.daq.trigger.stall-seconds";
+
+    /** Name of the I3Live alert */
+    public static final String ALERT_NAME = "trigger_stall";
+
+    private static final Logger LOG = Logger.getLogger(StallDetector.class);
+
+    /** Number of DAQ ticks (0.1 ns) in a millisecond */
+    private static final long TICKS_PER_MILLI = 10000000L;
+    /** Longest time between checks */
+    private static final long MAX_PERIOD_MILLIS = 10000L;
+
+    private List<ITriggerAlgorithm> algorithms;
+    private AlertQueue alertQueue;
+    private long thresholdTicks;
+
+    /** Time of the most recent input payload */
+    private volatile long inputTime = Long.MIN_VALUE;
+    /** Time of the first input payload since the last reset */
+    private volatile long firstInputTime = Long.MIN_VALUE;
+    private volatile int runNumber = Integer.MIN_VALUE;
+
+    /** Lag (in milliseconds) for each currently stalled algorithm */
+    private volatile Map<String, Long> stalled = new TreeMap<String, Long>();
+
+    /**
+     * Create a stall detector.
+     *
+     * @param algorithms algorithms to watch
+     * @param thresholdSeconds maximum allowed lag in seconds
+     */
+    public StallDetector(List<ITriggerAlgorithm> algorithms,
+                         long thresholdSeconds)
+    {
+        if (thresholdSeconds <= 0) {
+            throw new Error("Bad stall threshold " + thresholdSeconds);
+        }
+
+        this.algorithms = algorithms;
+        this.thresholdTicks = thresholdSeconds * 1000L * TICKS_PER_MILLI;
+    }
+
+    /**
+     * Create a stall detector if one has been requested.
+     *
+     * @param algorithms algorithms to watch
+     *
+     * @return new detector or <tt>null</tt> if stall detection is disabled
+     */
+    public static StallDetector create(List<ITriggerAlgorithm> algorithms)
+    {
+        final long threshold = Long.getLong(THRESHOLD_PROPERTY, 0L);
+        if (threshold <= 0) {
+            return null;
+        }
+
+        return new StallDetector(algorithms, threshold);
+    }
+
+    /**
+     * Check all algorithms and report any change in the set of stalled
+     * algorithms.
+     */
+    public void check()
+    {
+        final long now = inputTime;
+        if (now == Long.MIN_VALUE) {
+            // no input yet
+            return;
+        }
+
+        TreeMap<String, Long> newStalled = new TreeMap<String, Long>();
+        ArrayList<Map<String, Object>> details =
+            new ArrayList<Map<String, Object>>();
+        for (ITriggerAlgorithm algo : algorithms) {
+            long watermark = getWatermark(algo);
+            if (watermark == Long.MIN_VALUE) {
+                // nothing finished yet, so measure from the start of input
+                watermark = firstInputTime;
+            }
+            if (watermark == Long.MIN_VALUE || watermark >= now) {
+                continue;
+            }
+
+            final long lag = now - watermark;
+            if (lag > thresholdTicks) {
+                final long lagMillis = lag / TICKS_PER_MILLI;
+                newStalled.put(algo.getTriggerName(), lagMillis);
+
+                HashMap<String, Object> map = new HashMap<String, Object>();
+                map.put("algorithm", algo.getTriggerName());
+                map.put("lagMillis", lagMillis);
+                map.put("watermark", watermark);
+                map.put("releaseTime", algo.getReleaseTime());
+                map.put("inputQueued", algo.getInputQueueSize());
+                map.put("cachedRequests", algo.getNumberOfCachedRequests());
+                details.add(map);
+            }
+        }
+
+        final boolean changed =
+            !newStalled.keySet().equals(stalled.keySet());
+        stalled = newStalled;
+
+        if (changed) {
+            report(now, newStalled, details);
+        }
+    }
+
+    /**
+     * Get the currently stalled algorithms.
+     *
+     * @return map of algorithm names to lag in milliseconds
+     */
+    public Map<String, Long> getStalledAlgorithms()
+    {
+        return new HashMap<String, Long>(stalled);
+    }
+
+    /**
+     * Get the time between checks.
+     *
+     * @return period in milliseconds
+     */
+    public long getPeriod()
+    {
+        final long halfThreshold = thresholdTicks / TICKS_PER_MILLI / 2;
+        if (halfThreshold < MAX_PERIOD_MILLIS) {
+            return Math.max(halfThreshold, 1L);
+        }
+
+        return MAX_PERIOD_MILLIS;
+    }
+
+    /**
+     * Get the most recent time up to which this algorithm has finished.
+     *
+     * @param algo algorithm
+     *
+     * @return watermark (or <tt>Long.MIN_VALUE</tt> if it is not known)
+     */
+    private static long getWatermark(ITriggerAlgorithm algo)
+    {
+        long watermark = algo.getReleaseTime();
+
+        IPayload earliest = algo.getEarliestPayloadOfInterest();
+        if (earliest != null && earliest.getUTCTime() > watermark) {
+            watermark = earliest.getUTCTime();
+        }
+
+        return watermark;
+    }
+
+    /**
+     * Log and send an alert describing the new set of stalled algorithms.
+     *
+     * @param now most recent input time
+     * @param newStalled stalled algorithms and their lag in milliseconds
+     * @param details per-algorithm details
+     */
+    private void report(long now, Map<String, Long> newStalled,
+                        List<Map<String, Object>> details)
+    {
+        if (newStalled.isEmpty()) {
+            LOG.info("All trigger algorithms have caught up with input" +
+                     " time " + now);
+        } else {
+            LOG.error("Trigger algorithms lagging input time " + now +
+                      " by more than " + (thresholdTicks / TICKS_PER_MILLI) +
+                      " ms: " + details);
+        }
+
+        if (alertQueue == null || alertQueue.isStopped()) {
+            return;
+        }
+
+        HashMap<String, Object> values = new HashMap<String, Object>();
+        if (runNumber != Integer.MIN_VALUE) {
+            values.put("runNumber", runNumber);
+        }
+        values.put("inputTime", now);
+        values.put("thresholdMillis", thresholdTicks / TICKS_PER_MILLI);
+        values.put("stalled", details);
+
+        try {
+            alertQueue.push(ALERT_NAME, Alerter.Priority.EMAIL, values);
+        } catch (AlertException ae) {
+            LOG.error("Cannot send stall alert", ae);
+        }
+    }
+
+    /**
+     * Forget any previously stalled algorithms and the last input time.
+     */
+    public void reset()
+    {
+        inputTime = Long.MIN_VALUE;
+        firstInputTime = Long.MIN_VALUE;
+        stalled = new TreeMap<String, Long>();
+    }
+
+    /**
+     * Set the queue used to send alerts.
+     *
+     * @param alertQueue alert queue
+     */
+    public void setAlertQueue(AlertQueue alertQueue)
+    {
+        this.alertQueue = alertQueue;
+    }
+
+    /**
+     * Record the time of the most recent input payload.
+     *
+     * @param time UTC time
+     */
+    public void setInputTime(long time)
+    {
+        if (firstInputTime == Long.MIN_VALUE) {
+            firstInputTime = time;
+        }
+        inputTime = time;
+    }
+
+    /**
+     * Set the current run number (included in alerts).
+     *
+     * @param runNumber run number
+     */
+    public void setRunNumber(int runNumber)
+    {
+        this.runNumber = runNumber;
+    }
+
+    /**
+     * Create a task which runs this detector.
+     *
+     * @return timer task
+     */
+    public TimerTask createTask()
+    {
+        return new CheckTask(this);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StallDetector[threshold " +
+            (thresholdTicks / TICKS_PER_MILLI) + "ms, stalled " +
+            stalled.keySet() + "]";
+    }
+
+    /**
+     * Periodic task which runs the stall check.
+     */
+    private static class CheckTask
+        extends TimerTask
+    {
+        private StallDetector detector;
+
+        CheckTask(StallDetector detector)
+        {
+            this.detector = detector;
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                detector.check();
+            } catch (Throwable thr) {
+                LOG.error("Stall check failed", thr);
+            }
+        }
+    }
+}
@@ -2,20 +2,34 @@ package icecube.daq.trigger.control;
 
 import icecube.daq.payload.IPayload;
 import icecube.daq.performance.queue.QueueStrategy;
+import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+import icecube.daq.trigger.algorithm.InlineAlgorithm;
 import org.jctools.queues.SpscUnboundedArrayQueue;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
+import org.apache.log4j.Logger;
+
 /**
  * A list which can feed its contents to multiple subscribers
  */
 public class SubscribedList
 {
+    /**
+     * Set this property to <tt>true</tt> to run lightweight algorithms
+     * directly on the thread which pushes payloads to the list
+     */
+    public static final String FUSED_PROPERTY =
+        "icecube.daq.trigger.fused-inline";
+
+    private static final Logger LOG = Logger.getLogger(SubscribedList.class);
 
     /** Support for runtime selection of PayloadSubscriber impl */
     private static final String SubscriberImplCfg =
@@ -90,6 +104,18 @@ public class SubscribedList
 
     private ArrayList<IPayload> staged = new ArrayList<IPayload>();
 
+    /** Longest queue seen for each subscriber (for JFR events) */
+    private HashMap<String, Integer> highWater =
+        new HashMap<String, Integer>();
+
+    /** If non-null, run after new input has been pushed to the subscribers */
+    private volatile Runnable pushListener;
+
+    /**
+     * Subscribers which only receive control payloads (replaced, never
+     * modified, so <tt>push()</tt> can read it without locking)
+     */
+    private volatile Set<PayloadSubscriber> paused;
 
     /**
      * Get the lengths of all subscriber lists
@@ -127,6 +153,20 @@ public class SubscribedList
         return subs.isEmpty();
     }
 
+    /**
+     * Should this algorithm be run inline on the pushing thread?
+     *
+     * @param algo trigger algorithm
+     *
+     * @return <tt>true</tt> if fused mode is enabled and the algorithm is
+     *         light enough to run inline
+     */
+    public static boolean isInline(ITriggerAlgorithm algo)
+    {
+        return algo instanceof InlineAlgorithm &&
+            Boolean.getBoolean(FUSED_PROPERTY);
+    }
+
     /**
      * Push a new payload onto the list
      *
@@ -138,9 +178,91 @@ public class SubscribedList
             throw new Error("No subscribers have been added");
         }
 
+        final Set<PayloadSubscriber> skip = paused;
         for (PayloadSubscriber sub : subs) {
+            if (skip != null && skip.contains(sub) &&
+                !(pay instanceof DummyPayload))
+            {
+                continue;
+            }
+
             sub.push(pay);
         }
+
+        Runnable listener = pushListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Emit a JFR event for each subscriber whose queue has grown past its
+     * previous high-water mark.  Does nothing unless a recording has
+     * enabled the event.
+     */
+    public void recordHighWater()
+    {
+        TriggerEvents.QueueHighWater evt = new TriggerEvents.QueueHighWater();
+        if (!evt.isEnabled()) {
+            return;
+        }
+
+        synchronized (subs) {
+            for (PayloadSubscriber sub : subs) {
+                final int len = sub.size();
+
+                Integer prev = highWater.get(sub.getName());
+                final int prevLen = (prev == null ? 0 : prev.intValue());
+                if (len > prevLen) {
+                    highWater.put(sub.getName(), len);
+
+                    evt = new TriggerEvents.QueueHighWater();
+                    if (evt.shouldCommit()) {
+                        evt.subscriber = sub.getName();
+                        evt.size = len;
+                        evt.previous = prevLen;
+                        evt.commit();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop or resume sending input payloads to a subscriber.  A paused
+     * subscriber still receives control payloads such as time markers and
+     * the final flush.
+     *
+     * @param sub subscriber
+     * @param pause <tt>true</tt> to pause, <tt>false</tt> to resume
+     */
+    public synchronized void setPaused(PayloadSubscriber sub, boolean pause)
+    {
+        HashSet<PayloadSubscriber> newSet;
+        if (paused == null) {
+            newSet = new HashSet<PayloadSubscriber>();
+        } else {
+            newSet = new HashSet<PayloadSubscriber>(paused);
+        }
+
+        if (pause) {
+            newSet.add(sub);
+        } else {
+            newSet.remove(sub);
+        }
+
+        paused = (newSet.isEmpty() ? null : newSet);
+    }
+
+    /**
+     * Set the object notified after each payload is pushed to the
+     * subscribers and after the subscribers are stopped.
+     *
+     * @param listener push listener (or <tt>null</tt> to clear it)
+     */
+    public void setPushListener(Runnable listener)
+    {
+        pushListener = listener;
     }
 
     /**
@@ -174,8 +296,14 @@ public class SubscribedList
                 }
 
                 staged.clear();
+                highWater.clear();
             }
         }
+
+        Runnable listener = pushListener;
+        if (listener != null) {
+            listener.run();
+        }
     }
 
     /**
@@ -194,6 +322,44 @@ public class SubscribedList
         return newSub;
     }
 
+    /**
+     * Add a subscriber which records the time sampled payloads spend
+     * waiting in its queue.
+     *
+     * @param name subscriber name
+     * @param waitHist queue wait histogram
+     *
+     * @return subscriber object
+     */
+    public PayloadSubscriber subscribe(String name, LatencyHistogram waitHist)
+    {
+        PayloadSubscriber newSub = SubscriberFactory.createSubscriber(name);
+        if (waitHist != null && newSub instanceof ProbedSubscriber) {
+            ((ProbedSubscriber) newSub).setProbe(new QueueWaitProbe(waitHist));
+        }
+        synchronized (subs) {
+            subs.add(newSub);
+        }
+        return newSub;
+    }
+
+    /**
+     * Add a subscriber which passes each payload straight to the algorithm
+     * on the pushing thread instead of queuing it.
+     *
+     * @param algo trigger algorithm
+     *
+     * @return subscriber object
+     */
+    public PayloadSubscriber subscribeInline(ITriggerAlgorithm algo)
+    {
+        PayloadSubscriber newSub = new InlineSubscriber(algo);
+        synchronized (subs) {
+            subs.add(newSub);
+        }
+        return newSub;
+    }
+
     /**
      * Remove a subscriber.
      *
@@ -203,16 +369,188 @@ public class SubscribedList
      */
     public boolean unsubscribe(PayloadSubscriber sub)
     {
+        if (paused != null) {
+            setPaused(sub, false);
+        }
+
         synchronized (subs) {
             return subs.remove(sub);
         }
     }
 
+    /**
+     * Subscriber which can track queue wait times
+     */
+    private interface ProbedSubscriber
+    {
+        /**
+         * Set the queue wait probe.
+         *
+         * @param probe queue wait probe
+         */
+        void setProbe(QueueWaitProbe probe);
+    }
+
+    /**
+     * Follow one sampled payload at a time through a subscriber queue and
+     * record how long it waited.  <tt>pushed()</tt> must only be called by
+     * the producer thread and <tt>popped()</tt> by the consumer thread.
+     */
+    static final class QueueWaitProbe
+    {
+        /** Track one out of every 64 payloads */
+        private static final int SAMPLE_MASK = 63;
+
+        private final LatencyHistogram hist;
+
+        /** Number of payloads pushed (producer thread only) */
+        private int numPushed;
+        /** Time the tracked payload was pushed */
+        private long pushTime;
+        /** Payload currently being tracked */
+        private volatile IPayload tracked;
+
+        QueueWaitProbe(LatencyHistogram hist)
+        {
+            this.hist = hist;
+        }
+
+        /**
+         * Note that a payload is about to be queued.
+         *
+         * @param pay payload
+         */
+        void pushed(IPayload pay)
+        {
+            if ((++numPushed & SAMPLE_MASK) == 0 && tracked == null) {
+                pushTime = System.nanoTime();
+                tracked = pay;
+            }
+        }
+
+        /**
+         * Note that a payload has been removed from the queue.
+         *
+         * @param pay payload
+         */
+        void popped(IPayload pay)
+        {
+            if (pay == tracked) {
+                hist.record(System.nanoTime() - pushTime);
+                tracked = null;
+            }
+        }
+    }
+
+    /**
+     * Subscriber which runs its algorithm on the pushing thread.  Nothing
+     * is ever queued, so the algorithm needs no thread of its own.
+     */
+    static class InlineSubscriber
+        implements PayloadSubscriber
+    {
+        private ITriggerAlgorithm algorithm;
+        private LatencyHistogram serviceTime;
+        private RateLimitedLog errorLog;
+
+        /** Has the list been stopped? */
+        private volatile boolean stopped;
+
+        /**
+         * Create an inline subscriber
+         *
+         * @param algorithm algorithm fed by this subscriber
+         */
+        InlineSubscriber(ITriggerAlgorithm algorithm)
+        {
+            this.algorithm = algorithm;
+
+            serviceTime = algorithm.getAlgorithmLatency().getServiceTime();
+            errorLog = new RateLimitedLog(LOG, algorithm.getTriggerName());
+        }
+
+        @Override
+        public String getName()
+        {
+            return algorithm.getTriggerName();
+        }
+
+        @Override
+        public boolean hasData()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean isStopped()
+        {
+            return stopped;
+        }
+
+        /**
+         * Payloads are never queued, so this only reports whether the
+         * subscriber has been stopped.
+         *
+         * @return <tt>STOPPED_PAYLOAD</tt>
+         */
+        @Override
+        public IPayload pop()
+        {
+            if (!stopped) {
+                throw new Error("Cannot pop from inline subscriber " +
+                                getName());
+            }
+
+            return PayloadSubscriber.STOPPED_PAYLOAD;
+        }
+
+        /**
+         * Run the algorithm on the payload.
+         *
+         * @param pay payload
+         */
+        @Override
+        public void push(IPayload pay)
+        {
+            if (stopped) {
+                LOG.error("Ignoring payload pushed to stopped " + getName());
+            } else {
+                TriggerThread.dispatch(algorithm, pay, serviceTime, errorLog);
+            }
+        }
+
+        @Override
+        public void reset()
+        {
+            stopped = false;
+        }
+
+        @Override
+        public int size()
+        {
+            return 0;
+        }
+
+        @Override
+        public void stop()
+        {
+            stopped = true;
+            errorLog.report();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "InlineSubscriber[" + getName() +
+                (stopped ? ",stopped" : "") + "]";
+        }
+    }
+
     /**
      * Internal subscriber class which has access to the list
      */
     private static class ListSubscriber
-        implements PayloadSubscriber
+        implements PayloadSubscriber, ProbedSubscriber
     {
         /**
          * List of payloads
@@ -225,6 +563,8 @@ public class SubscribedList
         private boolean stopping;
         /** Has the list been stopped? */
         private boolean stopped;
+        /** Queue wait probe (may be <tt>null</tt>) */
+        private QueueWaitProbe probe;
 
         /**
          * Create a list subscriber
@@ -304,6 +644,10 @@ public class SubscribedList
                 {
                     stopped = true;
                 }
+                else if (probe != null)
+                {
+                    probe.popped(payload);
+                }
                 return payload;
 
             }
@@ -317,6 +661,10 @@ public class SubscribedList
         @Override
         public void push(IPayload pay)
         {
+            if (probe != null) {
+                probe.pushed(pay);
+            }
+
             synchronized (list) {
                 list.addLast(pay);
 
@@ -326,6 +674,33 @@ public class SubscribedList
         }
 
 
+        /**
+         * Discard any queued payloads and clear the stopped state.
+         */
+        @Override
+        public void reset()
+        {
+            synchronized (list) {
+                while (!list.isEmpty()) {
+                    list.removeFirst().recycle();
+                }
+            }
+
+            stopping = false;
+            stopped = false;
+        }
+
+        /**
+         * Set the queue wait probe.
+         *
+         * @param probe queue wait probe
+         */
+        @Override
+        public void setProbe(QueueWaitProbe probe)
+        {
+            this.probe = probe;
+        }
+
         /**
          * Get the number of queued payloads
          *
@@ -368,7 +743,8 @@ public class SubscribedList
     /**
      * PayloadSubscribe implemented with a lock-free queue
      */
-    public static class LockFreeListSubscriber implements PayloadSubscriber
+    public static class LockFreeListSubscriber
+        implements PayloadSubscriber, ProbedSubscriber
     {
         /**
          * List of payloads
@@ -381,6 +757,8 @@ public class SubscribedList
         private volatile boolean stopping;
         /** Has the list been stopped? */
         private volatile boolean stopped;
+        /** Queue wait probe (may be <tt>null</tt>) */
+        private QueueWaitProbe probe;
 
         /**
          * Create a list subscriber
@@ -452,6 +830,10 @@ public class SubscribedList
                 {
                     stopped = true;
                 }
+                else if (probe != null)
+                {
+                    probe.popped(payload);
+                }
                 return payload;
             }
             catch (InterruptedException ie)
@@ -469,6 +851,10 @@ public class SubscribedList
         @Override
         public void push(IPayload pay)
         {
+            if (probe != null) {
+                probe.pushed(pay);
+            }
+
             try
             {
                 q.enqueue(pay);
@@ -479,6 +865,39 @@ public class SubscribedList
             }
         }
 
+        /**
+         * Discard any queued payloads and clear the stopped state.
+         */
+        @Override
+        public void reset()
+        {
+            try
+            {
+                while (q.size() > 0)
+                {
+                    q.dequeue().recycle();
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                throw new Error("Unexpected interruption", ie);
+            }
+
+            stopping = false;
+            stopped = false;
+        }
+
+        /**
+         * Set the queue wait probe.
+         *
+         * @param probe queue wait probe
+         */
+        @Override
+        public void setProbe(QueueWaitProbe probe)
+        {
+            this.probe = probe;
+        }
+
         /**
          * Get the number of queued payloads
          *
@@ -0,0 +1,269 @@
+package icecube.daq.trigger.control;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * CPU time and heap allocation used by a single thread, sampled through
+ * the platform ThreadMXBean.  Rates are computed between consecutive
+ * calls to <tt>sample()</tt>; totals are measured from the most recent
+ * call to <tt>start()</tt> or <tt>reset()</tt>.
+ */
+public class ThreadUsage
+{
+    private static final Logger LOG = Logger.getLogger(ThreadUsage.class);
+
+    /** Platform thread bean */
+    private static final ThreadMXBean MXBEAN =
+        ManagementFactory.getThreadMXBean();
+    /** Extended bean which can report allocated bytes (may be null) */
+    private static final com.sun.management.ThreadMXBean ALLOC_MXBEAN;
+    /** Can thread CPU time be measured? */
+    private static final boolean CPU_SUPPORTED;
+
+    static {
+        boolean cpuOk = MXBEAN.isThreadCpuTimeSupported();
+        if (cpuOk && !MXBEAN.isThreadCpuTimeEnabled()) {
+            try {
+                MXBEAN.setThreadCpuTimeEnabled(true);
+            } catch (UnsupportedOperationException uoe) {
+                cpuOk = false;
+            } catch (SecurityException se) {
+                cpuOk = false;
+            }
+        }
+        CPU_SUPPORTED = cpuOk;
+
+        com.sun.management.ThreadMXBean allocBean = null;
+        if (MXBEAN instanceof com.sun.management.ThreadMXBean) {
+            allocBean = (com.sun.management.ThreadMXBean) MXBEAN;
+            if (!allocBean.isThreadAllocatedMemorySupported()) {
+                allocBean = null;
+            } else if (!allocBean.isThreadAllocatedMemoryEnabled()) {
+                try {
+                    allocBean.setThreadAllocatedMemoryEnabled(true);
+                } catch (UnsupportedOperationException uoe) {
+                    allocBean = null;
+                } catch (SecurityException se) {
+                    allocBean = null;
+                }
+            }
+        }
+        ALLOC_MXBEAN = allocBean;
+    }
+
+    /** Thread being measured (or <tt>-1</tt> if there is none) */
+    private long threadId = -1;
+
+    /** Values at the start of the current measurement period */
+    private long baseCpu;
+    private long baseAlloc;
+
+    /** Values from the most recent sample */
+    private long lastNanos;
+    private long lastCpu;
+    private long lastAlloc;
+
+    /** Rates computed from the two most recent samples */
+    private long cpuMillisPerSec;
+    private long allocBytesPerSec;
+
+    /**
+     * Get the CPU time used by a thread.
+     *
+     * @param id thread ID
+     *
+     * @return CPU time in nanoseconds (or <tt>-1</tt> if unavailable)
+     */
+    private static long getCpuTime(long id)
+    {
+        if (!CPU_SUPPORTED) {
+            return -1L;
+        }
+
+        return MXBEAN.getThreadCpuTime(id);
+    }
+
+    /**
+     * Get the number of bytes allocated by a thread.
+     *
+     * @param id thread ID
+     *
+     * @return allocated bytes (or <tt>-1</tt> if unavailable)
+     */
+    private static long getAllocatedBytes(long id)
+    {
+        if (ALLOC_MXBEAN == null) {
+            return -1L;
+        }
+
+        return ALLOC_MXBEAN.getThreadAllocatedBytes(id);
+    }
+
+    /**
+     * Add this thread's usage statistics to a map.
+     *
+     * @param map map to fill
+     * @param prefix prefix for each entry name
+     */
+    public synchronized void addStatistics(Map<String, Long> map,
+                                           String prefix)
+    {
+        map.put(prefix + "cpuMillisPerSec", cpuMillisPerSec);
+        map.put(prefix + "allocBytesPerSec", allocBytesPerSec);
+        map.put(prefix + "cpuMillis", getCpuMillis());
+        map.put(prefix + "allocBytes", getAllocatedBytes());
+    }
+
+    /**
+     * Get the number of bytes allocated during this measurement period.
+     *
+     * @return allocated bytes
+     */
+    public synchronized long getAllocatedBytes()
+    {
+        if (lastAlloc < 0 || baseAlloc < 0) {
+            return 0L;
+        }
+
+        return lastAlloc - baseAlloc;
+    }
+
+    /**
+     * Get the allocation rate between the two most recent samples.
+     *
+     * @return bytes allocated per second
+     */
+    public synchronized long getAllocBytesPerSec()
+    {
+        return allocBytesPerSec;
+    }
+
+    /**
+     * Get the CPU time used during this measurement period.
+     *
+     * @return CPU time in milliseconds
+     */
+    public synchronized long getCpuMillis()
+    {
+        if (lastCpu < 0 || baseCpu < 0) {
+            return 0L;
+        }
+
+        return (lastCpu - baseCpu) / 1000000L;
+    }
+
+    /**
+     * Get the CPU usage between the two most recent samples.
+     *
+     * @return milliseconds of CPU time per second (1000 is one full core)
+     */
+    public synchronized long getCpuMillisPerSec()
+    {
+        return cpuMillisPerSec;
+    }
+
+    /**
+     * Get this thread's usage statistics.
+     *
+     * @return map of statistic names to values
+     */
+    public Map<String, Long> getStatistics()
+    {
+        HashMap<String, Long> map = new HashMap<String, Long>();
+        addStatistics(map, "");
+        return map;
+    }
+
+    /**
+     * Start a new measurement period without changing the thread.
+     */
+    public synchronized void reset()
+    {
+        baseCpu = lastCpu;
+        baseAlloc = lastAlloc;
+    }
+
+    /**
+     * Take a new sample and update the rates.  Does nothing if the
+     * thread is not running.
+     */
+    public synchronized void sample()
+    {
+        if (threadId < 0) {
+            return;
+        }
+
+        final long cpu = getCpuTime(threadId);
+        final long alloc = getAllocatedBytes(threadId);
+        if (cpu < 0 && alloc < 0) {
+            // thread has exited or nothing can be measured
+            return;
+        }
+
+        final long now = System.nanoTime();
+        final long elapsed = now - lastNanos;
+        if (elapsed > 0) {
+            if (cpu >= 0 && lastCpu >= 0) {
+                cpuMillisPerSec = (cpu - lastCpu) * 1000L / elapsed;
+            }
+            if (alloc >= 0 && lastAlloc >= 0) {
+                allocBytesPerSec = (long) ((alloc - lastAlloc) *
+                                           (1000000000.0 / elapsed));
+            }
+        }
+
+        lastNanos = now;
+        lastCpu = cpu;
+        lastAlloc = alloc;
+    }
+
+    /**
+     * Start measuring a thread.  The counters of the previous thread (if
+     * any) are discarded.
+     *
+     * @param thread thread to measure
+     */
+    public synchronized void start(Thread thread)
+    {
+        threadId = thread.getId();
+
+        lastNanos = System.nanoTime();
+        lastCpu = getCpuTime(threadId);
+        lastAlloc = getAllocatedBytes(threadId);
+        baseCpu = lastCpu;
+        baseAlloc = lastAlloc;
+
+        cpuMillisPerSec = 0;
+        allocBytesPerSec = 0;
+
+        if (lastCpu < 0 && lastAlloc < 0) {
+            LOG.warn("Cannot measure CPU time or allocation for " +
+                     thread.getName());
+        }
+    }
+
+    /**
+     * Take a final sample and stop measuring.  This must be called by the
+     * measured thread before it exits, since the counters for a dead
+     * thread are not available.
+     */
+    public synchronized void stop()
+    {
+        sample();
+        threadId = -1;
+        cpuMillisPerSec = 0;
+        allocBytesPerSec = 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ThreadUsage[cpu " + getCpuMillis() + "ms, alloc " +
+            getAllocatedBytes() + "B]";
+    }
+}
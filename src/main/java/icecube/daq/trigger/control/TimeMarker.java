@@ -0,0 +1,43 @@
+package icecube.daq.trigger.control;
+
+/**
+ * Heartbeat passed to the algorithms along with the input payloads.
+ * The input stream is time-ordered, so a marker promises that no later
+ * payload will be earlier than the marker time.  Algorithms use this to
+ * advance their earliest payload of interest during quiet periods.
+ */
+public class TimeMarker
+    extends DummyPayload
+{
+    /**
+     * Create a time marker.
+     *
+     * @param time marker time
+     */
+    public TimeMarker(long time)
+    {
+        super(time);
+    }
+
+    /**
+     * Make a copy of this marker.
+     *
+     * @return copy of marker
+     */
+    @Override
+    public Object deepCopy()
+    {
+        return new TimeMarker(getUTCTime());
+    }
+
+    /**
+     * Return a debugging string.
+     *
+     * @return debugging string
+     */
+    @Override
+    public String toString()
+    {
+        return "Marker@" + getUTCTime();
+    }
+}
@@ -26,10 +26,16 @@ import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
+import org.jctools.queues.SpscArrayQueue;
 
 /**
  * Collect requests from trigger algorithms in the proper order.
@@ -40,11 +46,26 @@ public class TriggerCollector
     /** Monitoring task frequency (in seconds) */
     public static final long MONI_SECONDS = 600;
 
+    /**
+     * Maximum number of milliseconds the pipeline may take to stop before
+     * the remaining threads are abandoned and diagnostics are logged
+     */
+    public static final String STOP_TIMEOUT_PROPERTY =
+        "icecube.daq.trigger.stop-timeout-millis";
+
+    /** Default stop timeout */
+    private static final long DEFAULT_STOP_TIMEOUT = 30000L;
+
     private static final Logger LOG = Logger.getLogger(TriggerCollector.class);
 
     private ICollectorThread collThrd;
     private IOutputThread outThrd;
 
+    /** Are the threads kept alive between runs? */
+    private boolean persistent;
+    /** Have the persistent threads been told to exit? */
+    private boolean closed;
+
     /**
      * Create a trigger collector.
      *
@@ -92,13 +113,74 @@ public class TriggerCollector
                                    mdm, outThrd, subMgr);
     }
 
+    /**
+     * Get the maximum time allowed for the pipeline to stop.
+     *
+     * @return number of milliseconds
+     */
+    static long getStopTimeout()
+    {
+        final long millis =
+            Long.getLong(STOP_TIMEOUT_PROPERTY, DEFAULT_STOP_TIMEOUT);
+        if (millis <= 0) {
+            return DEFAULT_STOP_TIMEOUT;
+        }
+
+        return millis;
+    }
+
     public IOutputThread createOutputThread(String name, int srcId,
                                             DAQComponentOutputProcess outEng,
                                             IByteBufferCache outCache)
     {
+        if (BatchedOutputThread.isEnabled()) {
+            return new BatchedOutputThread(name, srcId, outEng, outCache);
+        }
+
         return new OutputThread(name, srcId, outEng, outCache);
     }
 
+    /**
+     * Wait for all persistent threads to finish the previous run.
+     *
+     * @param millis maximum number of milliseconds to wait
+     *
+     * @return <tt>true</tt> if all threads are parked and the collector
+     *         can be restarted
+     */
+    public boolean awaitParked(long millis)
+    {
+        if (!persistent || closed) {
+            return false;
+        }
+
+        final long deadline = System.currentTimeMillis() + millis;
+
+        if (outThrd instanceof OutputThread &&
+            !((OutputThread) outThrd).awaitParked(deadline))
+        {
+            return false;
+        }
+
+        return !(collThrd instanceof CollectorThread) ||
+            ((CollectorThread) collThrd).awaitParked(deadline);
+    }
+
+    /**
+     * Let all persistent threads exit once the current run has finished.
+     */
+    public void close()
+    {
+        closed = true;
+
+        if (collThrd instanceof CollectorThread) {
+            ((CollectorThread) collThrd).close();
+        }
+        if (outThrd instanceof OutputThread) {
+            ((OutputThread) outThrd).close();
+        }
+    }
+
     /**
      * Return the number of requests queued for writing.
      *
@@ -109,6 +191,16 @@ public class TriggerCollector
         return outThrd.getNumQueued();
     }
 
+    /**
+     * Return output thread statistics.
+     *
+     * @return map of statistic names to values
+     */
+    public Map<String, Long> getOutputStatistics()
+    {
+        return outThrd.getOutputStatistics();
+    }
+
     /**
      * Return the number of dropped SNDAQ alerts
      *
@@ -159,6 +251,16 @@ public class TriggerCollector
         return collThrd.getTotalReleased();
     }
 
+    /**
+     * Are the threads kept alive between runs?
+     *
+     * @return <tt>true</tt> if this collector can be restarted
+     */
+    public boolean isPersistent()
+    {
+        return persistent && !closed;
+    }
+
     /**
      * Has the output thread stopped?
      *
@@ -186,13 +288,108 @@ public class TriggerCollector
         collThrd.setChanged();
     }
 
+    /**
+     * Get the number of times each algorithm was on the release critical
+     * path when the scheduler chose the next algorithm to run.
+     *
+     * @return map of algorithm names to counts (empty unless the
+     *         critical-path scheduler is in use)
+     */
+    public Map<String, Long> getCriticalPathCounts()
+    {
+        if (collThrd instanceof CollectorThread) {
+            return ((CollectorThread) collThrd).getCriticalPathCounts();
+        }
+
+        return new HashMap<String, Long>();
+    }
+
+    /**
+     * Get the object to notify when new input is queued for the
+     * algorithms.
+     *
+     * @return input listener (or <tt>null</tt> if none is needed)
+     */
+    public Runnable getInputListener()
+    {
+        if (collThrd instanceof CollectorThread) {
+            return ((CollectorThread) collThrd).getInputListener();
+        }
+
+        return null;
+    }
+
+    /**
+     * Keep the collector, output and algorithm threads alive between runs
+     * so the next run only needs to reset them.  Must be called before
+     * the threads are first started.
+     */
+    public void setPersistent()
+    {
+        if (collThrd instanceof CollectorThread) {
+            ((CollectorThread) collThrd).setPersistent();
+        }
+        if (outThrd instanceof OutputThread) {
+            ((OutputThread) outThrd).setPersistent();
+        }
+
+        persistent = true;
+    }
+
+    /**
+     * Set the objects which measure the CPU time and allocation of the
+     * collector and output threads.
+     *
+     * @param collUsage collector thread usage
+     * @param outUsage output thread usage
+     */
+    public void setThreadUsage(ThreadUsage collUsage, ThreadUsage outUsage)
+    {
+        if (collThrd instanceof CollectorThread) {
+            ((CollectorThread) collThrd).setThreadUsage(collUsage);
+        }
+        if (outThrd instanceof OutputThread) {
+            ((OutputThread) outThrd).setThreadUsage(outUsage);
+        }
+    }
+
+    /**
+     * Set the tracer used to follow sampled hits through the collector
+     * and output threads.
+     *
+     * @param tracer hit tracer
+     */
+    public void setHitTracer(HitTracer tracer)
+    {
+        if (collThrd instanceof CollectorThread) {
+            ((CollectorThread) collThrd).setHitTracer(tracer);
+        }
+        if (outThrd instanceof OutputThread) {
+            ((OutputThread) outThrd).setHitTracer(tracer);
+        }
+    }
+
+    /**
+     * Release requests without waiting for algorithms which trail the
+     * input by more than their limits.
+     *
+     * @param lagTolerance lag tolerance policy
+     */
+    public void setLagTolerance(LagTolerance lagTolerance)
+    {
+        if (collThrd instanceof CollectorThread) {
+            ((CollectorThread) collThrd).setLagTolerance(lagTolerance);
+        }
+    }
+
     public void setRunNumber(int runNumber, boolean isSwitched)
     {
         collThrd.setRunNumber(runNumber, isSwitched);
     }
 
     /**
-     * Start collector and output threads.
+     * Start collector and output threads, or wake them if they were
+     * parked at the end of the previous run.
      *
      * @param splicer object to which requests are sent
      */
@@ -247,6 +444,107 @@ class MonitoringTask
     }
 }
 
+/**
+ * Park a persistent pipeline thread between runs.
+ */
+class RunGate
+{
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private boolean parked;
+    private boolean open;
+    private boolean closed;
+
+    /**
+     * Wait until the next run is started or the gate is closed.
+     *
+     * @return <tt>true</tt> if the thread should process another run,
+     *         <tt>false</tt> if it should exit
+     */
+    boolean await()
+    {
+        lock.lock();
+        try {
+            parked = true;
+            changed.signalAll();
+
+            while (!open && !closed) {
+                changed.awaitUninterruptibly();
+            }
+
+            parked = false;
+            if (closed) {
+                return false;
+            }
+
+            open = false;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the thread to park.
+     *
+     * @param deadline <tt>System.currentTimeMillis()</tt> value after which
+     *                 we give up
+     *
+     * @return <tt>true</tt> if the thread is parked
+     */
+    boolean awaitParked(long deadline)
+    {
+        lock.lock();
+        try {
+            while (!parked && !closed) {
+                final long millis = deadline - System.currentTimeMillis();
+                if (millis <= 0) {
+                    break;
+                }
+
+                try {
+                    changed.await(millis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ie) {
+                    // ignore interrupts
+                }
+            }
+
+            return parked && !closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Let the thread exit.
+     */
+    void close()
+    {
+        lock.lock();
+        try {
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Let the parked thread start the next run.
+     */
+    void open()
+    {
+        lock.lock();
+        try {
+            open = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
+
 interface ICollectorThread
 {
     long getSNDAQAlertsDropped();
@@ -282,6 +580,8 @@ class CollectorThread
 
     /** Number of milliseconds in a second */
     private static final long MILLIS_PER_SECOND = 1000L;
+    /** How often algorithms are checked while the collector is stopping */
+    private static final long STOP_POLL_MILLIS = 10L;
 
     int srcId;
     private List<ITriggerAlgorithm> algorithms;
@@ -297,7 +597,10 @@ class CollectorThread
     private int mergedUID;
     private boolean switchMerged;
 
-    private Object threadLock = new Object();
+    /** Guards <tt>changed</tt> (a lock so virtual threads don't pin) */
+    private final ReentrantLock threadLock = new ReentrantLock();
+    /** Signalled when a list has changed or the thread should stop */
+    private final Condition threadCond = threadLock.newCondition();
     private Thread thread;
 
     private boolean changed;
@@ -309,21 +612,36 @@ class CollectorThread
     private IOutputThread outThrd;
 
     private List<TriggerThread> trigThreads = new ArrayList<TriggerThread>();
+    /** If non-null, algorithms run on this pool instead of trigThreads */
+    private AlgorithmScheduler scheduler;
 
-    private boolean stopping;
+    private volatile boolean stopping;
     private boolean stopped;
+    /** Time by which the stop sequence must finish */
+    private volatile long stopDeadline = Long.MAX_VALUE;
 
     private int runNumber = Integer.MIN_VALUE;
 
     private Timer moniTimer;
 
+    /** If non-null, sampled hits are traced through the trigger */
+    private HitTracer tracer;
+    /** If non-null, measures this thread's CPU time and allocation */
+    private ThreadUsage usage;
+    /** If non-null, requests are released without lagging algorithms */
+    private LagTolerance lagTolerance;
+
+    /** If non-null, the thread parks here between runs instead of exiting */
+    private RunGate gate;
+    /** Has the thread been started? */
+    private boolean started;
+
     public CollectorThread(String name, int srcId,
                            List<ITriggerAlgorithm> algorithms,
                            IMonitoringDataManager moniDataMgr,
                            IOutputThread outThrd, SubscriptionManager subMgr)
     {
-        thread = new Thread(this);
-        thread.setName(name);
+        thread = VirtualThreads.newThread(this, name);
 
         this.srcId = srcId;
         this.algorithms = new ArrayList<ITriggerAlgorithm>(algorithms);
@@ -339,7 +657,19 @@ class CollectorThread
             }
         }
 
-        createTriggerThreads(algorithms);
+        // fused algorithms are run by the ingest thread
+        ArrayList<ITriggerAlgorithm> threaded =
+            new ArrayList<ITriggerAlgorithm>();
+        for (ITriggerAlgorithm algo : algorithms) {
+            if (!SubscribedList.isInline(algo)) {
+                threaded.add(algo);
+            }
+        }
+
+        scheduler = AlgorithmScheduler.create(threaded);
+        if (scheduler == null) {
+            createTriggerThreads(threaded);
+        }
     }
 
     /**
@@ -351,11 +681,68 @@ class CollectorThread
     public void addRequests(Interval interval,
                             List<ITriggerRequestPayload> list)
     {
-        for (ITriggerAlgorithm a : algorithms) {
+        addRequests(algorithms, interval, list);
+    }
+
+    /**
+     * Add requests within the interval from some algorithms to the list.
+     *
+     * @param algoList algorithms
+     * @param interval time interval
+     * @param list list of requests
+     */
+    private void addRequests(List<ITriggerAlgorithm> algoList,
+                             Interval interval,
+                             List<ITriggerRequestPayload> list)
+    {
+        for (ITriggerAlgorithm a : algoList) {
             totalReleased += a.release(interval, list);
         }
     }
 
+    /**
+     * Wait for this thread and all algorithm threads to finish the
+     * previous run.
+     *
+     * @param deadline <tt>System.currentTimeMillis()</tt> value after which
+     *                 we give up
+     *
+     * @return <tt>true</tt> if all threads are parked
+     */
+    boolean awaitParked(long deadline)
+    {
+        if (gate == null || !gate.awaitParked(deadline)) {
+            return false;
+        }
+
+        for (TriggerThread tt : trigThreads) {
+            if (!tt.awaitParked(deadline)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Let this thread and all algorithm threads exit once the current run
+     * has finished.
+     */
+    void close()
+    {
+        for (TriggerThread tt : trigThreads) {
+            tt.close();
+        }
+
+        if (scheduler != null) {
+            scheduler.close();
+        }
+
+        if (gate != null) {
+            gate.close();
+        }
+    }
+
     private void createTriggerThreads(List<ITriggerAlgorithm> algorithms)
     {
         int id = 0;
@@ -369,11 +756,23 @@ class CollectorThread
     }
 
     public Interval findInterval()
+    {
+        return findInterval(algorithms);
+    }
+
+    /**
+     * Find the next interval on which all the algorithms agree.
+     *
+     * @param algoList algorithms
+     *
+     * @return interval or <tt>null</tt> if they do not agree yet
+     */
+    private Interval findInterval(List<ITriggerAlgorithm> algoList)
     {
         Interval interval = new Interval();
         while (interval != null) {
             boolean sameInterval = true;
-            for (ITriggerAlgorithm a : algorithms) {
+            for (ITriggerAlgorithm a : algoList) {
                 Interval i2 = a.getInterval(interval);
                 if (!interval.equals(i2)) {
                     sameInterval = false;
@@ -534,6 +933,35 @@ class CollectorThread
         outThrd.push(req);
     }
 
+    /**
+     * Reset all per-run state before a persistent thread is restarted.
+     */
+    private void reset()
+    {
+        changed = false;
+        stopping = false;
+        stopped = false;
+        stopDeadline = Long.MAX_VALUE;
+
+        totalReleased = 0;
+        totalCollected = 0;
+        pushed = 0;
+
+        mergedUID = 0;
+        switchMerged = false;
+
+        if (moniTimer != null) {
+            moniTimer.cancel();
+            moniTimer = null;
+        }
+
+        // the previous run closed the alerter
+        if (alerter != null) {
+            alerter = null;
+            initializeSNDAQAlerter(algorithms);
+        }
+    }
+
     /**
      * Reset the UID in order to switch to a new run.
      */
@@ -549,9 +977,29 @@ class CollectorThread
     @Override
     public void run()
     {
+        while (true) {
+            runOnce();
+
+            if (gate == null || !gate.await()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Collect requests until the algorithms have been flushed.
+     */
+    private void runOnce()
+    {
+        if (usage != null) {
+            usage.start(Thread.currentThread());
+        }
+
         Interval oldInterval = null;
         List<ITriggerRequestPayload> requestCache =
             new ArrayList<ITriggerRequestPayload>();
+        // end of the latest interval sent in time order
+        long releaseTime = Long.MIN_VALUE;
 
         // let SNDAQ know a run is starting
         if (runNumber == Integer.MIN_VALUE) {
@@ -577,22 +1025,57 @@ class CollectorThread
                 if (algoStopped) {
                     break;
                 }
+
+                if (System.currentTimeMillis() >= stopDeadline) {
+                    logUnstoppedAlgorithms();
+                    break;
+                }
             }
 
-            synchronized (threadLock) {
+            threadLock.lock();
+            try {
                 if (!changed) {
                     try {
-                        threadLock.wait();
+                        final long flushDelay =
+                            (alerter == null ? -1L : alerter.getFlushDelay());
+                        if (stopping) {
+                            // algorithms don't signal when they've stopped
+                            threadCond.await(STOP_POLL_MILLIS,
+                                             TimeUnit.MILLISECONDS);
+                        } else if (flushDelay >= 0) {
+                            // wake up in time to send the SNDAQ bin
+                            threadCond.await(flushDelay,
+                                             TimeUnit.MILLISECONDS);
+                        } else {
+                            threadCond.await();
+                        }
                     } catch (InterruptedException ie) {
                         // ignore interrupts
                     }
                 }
 
                 changed = false;
+            } finally {
+                threadLock.unlock();
+            }
+
+            List<ITriggerAlgorithm> active = algorithms;
+            if (lagTolerance != null) {
+                final long releaseTime =
+                    (oldInterval == null ? Long.MIN_VALUE : oldInterval.end);
+
+                List<ITriggerAlgorithm> lagging =
+                    lagTolerance.update(algorithms, releaseTime);
+                if (lagging.size() > 0) {
+                    sendLateRequests(lagging, oldInterval, requestCache);
+
+                    active = new ArrayList<ITriggerAlgorithm>(algorithms);
+                    active.removeAll(lagging);
+                }
             }
 
             while (true) {
-                Interval interval = findInterval();
+                Interval interval = findInterval(active);
                 if (interval == null || interval.isEmpty()) {
                     break;
                 }
@@ -601,7 +1084,7 @@ class CollectorThread
                     interval.end == FlushRequest.FLUSH_TIME)
                 {
                     // if the interval is a FLUSH, we're done
-                    stopping = true;
+                    startStopping();
 
                     outThrd.notifyThread();
 
@@ -610,15 +1093,16 @@ class CollectorThread
 
                 if (oldInterval == null) {
                     // cache the first batch of requests
-                    addRequests(interval, requestCache);
+                    addRequests(active, interval, requestCache);
                     oldInterval = interval;
                 } else if (interval.start > oldInterval.end) {
                     // send cached requests
                     sendRequests(oldInterval, requestCache);
+                    releaseTime = oldInterval.end;
 
                     // cache current requests
                     requestCache.clear();
-                    addRequests(interval, requestCache);
+                    addRequests(active, interval, requestCache);
                     oldInterval = interval;
                 } else {
                     // Deal with overlapping request
@@ -627,10 +1111,10 @@ class CollectorThread
                                   " precedes old interval " + oldInterval +
                                   "; stopping payload collector");
                         oldInterval = null;
-                        stopping = true;
+                        startStopping();
                         break;
                     } else {
-                        addRequests(interval, requestCache);
+                        addRequests(active, interval, requestCache);
                         if (interval.start < oldInterval.start) {
                             oldInterval.start = interval.start;
                         }
@@ -640,6 +1124,10 @@ class CollectorThread
                     }
                 }
             }
+
+            if (alerter != null) {
+                alerter.flushBin(releaseTime);
+            }
         }
 
         if (oldInterval != null) {
@@ -647,6 +1135,10 @@ class CollectorThread
             sendRequests(oldInterval, requestCache);
         }
 
+        if (srcId == SourceIdRegistry.GLOBAL_TRIGGER_SOURCE_ID) {
+            ElementMerger.reportLogLimits();
+        }
+
         stopTriggerThreads();
 
         outThrd.stop();
@@ -662,24 +1154,112 @@ class CollectorThread
 
         subMgr.unsubscribeAll();
 
+        if (usage != null) {
+            usage.stop();
+        }
+
         stopped = true;
     }
 
-    public void sendRequests(Interval interval,
-                             List<ITriggerRequestPayload> list)
+    /**
+     * Send the finished requests from lagging algorithms.  Any request which
+     * overlaps the cached interval is merged into the cached requests,
+     * but all other late requests are sent immediately so they may precede
+     * or overlap requests which have already been sent.
+     *
+     * @param lagging lagging algorithms
+     * @param oldInterval cached interval (may be <tt>null</tt>)
+     * @param requestCache requests cached for <tt>oldInterval</tt>
+     */
+    private void sendLateRequests(List<ITriggerAlgorithm> lagging,
+                                  Interval oldInterval,
+                                  List<ITriggerRequestPayload> requestCache)
     {
-        // if there's an active SNDAQ alerter, hand off the list of requests
-        if (alerter != null) {
-            notifySNDAQ(list);
-        }
+        for (ITriggerAlgorithm a : lagging) {
+            List<ITriggerAlgorithm> single =
+                new ArrayList<ITriggerAlgorithm>(1);
+            single.add(a);
 
-        if (list.isEmpty()) {
-            LOG.error("No requests found for interval " + interval);
-        } else if (list.size() == 1) {
-            pushTrigger(list.get(0));
+            while (true) {
+                Interval interval = findInterval(single);
+                if (interval == null || interval.isEmpty() ||
+                    (interval.start == FlushRequest.FLUSH_TIME &&
+                     interval.end == FlushRequest.FLUSH_TIME))
+                {
+                    // the final flush is handled after the algorithm rejoins
+                    break;
+                }
 
-            totalCollected++;
-            pushed++;
+                if (oldInterval != null &&
+                    interval.start <= oldInterval.end &&
+                    interval.end >= oldInterval.start)
+                {
+                    // not sent yet, so release it with the cached requests
+                    final int num = requestCache.size();
+                    addRequests(single, interval, requestCache);
+                    if (requestCache.size() == num) {
+                        break;
+                    }
+
+                    if (interval.start < oldInterval.start) {
+                        oldInterval.start = interval.start;
+                    }
+                    if (interval.end > oldInterval.end) {
+                        oldInterval.end = interval.end;
+                    }
+                    continue;
+                }
+
+                List<ITriggerRequestPayload> list =
+                    new ArrayList<ITriggerRequestPayload>();
+                addRequests(single, interval, list);
+                if (list.isEmpty()) {
+                    break;
+                }
+
+                sendRequests(interval, list, true);
+                lagTolerance.addLate(list.size());
+            }
+        }
+    }
+
+    public void sendRequests(Interval interval,
+                             List<ITriggerRequestPayload> list)
+    {
+        sendRequests(interval, list, false);
+    }
+
+    /**
+     * Send the requests released for an interval.
+     *
+     * @param interval time interval
+     * @param list released requests
+     * @param late if <tt>true</tt>, the requests are always merged into a
+     *             request flagged with <tt>LagTolerance.LATE_CONFIG_ID</tt>
+     */
+    private void sendRequests(Interval interval,
+                              List<ITriggerRequestPayload> list, boolean late)
+    {
+        TriggerEvents.IntervalRelease evt =
+            new TriggerEvents.IntervalRelease();
+        evt.begin();
+
+        // if there's an active SNDAQ alerter, hand off the list of requests
+        if (alerter != null) {
+            notifySNDAQ(list);
+        }
+
+        if (list.isEmpty()) {
+            LOG.error("No requests found for interval " + interval);
+        } else if (list.size() == 1 && !late) {
+            if (tracer != null) {
+                tracer.collected(interval, list.get(0));
+            }
+
+            pushTrigger(list.get(0));
+
+            totalCollected++;
+            pushed++;
         } else {
             TriggerRequestComparator trigReqCmp =
                 new TriggerRequestComparator();
@@ -695,14 +1275,27 @@ class CollectorThread
 
             ArrayList<IPayload> hack =
                 new ArrayList<IPayload>(list);
+            final int cfgId = (late ? LagTolerance.LATE_CONFIG_ID : -1);
             ITriggerRequestPayload mergedReq =
-                new TriggerRequest(mergedUID, -1, -1, srcId, interval.start,
-                                   interval.end, rReq, hack);
+                new TriggerRequest(mergedUID, -1, cfgId, srcId,
+                                   interval.start, interval.end, rReq, hack);
+            if (tracer != null) {
+                tracer.collected(interval, mergedReq);
+            }
+
             pushTrigger(mergedReq);
 
             totalCollected += list.size();
             pushed++;
         }
+
+        evt.end();
+        if (evt.shouldCommit()) {
+            evt.start = interval.start;
+            evt.width = interval.end - interval.start;
+            evt.numRequests = list.size();
+            evt.commit();
+        }
     }
 
     /**
@@ -711,12 +1304,96 @@ class CollectorThread
     @Override
     public void setChanged()
     {
-        synchronized (threadLock) {
+        threadLock.lock();
+        try {
             changed = true;
-            threadLock.notify();
+            threadCond.signal();
+        } finally {
+            threadLock.unlock();
+        }
+    }
+
+    /**
+     * Get the scheduler's critical path counts.
+     *
+     * @return map of algorithm names to counts
+     */
+    Map<String, Long> getCriticalPathCounts()
+    {
+        if (scheduler == null) {
+            return new HashMap<String, Long>();
+        }
+
+        return scheduler.getCriticalPathCounts();
+    }
+
+    /**
+     * Get the object to notify when new input is queued for the
+     * algorithms.
+     *
+     * @return input listener (or <tt>null</tt> if the algorithm threads
+     *         wait for input themselves)
+     */
+    Runnable getInputListener()
+    {
+        return scheduler;
+    }
+
+    /**
+     * Set the tracer used to follow sampled hits.
+     *
+     * @param tracer hit tracer
+     */
+    void setHitTracer(HitTracer tracer)
+    {
+        this.tracer = tracer;
+
+        for (TriggerThread tt : trigThreads) {
+            tt.setHitTracer(tracer);
+        }
+        if (scheduler != null) {
+            scheduler.setHitTracer(tracer);
         }
     }
 
+    /**
+     * Release requests without waiting for algorithms which trail the
+     * input by more than their limits.
+     *
+     * @param lagTolerance lag tolerance policy
+     */
+    void setLagTolerance(LagTolerance lagTolerance)
+    {
+        this.lagTolerance = lagTolerance;
+    }
+
+    /**
+     * Keep this thread and all algorithm threads alive between runs.
+     */
+    void setPersistent()
+    {
+        if (started) {
+            throw new Error("Cannot make running collector persistent");
+        }
+
+        gate = new RunGate();
+        thread.setDaemon(true);
+
+        for (TriggerThread tt : trigThreads) {
+            tt.setPersistent();
+        }
+    }
+
+    /**
+     * Set the object which measures this thread's CPU time and allocation.
+     *
+     * @param usage thread usage
+     */
+    void setThreadUsage(ThreadUsage usage)
+    {
+        this.usage = usage;
+    }
+
     public void setRunNumber(int runNumber, boolean isSwitched)
     {
         if (isSwitched) {
@@ -729,7 +1406,13 @@ class CollectorThread
     @Override
     public void start(Splicer splicer)
     {
-        thread.start();
+        if (gate != null && started) {
+            reset();
+            gate.open();
+        } else {
+            thread.start();
+        }
+        started = true;
 
         outThrd.start(splicer);
 
@@ -737,15 +1420,60 @@ class CollectorThread
         for (TriggerThread tt : trigThreads) {
             tt.start();
         }
+        if (scheduler != null) {
+            scheduler.start();
+        }
+    }
+
+    /**
+     * Log the algorithms which did not stop before the deadline.
+     */
+    private void logUnstoppedAlgorithms()
+    {
+        StringBuilder buf = new StringBuilder();
+        for (ITriggerAlgorithm a : algorithms) {
+            if (!a.isStopped()) {
+                if (buf.length() > 0) {
+                    buf.append(", ");
+                }
+                buf.append(a.getTriggerName()).append("[cached#").
+                    append(a.getNumberOfCachedRequests()).append(",sub=").
+                    append(a.getSubscriber()).append(']');
+            }
+        }
+
+        LOG.error("Algorithms did not stop within " +
+                  TriggerCollector.getStopTimeout() + " ms: " + buf);
+    }
+
+    /**
+     * Start the stop sequence and set the time by which it must finish.
+     */
+    private void startStopping()
+    {
+        if (stopDeadline == Long.MAX_VALUE) {
+            stopDeadline = System.currentTimeMillis() +
+                TriggerCollector.getStopTimeout();
+        }
+
+        stopping = true;
+
+        // subscribers may be stopped before the trigger threads
+        for (TriggerThread tt : trigThreads) {
+            tt.setStopping();
+        }
     }
 
     @Override
     public void stop()
     {
-        stopping = true;
+        startStopping();
 
-        synchronized (threadLock) {
-            threadLock.notify();
+        threadLock.lock();
+        try {
+            threadCond.signal();
+        } finally {
+            threadLock.unlock();
         }
 
         outThrd.notifyThread();
@@ -753,14 +1481,43 @@ class CollectorThread
 
     public void stopTriggerThreads()
     {
-        // finish all trigger threads
+        long deadline = stopDeadline;
+        if (deadline == Long.MAX_VALUE) {
+            deadline = System.currentTimeMillis() +
+                TriggerCollector.getStopTimeout();
+        }
+
+        if (scheduler != null) {
+            scheduler.stop();
+            if (!scheduler.join(deadline)) {
+                LOG.error("Scheduled algorithms did not stop within " +
+                          TriggerCollector.getStopTimeout() + " ms: " +
+                          scheduler.getDiagnostics());
+            }
+
+            // persistent pools are reused for the next run
+            if (gate == null) {
+                scheduler.close();
+            }
+        }
+
+        // signal all trigger threads at once so they finish in parallel
         for (TriggerThread thread : trigThreads) {
             thread.stop();
         }
+
         for (TriggerThread thread : trigThreads) {
-            thread.join();
+            if (!thread.join(deadline)) {
+                LOG.error("Trigger thread did not stop within " +
+                          TriggerCollector.getStopTimeout() + " ms: " +
+                          thread.getDiagnostics());
+            }
+        }
+
+        // persistent threads are reused for the next run
+        if (gate == null) {
+            trigThreads = new ArrayList<TriggerThread>();
         }
-        trigThreads.clear();
     }
 
     @Override
@@ -791,6 +1548,8 @@ interface IOutputThread
 {
     long getNumQueued();
 
+    Map<String, Long> getOutputStatistics();
+
     boolean isStopped();
 
     void notifyThread();
@@ -813,28 +1572,45 @@ class OutputThread
     private static final Logger LOG = Logger.getLogger(OutputThread.class);
 
     private Thread thread;
-    private boolean waiting;
-    private boolean stopping;
-    private boolean stopped;
+    protected volatile boolean waiting;
+    protected volatile boolean stopping;
+    protected volatile boolean stopped;
 
     private boolean isGlobalTrigger;
 
     /** Output queue. */
     private Deque<ByteBuffer> outputQueue =
         new ArrayDeque<ByteBuffer>();
+    /** Guards the output queue (a lock so virtual threads don't pin) */
+    private final ReentrantLock queueLock = new ReentrantLock();
+    /** Signalled when the output queue changes or the thread should stop */
+    private final Condition queueCond = queueLock.newCondition();
 
     /** Outgoing byte buffer cache. */
-    private IByteBufferCache outCache;
+    protected IByteBufferCache outCache;
 
     /** Output process */
-    private DAQComponentOutputProcess outputEngine;
+    protected DAQComponentOutputProcess outputEngine;
 
     /** Output channel */
-    private OutputChannel outChan;
+    protected OutputChannel outChan;
 
     /** Global trigger UID which will eventually be the event UID */
     private int eventUID = 1;
 
+    /** Number of requests sent to the output channel */
+    protected long numWritten;
+
+    /** If non-null, sampled hits are traced through the trigger */
+    private HitTracer tracer;
+    /** If non-null, measures this thread's CPU time and allocation */
+    private ThreadUsage usage;
+
+    /** If non-null, the thread parks here between runs instead of exiting */
+    private RunGate gate;
+    /** Has the thread been started? */
+    private boolean started;
+
     /**
      * Create and start output thread.
      *
@@ -848,8 +1624,7 @@ class OutputThread
                         DAQComponentOutputProcess outputEngine,
                         IByteBufferCache outCache)
     {
-        thread = new Thread(this);
-        thread.setName(name);
+        thread = VirtualThreads.newThread(this, name);
 
         this.outputEngine = outputEngine;
         this.outCache = outCache;
@@ -857,6 +1632,29 @@ class OutputThread
         isGlobalTrigger = srcId == SourceIdRegistry.GLOBAL_TRIGGER_SOURCE_ID;
     }
 
+    /**
+     * Wait for the thread to finish the previous run.
+     *
+     * @param deadline <tt>System.currentTimeMillis()</tt> value after which
+     *                 we give up
+     *
+     * @return <tt>true</tt> if the thread is parked
+     */
+    boolean awaitParked(long deadline)
+    {
+        return gate != null && gate.awaitParked(deadline);
+    }
+
+    /**
+     * Let a persistent thread exit once the current run has finished.
+     */
+    void close()
+    {
+        if (gate != null) {
+            gate.close();
+        }
+    }
+
     /**
      * Return the number of requests queued for writing.
      *
@@ -865,7 +1663,46 @@ class OutputThread
     @Override
     public long getNumQueued()
     {
-        return outputQueue.size();
+        queueLock.lock();
+        try {
+            return outputQueue.size();
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * Return output statistics.
+     *
+     * @return map of statistic names to values
+     */
+    @Override
+    public Map<String, Long> getOutputStatistics()
+    {
+        HashMap<String, Long> map = new HashMap<String, Long>();
+        map.put("queued", getNumQueued());
+        map.put("written", numWritten);
+        return map;
+    }
+
+    /**
+     * Get the tracer used to follow sampled hits.
+     *
+     * @return hit tracer (may be <tt>null</tt>)
+     */
+    HitTracer getHitTracer()
+    {
+        return tracer;
+    }
+
+    /**
+     * Get the object which measures this thread's CPU time and allocation.
+     *
+     * @return thread usage (may be <tt>null</tt>)
+     */
+    ThreadUsage getThreadUsage()
+    {
+        return usage;
     }
 
     /**
@@ -970,8 +1807,11 @@ class OutputThread
     @Override
     public void notifyThread()
     {
-        synchronized (outputQueue) {
-            outputQueue.notify();
+        queueLock.lock();
+        try {
+            queueCond.signal();
+        } finally {
+            queueLock.unlock();
         }
     }
 
@@ -986,28 +1826,78 @@ class OutputThread
             makeBackwardCompatible(req);
         }
 
-        int bufLen = req.length();
+        ByteBuffer trigBuf;
+        if (req instanceof EncodedTriggerRequest &&
+            req.getPayloadBacking() != null)
+        {
+            // request was written directly to an output buffer
+            trigBuf = ((EncodedTriggerRequest) req).detachBuffer();
+        } else {
+            int bufLen = req.length();
 
-        // write trigger to allocated ByteBuffer
-        ByteBuffer trigBuf = outCache.acquireBuffer(bufLen);
-        try {
-            req.writePayload(false, 0, trigBuf);
-        } catch (IOException ioe) {
-            LOG.error("Couldn't create payload", ioe);
-            trigBuf = null;
+            // write trigger to allocated ByteBuffer
+            trigBuf = outCache.acquireBuffer(bufLen);
+            try {
+                req.writePayload(false, 0, trigBuf);
+            } catch (IOException ioe) {
+                LOG.error("Couldn't create payload", ioe);
+                trigBuf = null;
+            }
         }
 
         if (trigBuf != null) {
-            synchronized (outputQueue) {
-                outputQueue.addLast(trigBuf);
-                outputQueue.notify();
+            if (tracer != null) {
+                tracer.queued(req, trigBuf);
             }
+
+            enqueue(trigBuf);
         }
 
         // now recycle it
         req.recycle();
     }
 
+    /**
+     * Add a serialized request to the output queue.
+     *
+     * @param trigBuf serialized request
+     */
+    void enqueue(ByteBuffer trigBuf)
+    {
+        queueLock.lock();
+        try {
+            outputQueue.addLast(trigBuf);
+            queueCond.signal();
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * Reset all per-run state before a persistent thread is restarted.
+     */
+    void reset()
+    {
+        queueLock.lock();
+        try {
+            // drop anything left behind by an aborted run
+            for (ByteBuffer buf : outputQueue) {
+                outCache.returnBuffer(buf);
+            }
+            outputQueue.clear();
+            waiting = false;
+            stopping = false;
+        } finally {
+            queueLock.unlock();
+        }
+        stopped = false;
+
+        // the previous run sent the final payload to the old channel
+        outChan = null;
+        eventUID = 1;
+        numWritten = 0;
+    }
+
     @Override
     public void resetUID()
     {
@@ -1015,20 +1905,69 @@ class OutputThread
     }
 
     /**
-     * Main output loop.
+     * Set the tracer used to follow sampled hits.
+     *
+     * @param tracer hit tracer
+     */
+    void setHitTracer(HitTracer tracer)
+    {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Keep this thread alive between runs.
+     */
+    void setPersistent()
+    {
+        if (started) {
+            throw new Error("Cannot make running output thread persistent");
+        }
+
+        gate = new RunGate();
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Set the object which measures this thread's CPU time and allocation.
+     *
+     * @param usage thread usage
      */
+    void setThreadUsage(ThreadUsage usage)
+    {
+        this.usage = usage;
+    }
+
     @Override
     public void run()
     {
+        while (true) {
+            runOnce();
+
+            if (gate == null || !gate.await()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Main output loop.
+     */
+    void runOnce()
+    {
+        if (usage != null) {
+            usage.start(Thread.currentThread());
+        }
+
         boolean warnedChannel = false;
 
         ByteBuffer trigBuf;
         while (!stopping || !outputQueue.isEmpty()) {
-            synchronized (outputQueue) {
+            queueLock.lock();
+            try {
                 if (!stopping && outputQueue.isEmpty()) {
                     try {
                         waiting = true;
-                        outputQueue.wait();
+                        queueCond.await();
                     } catch (InterruptedException ie) {
                         LOG.error("Interrupt while waiting for output" +
                                   " queue", ie);
@@ -1041,6 +1980,8 @@ class OutputThread
                 } else {
                     trigBuf = outputQueue.removeFirst();
                 }
+            } finally {
+                queueLock.unlock();
             }
 
             if (trigBuf == null) {
@@ -1062,7 +2003,24 @@ class OutputThread
 
             //--ship the trigger to its destination
             if (outChan != null) {
+                TriggerEvents.OutputWrite evt =
+                    new TriggerEvents.OutputWrite();
+                evt.begin();
+
+                final int bytes = trigBuf.limit();
                 outChan.receiveByteBuffer(trigBuf);
+                numWritten++;
+
+                evt.end();
+                if (evt.shouldCommit()) {
+                    evt.numRequests = 1;
+                    evt.bytes = bytes;
+                    evt.commit();
+                }
+
+                if (tracer != null) {
+                    tracer.written(trigBuf);
+                }
             }
         }
 
@@ -1080,21 +2038,34 @@ class OutputThread
             outChan.sendLastAndStop();
         }
 
+        if (usage != null) {
+            usage.stop();
+        }
+
         stopped = true;
     }
 
     @Override
     public void start(Splicer splicer)
     {
-        thread.start();
+        if (gate != null && started) {
+            reset();
+            gate.open();
+        } else {
+            thread.start();
+        }
+        started = true;
     }
 
     @Override
     public void stop()
     {
-        synchronized (outputQueue) {
+        queueLock.lock();
+        try {
             stopping = true;
-            outputQueue.notify();
+            queueCond.signal();
+        } finally {
+            queueLock.unlock();
         }
     }
 
@@ -1120,3 +2091,352 @@ class OutputThread
             ",uid=" + eventUID + "]";
     }
 }
+
+/**
+ * Output thread which hands requests over through a bounded lock-free
+ * queue and writes everything that has accumulated as a single buffer.
+ */
+class BatchedOutputThread
+    extends OutputThread
+{
+    /** Set this property to <tt>true</tt> to batch output requests */
+    public static final String ENABLE_PROPERTY =
+        "icecube.daq.trigger.control.batched-output";
+    /** Maximum number of requests waiting to be written */
+    public static final String QUEUE_SIZE_PROPERTY =
+        "icecube.daq.trigger.control.output-queue-size";
+
+    private static final Logger LOG =
+        Logger.getLogger(BatchedOutputThread.class);
+
+    /** Default maximum number of queued requests */
+    private static final int DEFAULT_QUEUE_SIZE = 65536;
+    /** Maximum number of requests taken from the queue at one time */
+    private static final int MAX_BATCH = 1024;
+    /** Maximum size of a packed buffer */
+    private static final int MAX_PACKED_BYTES = 256 * 1024;
+    /** Maximum time to sleep before checking for new data */
+    private static final long PARK_NANOS = 1000000L;
+    /** Time to wait for space in a full queue */
+    private static final long FULL_PARK_NANOS = 50000L;
+
+    /** Thread which drains the queue */
+    private volatile Thread drainThread;
+
+    /** Requests waiting to be written */
+    private SpscArrayQueue<ByteBuffer> queue;
+    private int queueSize;
+
+    /** Requests in the current batch */
+    private ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+
+    private long numBatches;
+    private long numPacked;
+    private long maxBatch;
+    private long queueFullWaits;
+    private long queueFullNanos;
+
+    BatchedOutputThread(String name, int srcId,
+                        DAQComponentOutputProcess outputEngine,
+                        IByteBufferCache outCache)
+    {
+        super(name, srcId, outputEngine, outCache);
+
+        queueSize = Integer.getInteger(QUEUE_SIZE_PROPERTY,
+                                       DEFAULT_QUEUE_SIZE);
+        queue = new SpscArrayQueue<ByteBuffer>(queueSize);
+    }
+
+    /**
+     * Add a serialized request to the output queue, waiting for space
+     * if the queue is full.
+     *
+     * @param trigBuf serialized request
+     */
+    @Override
+    void enqueue(ByteBuffer trigBuf)
+    {
+        if (!queue.offer(trigBuf)) {
+            queueFullWaits++;
+
+            final long start = System.nanoTime();
+            while (!queue.offer(trigBuf)) {
+                if (stopped) {
+                    LOG.error("Output thread has stopped; dropping request");
+                    outCache.returnBuffer(trigBuf);
+                    return;
+                }
+
+                wakeDrainThread();
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+            queueFullNanos += System.nanoTime() - start;
+        }
+
+        if (waiting) {
+            wakeDrainThread();
+        }
+    }
+
+    /**
+     * Return the number of requests queued for writing.
+     *
+     * @return output queue size
+     */
+    @Override
+    public long getNumQueued()
+    {
+        return queue.size();
+    }
+
+    /**
+     * Return output statistics, including the number of times the
+     * collector had to wait for space in the output queue.
+     *
+     * @return map of statistic names to values
+     */
+    @Override
+    public Map<String, Long> getOutputStatistics()
+    {
+        HashMap<String, Long> map = new HashMap<String, Long>();
+        map.put("queued", (long) queue.size());
+        map.put("queueSize", (long) queueSize);
+        map.put("written", numWritten);
+        map.put("batches", numBatches);
+        map.put("packedBuffers", numPacked);
+        map.put("maxBatch", maxBatch);
+        map.put("queueFullWaits", queueFullWaits);
+        map.put("queueFullMillis", queueFullNanos / 1000000L);
+        return map;
+    }
+
+    /**
+     * Is batched output enabled?
+     *
+     * @return <tt>true</tt> if batched output has been requested
+     */
+    public static boolean isEnabled()
+    {
+        return Boolean.getBoolean(ENABLE_PROPERTY);
+    }
+
+    @Override
+    public void notifyThread()
+    {
+        wakeDrainThread();
+    }
+
+    /**
+     * Send buffers to the output channel, packing consecutive small
+     * buffers into a single larger buffer.
+     *
+     * @param num number of buffers in the batch
+     */
+    private void write(int num)
+    {
+        int start = 0;
+        while (start < num) {
+            int total = 0;
+            int end = start;
+            while (end < num) {
+                final int len = batch[end].limit();
+                if (end > start && total + len > MAX_PACKED_BYTES) {
+                    break;
+                }
+                total += len;
+                end++;
+            }
+
+            TriggerEvents.OutputWrite evt = new TriggerEvents.OutputWrite();
+            evt.begin();
+
+            if (end - start == 1) {
+                outChan.receiveByteBuffer(batch[start]);
+            } else {
+                ByteBuffer packed = outCache.acquireBuffer(total);
+                int pos = 0;
+                for (int i = start; i < end; i++) {
+                    final int len = batch[i].limit();
+
+                    ByteBuffer src = batch[i].duplicate();
+                    src.position(0);
+                    src.limit(len);
+
+                    ByteBuffer dest = packed.duplicate();
+                    dest.position(pos);
+                    dest.put(src);
+
+                    pos += len;
+                    outCache.returnBuffer(batch[i]);
+                }
+                packed.position(0);
+                packed.limit(total);
+
+                outChan.receiveByteBuffer(packed);
+                numPacked++;
+            }
+
+            evt.end();
+            if (evt.shouldCommit()) {
+                evt.numRequests = end - start;
+                evt.bytes = total;
+                evt.commit();
+            }
+
+            numWritten += end - start;
+            start = end;
+        }
+    }
+
+    /**
+     * Reset all per-run state before a persistent thread is restarted.
+     */
+    @Override
+    void reset()
+    {
+        super.reset();
+
+        // drop anything left behind by an aborted run
+        ByteBuffer buf;
+        while ((buf = queue.poll()) != null) {
+            outCache.returnBuffer(buf);
+        }
+
+        numBatches = 0;
+        numPacked = 0;
+        maxBatch = 0;
+        queueFullWaits = 0;
+        queueFullNanos = 0;
+    }
+
+    /**
+     * Main output loop.
+     */
+    @Override
+    void runOnce()
+    {
+        drainThread = Thread.currentThread();
+
+        final ThreadUsage usage = getThreadUsage();
+        if (usage != null) {
+            usage.start(drainThread);
+        }
+
+        boolean warnedChannel = false;
+        while (true) {
+            int num = 0;
+            while (num < batch.length) {
+                ByteBuffer buf = queue.poll();
+                if (buf == null) {
+                    break;
+                }
+                batch[num++] = buf;
+            }
+
+            if (num == 0) {
+                if (stopping) {
+                    if (queue.isEmpty()) {
+                        break;
+                    }
+                } else {
+                    waiting = true;
+                    if (queue.isEmpty() && !stopping) {
+                        LockSupport.parkNanos(PARK_NANOS);
+                    }
+                    waiting = false;
+                }
+                continue;
+            }
+
+            // if we haven't already, get the output channel
+            if (outChan == null) {
+                outChan = outputEngine.getChannel();
+                if (outChan == null) {
+                    if (!warnedChannel) {
+                        LOG.error("Output channel has not been set in " +
+                                  outputEngine + "; stopping");
+                        warnedChannel = true;
+                    }
+                    stopping = true;
+                }
+            }
+
+            //--ship the triggers to their destination
+            if (outChan != null) {
+                write(num);
+
+                HitTracer tracer = getHitTracer();
+                if (tracer != null) {
+                    for (int i = 0; i < num; i++) {
+                        tracer.written(batch[i]);
+                    }
+                }
+
+                numBatches++;
+                if (num > maxBatch) {
+                    maxBatch = num;
+                }
+            }
+
+            for (int i = 0; i < num; i++) {
+                batch[i] = null;
+            }
+        }
+
+        // yikes, must have stopped without sending anything
+        if (outChan == null) {
+            outChan = outputEngine.getChannel();
+            if (outChan == null && !warnedChannel) {
+                LOG.error("Output channel has not been set in " +
+                          outputEngine + "; not sending last payload");
+            }
+        }
+
+        // send stop message
+        if (outChan != null) {
+            outChan.sendLastAndStop();
+        }
+
+        if (usage != null) {
+            usage.stop();
+        }
+
+        stopped = true;
+    }
+
+    @Override
+    public void stop()
+    {
+        stopping = true;
+        wakeDrainThread();
+    }
+
+    /**
+     * Wake the output thread if it is waiting for data.
+     */
+    private void wakeDrainThread()
+    {
+        Thread thrd = drainThread;
+        if (thrd != null) {
+            LockSupport.unpark(thrd);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        String stateStr;
+        if (stopped) {
+            stateStr = "stopped";
+        } else if (stopping) {
+            stateStr = "stopping";
+        } else if (waiting) {
+            stateStr = "waiting";
+        } else {
+            stateStr = "running";
+        }
+
+        return "BatchOutThrd[" + stateStr + ",outQ#" + queue.size() +
+            ",batches=" + numBatches + ",full=" + queueFullWaits + "]";
+    }
+}
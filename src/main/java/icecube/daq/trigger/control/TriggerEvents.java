@@ -0,0 +1,136 @@
+package icecube.daq.trigger.control;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events for the trigger pipeline.
+ *
+ * Events follow the usual JFR pattern: create the event, call
+ * <tt>begin()</tt> before the work and fill in the fields only if
+ * <tt>shouldCommit()</tt> returns <tt>true</tt>.  When no recording is
+ * active the JIT reduces all of this to a couple of field checks, so the
+ * hooks are left in place permanently.  None of the events record stack
+ * traces.
+ */
+public final class TriggerEvents
+{
+    /** JFR category used for all trigger events */
+    private static final String CATEGORY = "IceCube DAQ";
+    private static final String SUBCATEGORY = "Trigger";
+
+    /**
+     * Do not instantiate.
+     */
+    private TriggerEvents()
+    {
+    }
+
+    /**
+     * One batch of spliced payloads handed to <tt>analyze()</tt>.
+     */
+    @Name("icecube.daq.trigger.AnalyzeBatch")
+    @Label("Analyze Batch")
+    @Description("Batch of spliced payloads queued for the algorithms")
+    @Category({ CATEGORY, SUBCATEGORY })
+    @StackTrace(false)
+    public static final class AnalyzeBatch
+        extends Event
+    {
+        @Label("Payloads")
+        public int numPayloads;
+    }
+
+    /**
+     * An algorithm input queue reached a new high-water mark.
+     */
+    @Name("icecube.daq.trigger.QueueHighWater")
+    @Label("Queue High-Water Mark")
+    @Description("Algorithm input queue reached a new maximum length")
+    @Category({ CATEGORY, SUBCATEGORY })
+    @StackTrace(false)
+    public static final class QueueHighWater
+        extends Event
+    {
+        @Label("Subscriber")
+        public String subscriber;
+
+        @Label("Queued Payloads")
+        public int size;
+
+        @Label("Previous Mark")
+        public int previous;
+    }
+
+    /**
+     * An algorithm formed a trigger request.
+     */
+    @Name("icecube.daq.trigger.TriggerFormed")
+    @Label("Trigger Formed")
+    @Description("Trigger algorithm built a trigger request")
+    @Category({ CATEGORY, SUBCATEGORY })
+    @StackTrace(false)
+    public static final class TriggerFormed
+        extends Event
+    {
+        @Label("Algorithm")
+        public String algorithm;
+
+        @Label("Hits")
+        public int numHits;
+
+        @Label("Request Span")
+        @Description("Request length in DAQ ticks (0.1 ns)")
+        public long span;
+
+        @Label("Encoded")
+        @Description("Request was written directly to an output buffer")
+        public boolean encoded;
+    }
+
+    /**
+     * The collector released the requests for an interval.
+     */
+    @Name("icecube.daq.trigger.IntervalRelease")
+    @Label("Interval Release")
+    @Description("Collector released the requests for an interval")
+    @Category({ CATEGORY, SUBCATEGORY })
+    @StackTrace(false)
+    public static final class IntervalRelease
+        extends Event
+    {
+        @Label("Interval Start")
+        public long start;
+
+        @Label("Interval Width")
+        @Description("Interval length in DAQ ticks (0.1 ns)")
+        public long width;
+
+        @Label("Requests Merged")
+        public int numRequests;
+    }
+
+    /**
+     * Requests were written to the output channel.
+     */
+    @Name("icecube.daq.trigger.OutputWrite")
+    @Label("Output Write")
+    @Description("Serialized requests written to the output channel")
+    @Category({ CATEGORY, SUBCATEGORY })
+    @StackTrace(false)
+    public static final class OutputWrite
+        extends Event
+    {
+        @Label("Requests")
+        public int numRequests;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+}
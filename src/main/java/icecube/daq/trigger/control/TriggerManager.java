@@ -19,6 +19,7 @@ import icecube.daq.splicer.SplicedAnalysis;
 import icecube.daq.splicer.Splicer;
 import icecube.daq.splicer.SplicerChangedEvent;
 import icecube.daq.splicer.SplicerListener;
+import icecube.daq.trigger.algorithm.AbstractTrigger;
 import icecube.daq.trigger.algorithm.AlgorithmStatistics;
 import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
 import icecube.daq.trigger.config.DomSetFactory;
@@ -36,6 +37,8 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import org.apache.log4j.Logger;
 
@@ -110,6 +113,149 @@ class TriggerRequestComparator
     }
 }
 
+/**
+ * Periodically sample the CPU time and allocation of the trigger threads.
+ */
+class ThreadUsageTask
+    extends TimerTask
+{
+    /** Time between samples */
+    static final long PERIOD_MILLIS = 10000L;
+
+    private static final Logger LOG = Logger.getLogger(ThreadUsageTask.class);
+
+    private TriggerManager mgr;
+
+    ThreadUsageTask(TriggerManager mgr)
+    {
+        this.mgr = mgr;
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            mgr.sampleThreadUsage();
+        } catch (Throwable thr) {
+            LOG.error("Cannot sample thread usage", thr);
+        }
+    }
+}
+
+/**
+ * Trigger manager value which is read when metrics are scraped.
+ */
+class ManagerGauge
+    implements MetricsRegistry.Gauge
+{
+    static final int INPUTS = 0;
+    static final int OUTPUTS_QUEUED = 1;
+    static final int REQUESTS_COLLECTED = 2;
+    static final int REQUESTS_RELEASED = 3;
+    static final int SNDAQ_DROPPED = 4;
+    static final int SNDAQ_QUEUED = 5;
+    static final int SNDAQ_SENT = 6;
+
+    private TriggerManager mgr;
+    private int kind;
+
+    ManagerGauge(TriggerManager mgr, int kind)
+    {
+        this.mgr = mgr;
+        this.kind = kind;
+    }
+
+    @Override
+    public long getValue()
+    {
+        switch (kind) {
+        case INPUTS:
+            return mgr.getTotalProcessed();
+        case OUTPUTS_QUEUED:
+            return mgr.getNumOutputsQueued();
+        case REQUESTS_COLLECTED:
+            return mgr.getTotalRequestsCollected();
+        case REQUESTS_RELEASED:
+            return mgr.getTotalRequestsReleased();
+        case SNDAQ_DROPPED:
+            return mgr.getSNDAQAlertsDropped();
+        case SNDAQ_QUEUED:
+            return mgr.getSNDAQAlertsQueued();
+        case SNDAQ_SENT:
+            return mgr.getSNDAQAlertsSent();
+        default:
+            throw new Error("Unknown manager gauge #" + kind);
+        }
+    }
+}
+
+/**
+ * Trigger algorithm value which is read when metrics are scraped.
+ */
+class AlgorithmGauge
+    implements MetricsRegistry.Gauge
+{
+    static final int INPUT_QUEUED = 0;
+    static final int CACHED_REQUESTS = 1;
+    static final int RELEASE_TIME = 2;
+    static final int SENT = 3;
+    static final int TRIGGERS = 4;
+
+    private ITriggerAlgorithm algo;
+    private int kind;
+
+    AlgorithmGauge(ITriggerAlgorithm algo, int kind)
+    {
+        this.algo = algo;
+        this.kind = kind;
+    }
+
+    @Override
+    public long getValue()
+    {
+        switch (kind) {
+        case INPUT_QUEUED:
+            return algo.getInputQueueSize();
+        case CACHED_REQUESTS:
+            return algo.getNumberOfCachedRequests();
+        case RELEASE_TIME:
+            return algo.getReleaseTime();
+        case SENT:
+            return algo.getSentTriggerCount();
+        case TRIGGERS:
+            return algo.getTriggerCounter();
+        default:
+            throw new Error("Unknown algorithm gauge #" + kind);
+        }
+    }
+}
+
+/**
+ * Thread CPU or allocation rate which is read when metrics are scraped.
+ */
+class ThreadUsageGauge
+    implements MetricsRegistry.Gauge
+{
+    private ThreadUsage usage;
+    private boolean cpu;
+
+    ThreadUsageGauge(ThreadUsage usage, boolean cpu)
+    {
+        this.usage = usage;
+        this.cpu = cpu;
+    }
+
+    @Override
+    public long getValue()
+    {
+        if (cpu) {
+            return usage.getCpuMillisPerSec();
+        }
+
+        return usage.getAllocBytesPerSec();
+    }
+}
+
 
 /**
  * Read in hits from the splicer and send them to the algorithms.
@@ -123,6 +269,26 @@ public class TriggerManager
     public static final DummyPayload FLUSH_PAYLOAD =
         new DummyPayload(new UTCTime(0));
 
+    /**
+     * Set this property to <tt>true</tt> to keep the collector, output and
+     * algorithm threads and the subscriber queues alive between runs
+     */
+    public static final String PERSISTENT_PROPERTY =
+        "icecube.daq.trigger.persistent-pipeline";
+
+    /**
+     * Set this property to the number of milliseconds of DAQ time between
+     * time markers sent to the algorithms (markers are disabled if this
+     * is not set)
+     */
+    public static final String HEARTBEAT_PROPERTY =
+        "icecube.daq.trigger.heartbeat-millis";
+
+    /** Time to wait for persistent threads to finish the previous run */
+    private static final long PARK_WAIT_MILLIS = 10000L;
+    /** Number of DAQ ticks in one millisecond */
+    private static final long TICKS_PER_MILLI = 10000000L;
+
     /** Log object for this class */
     private static final Logger LOG = Logger.getLogger(TriggerManager.class);
 
@@ -130,6 +296,33 @@ public class TriggerManager
     private int srcId;
 
     private TriggerRequestFactory trFactory;
+    /** If non-null, algorithms encode requests directly into buffers */
+    private TriggerRequestEncoder requestEncoder;
+    /** If non-null, sampled hits are traced through the trigger */
+    private HitTracer tracer;
+    /** If non-null, watches for algorithms which hold back output */
+    private StallDetector stallDetector;
+    /** If non-null, hits are put back in time order before fan-out */
+    private ReorderBuffer reorder;
+    /** If non-null, sheds load when the queues back up */
+    private LoadShedder shedder;
+    /** If non-null, masks channels with sustained high hit rates */
+    private HotDomDetector hotDoms;
+    /** If non-null, the collector stops waiting for lagging algorithms */
+    private LagTolerance lagTolerance;
+    /** CPU time and allocation used by the collector and output threads */
+    private ThreadUsage collectorUsage = new ThreadUsage();
+    private ThreadUsage outputUsage = new ThreadUsage();
+    /** Timer which runs the stall detector and samples thread usage */
+    private Timer moniTimer;
+    /** Counters, gauges and histograms served in Prometheus format */
+    private MetricsRegistry metrics = new MetricsRegistry();
+    private MetricsRegistry.Counter invalidCount;
+    private MetricsRegistry.Counter lateCount;
+    private MetricsRegistry.Counter lateRequestCount;
+    /** Limit the errors logged for bad input payloads */
+    private RateLimitedLog inputLog =
+        new RateLimitedLog(LOG, "TriggerManager input");
     private DAQComponentOutputProcess outputEngine;
     private List<ITriggerAlgorithm> algorithms =
         new ArrayList<ITriggerAlgorithm>();
@@ -142,6 +335,8 @@ public class TriggerManager
 
     private IByteBufferCache outCache;
     private TriggerCollector collector;
+    /** If <tt>true</tt>, the collector is reused for every run */
+    private boolean persistent = Boolean.getBoolean(PERSISTENT_PROPERTY);
 
     /** splicer associated with this manager */
     private Splicer splicer;
@@ -151,6 +346,14 @@ public class TriggerManager
     /** spliceable input count */
     private long inputCount;
 
+    /** DAQ ticks between time markers (0 if markers are disabled) */
+    private long heartbeatTicks =
+        Long.getLong(HEARTBEAT_PROPERTY, 0L) * TICKS_PER_MILLI;
+    /** Time of the most recent valid input payload */
+    private long inputTime = Long.MIN_VALUE;
+    /** Time of the most recent time marker */
+    private long markerTime = Long.MIN_VALUE;
+
     /**
      * source and time of last hit, used for monitoring
      */
@@ -167,13 +370,47 @@ public class TriggerManager
      * @param outCache output buffer cache
      */
     public TriggerManager(ISourceID srcObj, IByteBufferCache outCache)
+    {
+        this(srcObj, outCache, true);
+    }
+
+    /**
+     * Create a trigger manager.
+     *
+     * @param srcObj source ID object
+     * @param outCache output buffer cache
+     * @param runtimeFeatures if <tt>false</tt>, the tracer, stall detector,
+     *                        load shedder, reorder buffer, hot DOM detector
+     *                        and lag tolerance are never created, even if
+     *                        their properties are set
+     */
+    public TriggerManager(ISourceID srcObj, IByteBufferCache outCache,
+                          boolean runtimeFeatures)
     {
         this.srcId = srcObj.getSourceID();
         this.outCache = outCache;
 
         trFactory = new TriggerRequestFactory(outCache);
+        if (TriggerRequestEncoder.isEnabled() &&
+            srcId != SourceIdRegistry.GLOBAL_TRIGGER_SOURCE_ID)
+        {
+            requestEncoder = new TriggerRequestEncoder(outCache);
+        }
+        if (runtimeFeatures) {
+            tracer = HitTracer.create();
+            stallDetector = StallDetector.create(algorithms);
+            shedder = LoadShedder.create(algorithms);
+            if (srcId != SourceIdRegistry.GLOBAL_TRIGGER_SOURCE_ID) {
+                reorder = ReorderBuffer.create();
+                hotDoms = HotDomDetector.create(algorithms);
+                // the event builder needs global requests in time order
+                lagTolerance = LagTolerance.create();
+            }
+        }
         multiDataMgr = new MultiplicityDataManager();
 
+        registerMetrics();
+
         init();
     }
 
@@ -207,11 +444,24 @@ public class TriggerManager
             algorithms.add(trig);
             trig.setTriggerManager(this);
             trig.setTriggerFactory(trFactory);
+            if (requestEncoder != null && trig instanceof AbstractTrigger) {
+                ((AbstractTrigger) trig).setRequestEncoder(requestEncoder);
+            }
+            if (tracer != null && trig instanceof AbstractTrigger) {
+                ((AbstractTrigger) trig).setHitTracer(tracer);
+            }
 
             multiDataMgr.addAlgorithm(trig);
 
-            if (collector != null && !collector.isStopped()) {
-                collector.stop();
+            registerMetrics(trig);
+
+            if (collector != null) {
+                if (!collector.isStopped()) {
+                    collector.stop();
+                }
+
+                // a persistent collector is bound to the old algorithm list
+                collector.close();
             }
         }
     }
@@ -255,13 +505,27 @@ public class TriggerManager
                             " hits");
         }
 
+        TriggerEvents.AnalyzeBatch evt = new TriggerEvents.AnalyzeBatch();
+        evt.begin();
+
         for (Spliceable spl : splicedObjects) {
             IPayload payload = (IPayload) spl;
 
-            if (!isValidPayload(payload)) {
-                LOG.error("Ignoring invalid payload " + payload);
+            if (reorder == null) {
+                processInput(payload);
             } else {
-                pushInput(payload);
+                // the splicer reuses its payloads, so hold a private copy
+                IPayload copy = (IPayload) payload.deepCopy();
+                if (!reorder.add(copy)) {
+                    lateCount.inc();
+                    copy.recycle();
+                }
+
+                IPayload next;
+                while ((next = reorder.poll()) != null) {
+                    processInput(next);
+                    next.recycle();
+                }
             }
 
             // we're done with this payload
@@ -269,6 +533,27 @@ public class TriggerManager
         }
 
         inputCount += splicedObjects.size();
+
+        // tell the algorithms how far the input stream has progressed
+        if (heartbeatTicks > 0 && inputTime != Long.MIN_VALUE &&
+            (markerTime == Long.MIN_VALUE ||
+             inputTime - markerTime >= heartbeatTicks))
+        {
+            queueList.push(new TimeMarker(inputTime));
+            markerTime = inputTime;
+        }
+
+        if (shedder != null) {
+            shedder.update(queueList, inputTime);
+        }
+
+        evt.end();
+        if (evt.shouldCommit()) {
+            evt.numPayloads = splicedObjects.size();
+            evt.commit();
+        }
+
+        queueList.recordHighWater();
     }
 
     /**
@@ -293,6 +578,19 @@ public class TriggerManager
         throw new UnimplementedError();
     }
 
+    /**
+     * Let any persistent pipeline threads exit.
+     */
+    public void closePipeline()
+    {
+        if (collector != null) {
+            if (!collector.isStopped()) {
+                collector.stop();
+            }
+            collector.close();
+        }
+    }
+
     /**
      * flush the handler
      * including the input buffer, all triggers, and the output bag
@@ -301,6 +599,14 @@ public class TriggerManager
     public void flush()
     {
         if (!queueList.isEmpty()) {
+            if (reorder != null) {
+                IPayload next;
+                while ((next = reorder.pollAny()) != null) {
+                    processInput(next);
+                    next.recycle();
+                }
+            }
+
             try {
                 queueList.push(FLUSH_PAYLOAD);
             } catch (Error err) {
@@ -349,6 +655,49 @@ public class TriggerManager
         return domRegistry;
     }
 
+    /**
+     * Get the current load shedding step.
+     *
+     * @return load shedding step (always 0 if shedding is disabled)
+     */
+    @Override
+    public int getLoadSheddingLevel()
+    {
+        if (shedder == null) {
+            return LoadShedder.NORMAL;
+        }
+
+        return shedder.getLevel();
+    }
+
+    /**
+     * Get the queue wait, service time and request hold time percentiles
+     * (in microseconds) for every algorithm.
+     *
+     * @return map of percentile names to values
+     */
+    @Override
+    public Map<String, Long> getLatencyPercentiles()
+    {
+        HashMap<String, Long> map = new HashMap<String, Long>();
+        for (ITriggerAlgorithm algo : algorithms) {
+            algo.getAlgorithmLatency().addPercentiles(map,
+                                                      algo.getTriggerName() +
+                                                      ".");
+        }
+        return map;
+    }
+
+    /**
+     * Get the registry holding this manager's metrics.
+     *
+     * @return metrics registry
+     */
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return metrics;
+    }
+
     /**
      * Get the number of requests queued for writing
      *
@@ -364,6 +713,37 @@ public class TriggerManager
         return (int) collector.getNumQueued();
     }
 
+    /**
+     * Get the number of times each algorithm was on the release critical
+     * path when the scheduler chose the next algorithm to run
+     *
+     * @return map of algorithm names to counts
+     */
+    @Override
+    public Map<String, Long> getCriticalPathCounts()
+    {
+        if (collector == null) {
+            return new HashMap<String, Long>();
+        }
+
+        return collector.getCriticalPathCounts();
+    }
+
+    /**
+     * Get output thread statistics
+     *
+     * @return map of statistic names to values
+     */
+    @Override
+    public Map<String, Long> getOutputStatistics()
+    {
+        if (collector == null) {
+            return new HashMap<String, Long>();
+        }
+
+        return collector.getOutputStatistics();
+    }
+
     /**
      * Get map of trigger names to number of queued hits
      *
@@ -462,6 +842,41 @@ public class TriggerManager
         return srcId;
     }
 
+    /**
+     * Get the algorithms which have fallen behind the input stream by
+     * more than the stall threshold.
+     *
+     * @return map of algorithm names to lag in milliseconds
+     */
+    @Override
+    public Map<String, Long> getStalledAlgorithms()
+    {
+        if (stallDetector == null) {
+            return new HashMap<String, Long>();
+        }
+
+        return stallDetector.getStalledAlgorithms();
+    }
+
+    /**
+     * Get the CPU time and allocation rates and totals for each algorithm
+     * thread and for the collector and output threads.
+     *
+     * @return map of statistic names to values
+     */
+    @Override
+    public Map<String, Long> getThreadStatistics()
+    {
+        HashMap<String, Long> map = new HashMap<String, Long>();
+        for (ITriggerAlgorithm algo : algorithms) {
+            algo.getThreadUsage().addStatistics(map,
+                                                algo.getTriggerName() + ".");
+        }
+        collectorUsage.addStatistics(map, "collector.");
+        outputUsage.addStatistics(map, "output.");
+        return map;
+    }
+
     /**
      * Get the total number of hits pushed onto the input queue
      *
@@ -503,6 +918,21 @@ public class TriggerManager
         return (int) collector.getTotalReleased();
     }
 
+    /**
+     * Get the per-stage latency percentiles for traced hits.
+     *
+     * @return map of statistic names to values
+     */
+    @Override
+    public Map<String, Long> getTraceStatistics()
+    {
+        if (tracer == null) {
+            return new HashMap<String, Long>();
+        }
+
+        return tracer.getStatistics();
+    }
+
     /**
      * Get any special monitoring quantities for all algorithms.
      *
@@ -570,12 +1000,14 @@ public class TriggerManager
 
             // check to see if timeDiff is reasonable, if not ignore it
             if (timeDiff < 0) {
-                LOG.error("Hit " + hit.getUTCTime() +
-                          " from " + hit.getSourceID() +
-                          " out of order! This time - Last time = " +
-                          timeDiff + (srcOfLastHit == null ? "" :
-                                      ", src of last hit = " +
-                                      srcOfLastHit));
+                if (inputLog.allow("outOfOrder")) {
+                    LOG.error("Hit " + hit.getUTCTime() +
+                              " from " + hit.getSourceID() +
+                              " out of order! This time - Last time = " +
+                              timeDiff + (srcOfLastHit == null ? "" :
+                                          ", src of last hit = " +
+                                          srcOfLastHit));
+                }
                 return false;
             }
 
@@ -626,6 +1058,75 @@ public class TriggerManager
         return true;
     }
 
+    /**
+     * Is this a request sent late by a lagging in-ice or IceTop algorithm?
+     *
+     * @param payload input payload
+     *
+     * @return <tt>true</tt> if this is a late request
+     */
+    private boolean isLateRequest(IPayload payload)
+    {
+        return srcId == SourceIdRegistry.GLOBAL_TRIGGER_SOURCE_ID &&
+            payload instanceof ITriggerRequestPayload &&
+            ((ITriggerRequestPayload) payload).getTriggerConfigID() ==
+            LagTolerance.LATE_CONFIG_ID;
+    }
+
+    /**
+     * Validate the next input payload and pass it to the subscribers.
+     *
+     * @param payload next payload
+     */
+    private void processInput(IPayload payload)
+    {
+        if (!isValidPayload(payload)) {
+            if (inputLog.allow("invalid")) {
+                LOG.error("Ignoring invalid payload " + payload);
+            }
+            invalidCount.inc();
+        } else if (isLateRequest(payload)) {
+            // late requests would break the time order of the output
+            if (inputLog.allow("lateRequest")) {
+                LOG.error("Ignoring late request " + payload);
+            }
+            lateRequestCount.inc();
+        } else {
+            if (hotDoms != null && payload instanceof IHitPayload) {
+                hotDoms.add((IHitPayload) payload);
+            }
+
+            pushInput(payload);
+
+            if (stallDetector != null) {
+                stallDetector.setInputTime(payload.getUTCTime());
+            }
+
+            if (payload.getUTCTime() > inputTime) {
+                inputTime = payload.getUTCTime();
+
+                if (lagTolerance != null) {
+                    lagTolerance.setInputTime(inputTime);
+                }
+            }
+        }
+    }
+
+    /**
+     * Push a payload onto the algorithm input queues, possibly choosing it
+     * to be traced.
+     *
+     * @param payload payload copy owned by the algorithms
+     */
+    private void queueInput(IPayload payload)
+    {
+        if (tracer != null) {
+            tracer.ingested(payload);
+        }
+
+        queueList.push(payload);
+    }
+
     /**
      * Pass the next payload to the subscribers
      *
@@ -635,7 +1136,7 @@ public class TriggerManager
     {
         if (!(payload instanceof ITriggerRequestPayload)) {
             // queue ordinary payload
-            queueList.push((IPayload) payload.deepCopy());
+            queueInput((IPayload) payload.deepCopy());
         } else {
             try {
                 payload.loadPayload();
@@ -650,7 +1151,7 @@ public class TriggerManager
             ITriggerRequestPayload req = (ITriggerRequestPayload) payload;
             if (!req.isMerged()) {
                 // queue single trigger request
-                queueList.push((IPayload) payload.deepCopy());
+                queueInput((IPayload) payload.deepCopy());
             } else {
                 // extract list of merged triggers
                 Collection<IPayload> subList;
@@ -680,12 +1181,142 @@ public class TriggerManager
                         continue;
                     }
 
-                    queueList.push((IPayload) sub.deepCopy());
+                    queueInput((IPayload) sub.deepCopy());
                 }
             }
         }
     }
 
+    /**
+     * Register the trigger manager and thread usage metrics.
+     */
+    private void registerMetrics()
+    {
+        invalidCount =
+            metrics.counter("trigger_invalid_payloads_total",
+                            "Invalid payloads dropped by the trigger manager");
+        lateCount =
+            metrics.counter("trigger_late_hits_total",
+                            "Hits which arrived too late to be reordered");
+        lateRequestCount =
+            metrics.counter("trigger_late_requests_total",
+                            "Late requests from lagging algorithms which" +
+                            " were not triggered");
+
+        metrics.counter("trigger_input_payloads_total",
+                        "Payloads received from the splicer",
+                        new ManagerGauge(this, ManagerGauge.INPUTS));
+        metrics.counter("trigger_requests_released_total",
+                        "Requests released by all algorithms",
+                        new ManagerGauge(this,
+                                         ManagerGauge.REQUESTS_RELEASED));
+        metrics.counter("trigger_requests_collected_total",
+                        "Requests collected from all algorithms",
+                        new ManagerGauge(this,
+                                         ManagerGauge.REQUESTS_COLLECTED));
+        metrics.gauge("trigger_outputs_queued",
+                      "Requests queued for writing",
+                      new ManagerGauge(this, ManagerGauge.OUTPUTS_QUEUED));
+        metrics.counter("trigger_sndaq_alerts_sent_total",
+                        "Alerts sent to SNDAQ",
+                        new ManagerGauge(this, ManagerGauge.SNDAQ_SENT));
+        metrics.counter("trigger_sndaq_alerts_dropped_total",
+                        "Alerts which could not be sent to SNDAQ",
+                        new ManagerGauge(this, ManagerGauge.SNDAQ_DROPPED));
+        metrics.gauge("trigger_sndaq_alerts_queued",
+                      "Alerts queued for SNDAQ",
+                      new ManagerGauge(this, ManagerGauge.SNDAQ_QUEUED));
+
+        registerThreadMetrics(collectorUsage, "collector");
+        registerThreadMetrics(outputUsage, "output");
+    }
+
+    /**
+     * Register the metrics for a single algorithm.
+     *
+     * @param algo trigger algorithm
+     */
+    private void registerMetrics(ITriggerAlgorithm algo)
+    {
+        final String name = algo.getTriggerName();
+
+        metrics.gauge("trigger_algorithm_input_queued",
+                      "Payloads waiting in the algorithm input queue",
+                      new AlgorithmGauge(algo, AlgorithmGauge.INPUT_QUEUED),
+                      "algorithm", name);
+        metrics.gauge("trigger_algorithm_cached_requests",
+                      "Requests held by the algorithm",
+                      new AlgorithmGauge(algo,
+                                         AlgorithmGauge.CACHED_REQUESTS),
+                      "algorithm", name);
+        metrics.gauge("trigger_algorithm_release_time",
+                      "UTC time of the most recently released request",
+                      new AlgorithmGauge(algo, AlgorithmGauge.RELEASE_TIME),
+                      "algorithm", name);
+        metrics.counter("trigger_algorithm_triggers_total",
+                        "Requests formed by the algorithm",
+                        new AlgorithmGauge(algo, AlgorithmGauge.TRIGGERS),
+                        "algorithm", name);
+        metrics.counter("trigger_algorithm_sent_total",
+                        "Requests sent by the algorithm",
+                        new AlgorithmGauge(algo, AlgorithmGauge.SENT),
+                        "algorithm", name);
+
+        AlgorithmLatency latency = algo.getAlgorithmLatency();
+        metrics.summary("trigger_algorithm_queue_wait_seconds",
+                        "Time sampled payloads wait in the input queue",
+                        latency.getQueueWait(), "algorithm", name);
+        metrics.summary("trigger_algorithm_service_seconds",
+                        "Time spent in runTrigger()",
+                        latency.getServiceTime(), "algorithm", name);
+        metrics.summary("trigger_algorithm_request_hold_seconds",
+                        "Time requests are held before release",
+                        latency.getRequestHold(), "algorithm", name);
+
+        registerThreadMetrics(algo.getThreadUsage(), name);
+    }
+
+    /**
+     * Register the CPU and allocation rates for a thread.
+     *
+     * @param usage thread usage
+     * @param name thread name
+     */
+    private void registerThreadMetrics(ThreadUsage usage, String name)
+    {
+        metrics.gauge("trigger_thread_cpu_millis_per_second",
+                      "CPU time used by the thread",
+                      new ThreadUsageGauge(usage, true), "thread", name);
+        metrics.gauge("trigger_thread_alloc_bytes_per_second",
+                      "Heap allocation rate of the thread",
+                      new ThreadUsageGauge(usage, false), "thread", name);
+    }
+
+    /**
+     * Clear all algorithm latency histograms.
+     */
+    private void resetLatencyHistograms()
+    {
+        for (ITriggerAlgorithm a : algorithms) {
+            a.getAlgorithmLatency().reset();
+        }
+        if (tracer != null) {
+            tracer.reset();
+        }
+    }
+
+    /**
+     * Start a new thread usage measurement period.
+     */
+    private void resetThreadUsage()
+    {
+        for (ITriggerAlgorithm a : algorithms) {
+            a.getThreadUsage().reset();
+        }
+        collectorUsage.reset();
+        outputUsage.reset();
+    }
+
     public void resetUIDs()
     {
         for (ITriggerAlgorithm a : algorithms) {
@@ -694,6 +1325,18 @@ public class TriggerManager
         collector.resetUID();
     }
 
+    /**
+     * Sample the CPU time and allocation of all trigger threads.
+     */
+    void sampleThreadUsage()
+    {
+        for (ITriggerAlgorithm a : algorithms) {
+            a.getThreadUsage().sample();
+        }
+        collectorUsage.sample();
+        outputUsage.sample();
+    }
+
     /**
      * Send final monitoring messages
      */
@@ -706,6 +1349,45 @@ public class TriggerManager
         }
     }
 
+    /**
+     * Log the CPU time and allocation used by each trigger thread during
+     * the run and send them to I3Live.
+     */
+    public void sendThreadUsage()
+    {
+        sampleThreadUsage();
+
+        HashMap<String, Long> usage = new HashMap<String, Long>();
+        for (ITriggerAlgorithm a : algorithms) {
+            ThreadUsage tu = a.getThreadUsage();
+            usage.put(a.getTriggerName() + ".cpuMillis", tu.getCpuMillis());
+            usage.put(a.getTriggerName() + ".allocBytes",
+                      tu.getAllocatedBytes());
+        }
+        usage.put("collector.cpuMillis", collectorUsage.getCpuMillis());
+        usage.put("collector.allocBytes", collectorUsage.getAllocatedBytes());
+        usage.put("output.cpuMillis", outputUsage.getCpuMillis());
+        usage.put("output.allocBytes", outputUsage.getAllocatedBytes());
+
+        LOG.info("Run " + runNumber + " thread usage: " + usage);
+
+        if (alertQueue == null || alertQueue.isStopped()) {
+            return;
+        }
+
+        HashMap<String, Object> values = new HashMap<String, Object>();
+        values.put("runNumber", runNumber);
+        values.put("sourceId", srcId);
+        values.put("usage", usage);
+
+        try {
+            alertQueue.push("trigger_thread_usage", Alerter.Priority.SCP,
+                            values);
+        } catch (AlertException ae) {
+            LOG.error("Cannot send thread usage", ae);
+        }
+    }
+
     public void sendTriplets(int runNumber)
         throws TriggerException
     {
@@ -785,6 +1467,15 @@ public class TriggerManager
         }
 
         multiDataMgr.setAlertQueue(alertQueue);
+        if (stallDetector != null) {
+            stallDetector.setAlertQueue(alertQueue);
+        }
+        if (shedder != null) {
+            shedder.setAlertQueue(alertQueue);
+        }
+        if (hotDoms != null) {
+            hotDoms.setAlertQueue(alertQueue);
+        }
     }
 
     /**
@@ -890,16 +1581,94 @@ public class TriggerManager
             LOG.error("Collector was not stopped");
         }
 
-        collector = new TriggerCollector(srcId, algorithms, outputEngine,
-                                         outCache, multiDataMgr, this);
+        if (!persistent || collector == null || !collector.isPersistent()) {
+            createCollector();
+        } else if (!collector.awaitParked(PARK_WAIT_MILLIS)) {
+            LOG.error("Persistent collector did not finish the previous" +
+                      " run; replacing it");
+            collector.close();
+
+            // don't share queues with threads which may still be running
+            for (ITriggerAlgorithm a : algorithms) {
+                a.unsubscribe(queueList);
+            }
+
+            createCollector();
+        }
+
+        resetLatencyHistograms();
+        if (lagTolerance != null) {
+            lagTolerance.reset();
+        }
 
         if (runNumber != Integer.MIN_VALUE) {
             collector.setRunNumber(runNumber, false);
         }
 
+        startMonitoring();
+
         collector.startThreads(splicer);
     }
 
+    /**
+     * Create a new trigger collector and its threads.
+     */
+    private void createCollector()
+    {
+        collector = new TriggerCollector(srcId, algorithms, outputEngine,
+                                         outCache, multiDataMgr, this);
+        if (persistent) {
+            collector.setPersistent();
+        }
+        if (tracer != null) {
+            collector.setHitTracer(tracer);
+        }
+        collector.setThreadUsage(collectorUsage, outputUsage);
+        if (lagTolerance != null) {
+            collector.setLagTolerance(lagTolerance);
+        }
+
+        // scheduled algorithms are woken as input arrives
+        queueList.setPushListener(collector.getInputListener());
+    }
+
+    /**
+     * Start sampling thread usage and, if it has been enabled, the stall
+     * detector.
+     */
+    private void startMonitoring()
+    {
+        stopMonitoring();
+
+        moniTimer = new Timer("TriggerMonitor", true);
+        moniTimer.schedule(new ThreadUsageTask(this),
+                           ThreadUsageTask.PERIOD_MILLIS,
+                           ThreadUsageTask.PERIOD_MILLIS);
+
+        if (stallDetector != null) {
+            stallDetector.reset();
+            stallDetector.setRunNumber(runNumber);
+
+            final long period = stallDetector.getPeriod();
+            moniTimer.schedule(stallDetector.createTask(), period, period);
+        }
+
+        if (shedder != null) {
+            shedder.reset(queueList);
+            shedder.setRunNumber(runNumber);
+
+            moniTimer.schedule(shedder.createTask(this, queueList),
+                               LoadShedder.PERIOD_MILLIS,
+                               LoadShedder.PERIOD_MILLIS);
+        }
+
+        if (hotDoms != null) {
+            hotDoms.reset();
+            hotDoms.setRunNumber(runNumber);
+            hotDoms.install();
+        }
+    }
+
     /**
      * Stop the threads
      */
@@ -924,9 +1693,50 @@ public class TriggerManager
 
         queueList.stop();
 
+        stopMonitoring();
+
+        if (tracer != null) {
+            LOG.info("Hit trace summary: " + tracer.getStatistics());
+        }
+
+        inputLog.report();
+
+        if (lateRequestCount.get() > 0) {
+            LOG.info("Ignored " + lateRequestCount.get() +
+                     " late requests from lagging algorithms");
+        }
+
         // clear cached values
         timeOfLastHit = null;
         srcOfLastHit = null;
+        inputTime = Long.MIN_VALUE;
+        markerTime = Long.MIN_VALUE;
+        if (reorder != null) {
+            if (reorder.getNumLate() > 0) {
+                LOG.info("Dropped " + reorder.getNumLate() + " late hits (" +
+                         reorder.getNumReordered() + " reordered, " +
+                         reorder.getMaxHeld() + " held at most)");
+            }
+            reorder.clear();
+        }
+        if (lagTolerance != null) {
+            if (lagTolerance.getNumLagged() > 0) {
+                LOG.info("Algorithms lagged " + lagTolerance.getNumLagged() +
+                         " times; " + lagTolerance.getNumLate() +
+                         " requests were sent late");
+            }
+        }
+    }
+
+    /**
+     * Stop the monitoring timer.
+     */
+    private void stopMonitoring()
+    {
+        if (moniTimer != null) {
+            moniTimer.cancel();
+            moniTimer = null;
+        }
     }
 
     /**
@@ -940,12 +1750,38 @@ public class TriggerManager
         // do nothing
     }
 
+    /**
+     * Keep the collector, output and algorithm threads and the subscriber
+     * queues alive between runs.  Takes effect the next time a collector
+     * is created.
+     *
+     * @param persistent <tt>true</tt> to reuse the pipeline
+     */
+    public void setPersistent(boolean persistent)
+    {
+        this.persistent = persistent;
+    }
+
     @Override
     public void subscribeAll()
     {
         for (ITriggerAlgorithm algo : algorithms) {
-            PayloadSubscriber subscriber =
-                queueList.subscribe(algo.getTriggerName());
+            if (persistent && algo.getSubscriber() != null) {
+                // reuse the queue from the previous run
+                algo.getSubscriber().reset();
+                continue;
+            }
+
+            PayloadSubscriber subscriber;
+            if (SubscribedList.isInline(algo)) {
+                // fused algorithms run on the ingest thread, no queue hop
+                subscriber = queueList.subscribeInline(algo);
+            } else {
+                subscriber =
+                    queueList.subscribe(algo.getTriggerName(),
+                                        algo.getAlgorithmLatency().
+                                        getQueueWait());
+            }
             algo.setSubscriber(subscriber);
         }
     }
@@ -975,6 +1811,21 @@ public class TriggerManager
             collector.setRunNumber(runNumber, true);
         }
 
+        resetLatencyHistograms();
+
+        if (stallDetector != null) {
+            stallDetector.setRunNumber(runNumber);
+        }
+        if (shedder != null) {
+            shedder.setRunNumber(runNumber);
+        }
+        if (hotDoms != null) {
+            hotDoms.setRunNumber(runNumber);
+        }
+
+        sendThreadUsage();
+        resetThreadUsage();
+
         // update private copy of run number
         this.runNumber = runNumber;
     }
@@ -982,7 +1833,12 @@ public class TriggerManager
     @Override
     public void unsubscribeAll()
     {
-        if (!queueList.isEmpty()) {
+        if (persistent) {
+            // keep the queues for the next run
+            for (ITriggerAlgorithm a : algorithms) {
+                a.resetAlgorithm();
+            }
+        } else if (!queueList.isEmpty()) {
             for (ITriggerAlgorithm a : algorithms) {
                 a.unsubscribe(queueList);
                 a.resetAlgorithm();
@@ -14,6 +14,34 @@ public interface TriggerManagerMBean
      */
     long getSNDAQAlertsDropped();
 
+    /**
+     * Get the number of times each algorithm had the lowest watermark (and
+     * so was gating request release) when the algorithm scheduler chose
+     * what to run next.  The map is empty unless the critical-path
+     * scheduler has been enabled.
+     *
+     * @return map of algorithm names to counts
+     */
+    Map<String, Long> getCriticalPathCounts();
+
+    /**
+     * Get the queue wait, service time and request hold time percentiles
+     * (in microseconds) for every algorithm, keyed by
+     * "<i>triggerName</i>.<i>histogram</i>.<i>percentile</i>".
+     *
+     * @return map of percentile names to values
+     */
+    Map<String, Long> getLatencyPercentiles();
+
+    /**
+     * Get the current load shedding step (0 is normal, 1 means the
+     * lightweight algorithms are prescaled, 2 means the expensive
+     * algorithms are also paused).
+     *
+     * @return load shedding step
+     */
+    int getLoadSheddingLevel();
+
     /**
      * Get the number of requests queued for writing
      *
@@ -21,6 +49,14 @@ public interface TriggerManagerMBean
      */
     int getNumOutputsQueued();
 
+    /**
+     * Get output thread statistics (requests written, batches, time spent
+     * waiting for space in the output queue, etc.)
+     *
+     * @return map of statistic names to values
+     */
+    Map<String, Long> getOutputStatistics();
+
     /**
      * Get map of trigger names to number of queued hits
      *
@@ -51,6 +87,17 @@ public interface TriggerManagerMBean
      */
     long getSNDAQAlertsSent();
 
+    /**
+     * Get the CPU time and heap allocation of each algorithm thread and of
+     * the collector and output threads.  Entries are named
+     * "<i>thread</i>.cpuMillisPerSec", "<i>thread</i>.allocBytesPerSec"
+     * (rates over the last sampling period), "<i>thread</i>.cpuMillis" and
+     * "<i>thread</i>.allocBytes" (totals for the current run).
+     *
+     * @return map of statistic names to values
+     */
+    Map<String, Long> getThreadStatistics();
+
     /**
      * Get the total number of hits pushed onto the input queue
      *
@@ -65,6 +112,15 @@ public interface TriggerManagerMBean
      */
     int getTotalRequestsCollected();
 
+    /**
+     * Get the algorithms which have fallen behind the input stream by
+     * more than the configured stall threshold.  The map is empty if no
+     * algorithm is stalled or stall detection has not been enabled.
+     *
+     * @return map of algorithm names to lag in milliseconds
+     */
+    Map<String, Long> getStalledAlgorithms();
+
     /**
      * Get the number of requests released for collection
      *
@@ -72,6 +128,16 @@ public interface TriggerManagerMBean
      */
     int getTotalRequestsReleased();
 
+    /**
+     * Get the per-stage latency percentiles (in microseconds) for sampled
+     * hits traced from the splicer to the output channel during this run,
+     * along with the number of started, completed and abandoned traces.
+     * The map is empty unless tracing has been enabled.
+     *
+     * @return map of statistic names to values
+     */
+    Map<String, Long> getTraceStatistics();
+
     /**
      * Get any special monitoring quantities for all algorithms.
      *
@@ -0,0 +1,332 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.payload.IByteBufferCache;
+import icecube.daq.payload.IHitPayload;
+import icecube.daq.payload.IReadoutRequestElement;
+import icecube.daq.payload.ITriggerRequestPayload;
+import icecube.daq.payload.impl.ReadoutRequest;
+import icecube.daq.payload.impl.ReadoutRequestElement;
+import icecube.daq.payload.impl.TriggerRequestFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Encode trigger requests directly into a pooled output buffer, bypassing
+ * the intermediate ReadoutRequestElement/ReadoutRequest/TriggerRequest
+ * object graph and the copies of each hit.
+ *
+ * The constant header fields are taken from a reference request built by
+ * the payload library when the encoder is created, and the encoder disables
+ * itself if the reference request does not match the expected layout.
+ */
+public class TriggerRequestEncoder
+{
+    /** Log object for this class */
+    private static final Logger LOG =
+        Logger.getLogger(TriggerRequestEncoder.class);
+
+    /** Set this property to <tt>true</tt> to encode requests directly */
+    public static final String ENABLE_PROPERTY =
+        "icecube.daq.trigger.direct-encode";
+
+    /** Payload envelope */
+    private static final int OFFSET_LENGTH = 0;
+    private static final int OFFSET_TYPE = 4;
+    private static final int OFFSET_UTCTIME = 8;
+
+    /** Trigger request body */
+    static final int OFFSET_RECTYPE = 16;
+    static final int OFFSET_UID = 18;
+    static final int OFFSET_TRIGTYPE = 22;
+    static final int OFFSET_CFGID = 26;
+    static final int OFFSET_SRCID = 30;
+    static final int OFFSET_FIRSTTIME = 34;
+    static final int OFFSET_LASTTIME = 42;
+    static final int OFFSET_READOUT = 50;
+
+    /** Readout request header: type, UID, source ID, number of elements */
+    private static final int RDOUT_OFFSET_UID = 2;
+    private static final int RDOUT_OFFSET_SRCID = 6;
+    private static final int RDOUT_OFFSET_NUMELEMS = 10;
+    private static final int RDOUT_HEADER_LEN = 14;
+
+    /** Readout request element: type, source ID, first, last, DOM ID */
+    private static final int ELEM_LEN = 32;
+
+    /** Composite header: length, type, number of payloads */
+    private static final int COMPOSITE_OFFSET_TYPE = 4;
+    private static final int COMPOSITE_OFFSET_NUM = 6;
+    private static final int COMPOSITE_HEADER_LEN = 8;
+
+    /** Fixed length of a request with no readout elements and no hits */
+    private static final int BASE_LEN =
+        OFFSET_READOUT + RDOUT_HEADER_LEN + COMPOSITE_HEADER_LEN;
+
+    /** Output buffer cache (may be <tt>null</tt>) */
+    private IByteBufferCache cache;
+    /** Factory used to decode requests on demand */
+    private TriggerRequestFactory decoder = new TriggerRequestFactory(null);
+
+    /** Header values copied from the reference request */
+    private int payloadType;
+    private short recordType;
+    private short rdoutType;
+    private int compositeLenBase;
+    private short compositeType;
+
+    /** <tt>false</tt> if the reference request did not match */
+    private boolean valid;
+
+    /**
+     * Create an encoder which writes into buffers from <tt>cache</tt>.
+     *
+     * @param cache output buffer cache
+     */
+    public TriggerRequestEncoder(IByteBufferCache cache)
+    {
+        this.cache = cache;
+
+        valid = calibrate();
+    }
+
+    /**
+     * Build a reference request with the payload library and verify that
+     * its layout matches the one used by this encoder.
+     *
+     * @return <tt>true</tt> if the layouts match
+     */
+    private boolean calibrate()
+    {
+        final int uid = 123;
+        final int trigType = 2;
+        final int cfgId = 345;
+        final int srcId = 4000;
+        final long firstTime = 100000L;
+        final long lastTime = 200000L;
+
+        final int elemType = IReadoutRequestElement.READOUT_TYPE_GLOBAL;
+        final long elemFirst = 90000L;
+        final long elemLast = 210000L;
+
+        ArrayList<IReadoutRequestElement> elems =
+            new ArrayList<IReadoutRequestElement>(1);
+        elems.add(new ReadoutRequestElement(elemType, -1, elemFirst, elemLast,
+                                            -1L));
+
+        ITriggerRequestPayload ref;
+        ByteBuffer buf;
+        try {
+            ref = (ITriggerRequestPayload)
+                decoder.createPayload(uid, trigType, cfgId, srcId, firstTime,
+                                      lastTime,
+                                      new ReadoutRequest(firstTime, uid,
+                                                         srcId, elems),
+                                      new ArrayList());
+
+            buf = ByteBuffer.allocate(ref.length());
+            ref.writePayload(false, 0, buf);
+        } catch (Exception ex) {
+            LOG.error("Cannot build reference request;" +
+                      " direct encoding is disabled", ex);
+            return false;
+        }
+
+        final int expLen = BASE_LEN + ELEM_LEN;
+        final int rdout = OFFSET_READOUT;
+        final int elem = rdout + RDOUT_HEADER_LEN;
+        final int comp = elem + ELEM_LEN;
+        if (buf.limit() < expLen || buf.getInt(OFFSET_LENGTH) != expLen ||
+            buf.getLong(OFFSET_UTCTIME) != firstTime ||
+            buf.getInt(OFFSET_UID) != uid ||
+            buf.getInt(OFFSET_TRIGTYPE) != trigType ||
+            buf.getInt(OFFSET_CFGID) != cfgId ||
+            buf.getInt(OFFSET_SRCID) != srcId ||
+            buf.getLong(OFFSET_FIRSTTIME) != firstTime ||
+            buf.getLong(OFFSET_LASTTIME) != lastTime ||
+            buf.getInt(rdout + RDOUT_OFFSET_UID) != uid ||
+            buf.getInt(rdout + RDOUT_OFFSET_SRCID) != srcId ||
+            buf.getInt(rdout + RDOUT_OFFSET_NUMELEMS) != 1 ||
+            buf.getInt(elem) != elemType ||
+            buf.getInt(elem + 4) != -1 ||
+            buf.getLong(elem + 8) != elemFirst ||
+            buf.getLong(elem + 16) != elemLast ||
+            buf.getLong(elem + 24) != -1L ||
+            buf.getShort(comp + COMPOSITE_OFFSET_NUM) != 0)
+        {
+            LOG.error("Unexpected trigger request layout;" +
+                      " direct encoding is disabled");
+            return false;
+        }
+
+        payloadType = buf.getInt(OFFSET_TYPE);
+        recordType = buf.getShort(OFFSET_RECTYPE);
+        rdoutType = buf.getShort(rdout);
+        compositeLenBase = buf.getInt(comp);
+        compositeType = buf.getShort(comp + COMPOSITE_OFFSET_TYPE);
+
+        return true;
+    }
+
+    /**
+     * Decode an encoded request with the payload library.
+     *
+     * @param buf encoded request
+     *
+     * @return decoded request (or <tt>null</tt> if it could not be decoded)
+     */
+    ITriggerRequestPayload decode(ByteBuffer buf)
+    {
+        try {
+            ITriggerRequestPayload req =
+                (ITriggerRequestPayload) decoder.createPayload(buf, 0);
+            req.loadPayload();
+            return req;
+        } catch (Exception ex) {
+            LOG.error("Cannot decode encoded trigger request", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Encode a trigger request.
+     *
+     * @param uid request UID
+     * @param trigType trigger type
+     * @param cfgId trigger configuration ID
+     * @param srcId source ID
+     * @param firstTime starting time
+     * @param lastTime ending time
+     * @param numElems number of readout elements
+     * @param elemTypes readout element types
+     * @param elemSrcIds readout element source IDs
+     * @param elemFirst readout element starting times
+     * @param elemLast readout element ending times
+     * @param elemDoms readout element DOM IDs
+     * @param hits hits included in the request (may be <tt>null</tt>)
+     *
+     * @return encoded request or <tt>null</tt> if it could not be encoded
+     */
+    public EncodedTriggerRequest encode(int uid, int trigType, int cfgId,
+                                        int srcId, long firstTime,
+                                        long lastTime, int numElems,
+                                        int[] elemTypes, int[] elemSrcIds,
+                                        long[] elemFirst, long[] elemLast,
+                                        long[] elemDoms,
+                                        Collection<IHitPayload> hits)
+    {
+        if (!valid) {
+            return null;
+        }
+
+        int hitLen = 0;
+        if (hits != null) {
+            for (IHitPayload hit : hits) {
+                hitLen += hit.length();
+            }
+        }
+
+        final int len = BASE_LEN + numElems * ELEM_LEN + hitLen;
+
+        ByteBuffer buf;
+        if (cache == null) {
+            buf = ByteBuffer.allocate(len);
+        } else {
+            buf = cache.acquireBuffer(len);
+        }
+
+        buf.putInt(OFFSET_LENGTH, len);
+        buf.putInt(OFFSET_TYPE, payloadType);
+        buf.putLong(OFFSET_UTCTIME, firstTime);
+        buf.putShort(OFFSET_RECTYPE, recordType);
+        buf.putInt(OFFSET_UID, uid);
+        buf.putInt(OFFSET_TRIGTYPE, trigType);
+        buf.putInt(OFFSET_CFGID, cfgId);
+        buf.putInt(OFFSET_SRCID, srcId);
+        buf.putLong(OFFSET_FIRSTTIME, firstTime);
+        buf.putLong(OFFSET_LASTTIME, lastTime);
+
+        int pos = OFFSET_READOUT;
+        buf.putShort(pos, rdoutType);
+        buf.putInt(pos + RDOUT_OFFSET_UID, uid);
+        buf.putInt(pos + RDOUT_OFFSET_SRCID, srcId);
+        buf.putInt(pos + RDOUT_OFFSET_NUMELEMS, numElems);
+        pos += RDOUT_HEADER_LEN;
+
+        for (int i = 0; i < numElems; i++) {
+            buf.putInt(pos, elemTypes[i]);
+            buf.putInt(pos + 4, elemSrcIds[i]);
+            buf.putLong(pos + 8, elemFirst[i]);
+            buf.putLong(pos + 16, elemLast[i]);
+            buf.putLong(pos + 24, elemDoms[i]);
+            pos += ELEM_LEN;
+        }
+
+        buf.putInt(pos, compositeLenBase + hitLen);
+        buf.putShort(pos + COMPOSITE_OFFSET_TYPE, compositeType);
+        buf.putShort(pos + COMPOSITE_OFFSET_NUM,
+                     (short) (hits == null ? 0 : hits.size()));
+        pos += COMPOSITE_HEADER_LEN;
+
+        if (hits != null) {
+            for (IHitPayload hit : hits) {
+                try {
+                    pos += hit.writePayload(false, pos, buf);
+                } catch (IOException ioe) {
+                    LOG.error("Cannot encode hit " + hit, ioe);
+                    returnBuffer(buf);
+                    return null;
+                }
+            }
+        }
+
+        buf.position(0);
+        buf.limit(len);
+
+        return new EncodedTriggerRequest(this, buf, uid, trigType, cfgId,
+                                         srcId, firstTime, lastTime);
+    }
+
+    /**
+     * Is direct encoding enabled for this component?
+     *
+     * @return <tt>true</tt> if direct encoding has been requested
+     */
+    public static boolean isEnabled()
+    {
+        return Boolean.getBoolean(ENABLE_PROPERTY);
+    }
+
+    /**
+     * Is this encoder usable?
+     *
+     * @return <tt>false</tt> if the reference request did not match
+     */
+    public boolean isValid()
+    {
+        return valid;
+    }
+
+    /**
+     * Return an encoded buffer to the cache.
+     *
+     * @param buf buffer
+     */
+    void returnBuffer(ByteBuffer buf)
+    {
+        if (cache != null) {
+            cache.returnBuffer(buf);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TriggerRequestEncoder[" + (valid ? "valid" : "disabled") +
+            "]";
+    }
+}
@@ -3,6 +3,10 @@ package icecube.daq.trigger.control;
 import icecube.daq.payload.IPayload;
 import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.apache.log4j.Logger;
 
 /**
@@ -17,9 +21,23 @@ public class TriggerThread
     private int id;
     private ITriggerAlgorithm algorithm;
     private Thread thread;
-    private boolean stopping;
-    private boolean stopped;
+    private volatile boolean stopping;
+    private volatile boolean stopped;
     private long numSent;
+    /** If non-null, sampled hits are traced through the trigger */
+    private HitTracer tracer;
+    /** If non-null, the thread parks here between runs instead of exiting */
+    private RunGate gate;
+    /** Limit the errors logged for failed payloads */
+    private RateLimitedLog errorLog;
+
+    /**
+     * Guards stop handoffs (a lock rather than a monitor so virtual
+     * threads do not pin their carrier while waiting)
+     */
+    private final ReentrantLock stateLock = new ReentrantLock();
+    /** Signalled when <tt>stopping</tt> or <tt>stopped</tt> changes */
+    private final Condition stateChanged = stateLock.newCondition();
 
     public TriggerThread(int id, ITriggerAlgorithm algorithm)
     {
@@ -29,6 +47,8 @@ public class TriggerThread
 
         this.id = id;
         this.algorithm = algorithm;
+
+        errorLog = new RateLimitedLog(LOG, algorithm.getTriggerName());
     }
 
     public boolean isStopped()
@@ -36,15 +56,122 @@ public class TriggerThread
         return stopped;
     }
 
+    /**
+     * Wait for the parked thread to finish its current run.
+     *
+     * @param deadline <tt>System.currentTimeMillis()</tt> value after which
+     *                 we give up
+     *
+     * @return <tt>false</tt> if the thread is not parked
+     */
+    boolean awaitParked(long deadline)
+    {
+        return gate != null && gate.awaitParked(deadline);
+    }
+
+    /**
+     * Wait for the stop notification.  The collector normally marks every
+     * thread as stopping before any subscriber is stopped, so this only
+     * waits if the subscriber was stopped by something else.
+     *
+     * @return <tt>true</tt> if the thread has been told to stop
+     */
+    private boolean awaitStopping()
+    {
+        final long deadline = System.currentTimeMillis() +
+            TriggerCollector.getStopTimeout();
+
+        stateLock.lock();
+        try {
+            while (!stopping) {
+                final long millis = deadline - System.currentTimeMillis();
+                if (millis <= 0) {
+                    break;
+                }
+
+                try {
+                    stateChanged.await(millis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ie) {
+                    // ignore interrupts
+                }
+            }
+
+            return stopping;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Describe where a thread which has not stopped is stuck.
+     *
+     * @return thread state and stack trace
+     */
+    String getDiagnostics()
+    {
+        StringBuilder buf = new StringBuilder(toString());
+
+        Thread thrd = thread;
+        if (thrd != null) {
+            buf.append(" state ").append(thrd.getState());
+            for (StackTraceElement elem : thrd.getStackTrace()) {
+                buf.append("\n\tat ").append(elem);
+            }
+        }
+
+        return buf.toString();
+    }
+
     public void join()
     {
-        if (thread != null) {
+        join(Long.MAX_VALUE);
+    }
+
+    /**
+     * Wait for the thread to finish the current run.
+     *
+     * @param deadline <tt>System.currentTimeMillis()</tt> value after which
+     *                 we give up
+     *
+     * @return <tt>false</tt> if the thread did not stop before the deadline
+     */
+    public boolean join(long deadline)
+    {
+        if (gate != null) {
+            // persistent threads never exit, wait for the run to finish
+            stateLock.lock();
             try {
-                thread.join();
-            } catch (InterruptedException ie) {
-                // ignore interrupts
+                while (thread != null && !stopped) {
+                    final long millis = deadline - System.currentTimeMillis();
+                    if (millis <= 0) {
+                        return false;
+                    }
+
+                    try {
+                        stateChanged.await(millis, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException ie) {
+                        // ignore interrupts
+                    }
+                }
+            } finally {
+                stateLock.unlock();
+            }
+        } else if (thread != null) {
+            while (thread.isAlive()) {
+                final long millis = deadline - System.currentTimeMillis();
+                if (millis <= 0) {
+                    return false;
+                }
+
+                try {
+                    thread.join(millis);
+                } catch (InterruptedException ie) {
+                    // ignore interrupts
+                }
             }
         }
+
+        return true;
     }
 
     public void start()
@@ -54,14 +181,41 @@ public class TriggerThread
                             " is not subscribed to any lists");
         }
 
-        thread = new Thread(this);
-        thread.setName(algorithm.getTriggerName() + "-Thread");
+        if (gate != null && thread != null) {
+            // wake the parked thread for the next run
+            stopping = false;
+            stopped = false;
+            numSent = 0;
+            gate.open();
+            return;
+        }
+
+        thread = VirtualThreads.newThread(this, algorithm.getTriggerName() +
+                                          "-Thread");
+        if (gate != null) {
+            thread.setDaemon(true);
+        }
         thread.start();
     }
 
+    /**
+     * Tell the thread the pipeline is stopping, so it exits as soon as its
+     * subscriber has been stopped.
+     */
+    void setStopping()
+    {
+        stateLock.lock();
+        try {
+            stopping = true;
+            stateChanged.signalAll();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
     public void stop()
     {
-        stopping = true;
+        setStopping();
 
         PayloadSubscriber sub = algorithm.getSubscriber();
         if (sub == null) {
@@ -72,9 +226,39 @@ public class TriggerThread
         }
     }
 
+    /**
+     * Let a persistent thread exit once it has finished its current run.
+     */
+    void close()
+    {
+        if (gate != null) {
+            gate.close();
+        }
+    }
+
     @Override
     public void run()
     {
+        while (true) {
+            runOnce();
+
+            if (gate == null || !gate.await()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Feed payloads to the algorithm until the subscriber is stopped.
+     */
+    private void runOnce()
+    {
+        final LatencyHistogram serviceTime =
+            algorithm.getAlgorithmLatency().getServiceTime();
+
+        final ThreadUsage usage = algorithm.getThreadUsage();
+        usage.start(Thread.currentThread());
+
         while (true) {
             PayloadSubscriber sub = algorithm.getSubscriber();
             if (sub == null) {
@@ -83,6 +267,9 @@ public class TriggerThread
             }
 
             IPayload pay = sub.pop();
+            if (tracer != null) {
+                tracer.dequeued(pay);
+            }
             if (pay == PayloadSubscriber.STOPPED_PAYLOAD) {
                 if (!sub.isStopped()) {
                     // miscoded subscriber, STOPPED_PAYLOAD means stopped
@@ -91,38 +278,99 @@ public class TriggerThread
                 }
                 else
                 {
-                    // subscriber/trigger thread are stopped sequentially so
-                    // spin momentarily waiting to receive stop notification
-                    int spin = 0;
-                    while (!stopping && spin++ < 10)
+                    // subscriber may be stopped before the thread is told
+                    if (!awaitStopping())
                     {
-                        try{ Thread.sleep(100);} catch (InterruptedException e){}
+                        LOG.error("Subscriber for " +
+                                  algorithm.getTriggerName() +
+                                  " stopped without a stop notification;" +
+                                  " exiting");
                     }
 
-                    if(stopping)
-                    {
-                        break;
-                    }
-                    else
-                    {
-                        throw  new Error("Unexpected stop sequence");
-                    }
+                    break;
                 }
 
-            } else if (pay == TriggerManager.FLUSH_PAYLOAD) {
-                algorithm.sendLast();
-            } else {
+            } else if (dispatch(algorithm, pay, serviceTime, errorLog)) {
                 numSent++;
-                try {
-                    algorithm.runTrigger(pay);
-                } catch (Throwable thr) {
+            }
+        }
+
+        usage.stop();
+
+        errorLog.report();
+
+        stateLock.lock();
+        try {
+            stopped = true;
+            stateChanged.signalAll();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Hand a payload to an algorithm.  Control payloads are turned into
+     * the matching algorithm calls, and everything else is run through
+     * the trigger.  Any failure is logged (at a limited rate) and dropped.
+     *
+     * @param algorithm trigger algorithm
+     * @param pay payload (must not be <tt>STOPPED_PAYLOAD</tt>)
+     * @param serviceTime histogram of <tt>runTrigger()</tt> times
+     * @param errorLog rate limiter for failure messages
+     *
+     * @return <tt>true</tt> if the payload was passed to
+     *         <tt>runTrigger()</tt>
+     */
+    static boolean dispatch(ITriggerAlgorithm algorithm, IPayload pay,
+                            LatencyHistogram serviceTime,
+                            RateLimitedLog errorLog)
+    {
+        if (pay == TriggerManager.FLUSH_PAYLOAD) {
+            algorithm.sendLast();
+        } else if (pay instanceof PauseMarker) {
+            algorithm.setPaused(((PauseMarker) pay).isPaused(),
+                                pay.getUTCTime());
+        } else if (pay instanceof TimeMarker) {
+            algorithm.advanceTime(pay.getUTCTime());
+        } else {
+            final long start = System.nanoTime();
+            try {
+                algorithm.runTrigger(pay);
+            } catch (Throwable thr) {
+                if (errorLog.allow(thr.getClass())) {
                     LOG.error("Trigger " + algorithm + " failed for " + pay,
                               thr);
                 }
             }
+            serviceTime.record(System.nanoTime() - start);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Keep this thread alive between runs.  Must be called before the
+     * thread is first started.
+     */
+    void setPersistent()
+    {
+        if (thread != null) {
+            throw new Error("Cannot make running " + toString() +
+                            " persistent");
         }
 
-        stopped = true;
+        gate = new RunGate();
+    }
+
+    /**
+     * Set the tracer used to follow sampled hits.
+     *
+     * @param tracer hit tracer
+     */
+    void setHitTracer(HitTracer tracer)
+    {
+        this.tracer = tracer;
     }
 
     @Override
@@ -0,0 +1,122 @@
+package icecube.daq.trigger.control;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Create the trigger, collector and output threads either as ordinary
+ * platform threads or, if requested and the JVM supports them, as
+ * virtual threads.
+ *
+ * Virtual threads are created through reflection so the trigger still
+ * builds and runs on JVMs which predate them.
+ */
+public final class VirtualThreads
+{
+    /**
+     * Set this property to <tt>true</tt> to run the pipeline threads as
+     * virtual threads
+     */
+    public static final String PROPERTY =
+        "icecube.daq.trigger.virtual-threads";
+
+    private static final Logger LOG = Logger.getLogger(VirtualThreads.class);
+
+    /** <tt>Thread.ofVirtual()</tt> (<tt>null</tt> if unsupported) */
+    private static final Method OF_VIRTUAL;
+    /** <tt>Thread.Builder.unstarted(Runnable)</tt> */
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual;
+        Method unstarted;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            unstarted = Class.forName("java.lang.Thread$Builder").
+                getMethod("unstarted", Runnable.class);
+        } catch (ClassNotFoundException cnfe) {
+            ofVirtual = null;
+            unstarted = null;
+        } catch (NoSuchMethodException nsme) {
+            ofVirtual = null;
+            unstarted = null;
+        }
+
+        OF_VIRTUAL = ofVirtual;
+        UNSTARTED = unstarted;
+    }
+
+    /** Has the "unsupported" warning been logged? */
+    private static boolean warned;
+
+    private VirtualThreads()
+    {
+    }
+
+    /**
+     * Have virtual threads been requested and are they supported?
+     *
+     * @return <tt>true</tt> if new pipeline threads will be virtual
+     */
+    public static boolean isEnabled()
+    {
+        if (!Boolean.getBoolean(PROPERTY)) {
+            return false;
+        }
+
+        if (OF_VIRTUAL == null) {
+            synchronized (VirtualThreads.class) {
+                if (!warned) {
+                    LOG.error("Virtual threads are not supported by Java " +
+                              System.getProperty("java.version") +
+                              ", using platform threads");
+                    warned = true;
+                }
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Is the JVM able to create virtual threads?
+     *
+     * @return <tt>true</tt> if virtual threads are supported
+     */
+    public static boolean isSupported()
+    {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create an unstarted pipeline thread.
+     *
+     * @param runnable thread body
+     * @param name thread name
+     *
+     * @return new thread
+     */
+    public static Thread newThread(Runnable runnable, String name)
+    {
+        Thread thread;
+        if (!isEnabled()) {
+            thread = new Thread(runnable);
+        } else {
+            try {
+                thread = (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null),
+                                                   runnable);
+            } catch (IllegalAccessException iae) {
+                throw new Error("Cannot create virtual thread", iae);
+            } catch (InvocationTargetException ite) {
+                throw new Error("Cannot create virtual thread",
+                                ite.getCause());
+            }
+        }
+
+        thread.setName(name);
+        return thread;
+    }
+}
@@ -0,0 +1,360 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.payload.IByteBufferCache;
+import icecube.daq.payload.IPayload;
+import icecube.daq.payload.ISourceID;
+import icecube.daq.payload.ITriggerRequestPayload;
+import icecube.daq.payload.PayloadRegistry;
+import icecube.daq.payload.SourceIdRegistry;
+import icecube.daq.payload.impl.PayloadFactory;
+import icecube.daq.payload.impl.VitreousBufferCache;
+import icecube.daq.splicer.Spliceable;
+import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+import icecube.daq.trigger.config.ConfigSnapshot;
+import icecube.daq.trigger.config.TriggerCreator;
+import icecube.daq.trigger.exceptions.TriggerException;
+import icecube.daq.util.DOMInfo;
+import icecube.daq.util.IDOMRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Drive a synthetic hit stream through throwaway copies of the configured
+ * algorithms so the hot paths (<tt>SubscribedList.push</tt>,
+ * <tt>runTrigger</tt>, request release) are JIT-compiled before the
+ * first run starts.
+ *
+ * The copies are built from the same configuration snapshot as the real
+ * algorithms but are attached to a private trigger manager, buffer cache
+ * and collector, so the real algorithms, their UIDs and all monitoring
+ * counters are untouched.
+ */
+public class WarmUp
+{
+    /**
+     * Set this property to the number of synthetic hits used to warm up
+     * the algorithms (warm-up is disabled if this is not set)
+     */
+    public static final String HITS_PROPERTY =
+        "icecube.daq.trigger.warmup-hits";
+
+    /** Length of a simple hit payload */
+    private static final int HIT_LENGTH = 38;
+    /** Number of hits passed to the trigger manager at once */
+    private static final int BATCH_SIZE = 100;
+    /** Number of noise hits between each cluster */
+    private static final int CLUSTER_INTERVAL = 500;
+    /** Number of hits in each cluster */
+    private static final int CLUSTER_SIZE = 12;
+    /** Maximum gap between noise hits (0.1 ns ticks) */
+    private static final int NOISE_GAP = 8000;
+    /** Maximum gap between clustered hits (0.1 ns ticks) */
+    private static final int CLUSTER_GAP = 2000;
+    /** Time of first synthetic hit (0.1 ns ticks) */
+    private static final long FIRST_TIME = 10000000000L;
+
+    private static final Logger LOG = Logger.getLogger(WarmUp.class);
+
+    private ISourceID srcObj;
+    private int numHits;
+
+    /**
+     * Create a warm-up driver.
+     *
+     * @param srcObj trigger handler source ID
+     * @param numHits number of synthetic hits
+     */
+    public WarmUp(ISourceID srcObj, int numHits)
+    {
+        this.srcObj = srcObj;
+        this.numHits = numHits;
+    }
+
+    /**
+     * Create a warm-up driver if warm-up has been requested.
+     *
+     * @param srcObj trigger handler source ID
+     *
+     * @return new driver or <tt>null</tt> if warm-up is disabled or
+     *         the handler does not consume hits
+     */
+    public static WarmUp create(ISourceID srcObj)
+    {
+        final int numHits = Integer.getInteger(HITS_PROPERTY, 0);
+        if (numHits <= 0) {
+            return null;
+        }
+
+        // the global trigger consumes trigger requests, not hits
+        if (srcObj.getSourceID() == SourceIdRegistry.GLOBAL_TRIGGER_SOURCE_ID)
+        {
+            return null;
+        }
+
+        return new WarmUp(srcObj, numHits);
+    }
+
+    /**
+     * Release and recycle any requests which the algorithm has finished.
+     *
+     * @param algo algorithm
+     * @param released scratch list of released requests
+     *
+     * @return number of released requests
+     */
+    private static int release(ITriggerAlgorithm algo,
+                               List<ITriggerRequestPayload> released)
+    {
+        int total = 0;
+        while (true) {
+            Interval interval = new Interval();
+            while (true) {
+                Interval next = algo.getInterval(interval);
+                if (next == null || next.isEmpty()) {
+                    return total;
+                }
+                if (next.equals(interval)) {
+                    break;
+                }
+                interval = next;
+            }
+
+            final int num = algo.release(interval, released);
+            for (ITriggerRequestPayload req : released) {
+                req.recycle();
+            }
+            released.clear();
+
+            if (num == 0) {
+                return total;
+            }
+
+            total += num;
+        }
+    }
+
+    /**
+     * Run all algorithms configured for this handler on the synthetic
+     * hit stream.
+     *
+     * @param snap trigger configuration
+     * @param registry DOM registry
+     *
+     * @return number of requests produced by the algorithms
+     *
+     * @throws TriggerException if an algorithm cannot be built or fails
+     */
+    public long run(ConfigSnapshot snap, IDOMRegistry registry)
+        throws TriggerException
+    {
+        if (!registry.allDOMs().iterator().hasNext()) {
+            LOG.error("Not warming up algorithms, DOM registry is empty");
+            return 0L;
+        }
+
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+        TriggerCreator.buildTriggers(snap, srcObj.getSourceID(), algorithms,
+                                     null);
+        if (algorithms.isEmpty()) {
+            return 0L;
+        }
+
+        IByteBufferCache cache = new VitreousBufferCache("WarmUp");
+
+        // synthetic hits must not trip alerts, masks or shedding
+        TriggerManager mgr = new TriggerManager(srcObj, cache, false);
+        mgr.setPersistent(false);
+        mgr.setDOMRegistry(registry);
+        mgr.addTriggers(algorithms);
+
+        NullCollector collector = new NullCollector();
+        for (ITriggerAlgorithm algo : algorithms) {
+            algo.setTriggerCollector(collector);
+        }
+        mgr.subscribeAll();
+
+        final long startNanos = System.nanoTime();
+
+        // fixed seed so every warm-up sees the same stream
+        HitStream stream = new HitStream(registry, cache, numHits);
+
+        ArrayList<Spliceable> batch = new ArrayList<Spliceable>(BATCH_SIZE);
+        ArrayList<ITriggerRequestPayload> released =
+            new ArrayList<ITriggerRequestPayload>();
+
+        long numRequests = 0;
+        try {
+            for (int n = 0; n < numHits; n++) {
+                batch.add(stream.next());
+                if (batch.size() >= BATCH_SIZE || n == numHits - 1) {
+                    mgr.analyze(batch);
+                    batch.clear();
+
+                    for (ITriggerAlgorithm algo : algorithms) {
+                        PayloadSubscriber sub = algo.getSubscriber();
+                        while (sub.size() > 0) {
+                            IPayload pay = sub.pop();
+                            if (pay instanceof TimeMarker) {
+                                algo.advanceTime(pay.getUTCTime());
+                            } else if (pay !=
+                                       PayloadSubscriber.STOPPED_PAYLOAD)
+                            {
+                                algo.runTrigger(pay);
+                            }
+                        }
+
+                        numRequests += release(algo, released);
+                    }
+                }
+            }
+
+            for (ITriggerAlgorithm algo : algorithms) {
+                algo.sendLast();
+                numRequests += release(algo, released);
+                algo.recycleUnusedRequests();
+            }
+        } finally {
+            mgr.unsubscribeAll();
+        }
+
+        final long millis = (System.nanoTime() - startNanos) / 1000000L;
+        LOG.info(String.format("Warmed up %d algorithms with %d hits" +
+                               " (%d requests) in %d ms", algorithms.size(),
+                               numHits, numRequests, millis));
+
+        return numRequests;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "WarmUp[" + srcObj + ", " + numHits + " hits]";
+    }
+
+    /**
+     * Deterministic stream of synthetic SPE hits: random noise hits spread
+     * over all DOMs with a burst of hits on neighbouring DOMs every few
+     * hundred hits.
+     */
+    static class HitStream
+    {
+        private IByteBufferCache cache;
+        private PayloadFactory factory;
+        private ArrayList<DOMInfo> doms = new ArrayList<DOMInfo>();
+        private Random rand;
+
+        private int numHits;
+        private long time = FIRST_TIME;
+        private int clusterLeft;
+        private int clusterDom;
+
+        /**
+         * Create a hit stream.
+         *
+         * @param registry DOM registry (must not be empty)
+         * @param cache buffer cache used for hit payloads
+         * @param seed random number seed
+         */
+        HitStream(IDOMRegistry registry, IByteBufferCache cache, long seed)
+        {
+            this.cache = cache;
+
+            factory = new PayloadFactory(cache);
+            rand = new Random(seed);
+
+            for (DOMInfo dom : registry.allDOMs()) {
+                doms.add(dom);
+            }
+            if (doms.isEmpty()) {
+                throw new Error("DOM registry is empty");
+            }
+
+            // sort DOMs so clusters are built from neighbouring DOMs
+            Collections.sort(doms, new DOMOrder());
+        }
+
+        /**
+         * Build the next hit.
+         *
+         * @return new hit
+         */
+        Spliceable next()
+        {
+            DOMInfo dom;
+            if (clusterLeft > 0) {
+                dom = doms.get(clusterDom);
+                clusterDom = (clusterDom + 1) % doms.size();
+                clusterLeft--;
+                time += 1 + rand.nextInt(CLUSTER_GAP);
+            } else {
+                if (numHits % CLUSTER_INTERVAL == CLUSTER_INTERVAL - 1) {
+                    clusterDom = rand.nextInt(doms.size());
+                    clusterLeft = CLUSTER_SIZE;
+                }
+                dom = doms.get(rand.nextInt(doms.size()));
+                time += 1 + rand.nextInt(NOISE_GAP);
+            }
+            numHits++;
+
+            ByteBuffer buf = cache.acquireBuffer(HIT_LENGTH);
+            buf.limit(HIT_LENGTH);
+
+            buf.putInt(0, HIT_LENGTH);
+            buf.putInt(4, PayloadRegistry.PAYLOAD_ID_SIMPLE_HIT);
+            buf.putLong(8, time);
+            buf.putInt(16, ITriggerAlgorithm.SPE_HIT);
+            buf.putInt(20, 0);
+            buf.putInt(24, SourceIdRegistry.STRING_HUB_SOURCE_ID +
+                       dom.getStringMajor());
+            buf.putLong(28, dom.getNumericMainboardId());
+            buf.putShort(36, (short) 0);
+
+            buf.position(0);
+
+            try {
+                return (Spliceable) factory.createPayload(buf, 0);
+            } catch (Exception ex) {
+                throw new Error("Cannot build synthetic hit", ex);
+            }
+        }
+    }
+
+    /**
+     * Order DOMs by string and position.
+     */
+    private static class DOMOrder
+        implements Comparator<DOMInfo>
+    {
+        @Override
+        public int compare(DOMInfo d1, DOMInfo d2)
+        {
+            int val = d1.getStringMajor() - d2.getStringMajor();
+            if (val == 0) {
+                val = d1.getStringMinor() - d2.getStringMinor();
+            }
+            return val;
+        }
+    }
+
+    /**
+     * Collector which ignores all notifications; warm-up releases
+     * requests itself.
+     */
+    private static class NullCollector
+        implements ITriggerCollector
+    {
+        @Override
+        public void setChanged()
+        {
+            // do nothing
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package icecube.daq.trigger.config;
+
+import icecube.daq.common.MockAppender;
+import icecube.daq.util.JAXPUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.log4j.BasicConfigurator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import org.w3c.dom.Document;
+
+public class ConfigSnapshotTest
+{
+    private static final MockAppender appender =
+        new MockAppender(/*org.apache.log4j.Level.ALL*/)/*.setVerbose(true)*/;
+
+    private static final String CONFIG_NAME = "sps-2012-013";
+
+    private File trigCfgDir;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        BasicConfigurator.resetConfiguration();
+        BasicConfigurator.configure(appender);
+
+        trigCfgDir = new File(getClass().getResource("/config/").getPath(),
+                              "trigger");
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        System.clearProperty(ConfigSnapshot.DIR_PROPERTY);
+
+        appender.assertNoLogMessages();
+    }
+
+    private static void compare(ConfigSnapshot expSnap, ConfigSnapshot snap)
+    {
+        List<ConfigSnapshot.TriggerDef> expList = expSnap.getTriggers();
+        List<ConfigSnapshot.TriggerDef> list = snap.getTriggers();
+        assertEquals("Bad number of triggers", expList.size(), list.size());
+
+        for (int i = 0; i < expList.size(); i++) {
+            ConfigSnapshot.TriggerDef exp = expList.get(i);
+            ConfigSnapshot.TriggerDef def = list.get(i);
+
+            assertEquals("Bad name", exp.getName(), def.getName());
+            assertEquals("Bad config ID", exp.getConfigId(),
+                         def.getConfigId());
+            assertEquals("Bad type", exp.getType(), def.getType());
+            assertEquals("Bad source ID", exp.getSourceId(),
+                         def.getSourceId());
+
+            assertEquals("Bad number of parameters", exp.getNumParameters(),
+                         def.getNumParameters());
+            for (int j = 0; j < exp.getNumParameters(); j++) {
+                assertEquals("Bad parameter name", exp.getParameterName(j),
+                             def.getParameterName(j));
+                assertEquals("Bad parameter value",
+                             exp.getParameterValue(j),
+                             def.getParameterValue(j));
+            }
+
+            assertEquals("Bad number of readouts", exp.getNumReadouts(),
+                         def.getNumReadouts());
+            for (int j = 0; j < exp.getNumReadouts(); j++) {
+                assertEquals("Bad readout type", exp.getReadoutType(j),
+                             def.getReadoutType(j));
+                assertEquals("Bad readout offset", exp.getReadoutOffset(j),
+                             def.getReadoutOffset(j));
+                assertEquals("Bad readout minus", exp.getReadoutMinus(j),
+                             def.getReadoutMinus(j));
+                assertEquals("Bad readout plus", exp.getReadoutPlus(j),
+                             def.getReadoutPlus(j));
+            }
+        }
+    }
+
+    @Test
+    public void testParse()
+        throws Exception
+    {
+        Document doc = JAXPUtil.loadXMLDocument(trigCfgDir, CONFIG_NAME);
+        ConfigSnapshot snap = ConfigSnapshot.parse(doc, null);
+
+        assertFalse("No triggers found", snap.getTriggers().isEmpty());
+        for (ConfigSnapshot.TriggerDef def : snap.getTriggers()) {
+            assertNotNull("Missing trigger name", def.getName());
+            assertTrue("No readouts for " + def, def.getNumReadouts() > 0);
+        }
+    }
+
+    @Test
+    public void testWriteRead()
+        throws Exception
+    {
+        File cfgFile = new File(trigCfgDir, CONFIG_NAME + ".xml");
+        final String hash = ConfigSnapshot.hash(cfgFile);
+        assertEquals("Bad hash length", 40, hash.length());
+
+        Document doc = JAXPUtil.loadXMLDocument(trigCfgDir, CONFIG_NAME);
+        ConfigSnapshot snap = ConfigSnapshot.parse(doc, hash);
+
+        File snapFile = File.createTempFile("trigger-", ".snap");
+        try {
+            snap.write(snapFile);
+
+            compare(snap, ConfigSnapshot.read(snapFile, hash));
+
+            try {
+                ConfigSnapshot.read(snapFile, "0123456789");
+                fail("Should not read snapshot with a different hash");
+            } catch (IOException ioe) {
+                // expected
+            }
+        } finally {
+            snapFile.delete();
+        }
+    }
+
+    @Test
+    public void testGet()
+        throws Exception
+    {
+        File tmpDir = Files.createTempDirectory("snapshot").toFile();
+        System.setProperty(ConfigSnapshot.DIR_PROPERTY, tmpDir.getPath());
+
+        try {
+            ConfigSnapshot.clearCache();
+
+            ConfigSnapshot snap = ConfigSnapshot.get(trigCfgDir, CONFIG_NAME);
+            assertSame("Snapshot was not cached", snap,
+                       ConfigSnapshot.get(trigCfgDir, CONFIG_NAME));
+
+            Document doc = JAXPUtil.loadXMLDocument(trigCfgDir, CONFIG_NAME);
+            compare(ConfigSnapshot.parse(doc, null), snap);
+
+            File snapFile =
+                new File(tmpDir, "trigger-" + snap.getHash() + ".snap");
+            assertTrue("Snapshot file was not written", snapFile.exists());
+
+            // a snapshot which is parsed again would be rewritten
+            final long modTime = 1000000000000L;
+            assertTrue("Cannot set snapshot time",
+                       snapFile.setLastModified(modTime));
+
+            ConfigSnapshot.clearCache();
+
+            ConfigSnapshot loaded =
+                ConfigSnapshot.get(trigCfgDir, CONFIG_NAME);
+            assertNotSame("Snapshot was not reloaded", snap, loaded);
+            assertEquals("Snapshot file was rewritten", modTime,
+                         snapFile.lastModified());
+            assertEquals("Bad hash", snap.getHash(), loaded.getHash());
+            compare(snap, loaded);
+        } finally {
+            for (File f : tmpDir.listFiles()) {
+                f.delete();
+            }
+            tmpDir.delete();
+        }
+    }
+}
@@ -6,6 +6,10 @@ import icecube.daq.trigger.test.MockDOMID;
 import icecube.daq.trigger.test.MockDOMRegistry;
 import icecube.daq.util.DOMInfo;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -344,6 +348,59 @@ public class DomSetFactoryTest
         }
     }
 
+    @Test
+    public void testShared()
+        throws ConfigException
+    {
+        DomSet ds = DomSetFactory.getDomSet(2);
+        assertSame("DomSet #2 was not cached", ds,
+                   DomSetFactory.getDomSet(2));
+        assertSame("DomSet \"" + ds.getName() + "\" was not shared", ds,
+                   DomSetFactory.getDomSet(ds.getName()));
+
+        // a new registry invalidates the cache
+        DomSetFactory.setDomRegistry(new MyRegistry());
+        DomSetFactory.setDomRegistry(registry);
+
+        DomSet newDs = DomSetFactory.getDomSet(2);
+        assertNotSame("DomSet #2 was not reloaded", ds, newDs);
+        assertEquals("Reloaded DomSet #2 differs", ds, newDs);
+    }
+
+    @Test
+    public void testReloadChangedFile()
+        throws ConfigException, IOException
+    {
+        File tmpDir = Files.createTempDirectory("domset").toFile();
+        File trigDir = new File(tmpDir, "trigger");
+        assertTrue("Cannot create " + trigDir, trigDir.mkdir());
+
+        File orig = new File(new File(findTestConfig(), "trigger"),
+                             DomSetFactory.DOMSET_DEFS_FILE);
+        File copy = new File(trigDir, DomSetFactory.DOMSET_DEFS_FILE);
+        Files.copy(orig.toPath(), copy.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING);
+
+        try {
+            DomSetFactory.setConfigurationDirectory(tmpDir.getPath());
+
+            DomSet ds = DomSetFactory.getDomSet(1);
+            assertSame("DomSet #1 was not cached", ds,
+                       DomSetFactory.getDomSet(1));
+
+            assertTrue("Cannot change modification time of " + copy,
+                       copy.setLastModified(copy.lastModified() - 10000L));
+
+            DomSet newDs = DomSetFactory.getDomSet(1);
+            assertNotSame("DomSet #1 was not reloaded", ds, newDs);
+            assertEquals("Reloaded DomSet #1 differs", ds, newDs);
+        } finally {
+            copy.delete();
+            trigDir.delete();
+            tmpDir.delete();
+        }
+    }
+
     @Test
     public void testListParse()
         throws ConfigException
@@ -0,0 +1,250 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.common.MockAppender;
+import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+import icecube.daq.trigger.test.MockAlgorithm;
+import icecube.daq.trigger.test.MockSubscriber;
+
+import icecube.daq.payload.IPayload;
+import icecube.daq.trigger.exceptions.TriggerException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.log4j.BasicConfigurator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+class OrderedAlgorithm
+    extends WatermarkAlgorithm
+{
+    private List<String> order;
+    private CountDownLatch gate;
+
+    OrderedAlgorithm(String name, List<String> order, CountDownLatch gate)
+    {
+        super(name);
+
+        this.order = order;
+        this.gate = gate;
+    }
+
+    @Override
+    public void runTrigger(IPayload pay)
+        throws TriggerException
+    {
+        if (gate != null) {
+            try {
+                gate.await();
+            } catch (InterruptedException ie) {
+                throw new Error("Interrupted while waiting for gate", ie);
+            }
+        }
+
+        order.add(getTriggerName());
+    }
+}
+
+public class AlgorithmSchedulerTest
+{
+    private static final MockAppender appender =
+        new MockAppender(/*org.apache.log4j.Level.ALL*/)/*.setVerbose(true)*/;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        BasicConfigurator.resetConfiguration();
+        BasicConfigurator.configure(appender);
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        System.clearProperty(AlgorithmScheduler.THREADS_PROPERTY);
+
+        appender.assertNoLogMessages();
+    }
+
+    @Test
+    public void testCreate()
+    {
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+        algorithms.add(new MockAlgorithm("foo"));
+
+        assertNull("Scheduler should be disabled",
+                   AlgorithmScheduler.create(algorithms));
+
+        System.setProperty(AlgorithmScheduler.THREADS_PROPERTY, "2");
+
+        AlgorithmScheduler sched = AlgorithmScheduler.create(algorithms);
+        assertNotNull("Scheduler should be enabled", sched);
+        try {
+            assertEquals("Bad number of threads", 2, sched.getNumThreads());
+        } finally {
+            sched.close();
+        }
+    }
+
+    @Test
+    public void testCriticalPath()
+    {
+        final int numPayloads = 1000;
+
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+        final long[] earliest = new long[] { 2000L, 1000L };
+        for (int i = 0; i < earliest.length; i++) {
+            MockSubscriber sub = new MockSubscriber();
+            for (int j = 0; j < numPayloads; j++) {
+                sub.add(new MyPayload());
+            }
+            sub.stop();
+
+            WatermarkAlgorithm algo = new WatermarkAlgorithm("algo" + i);
+            algo.setSubscriber(sub);
+            algo.setEarliestTime(earliest[i]);
+
+            algorithms.add(algo);
+        }
+
+        AlgorithmScheduler sched = new AlgorithmScheduler(algorithms, 1, true);
+        try {
+            assertTrue("Critical path policy is not enabled",
+                       sched.isCriticalPath());
+
+            sched.start();
+            assertTrue("Scheduler did not stop: " + sched.getDiagnostics(),
+                       sched.join(System.currentTimeMillis() + 10000L));
+
+            Map<String, Long> counts = sched.getCriticalPathCounts();
+            assertEquals("Bad number of counts", algorithms.size(),
+                         counts.size());
+            assertTrue("Lagging algorithm was never on the critical path",
+                       counts.get("algo1") > 0L);
+        } finally {
+            sched.close();
+        }
+
+        // FIFO scheduler does not track the critical path
+        AlgorithmScheduler fifo = new AlgorithmScheduler(algorithms, 1);
+        try {
+            assertTrue("FIFO scheduler has critical path counts",
+                       fifo.getCriticalPathCounts().isEmpty());
+        } finally {
+            fifo.close();
+        }
+    }
+
+    @Test
+    public void testCriticalPathOrder()
+    {
+        final int numPayloads = 1000;
+
+        List<String> order =
+            Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch gate = new CountDownLatch(1);
+
+        // the gate holds the only thread until every task is ready
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+        algorithms.add(new OrderedAlgorithm("gate", order, gate));
+        algorithms.add(new OrderedAlgorithm("high", order, null));
+        algorithms.add(new OrderedAlgorithm("low", order, null));
+
+        final long[] earliest = new long[] { 0L, 2000L, 1000L };
+        for (int i = 0; i < algorithms.size(); i++) {
+            final int num = (i == 0 ? 1 : numPayloads);
+
+            MockSubscriber sub = new MockSubscriber();
+            for (int j = 0; j < num; j++) {
+                sub.add(new MyPayload());
+            }
+            sub.stop();
+
+            OrderedAlgorithm algo = (OrderedAlgorithm) algorithms.get(i);
+            algo.setSubscriber(sub);
+            if (earliest[i] > 0L) {
+                algo.setEarliestTime(earliest[i]);
+            }
+        }
+
+        AlgorithmScheduler sched = new AlgorithmScheduler(algorithms, 1, true);
+        try {
+            sched.start();
+            gate.countDown();
+
+            assertTrue("Scheduler did not stop: " + sched.getDiagnostics(),
+                       sched.join(System.currentTimeMillis() + 10000L));
+        } finally {
+            sched.close();
+        }
+
+        assertEquals("Bad number of payloads", numPayloads * 2 + 1,
+                     order.size());
+        assertEquals("Gate did not run first", "gate", order.get(0));
+
+        // watermarks are unknown until each task has run once, so the
+        // first ready task gets one batch before the order takes hold
+        final int firstLow = 1 + AlgorithmScheduler.BATCH_SIZE;
+        for (int i = 1; i < order.size(); i++) {
+            final String expName;
+            if (i < firstLow || i >= firstLow + numPayloads) {
+                expName = "high";
+            } else {
+                expName = "low";
+            }
+            assertEquals("Bad algorithm for payload #" + i, expName,
+                         order.get(i));
+        }
+    }
+
+    @Test
+    public void testRun()
+    {
+        final int numAlgorithms = 5;
+        final int numPayloads = 1000;
+
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+        for (int i = 0; i < numAlgorithms; i++) {
+            MockSubscriber sub = new MockSubscriber();
+            for (int j = 0; j < numPayloads; j++) {
+                sub.add(new MyPayload());
+            }
+            sub.add(TriggerManager.FLUSH_PAYLOAD);
+            sub.stop();
+
+            MockAlgorithm algo = new MockAlgorithm("algo" + i);
+            algo.setSubscriber(sub);
+
+            algorithms.add(algo);
+        }
+
+        // fewer threads than algorithms
+        AlgorithmScheduler sched = new AlgorithmScheduler(algorithms, 2);
+        try {
+            sched.start();
+
+            assertTrue("Scheduler did not stop: " + sched.getDiagnostics(),
+                       sched.join(System.currentTimeMillis() + 10000L));
+
+            for (ITriggerAlgorithm algo : algorithms) {
+                assertTrue(algo.getTriggerName() + " did not see FLUSH",
+                           ((MockAlgorithm) algo).sentLast());
+                assertEquals(algo.getTriggerName() + " has unread input",
+                             0, algo.getSubscriber().size());
+            }
+        } finally {
+            sched.close();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package icecube.daq.trigger.control;
 import icecube.daq.common.MockAppender;
 import icecube.daq.io.DAQComponentOutputProcess;
 import icecube.daq.payload.IByteBufferCache;
+import icecube.daq.payload.IPayload;
 import icecube.daq.payload.ITriggerRequestPayload;
 import icecube.daq.payload.SourceIdRegistry;
 import icecube.daq.splicer.Splicer;
@@ -19,6 +20,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.*;
 import static org.junit.Assert.*;
@@ -53,6 +55,12 @@ class MockOutputThread
         return pushed.size();
     }
 
+    @Override
+    public Map<String, Long> getOutputStatistics()
+    {
+        throw new Error("Unimplemented");
+    }
+
     public ITriggerRequestPayload getPushed(int idx)
     {
         if (pushed.size() <= idx) {
@@ -214,6 +222,11 @@ public class CollectorThreadTest
         SourceIdRegistry.INICE_TRIGGER_SOURCE_ID;
     private static final int GLOBAL_ID =
         SourceIdRegistry.GLOBAL_TRIGGER_SOURCE_ID;
+    private static final int ICETOP_ID =
+        SourceIdRegistry.ICETOP_TRIGGER_SOURCE_ID;
+
+    /** One second in DAQ ticks */
+    private static final long ONE_SECOND = 10000000000L;
     private static final MockAppender appender =
         new MockAppender(/*org.apache.log4j.Level.ALL*/)/*.setVerbose(true)*/;
 
@@ -831,6 +844,137 @@ public class CollectorThreadTest
         ct.setChanged();
     }
 
+    private static void checkRequest(String name, ITriggerRequestPayload req,
+                                     long start, long end, int cfgId,
+                                     int numReqs)
+    {
+        assertEquals("Bad " + name + " start", start,
+                     req.getFirstTimeUTC().longValue());
+        assertEquals("Bad " + name + " end", end,
+                     req.getLastTimeUTC().longValue());
+        assertEquals("Bad " + name + " config ID", cfgId,
+                     req.getTriggerConfigID());
+        assertEquals("Bad number of " + name + " requests", numReqs,
+                     req.getPayloads().size());
+    }
+
+    /**
+     * Wait for the collector to finish a pass and go back to sleep.
+     *
+     * @param thrd collector thread
+     * @param algo algorithm checked once in every pass
+     * @param prevChecks number of checks made before the pass began
+     */
+    private static void waitForPass(Thread thrd, LagAlgorithm algo,
+                                    int prevChecks)
+    {
+        final long deadline = System.currentTimeMillis() + 60000L;
+        while (algo.getNumChecks() <= prevChecks ||
+               thrd.getState() != Thread.State.WAITING)
+        {
+            if (!thrd.isAlive() || System.currentTimeMillis() > deadline) {
+                fail("Collector did not finish pass (state " +
+                     thrd.getState() + ")");
+            }
+
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ie) {
+                // ignore interrupts
+            }
+        }
+    }
+
+    @Test
+    public void testLagging()
+        throws InterruptedException
+    {
+        LagAlgorithm fast = new LagAlgorithm("Fast");
+        MockSubscriber fastSub = new MockSubscriber();
+        fast.setSubscriber(fastSub);
+
+        LagAlgorithm slow = new LagAlgorithm("Slow");
+        MockSubscriber slowSub = new MockSubscriber();
+        slow.setSubscriber(slowSub);
+
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+        algorithms.add(fast);
+        algorithms.add(slow);
+
+        LagTolerance lagTol = new LagTolerance(1000L);
+        lagTol.setInputTime(ONE_SECOND * 10);
+
+        CollectorThread ct =
+            new CollectorThread("lagging", ICETOP_ID, algorithms,
+                                new MockDataManager(), outThrd,
+                                new MockSubscriptionManager());
+        ct.setRunNumber(1234, false);
+        ct.setLagTolerance(lagTol);
+
+        // slow algorithm trails the input by 9 seconds
+        fast.setEarliestTime(ONE_SECOND * 10);
+        fast.addInterval(ONE_SECOND * 5, ONE_SECOND * 5 + 100);
+        fast.addInterval(ONE_SECOND * 6, ONE_SECOND * 6 + 100);
+        slow.setEarliestTime(ONE_SECOND);
+        slow.addInterval(ONE_SECOND, ONE_SECOND + 100);
+
+        Thread thrd = new Thread(ct);
+        ct.setChanged();
+        thrd.start();
+
+        waitForPass(thrd, slow, 0);
+        appender.assertLogMessage("Slow trails input by 9000 ms");
+        appender.assertNoLogMessages();
+
+        // slow request is sent late, fast requests are not held back
+        assertEquals("Bad number of requests queued", 2L,
+                     outThrd.getNumQueued());
+        checkRequest("late", outThrd.getPushed(0), ONE_SECOND,
+                     ONE_SECOND + 100, LagTolerance.LATE_CONFIG_ID, 1);
+        assertEquals("Bad fast start", ONE_SECOND * 5,
+                     outThrd.getPushed(1).getFirstTimeUTC().longValue());
+        assertEquals("Bad late count", 1L, lagTol.getNumLate());
+
+        // late request overlapping the cached request is merged with it
+        int checks = slow.getNumChecks();
+        slow.addInterval(ONE_SECOND * 6 + 50, ONE_SECOND * 6 + 150);
+        ct.setChanged();
+        waitForPass(thrd, slow, checks);
+        assertEquals("Overlapping late request was sent", 2L,
+                     outThrd.getNumQueued());
+        assertEquals("Bad late count", 1L, lagTol.getNumLate());
+
+        // slow algorithm catches up
+        checks = slow.getNumChecks();
+        lagTol.setInputTime(ONE_SECOND * 20);
+        fast.setEarliestTime(ONE_SECOND * 20);
+        slow.setEarliestTime(ONE_SECOND * 20);
+        ct.setChanged();
+        waitForPass(thrd, slow, checks);
+
+        // requests are released normally, then everything is flushed
+        fast.addInterval(ONE_SECOND * 21, ONE_SECOND * 21 + 100);
+        slow.addInterval(ONE_SECOND * 21, ONE_SECOND * 21 + 100);
+        fast.addInterval(FlushRequest.FLUSH_TIME, FlushRequest.FLUSH_TIME);
+        slow.addInterval(FlushRequest.FLUSH_TIME, FlushRequest.FLUSH_TIME);
+        fastSub.stop();
+        slowSub.stop();
+        ct.setChanged();
+
+        thrd.join(60000L);
+        assertFalse("Collector did not stop", thrd.isAlive());
+
+        assertEquals("Bad number of requests queued", 4L,
+                     outThrd.getNumQueued());
+        checkRequest("merged", outThrd.getPushed(2), ONE_SECOND * 6,
+                     ONE_SECOND * 6 + 150, -1, 2);
+        checkRequest("rejoined", outThrd.getPushed(3), ONE_SECOND * 21,
+                     ONE_SECOND * 21 + 100, -1, 2);
+        assertEquals("Bad late count", 1L, lagTol.getNumLate());
+        outThrd.clear();
+    }
+
     public void runOne(String name, long oldStart, long oldEnd,
                        long newStart, long newEnd,
                        Interval[] reqList)
@@ -1072,3 +1216,26 @@ class MockRunAlgorithm
         return rtnval;
     }
 }
+
+class LagAlgorithm
+    extends WatermarkAlgorithm
+{
+    private volatile int numChecks;
+
+    LagAlgorithm(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    public IPayload getEarliestPayloadOfInterest()
+    {
+        numChecks++;
+        return super.getEarliestPayloadOfInterest();
+    }
+
+    int getNumChecks()
+    {
+        return numChecks;
+    }
+}
@@ -78,6 +78,8 @@ public class ElementMergerTest
     {
         BasicConfigurator.resetConfiguration();
         BasicConfigurator.configure(appender);
+
+        ElementMerger.resetLogLimits();
     }
 
     @After
@@ -357,6 +359,8 @@ public class ElementMergerTest
             new ArrayList<ITriggerRequestPayload>();
         list.add(req);
 
+        // every permutation logs the same unmerged elements
+        ElementMerger.resetLogLimits();
         ElementMerger.merge(tgtReq, list);
 
         List<IReadoutRequestElement> elems =
@@ -743,6 +747,43 @@ public class ElementMergerTest
         assertTrue("Didn't see second request", sawTwo);
     }
 
+    @Test
+    public void testReportSuppressed()
+    {
+        final int numElems = 15;
+
+        MockReadoutRequest srcReq = new MockReadoutRequest();
+        for (int i = 0; i < numElems; i++) {
+            srcReq.addElement(OTHER, 0, i * 10, i * 10 + 5, 0);
+        }
+
+        MockTriggerRequest req = new MockTriggerRequest(1, 2, 3, 0, 1000);
+        req.setReadoutRequest(srcReq);
+
+        ArrayList<ITriggerRequestPayload> list =
+            new ArrayList<ITriggerRequestPayload>();
+        list.add(req);
+
+        ElementMerger.merge(new MockReadoutRequest(), list);
+
+        try {
+            // the default burst is 10 messages
+            assertEquals("Bad number of log messages",
+                         10, appender.getNumberOfMessages());
+        } finally {
+            appender.clear();
+        }
+
+        ElementMerger.reportLogLimits();
+        appender.assertLogMessage("ElementMerger: suppressed " +
+                                  (numElems - 10) + " \"" + OTHER +
+                                  "\" messages");
+        appender.assertNoLogMessages();
+
+        // nothing more to report
+        ElementMerger.reportLogLimits();
+    }
+
     @Test
     public void testMergeMultiSource()
     {
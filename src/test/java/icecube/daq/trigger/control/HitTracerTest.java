@@ -0,0 +1,89 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.trigger.test.MockHit;
+import icecube.daq.trigger.test.MockTriggerRequest;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HitTracerTest
+{
+    private static void checkValue(Map<String, Long> stats, String name,
+                                   long expVal)
+    {
+        assertNotNull("Missing " + name, stats.get(name));
+        assertEquals("Bad " + name, expVal, stats.get(name).longValue());
+    }
+
+    @Test
+    public void testCompleteTrace()
+    {
+        HitTracer tracer = new HitTracer(2);
+
+        MockHit skipped = new MockHit(1000L);
+        MockHit traced = new MockHit(2000L);
+
+        tracer.ingested(skipped);
+        tracer.ingested(traced);
+
+        tracer.dequeued(skipped);
+        tracer.dequeued(traced);
+
+        // request which does not include the traced hit is ignored
+        tracer.requested(new MockTriggerRequest(1, 2, 3, 100L, 900L));
+
+        MockTriggerRequest req = new MockTriggerRequest(2, 2, 3, 1500L, 2500L);
+        tracer.requested(req);
+        tracer.collected(new Interval(1500L, 2500L), req);
+
+        ByteBuffer buf = ByteBuffer.allocate(16);
+        tracer.queued(req, buf);
+        tracer.written(ByteBuffer.allocate(16));
+        tracer.written(buf);
+
+        Map<String, Long> stats = tracer.getStatistics();
+        checkValue(stats, "started", 1L);
+        checkValue(stats, "completed", 1L);
+        checkValue(stats, "abandoned", 0L);
+        checkValue(stats, "ingestToDequeue.count", 1L);
+        checkValue(stats, "dequeueToRequest.count", 1L);
+        checkValue(stats, "requestToCollect.count", 1L);
+        checkValue(stats, "collectToOutput.count", 1L);
+        checkValue(stats, "endToEnd.count", 1L);
+
+        tracer.reset();
+        checkValue(tracer.getStatistics(), "started", 0L);
+        checkValue(tracer.getStatistics(), "endToEnd.count", 0L);
+    }
+
+    @Test
+    public void testUntriggeredHit()
+    {
+        HitTracer tracer = new HitTracer(1);
+
+        MockHit traced = new MockHit(2000L);
+        tracer.ingested(traced);
+        tracer.dequeued(traced);
+
+        MockTriggerRequest req = new MockTriggerRequest(1, 2, 3, 3000L, 4000L);
+        tracer.requested(req);
+        tracer.collected(new Interval(3000L, 4000L), req);
+
+        Map<String, Long> stats = tracer.getStatistics();
+        checkValue(stats, "started", 1L);
+        checkValue(stats, "completed", 0L);
+        checkValue(stats, "abandoned", 1L);
+        checkValue(stats, "ingestToDequeue.count", 1L);
+        checkValue(stats, "dequeueToRequest.count", 0L);
+
+        // tracer should be ready for a new hit
+        MockHit next = new MockHit(5000L);
+        tracer.ingested(next);
+        tracer.dequeued(next);
+        checkValue(tracer.getStatistics(), "started", 2L);
+        checkValue(tracer.getStatistics(), "ingestToDequeue.count", 2L);
+    }
+}
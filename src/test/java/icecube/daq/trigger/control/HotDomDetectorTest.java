@@ -0,0 +1,184 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.common.MockAppender;
+import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+import icecube.daq.trigger.test.MockHit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import org.apache.log4j.BasicConfigurator;
+
+class ChannelHit
+    extends MockHit
+{
+    private short channel;
+
+    ChannelHit(long time, int channel)
+    {
+        super(time);
+
+        this.channel = (short) channel;
+    }
+
+    @Override
+    public short getChannelID()
+    {
+        return channel;
+    }
+
+    @Override
+    public boolean hasChannelID()
+    {
+        return true;
+    }
+}
+
+public class HotDomDetectorTest
+{
+    private static final MockAppender appender =
+        new MockAppender(/*org.apache.log4j.Level.ALL*/)/*.setVerbose(true)*/;
+
+    /** One second in DAQ ticks */
+    private static final long ONE_SECOND = 10000000000L;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        BasicConfigurator.resetConfiguration();
+        BasicConfigurator.configure(appender);
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        appender.assertNoLogMessages();
+    }
+
+    /**
+     * Send one second of hits.
+     *
+     * @param detector hot DOM detector
+     * @param second window number
+     * @param channel channel ID
+     * @param numHits number of hits
+     */
+    private static void sendHits(HotDomDetector detector, int second,
+                                 int channel, int numHits)
+    {
+        final long step = ONE_SECOND / (numHits + 1);
+        for (int i = 0; i < numHits; i++) {
+            detector.add(new ChannelHit(second * ONE_SECOND + i * step,
+                                        channel));
+        }
+    }
+
+    @Test
+    public void testCreate()
+    {
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+        assertNull("Detection should be disabled",
+                   HotDomDetector.create(algorithms));
+
+        System.setProperty(HotDomDetector.RATE_PROPERTY, "500");
+        try {
+            assertNotNull("Detection should be enabled",
+                          HotDomDetector.create(algorithms));
+        } finally {
+            System.clearProperty(HotDomDetector.RATE_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testFilter()
+    {
+        ChannelMask mask = new ChannelMask();
+        mask.setMasked(17, true, 100L);
+
+        HitFilter filter = new HitFilter();
+        filter.setChannelMask(mask);
+
+        assertTrue("Hit before the mask was not used",
+                   filter.useHit(new ChannelHit(99L, 17)));
+        assertFalse("Masked hit was used",
+                    filter.useHit(new ChannelHit(100L, 17)));
+        assertTrue("Unmasked hit was not used",
+                   filter.useHit(new ChannelHit(100L, 16)));
+        assertTrue("Hit without a channel was not used",
+                   filter.useHit(new MockHit(100L)));
+
+        // late readers still see the mask which applied to each hit
+        mask.setMasked(17, false, 200L);
+        assertFalse("Masked hit was used after unmasking",
+                    filter.useHit(new ChannelHit(150L, 17)));
+        assertTrue("Unmasked hit was not used",
+                   filter.useHit(new ChannelHit(200L, 17)));
+        assertEquals("Bad masked channels", 0,
+                     mask.getMasked().size());
+
+        // only the most recent changes are remembered
+        for (int i = 1; i < 10; i++) {
+            mask.setMasked(17, true, i * 1000L);
+            mask.setMasked(17, false, i * 1000L + 500L);
+        }
+        assertTrue("Forgotten mask was applied",
+                    filter.useHit(new ChannelHit(150L, 17)));
+        assertFalse("Recent mask was not applied",
+                    filter.useHit(new ChannelHit(9200L, 17)));
+    }
+
+    @Test
+    public void testMasking()
+    {
+        final int hot = 5;
+        final int quiet = 6;
+
+        HotDomDetector detector =
+            new HotDomDetector(new ArrayList<ITriggerAlgorithm>(), 10.0,
+                               1000L, 2,
+                               Arrays.asList("SimpleMajorityTrigger"));
+
+        // one busy window is not enough
+        sendHits(detector, 0, hot, 20);
+        sendHits(detector, 0, quiet, 2);
+        sendHits(detector, 1, hot, 5);
+        sendHits(detector, 1, quiet, 2);
+        assertTrue("Channel masked too soon",
+                   detector.getMaskedChannels().isEmpty());
+
+        sendHits(detector, 2, hot, 20);
+        sendHits(detector, 3, hot, 20);
+        sendHits(detector, 4, quiet, 2);
+
+        assertEquals("Bad masked channels", Arrays.asList(hot),
+                     detector.getMaskedChannels());
+        appender.assertLogMessage("Masking channel " + hot);
+        appender.assertNoLogMessages();
+
+        // the mask starts at the end of the window which set it
+        ChannelMask mask = detector.getChannelMask();
+        assertFalse("Hit before the mask was masked",
+                    mask.isMasked(new ChannelHit(ONE_SECOND * 4 - 1, hot)));
+        assertTrue("Hit after the mask was not masked",
+                   mask.isMasked(new ChannelHit(ONE_SECOND * 4, hot)));
+
+        // stay masked while the channel is busy
+        sendHits(detector, 4, hot, 20);
+        sendHits(detector, 5, hot, 1);
+        assertEquals("Bad masked channels", Arrays.asList(hot),
+                     detector.getMaskedChannels());
+
+        sendHits(detector, 6, hot, 1);
+        sendHits(detector, 7, quiet, 2);
+        assertTrue("Channel was not unmasked",
+                   detector.getMaskedChannels().isEmpty());
+    }
+}
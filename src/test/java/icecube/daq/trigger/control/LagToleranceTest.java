@@ -0,0 +1,100 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.common.MockAppender;
+import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import org.apache.log4j.BasicConfigurator;
+
+public class LagToleranceTest
+{
+    private static final MockAppender appender =
+        new MockAppender(/*org.apache.log4j.Level.ALL*/)/*.setVerbose(true)*/;
+
+    /** One second in DAQ ticks */
+    private static final long ONE_SECOND = 10000000000L;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        BasicConfigurator.resetConfiguration();
+        BasicConfigurator.configure(appender);
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        appender.assertNoLogMessages();
+    }
+
+    @Test
+    public void testCreate()
+    {
+        assertNull("Lag tolerance should be disabled", LagTolerance.create());
+
+        System.setProperty(LagTolerance.MAX_LAG_PROPERTY, "500");
+        try {
+            assertNotNull("Lag tolerance should be enabled",
+                          LagTolerance.create());
+        } finally {
+            System.clearProperty(LagTolerance.MAX_LAG_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testLagging()
+    {
+        WatermarkAlgorithm fast = new WatermarkAlgorithm("Fast");
+        WatermarkAlgorithm slow = new WatermarkAlgorithm("Slow");
+
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+        algorithms.add(fast);
+        algorithms.add(slow);
+
+        LagTolerance lagTol = new LagTolerance(1000L);
+
+        // nothing lags before there's any input
+        fast.setEarliestTime(ONE_SECOND);
+        slow.setEarliestTime(ONE_SECOND);
+        assertTrue("Unexpected lagging algorithm",
+                   lagTol.update(algorithms, Long.MIN_VALUE).isEmpty());
+
+        lagTol.setInputTime(ONE_SECOND * 3);
+        fast.setEarliestTime(ONE_SECOND * 3 - 1000L);
+        assertEquals("Bad number of lagging algorithms", 1,
+                     lagTol.update(algorithms, Long.MIN_VALUE).size());
+        appender.assertLogMessage("Slow trails input by 2000 ms");
+        appender.assertNoLogMessages();
+
+        List<ITriggerAlgorithm> lagging =
+            lagTol.update(algorithms, Long.MIN_VALUE);
+        assertEquals("Bad number of lagging algorithms", 1, lagging.size());
+        assertSame("Bad lagging algorithm", slow, lagging.get(0));
+        assertEquals("Bad lagged count", 1L, lagTol.getNumLagged());
+
+        // back within the limit but behind the released requests
+        slow.setEarliestTime(ONE_SECOND * 3 - 2000L);
+        assertEquals("Slow algorithm rejoined too soon", 1,
+                     lagTol.update(algorithms, ONE_SECOND * 3).size());
+
+        slow.setEarliestTime(ONE_SECOND * 3 + 1L);
+        assertTrue("Slow algorithm did not rejoin",
+                   lagTol.update(algorithms, ONE_SECOND * 3).isEmpty());
+
+        lagTol.addLate(3);
+        assertEquals("Bad late count", 3L, lagTol.getNumLate());
+
+        lagTol.reset();
+        assertEquals("Late count was not reset", 0L, lagTol.getNumLate());
+    }
+}
@@ -0,0 +1,64 @@
+package icecube.daq.trigger.control;
+
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest
+{
+    @Test
+    public void testBuckets()
+    {
+        long prevLimit = -1;
+        for (int i = 0; i < 100000; i++) {
+            final long val = (long) i * 997L;
+            final int idx = LatencyHistogram.bucketIndex(val);
+            final long limit = LatencyHistogram.bucketLimit(idx);
+            assertTrue("Value " + val + " exceeds bucket#" + idx +
+                       " limit " + limit, val <= limit);
+            if (idx > 0) {
+                assertTrue("Value " + val + " should not be in bucket#" +
+                           idx, val > LatencyHistogram.bucketLimit(idx - 1));
+            }
+            assertTrue("Limits should not decrease", limit >= prevLimit);
+            prevLimit = limit;
+        }
+
+        final int maxIdx = LatencyHistogram.bucketIndex(Long.MAX_VALUE);
+        assertEquals("Bad limit for largest bucket", Long.MAX_VALUE,
+                     LatencyHistogram.bucketLimit(maxIdx));
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        LatencyHistogram hist = new LatencyHistogram();
+        assertEquals("Empty histogram should return 0", 0L,
+                     hist.getPercentile(50.0));
+
+        for (int i = 1; i <= 1000; i++) {
+            hist.record(i * 1000L);
+        }
+
+        assertEquals("Bad count", 1000L, hist.getCount());
+        assertEquals("Bad max", 1000000L, hist.getMax());
+
+        final long p50 = hist.getPercentile(50.0);
+        assertTrue("Bad p50 " + p50, p50 >= 500000L && p50 <= 520000L);
+        final long p99 = hist.getPercentile(99.0);
+        assertTrue("Bad p99 " + p99, p99 >= 990000L && p99 <= 1000000L);
+
+        Map<String, Long> map = hist.getPercentiles();
+        assertEquals("Bad count entry", Long.valueOf(1000L),
+                     map.get("count"));
+        assertEquals("Bad max entry", Long.valueOf(1000L), map.get("max"));
+        assertNotNull("Missing p999 entry", map.get("p999"));
+
+        hist.reset();
+        assertEquals("Count was not reset", 0L, hist.getCount());
+        assertEquals("Max was not reset", 0L, hist.getMax());
+        assertEquals("Percentile was not reset", 0L,
+                     hist.getPercentile(99.0));
+    }
+}
@@ -0,0 +1,237 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.common.MockAppender;
+import icecube.daq.payload.IPayload;
+import icecube.daq.trigger.algorithm.AbstractTrigger;
+import icecube.daq.trigger.algorithm.FixedRateTrigger;
+import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+import icecube.daq.trigger.algorithm.MinBiasTrigger;
+import icecube.daq.trigger.test.MockAlgorithm;
+import icecube.daq.trigger.test.MockHit;
+import icecube.daq.trigger.test.MockTriggerRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import org.apache.log4j.BasicConfigurator;
+
+class ExpensiveAlgorithm
+    extends MockAlgorithm
+{
+    ExpensiveAlgorithm(String name)
+    {
+        super(name);
+    }
+}
+
+public class LoadShedderTest
+{
+    private static final MockAppender appender =
+        new MockAppender(/*org.apache.log4j.Level.ALL*/)/*.setVerbose(true)*/;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        BasicConfigurator.resetConfiguration();
+        BasicConfigurator.configure(appender);
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        appender.assertNoLogMessages();
+    }
+
+    private static void checkMarker(PayloadSubscriber sub, Class cls,
+                                    long time)
+    {
+        assertTrue("No payload queued for " + sub.getName(), sub.size() > 0);
+
+        IPayload pay = sub.pop();
+        assertEquals("Bad payload for " + sub.getName(), cls, pay.getClass());
+        assertEquals("Bad payload time for " + sub.getName(), time,
+                     pay.getUTCTime());
+    }
+
+    /**
+     * Report requests as the algorithm would and count those it keeps.
+     *
+     * @param trig algorithm
+     * @param numReports number of requests to report
+     *
+     * @return number of requests kept
+     */
+    private static int reportTriggers(AbstractTrigger trig, int numReports)
+    {
+        trig.setTriggerCollector(new ITriggerCollector() {
+                @Override
+                public void setChanged()
+                {
+                    // do nothing
+                }
+            });
+
+        final int numCached = trig.getNumberOfCachedRequests();
+        for (int i = 0; i < numReports; i++) {
+            final int uid = trig.getNextUID();
+            trig.reportTrigger(new MockTriggerRequest(uid, 2, 3, uid * 10L,
+                                                      uid * 10L + 5L));
+        }
+
+        return trig.getNumberOfCachedRequests() - numCached;
+    }
+
+    @Test
+    public void testCreate()
+    {
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+        assertNull("Shedding should be disabled",
+                   LoadShedder.create(algorithms));
+
+        System.setProperty(LoadShedder.QUEUE_LIMIT_PROPERTY, "100");
+        try {
+            LoadShedder shedder = LoadShedder.create(algorithms);
+            assertNotNull("Shedding should be enabled", shedder);
+            assertEquals("Bad initial level", LoadShedder.NORMAL,
+                         shedder.getLevel());
+        } finally {
+            System.clearProperty(LoadShedder.QUEUE_LIMIT_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testSteps()
+    {
+        MockAlgorithm cheap = new MockAlgorithm("Cheap");
+        ExpensiveAlgorithm costly = new ExpensiveAlgorithm("Costly");
+
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+        algorithms.add(cheap);
+        algorithms.add(costly);
+
+        SubscribedList list = new SubscribedList();
+        PayloadSubscriber cheapSub = list.subscribe(cheap.getTriggerName());
+        cheap.setSubscriber(cheapSub);
+        PayloadSubscriber costlySub = list.subscribe(costly.getTriggerName());
+        costly.setSubscriber(costlySub);
+
+        LoadShedder shedder =
+            new LoadShedder(algorithms, 10, 100, 5,
+                            Arrays.asList("MinBiasTrigger"),
+                            Arrays.asList("ExpensiveAlgorithm"));
+
+        shedder.check(5, 0L);
+        assertEquals("Should not shed below the limit", LoadShedder.NORMAL,
+                     shedder.getLevel());
+
+        shedder.check(11, 0L);
+        assertEquals("Bad level", LoadShedder.PRESCALED, shedder.getLevel());
+        appender.assertLogMessage("Load shedding raised to prescaled");
+        appender.assertNoLogMessages();
+
+        // nothing is paused by the first step
+        shedder.update(list, 100L);
+        assertEquals("Unexpected payload", 0, costlySub.size());
+
+        shedder.check(5, 101L);
+        assertEquals("Bad level", LoadShedder.PAUSED, shedder.getLevel());
+        appender.assertLogMessage("Load shedding raised to paused");
+        appender.assertNoLogMessages();
+
+        shedder.update(list, 200L);
+        checkMarker(costlySub, PauseMarker.class, 200L);
+        assertEquals("Unexpected payload", 0, costlySub.size());
+        assertEquals("Unexpected payload", 0, cheapSub.size());
+
+        // paused algorithm does not see hits
+        list.push(new MockHit(300L));
+        assertEquals("Paused algorithm received a hit", 0, costlySub.size());
+        checkMarker(cheapSub, MockHit.class, 300L);
+
+        // only the paused algorithm gets a marker, and only once per time
+        shedder.update(list, 300L);
+        checkMarker(costlySub, TimeMarker.class, 300L);
+        shedder.update(list, 300L);
+        assertEquals("Unexpected payload", 0, costlySub.size());
+        assertEquals("Unexpected payload", 0, cheapSub.size());
+
+        // stay paused until the queues have drained
+        shedder.check(6, 0L);
+        assertEquals("Bad level", LoadShedder.PAUSED, shedder.getLevel());
+
+        shedder.check(5, 50L);
+        assertEquals("Bad level", LoadShedder.PRESCALED, shedder.getLevel());
+
+        shedder.update(list, 400L);
+        checkMarker(costlySub, PauseMarker.class, 400L);
+        assertEquals("Unexpected payload", 0, costlySub.size());
+        assertEquals("Unexpected payload", 0, cheapSub.size());
+
+        list.push(new MockHit(500L));
+        checkMarker(costlySub, MockHit.class, 500L);
+        checkMarker(cheapSub, MockHit.class, 500L);
+
+        shedder.check(0, 0L);
+        assertEquals("Bad level", LoadShedder.NORMAL, shedder.getLevel());
+    }
+
+    @Test
+    public void testPrescale()
+        throws Exception
+    {
+        MinBiasTrigger plain = new MinBiasTrigger();
+        plain.setTriggerName("Plain");
+        MinBiasTrigger scaled = new MinBiasTrigger();
+        scaled.setTriggerName("Scaled");
+        scaled.addParameter("triggerPrescale", "10");
+        FixedRateTrigger fixed = new FixedRateTrigger();
+
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+        algorithms.add(plain);
+        algorithms.add(scaled);
+        algorithms.add(fixed);
+
+        LoadShedder shedder =
+            new LoadShedder(algorithms, 10, 100, 5,
+                            Arrays.asList("MinBiasTrigger"),
+                            Arrays.asList("ExpensiveAlgorithm"));
+
+        assertEquals("Bad request count before shedding", 100,
+                     reportTriggers(plain, 100));
+        assertEquals("Bad prescaled count before shedding", 10,
+                     reportTriggers(scaled, 100));
+
+        shedder.check(11, 0L);
+        assertEquals("Bad level", LoadShedder.PRESCALED, shedder.getLevel());
+        appender.assertLogMessage("Load shedding raised to prescaled");
+        appender.assertNoLogMessages();
+
+        assertEquals("Unlisted algorithm was prescaled", 1,
+                     fixed.getShedPrescale());
+
+        assertEquals("Bad request count while shedding", 20,
+                     reportTriggers(plain, 100));
+        // shedding applies to the requests which pass the configured
+        // prescale, even when the two prescales share a factor
+        assertEquals("Bad prescaled count while shedding", 2,
+                     reportTriggers(scaled, 100));
+
+        shedder.check(0, 0L);
+        assertEquals("Bad level", LoadShedder.NORMAL, shedder.getLevel());
+
+        assertEquals("Bad request count after shedding", 100,
+                     reportTriggers(plain, 100));
+        assertEquals("Bad prescaled count after shedding", 10,
+                     reportTriggers(scaled, 100));
+    }
+}
@@ -0,0 +1,134 @@
+package icecube.daq.trigger.control;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+class FixedGauge
+    implements MetricsRegistry.Gauge
+{
+    private long value;
+
+    FixedGauge(long value)
+    {
+        this.value = value;
+    }
+
+    @Override
+    public long getValue()
+    {
+        return value;
+    }
+
+    void setValue(long value)
+    {
+        this.value = value;
+    }
+}
+
+public class MetricsRegistryTest
+{
+    private static void assertContains(String text, String line)
+    {
+        assertTrue("Missing \"" + line + "\" in:\n" + text,
+                   text.contains(line + "\n"));
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        assertEquals("Bad output", "", new MetricsRegistry().format());
+    }
+
+    @Test
+    public void testCounter()
+    {
+        MetricsRegistry reg = new MetricsRegistry();
+
+        MetricsRegistry.Counter ctr =
+            reg.counter("foo_total", "Foo count", "algorithm", "A");
+        assertSame("Counter was not reused", ctr,
+                   reg.counter("foo_total", "Foo count", "algorithm", "A"));
+
+        ctr.inc();
+        ctr.add(4);
+        reg.counter("foo_total", "Foo count", "algorithm", "B").inc();
+
+        final String text = reg.format();
+        assertContains(text, "# HELP foo_total Foo count");
+        assertContains(text, "# TYPE foo_total counter");
+        assertContains(text, "foo_total{algorithm=\"A\"} 5");
+        assertContains(text, "foo_total{algorithm=\"B\"} 1");
+    }
+
+    @Test
+    public void testGauge()
+    {
+        MetricsRegistry reg = new MetricsRegistry();
+
+        FixedGauge gauge = new FixedGauge(17);
+        reg.gauge("queued", "Queue length", gauge);
+        reg.gauge("weird", "Odd label", new FixedGauge(3), "name",
+                  "a\"b\\c");
+
+        String text = reg.format();
+        assertContains(text, "# TYPE queued gauge");
+        assertContains(text, "queued 17");
+        assertContains(text, "weird{name=\"a\\\"b\\\\c\"} 3");
+
+        gauge.setValue(5);
+        assertContains(reg.format(), "queued 5");
+    }
+
+    @Test
+    public void testSummary()
+    {
+        MetricsRegistry reg = new MetricsRegistry();
+
+        LatencyHistogram hist = new LatencyHistogram();
+        hist.record(1000000L);
+        hist.record(3000000L);
+        reg.summary("wait_seconds", "Wait time", hist, "algorithm", "X");
+
+        final String text = reg.format();
+        assertContains(text, "# TYPE wait_seconds summary");
+        assertContains(text, "wait_seconds_count{algorithm=\"X\"} 2");
+        assertContains(text, "wait_seconds_sum{algorithm=\"X\"} 0.004");
+        assertTrue("Missing quantile in:\n" + text,
+                   text.contains("wait_seconds{algorithm=\"X\"," +
+                                 "quantile=\"0.5\"} "));
+    }
+
+    @Test
+    public void testTypeMismatch()
+    {
+        MetricsRegistry reg = new MetricsRegistry();
+        reg.counter("abc", "ABC");
+
+        try {
+            reg.gauge("abc", "ABC", new FixedGauge(1));
+            fail("Should not be able to reuse counter name for a gauge");
+        } catch (Error err) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBadName()
+    {
+        MetricsRegistry reg = new MetricsRegistry();
+
+        try {
+            reg.counter("1bad", "Bad");
+            fail("Should not accept bad metric name");
+        } catch (Error err) {
+            // expected
+        }
+
+        try {
+            reg.counter("good", "Good", "bad-label", "x");
+            fail("Should not accept bad label name");
+        } catch (Error err) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package icecube.daq.trigger.control;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Inet6Address;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MetricsServerTest
+{
+    private MetricsServer server;
+
+    @After
+    public void tearDown()
+    {
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+    }
+
+    private static String read(InputStream in)
+        throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buf = new byte[1024];
+            while (true) {
+                final int num = in.read(buf);
+                if (num < 0) {
+                    break;
+                }
+                out.write(buf, 0, num);
+            }
+        } finally {
+            in.close();
+        }
+
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Build the URL used to scrape a server.
+     *
+     * @param server metrics server
+     *
+     * @return metrics URL
+     */
+    private static URL getURL(MetricsServer server)
+        throws Exception
+    {
+        String host = server.getAddress().getHostAddress();
+        if (server.getAddress() instanceof Inet6Address) {
+            host = "[" + host + "]";
+        }
+
+        return new URL("http://" + host + ":" + server.getPort() +
+                       MetricsServer.PATH);
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        System.clearProperty(MetricsServer.PORT_PROPERTY);
+        assertNull("Server should be disabled",
+                   MetricsServer.create(new MetricsRegistry()));
+    }
+
+    @Test
+    public void testBindAddress()
+        throws Exception
+    {
+        System.setProperty(MetricsServer.PORT_PROPERTY, "0");
+        try {
+            server = MetricsServer.create(new MetricsRegistry());
+            assertNotNull("Server should be enabled", server);
+            assertTrue("Server is not on the loopback interface: " + server,
+                       server.getAddress().isLoopbackAddress());
+            server.stop();
+
+            System.setProperty(MetricsServer.BIND_PROPERTY, "0.0.0.0");
+            server = MetricsServer.create(new MetricsRegistry());
+            assertNotNull("Server should be enabled", server);
+            assertTrue("Server is not on all interfaces: " + server,
+                       server.getAddress().isAnyLocalAddress());
+        } finally {
+            System.clearProperty(MetricsServer.PORT_PROPERTY);
+            System.clearProperty(MetricsServer.BIND_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testScrape()
+        throws Exception
+    {
+        MetricsRegistry reg = new MetricsRegistry();
+        MetricsRegistry.Counter ctr = reg.counter("hits_total", "Hits");
+        ctr.add(42);
+
+        server = new MetricsServer(reg, 0);
+        assertTrue("Bad port " + server.getPort(), server.getPort() > 0);
+
+        assertTrue("Server is not on the loopback interface: " + server,
+                   server.getAddress().isLoopbackAddress());
+
+        URL url = getURL(server);
+
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        assertEquals("Bad response code", 200, conn.getResponseCode());
+        assertTrue("Bad content type " + conn.getContentType(),
+                   conn.getContentType().startsWith("text/plain"));
+
+        String text = read(conn.getInputStream());
+        assertTrue("Missing counter in:\n" + text,
+                   text.contains("hits_total 42\n"));
+
+        // values are read on every scrape
+        ctr.inc();
+        conn = (HttpURLConnection) url.openConnection();
+        text = read(conn.getInputStream());
+        assertTrue("Missing updated counter in:\n" + text,
+                   text.contains("hits_total 43\n"));
+
+        conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("DELETE");
+        assertEquals("Bad response code", 405, conn.getResponseCode());
+    }
+}
@@ -185,6 +185,47 @@ public class MultiplicityDataManagerTest
         mgr.add(req);
     }
 
+    @Test
+    public void testAddLate()
+        throws MultiplicityDataException
+    {
+        MockAlerter alerter = new MockAlerter();
+
+        final int srcId = SourceIdRegistry.INICE_TRIGGER_SOURCE_ID;
+        final int type = 16;
+        final int cfg = 17;
+
+        MultiplicityDataManager mgr = new MultiplicityDataManager();
+        mgr.setAlertQueue(new AlertQueue(alerter));
+        mgr.setFirstGoodTime(1);
+
+        mgr.addAlgorithm(new MockAlgorithm("TstAddLate", type, cfg, srcId));
+
+        mgr.start(123);
+
+        final long firstBin = 100000;
+
+        // late requests are counted like merged requests
+        MockTriggerRequest late =
+            new MockTriggerRequest(1, srcId, -1, LagTolerance.LATE_CONFIG_ID,
+                                   firstBin + 4, firstBin + 5);
+        late.addPayload(new MockTriggerRequest(2, srcId, type, cfg,
+                                               firstBin + 4, firstBin + 5));
+        mgr.add(late);
+
+        final long nextBin = firstBin + Bins.WIDTH;
+        mgr.add(new MockTriggerRequest(3, srcId, type, cfg, nextBin + 4,
+                                       nextBin + 5));
+
+        int num = 0;
+        for (Map<String, Object> map : mgr.getSummary(10, true, true)) {
+            num++;
+            assertEquals("Bad type", type, map.get("trigid"));
+            assertEquals("Bad count", 1, map.get("value"));
+        }
+        assertEquals("Bad number of summaries", 1, num);
+    }
+
     @Test
     public void testAddMulti()
         throws MultiplicityDataException
@@ -280,6 +321,96 @@ public class MultiplicityDataManagerTest
         assertEquals("Expected 2 histograms, only got " + count, 2, count);
     }
 
+    @Test
+    public void testRegisteredCounts()
+        throws MultiplicityDataException
+    {
+        final int srcId = SourceIdRegistry.INICE_TRIGGER_SOURCE_ID;
+        final int typeA = 3;
+        final int cfgA = 2;
+        final int typeB = 4;
+        final int cfgB = 5;
+
+        MockAlerter alerter = new MockAlerter();
+
+        MultiplicityDataManager mgr = new MultiplicityDataManager();
+        mgr.setAlertQueue(new AlertQueue(alerter));
+        mgr.setFirstGoodTime(1);
+
+        mgr.addAlgorithm(new MockAlgorithm("TstRegA", typeA, cfgA, srcId));
+
+        mgr.start(123);
+
+        int uid = 1;
+        final long firstBin = 100000;
+        for (int i = 0; i < 3; i++) {
+            mgr.add(new MockTriggerRequest(uid++, srcId, typeA, cfgA,
+                                           firstBin + i * 10,
+                                           firstBin + i * 10 + 5));
+        }
+
+        // registering another algorithm must keep the existing counts
+        // (an unregistered algorithm would log an "unknown algorithm" error)
+        mgr.addAlgorithm(new MockAlgorithm("TstRegB", typeB, cfgB, srcId));
+
+        final long nextBin = firstBin + Bins.WIDTH;
+        for (int i = 0; i < 2; i++) {
+            mgr.add(new MockTriggerRequest(uid++, srcId, typeA, cfgA,
+                                           nextBin + i * 10,
+                                           nextBin + i * 10 + 5));
+        }
+        mgr.add(new MockTriggerRequest(uid++, srcId, typeB, cfgB,
+                                       nextBin + 4, nextBin + 5));
+
+        // close both of A's bins and B's only bin
+        final long thirdBin = nextBin + Bins.WIDTH;
+        mgr.add(new MockTriggerRequest(uid++, srcId, typeA, cfgA,
+                                       thirdBin + 4, thirdBin + 5));
+        final long lastBin = thirdBin + Bins.WIDTH * 2;
+        mgr.add(new MockTriggerRequest(uid++, srcId, typeB, cfgB,
+                                       lastBin + 4, lastBin + 5));
+
+        int numA = 0;
+        int numB = 0;
+        for (Map<String, Object> map : mgr.getSummary(10, true, true)) {
+            assertEquals("Bad source ID", srcId, map.get("sourceid"));
+            assertEquals("Bad run number", 123, map.get("runNumber"));
+            if (map.get("trigid").equals(typeA)) {
+                numA++;
+                assertEquals("Bad config ID", cfgA, map.get("configid"));
+                assertEquals("Bad count", 5, map.get("value"));
+            } else if (map.get("trigid").equals(typeB)) {
+                numB++;
+                assertEquals("Bad config ID", cfgB, map.get("configid"));
+                assertEquals("Bad count", 1, map.get("value"));
+            } else {
+                fail("Unexpected summary " + map);
+            }
+        }
+        assertEquals("Bad number of summaries for A", 1, numA);
+        assertEquals("Bad number of summaries for B", 1, numB);
+
+        // the next run starts with empty counters for both algorithms
+        mgr.setNextRunNumber(456);
+        mgr.reset();
+
+        final long runBin = lastBin + Bins.WIDTH * 10;
+        mgr.add(new MockTriggerRequest(uid++, srcId, typeA, cfgA,
+                                       runBin + 4, runBin + 5));
+        mgr.add(new MockTriggerRequest(uid++, srcId, typeA, cfgA,
+                                       runBin + Bins.WIDTH + 4,
+                                       runBin + Bins.WIDTH + 5));
+
+        numA = 0;
+        for (Map<String, Object> map : mgr.getSummary(10, true, true)) {
+            numA++;
+            assertEquals("Bad type", typeA, map.get("trigid"));
+            assertEquals("Bad run number", 456, map.get("runNumber"));
+            assertEquals("Bad count", 1, map.get("value"));
+        }
+        assertEquals("Bad number of summaries after reset", 1, numA);
+    }
+
     @Test
     public void testGetCountsNoStart()
     {
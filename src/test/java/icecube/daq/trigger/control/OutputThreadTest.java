@@ -313,6 +313,145 @@ public class OutputThreadTest
         waitForStopped(thrd);
     }
 
+    @Test
+    public void testRunBatched()
+    {
+        MockOutputProcess outProc = new MockOutputProcess("RunBatched");
+        MockBufferCache bufCache = new MockBufferCache("foo");
+        BatchedOutputThread thrd =
+            new BatchedOutputThread("foo", INICE_ID, outProc, bufCache);
+
+        assertEquals("Bad initial number queued", 0L, thrd.getNumQueued());
+        assertFalse("Bad initial 'stopped' state", thrd.isStopped());
+
+        MockSplicer spl = new MockSplicer();
+        thrd.start(spl);
+
+        waitForWaiting(thrd);
+
+        MockOutputChannel outChan = new MockOutputChannel();
+        outProc.setOutputChannel(outChan);
+
+        final int numReqs = 5;
+        for (int i = 0; i < numReqs; i++) {
+            thrd.push(new MockTriggerRequest(i + 1, 2, 3, 4 + i, 5 + i));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            if (thrd.getOutputStatistics().get("written") == numReqs) {
+                break;
+            }
+
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ex) {
+                // ignore interrupts
+            }
+        }
+
+        assertEquals("Bad number of requests written", (long) numReqs,
+                     (long) thrd.getOutputStatistics().get("written"));
+        assertEquals("Found queued data", 0L, thrd.getNumQueued());
+
+        thrd.stop();
+
+        waitForStopped(thrd);
+
+        assertEquals("Bad number of requests written", (long) numReqs,
+                     (long) thrd.getOutputStatistics().get("written"));
+        // small requests are always packed into one buffer per batch
+        assertEquals("Bad number of buffers written",
+                     (long) thrd.getOutputStatistics().get("batches"),
+                     (long) outProc.getNumberWritten());
+    }
+
+    @Test
+    public void testRunBatchedPacked()
+    {
+        MockOutputProcess outProc = new MockOutputProcess("RunPacked");
+        MockBufferCache bufCache = new MockBufferCache("foo");
+        BatchedOutputThread thrd =
+            new BatchedOutputThread("foo", INICE_ID, outProc, bufCache);
+
+        MockOutputChannel outChan = new MockOutputChannel();
+        outProc.setOutputChannel(outChan);
+
+        // queue everything before the thread starts so it's one batch
+        final int numReqs = 5;
+        for (int i = 0; i < numReqs; i++) {
+            thrd.push(new MockTriggerRequest(i + 1, 2, 3, 4 + i, 5 + i));
+        }
+        assertEquals("Bad number queued", (long) numReqs,
+                     thrd.getNumQueued());
+
+        thrd.start(new MockSplicer());
+        thrd.stop();
+
+        waitForStopped(thrd);
+
+        assertEquals("Bad number of requests written", (long) numReqs,
+                     (long) thrd.getOutputStatistics().get("written"));
+        assertEquals("Requests were not packed into one buffer", 1,
+                     outProc.getNumberWritten());
+        assertTrue("Output channel was not stopped", outChan.isStopped());
+    }
+
+    @Test
+    public void testRunBatchedFull()
+        throws InterruptedException
+    {
+        System.setProperty(BatchedOutputThread.QUEUE_SIZE_PROPERTY, "4");
+
+        MockOutputProcess outProc = new MockOutputProcess("RunFull");
+        MockBufferCache bufCache = new MockBufferCache("foo");
+        final BatchedOutputThread thrd;
+        try {
+            thrd = new BatchedOutputThread("foo", INICE_ID, outProc,
+                                           bufCache);
+        } finally {
+            System.clearProperty(BatchedOutputThread.QUEUE_SIZE_PROPERTY);
+        }
+
+        final int numReqs = 8;
+        Thread pusher = new Thread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < numReqs; i++) {
+                        thrd.push(new MockTriggerRequest(i + 1, 2, 3, 4 + i,
+                                                         5 + i));
+                    }
+                }
+            });
+        pusher.start();
+
+        // nothing drains the queue, so the collector must wait for space
+        for (int i = 0; pusher.getState() != Thread.State.TIMED_WAITING &&
+                 pusher.isAlive() && i < 100; i++)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals("Pusher did not wait for space",
+                     Thread.State.TIMED_WAITING, pusher.getState());
+        assertTrue("Queue is not bounded", thrd.getNumQueued() < numReqs);
+
+        outProc.setOutputChannel(new MockOutputChannel());
+        thrd.start(new MockSplicer());
+
+        pusher.join(10000L);
+        assertFalse("Pusher is still waiting", pusher.isAlive());
+
+        thrd.stop();
+
+        waitForStopped(thrd);
+
+        assertEquals("Bad number of requests written", (long) numReqs,
+                     (long) thrd.getOutputStatistics().get("written"));
+        assertTrue("Full queue was not counted",
+                   thrd.getOutputStatistics().get("queueFullWaits") > 0L);
+        assertEquals("Found queued data", 0L, thrd.getNumQueued());
+    }
+
     @Test
     public void testRunNoOutput()
     {
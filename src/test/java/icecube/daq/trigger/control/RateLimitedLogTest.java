@@ -0,0 +1,84 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.common.MockAppender;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RateLimitedLogTest
+{
+    private static final Logger LOG =
+        Logger.getLogger(RateLimitedLogTest.class);
+
+    private static final MockAppender appender =
+        new MockAppender(/*org.apache.log4j.Level.ALL*/)/*.setVerbose(true)*/;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        BasicConfigurator.resetConfiguration();
+        BasicConfigurator.configure(appender);
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        appender.assertNoLogMessages();
+    }
+
+    @Test
+    public void testBurst()
+    {
+        RateLimitedLog rlog = new RateLimitedLog(LOG, "Test", 60000L, 2);
+
+        for (int i = 0; i < 2; i++) {
+            assertTrue("Message #" + i + " was suppressed",
+                       rlog.allow("foo"));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertFalse("Message #" + (i + 2) + " was allowed",
+                        rlog.allow("foo"));
+        }
+
+        // causes are limited separately
+        assertTrue("Other cause was suppressed", rlog.allow("bar"));
+
+        assertEquals("Bad suppressed count", Long.valueOf(5L),
+                     rlog.getSuppressed().get("foo"));
+        assertEquals("Bad suppressed count", Long.valueOf(0L),
+                     rlog.getSuppressed().get("bar"));
+
+        rlog.report();
+
+        appender.assertLogMessage("Test: suppressed 5 \"foo\" messages");
+        appender.assertNoLogMessages();
+
+        // nothing new to report
+        rlog.report();
+    }
+
+    @Test
+    public void testInterval()
+        throws Exception
+    {
+        RateLimitedLog rlog = new RateLimitedLog(LOG, "Test", 1L, 1);
+
+        assertTrue("First message was suppressed", rlog.allow("foo"));
+        assertFalse("Second message was allowed", rlog.allow("foo"));
+
+        Thread.sleep(5);
+
+        assertTrue("Message in new interval was suppressed",
+                   rlog.allow("foo"));
+
+        appender.assertLogMessage("Test: suppressed 1 \"foo\" messages");
+        appender.assertNoLogMessages();
+    }
+}
@@ -0,0 +1,95 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.payload.IPayload;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ReorderBufferTest
+{
+    @Test
+    public void testCreate()
+    {
+        assertNull("Reordering should be disabled", ReorderBuffer.create());
+
+        System.setProperty(ReorderBuffer.WINDOW_PROPERTY, "100");
+        try {
+            ReorderBuffer buf = ReorderBuffer.create();
+            assertNotNull("Reordering should be enabled", buf);
+            assertEquals("Bad window", 100L, buf.getWindow());
+        } finally {
+            System.clearProperty(ReorderBuffer.WINDOW_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testLate()
+    {
+        ReorderBuffer buf = new ReorderBuffer(10L);
+
+        assertTrue("Cannot add first payload",
+                   buf.add(new DummyPayload(100L)));
+        assertTrue("Cannot add second payload",
+                   buf.add(new DummyPayload(120L)));
+
+        IPayload pay = buf.poll();
+        assertNotNull("First payload was not released", pay);
+        assertEquals("Bad first payload", 100L, pay.getUTCTime());
+        assertNull("Second payload released early", buf.poll());
+
+        assertFalse("Late payload was accepted",
+                    buf.add(new DummyPayload(99L)));
+        assertEquals("Bad late count", 1L, buf.getNumLate());
+
+        assertTrue("Cannot add payload within window",
+                   buf.add(new DummyPayload(115L)));
+        assertEquals("Bad reorder count", 1L, buf.getNumReordered());
+
+        pay = buf.pollAny();
+        assertEquals("Bad flushed payload", 115L, pay.getUTCTime());
+        pay = buf.pollAny();
+        assertEquals("Bad flushed payload", 120L, pay.getUTCTime());
+        assertNull("Buffer should be empty", buf.pollAny());
+    }
+
+    @Test
+    public void testShuffled()
+    {
+        final long window = 1000L;
+        final int numPayloads = 10000;
+
+        ReorderBuffer buf = new ReorderBuffer(window);
+
+        // jitter every time by less than the window
+        Random rand = new Random(12345L);
+        ArrayList<IPayload> out = new ArrayList<IPayload>();
+        for (int i = 0; i < numPayloads; i++) {
+            final long time = i * 100L + rand.nextInt((int) window / 2);
+            assertTrue("Payload #" + i + " was late",
+                       buf.add(new DummyPayload(time)));
+
+            IPayload pay;
+            while ((pay = buf.poll()) != null) {
+                out.add(pay);
+            }
+        }
+
+        IPayload pay;
+        while ((pay = buf.pollAny()) != null) {
+            out.add(pay);
+        }
+
+        assertEquals("Bad number of payloads", numPayloads, out.size());
+        assertEquals("Bad late count", 0L, buf.getNumLate());
+        assertTrue("Nothing was reordered", buf.getNumReordered() > 0);
+
+        for (int i = 1; i < out.size(); i++) {
+            assertTrue("Payload #" + i + " is out of order",
+                       out.get(i - 1).getUTCTime() <=
+                       out.get(i).getUTCTime());
+        }
+    }
+}
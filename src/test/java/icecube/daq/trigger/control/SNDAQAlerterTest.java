@@ -12,6 +12,7 @@ import icecube.daq.trigger.test.MockHit;
 import icecube.daq.trigger.test.MockTriggerRequest;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -48,6 +49,24 @@ class MyMockAlerter
         }
     }
 
+    void addExpectedBin(long binStart, long width, long[] offsets,
+                        int[] numHits)
+    {
+        if (DEBUG) {
+            System.err.println("PUSH bin@" + binStart + "#" + offsets.length);
+        }
+
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("trigger", "SMT8");
+        map.put("t", UTCTime.toDateString(binStart));
+        map.put("width", width);
+        map.put("dt", offsets);
+        map.put("num", numHits);
+        synchronized (expected) {
+            expected.addLast(map);
+        }
+    }
+
     void addExpectedStart(int runNum, long time)
     {
         if (DEBUG) {
@@ -146,7 +165,19 @@ class MyMockAlerter
             }
 
             Object expObj = expMap.get(key);
-            if (!expObj.equals(map.get(key))) {
+
+            boolean same;
+            if (expObj instanceof long[] && map.get(key) instanceof long[]) {
+                same = Arrays.equals((long[]) expObj, (long[]) map.get(key));
+            } else if (expObj instanceof int[] &&
+                       map.get(key) instanceof int[])
+            {
+                same = Arrays.equals((int[]) expObj, (int[]) map.get(key));
+            } else {
+                same = expObj.equals(map.get(key));
+            }
+
+            if (!same) {
                 sawError = true;
                 throw new Error("Message #:" + msgNum + " field '" + key +
                                 "' should be " + expObj + ", not " +
@@ -207,6 +238,8 @@ public class SNDAQAlerterTest
     {
         // remove SNDAQ ZMQ address
         System.clearProperty(SNDAQAlerter.PROPERTY);
+        System.clearProperty(SNDAQAlerter.BIN_PROPERTY);
+        System.clearProperty(SNDAQAlerter.BIN_MAX_PROPERTY);
 
         appender.assertNoLogMessages();
     }
@@ -224,6 +257,200 @@ public class SNDAQAlerterTest
         alerter.close();
     }
 
+    private static void waitForMessages(MyMockAlerter mockZMQ)
+    {
+        for (int i = 0; !mockZMQ.isEmpty() && i < 500; i++) {
+            try {
+                Thread.sleep(2);
+            } catch (Exception ex) {
+                // ignore interrupts
+            }
+        }
+
+        if (!mockZMQ.isEmpty()) {
+            mockZMQ.dumpExpected();
+            fail("ZMQ alerter expects " + mockZMQ.getNumberExpected() +
+                 " more messages");
+        }
+        assertFalse("ZMQ alerter saw one or more errors", mockZMQ.sawError());
+    }
+
+    @Test
+    public void testBinnedSMT8()
+        throws AlertException
+    {
+        System.setProperty(SNDAQAlerter.BIN_PROPERTY, "2");
+        System.setProperty(SNDAQAlerter.BIN_MAX_PROPERTY, "3");
+
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+
+        final int cfgId = 123;
+
+        SimpleMajorityTrigger smt8 = new SimpleMajorityTrigger();
+        smt8.setTriggerName("SimpleMajorityTrigger-Test8");
+        smt8.setTriggerConfigId(cfgId);
+        smt8.setThreshold(8);
+
+        algorithms.add(smt8);
+
+        final int runNum = 2345;
+
+        MySNDAQAlerter alerter = new MySNDAQAlerter(algorithms);
+        alerter.setRunNumber(runNum);
+
+        MyMockAlerter mockZMQ = alerter.getMockAlerter();
+
+        // two milliseconds in DAQ ticks
+        final long width = 20000000L;
+        final long base = width * 1000L;
+
+        final long[] times = new long[] {
+            base + 1, base + 2, base + 3, base + 4, base + width + 5,
+        };
+
+        mockZMQ.addExpectedStart(runNum, times[0]);
+        // first bin is sent as soon as it is full
+        mockZMQ.addExpectedBin(base, width, new long[] { 1, 2, 3 },
+                               new int[] { 1, 2, 3 });
+        mockZMQ.addExpectedBin(base, width, new long[] { 4 },
+                               new int[] { 4 });
+        mockZMQ.addExpectedBin(base + width, width, new long[] { 5 },
+                               new int[] { 5 });
+        mockZMQ.addExpectedStop(runNum, times[times.length - 1]);
+
+        for (int i = 0; i < times.length; i++) {
+            MockTriggerRequest req =
+                new MockTriggerRequest(i + 10, smt8.getTriggerType(), cfgId,
+                                       times[i] - 1, times[i]);
+            for (int j = 0; j <= i; j++) {
+                req.addPayload(new MockHit(times[i] - 1));
+            }
+
+            alerter.process(req);
+        }
+
+        alerter.close();
+
+        waitForMessages(mockZMQ);
+    }
+
+    @Test
+    public void testBinnedRelease()
+        throws AlertException
+    {
+        // wide enough that the wall-clock deadline never passes
+        System.setProperty(SNDAQAlerter.BIN_PROPERTY, "60000");
+
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+
+        final int cfgId = 123;
+
+        SimpleMajorityTrigger smt8 = new SimpleMajorityTrigger();
+        smt8.setTriggerName("SimpleMajorityTrigger-Test8");
+        smt8.setTriggerConfigId(cfgId);
+        smt8.setThreshold(8);
+
+        algorithms.add(smt8);
+
+        final int runNum = 3456;
+
+        MySNDAQAlerter alerter = new MySNDAQAlerter(algorithms);
+        alerter.setRunNumber(runNum);
+
+        MyMockAlerter mockZMQ = alerter.getMockAlerter();
+
+        // one minute in DAQ ticks
+        final long width = 600000000000L;
+        final long base = width * 10L;
+        final long time = base + 7;
+
+        mockZMQ.addExpectedStart(runNum, time);
+
+        MockTriggerRequest req =
+            new MockTriggerRequest(10, smt8.getTriggerType(), cfgId,
+                                   time - 1, time);
+        req.addPayload(new MockHit(time - 1));
+        alerter.process(req);
+
+        // the bin is held until the released requests pass its end
+        alerter.flushBin(base + width - 1);
+        waitForMessages(mockZMQ);
+        assertTrue("Bin was not held", alerter.getFlushDelay() >= 0);
+
+        mockZMQ.addExpectedBin(base, width, new long[] { 7 },
+                               new int[] { 1 });
+        alerter.flushBin(base + width);
+        waitForMessages(mockZMQ);
+        assertEquals("Bin was not sent", -1L, alerter.getFlushDelay());
+
+        mockZMQ.addExpectedStop(runNum, time);
+        alerter.close();
+
+        waitForMessages(mockZMQ);
+    }
+
+    @Test
+    public void testBinnedSilence()
+        throws AlertException
+    {
+        System.setProperty(SNDAQAlerter.BIN_PROPERTY, "50");
+
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+
+        final int cfgId = 123;
+
+        SimpleMajorityTrigger smt8 = new SimpleMajorityTrigger();
+        smt8.setTriggerName("SimpleMajorityTrigger-Test8");
+        smt8.setTriggerConfigId(cfgId);
+        smt8.setThreshold(8);
+
+        algorithms.add(smt8);
+
+        final int runNum = 4567;
+
+        MySNDAQAlerter alerter = new MySNDAQAlerter(algorithms);
+        alerter.setRunNumber(runNum);
+
+        MyMockAlerter mockZMQ = alerter.getMockAlerter();
+
+        // fifty milliseconds in DAQ ticks
+        final long width = 500000000L;
+        final long base = width * 1000L;
+        final long time = base + 3;
+
+        mockZMQ.addExpectedStart(runNum, time);
+
+        MockTriggerRequest req =
+            new MockTriggerRequest(10, smt8.getTriggerType(), cfgId,
+                                   time - 1, time);
+        req.addPayload(new MockHit(time - 1));
+        alerter.process(req);
+
+        final long delay = alerter.getFlushDelay();
+        assertTrue("Bad flush delay " + delay, delay >= 0 && delay <= 50);
+
+        // nothing else is released, so only the deadline sends the bin
+        try {
+            Thread.sleep(delay + 1);
+        } catch (InterruptedException ie) {
+            // ignore interrupts
+        }
+
+        mockZMQ.addExpectedBin(base, width, new long[] { 3 },
+                               new int[] { 1 });
+        alerter.flushBin(Long.MIN_VALUE);
+        waitForMessages(mockZMQ);
+        assertEquals("Bin was not sent", -1L, alerter.getFlushDelay());
+
+        mockZMQ.addExpectedStop(runNum, time);
+        alerter.close();
+
+        waitForMessages(mockZMQ);
+    }
+
     @Test
     public void testSMT8()
         throws AlertException
@@ -277,19 +504,6 @@ public class SNDAQAlerterTest
 
         alerter.close();
 
-        for (int i = 0; !mockZMQ.isEmpty() && i < 500; i++) {
-            try {
-                Thread.sleep(2);
-            } catch (Exception ex) {
-                // ignore interrupts
-            }
-        }
-
-        if (!mockZMQ.isEmpty()) {
-            mockZMQ.dumpExpected();
-            fail("ZMQ alerter expects " + mockZMQ.getNumberExpected() +
-                 " more messages");
-        }
-        assertFalse("ZMQ alerter saw one or more errors", mockZMQ.sawError());
+        waitForMessages(mockZMQ);
     }
 }
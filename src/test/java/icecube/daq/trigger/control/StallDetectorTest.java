@@ -0,0 +1,173 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.common.MockAppender;
+import icecube.daq.payload.IPayload;
+import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+import icecube.daq.trigger.test.MockAlgorithm;
+import icecube.daq.trigger.test.MockHit;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import org.apache.log4j.BasicConfigurator;
+
+class WatermarkAlgorithm
+    extends MockAlgorithm
+{
+    private IPayload earliest;
+
+    WatermarkAlgorithm(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    public IPayload getEarliestPayloadOfInterest()
+    {
+        return earliest;
+    }
+
+    @Override
+    public int getInputQueueSize()
+    {
+        return 0;
+    }
+
+    @Override
+    public long getReleaseTime()
+    {
+        return Long.MIN_VALUE;
+    }
+
+    void setEarliestTime(long time)
+    {
+        earliest = new MockHit(time);
+    }
+}
+
+public class StallDetectorTest
+{
+    private static final MockAppender appender =
+        new MockAppender(/*org.apache.log4j.Level.ALL*/)/*.setVerbose(true)*/;
+
+    /** One second in DAQ ticks */
+    private static final long ONE_SECOND = 10000000000L;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        BasicConfigurator.resetConfiguration();
+        BasicConfigurator.configure(appender);
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        appender.assertNoLogMessages();
+    }
+
+    private static void checkMessage(String prefix)
+    {
+        assertEquals("Expected one log message", 1,
+                     appender.getNumberOfMessages());
+        final String msg = (String) appender.getMessage(0);
+        assertTrue("Unexpected message \"" + msg + "\"",
+                   msg.startsWith(prefix));
+        appender.clear();
+    }
+
+    @Test
+    public void testStall()
+    {
+        WatermarkAlgorithm fast = new WatermarkAlgorithm("Fast");
+        WatermarkAlgorithm slow = new WatermarkAlgorithm("Slow");
+
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+        algorithms.add(fast);
+        algorithms.add(slow);
+
+        StallDetector detector = new StallDetector(algorithms, 5);
+
+        // nothing happens before the first input
+        detector.check();
+        assertTrue("No algorithms should be stalled",
+                   detector.getStalledAlgorithms().isEmpty());
+
+        final long base = 1000L * ONE_SECOND;
+        fast.setEarliestTime(base);
+        slow.setEarliestTime(base);
+        detector.setInputTime(base + ONE_SECOND);
+        detector.check();
+        assertTrue("No algorithms should be stalled",
+                   detector.getStalledAlgorithms().isEmpty());
+
+        // input moves on, but the slow algorithm does not
+        fast.setEarliestTime(base + 9 * ONE_SECOND);
+        detector.setInputTime(base + 10 * ONE_SECOND);
+        detector.check();
+
+        Map<String, Long> stalled = detector.getStalledAlgorithms();
+        assertEquals("Bad number of stalled algorithms", 1, stalled.size());
+        assertEquals("Bad lag", Long.valueOf(10000L), stalled.get("Slow"));
+        checkMessage("Trigger algorithms lagging input time");
+
+        // repeated checks should not log anything new
+        detector.check();
+        detector.check();
+        assertEquals("Bad number of stalled algorithms", 1,
+                     detector.getStalledAlgorithms().size());
+
+        // slow algorithm catches up
+        slow.setEarliestTime(base + 10 * ONE_SECOND);
+        detector.check();
+        assertTrue("No algorithms should be stalled",
+                   detector.getStalledAlgorithms().isEmpty());
+    }
+
+    @Test
+    public void testNeverStarted()
+    {
+        WatermarkAlgorithm fast = new WatermarkAlgorithm("Fast");
+        WatermarkAlgorithm idle = new WatermarkAlgorithm("Idle");
+
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+        algorithms.add(fast);
+        algorithms.add(idle);
+
+        StallDetector detector = new StallDetector(algorithms, 5);
+
+        final long base = 1000L * ONE_SECOND;
+        fast.setEarliestTime(base);
+        detector.setInputTime(base);
+        detector.check();
+        assertTrue("No algorithms should be stalled",
+                   detector.getStalledAlgorithms().isEmpty());
+
+        // idle algorithm has never finished anything
+        fast.setEarliestTime(base + 9 * ONE_SECOND);
+        detector.setInputTime(base + 9 * ONE_SECOND);
+        detector.check();
+
+        Map<String, Long> stalled = detector.getStalledAlgorithms();
+        assertEquals("Bad number of stalled algorithms", 1, stalled.size());
+        assertEquals("Bad lag", Long.valueOf(9000L), stalled.get("Idle"));
+        checkMessage("Trigger algorithms lagging input time");
+
+        // a new run starts the measurement over
+        detector.reset();
+        fast.setEarliestTime(base + 20 * ONE_SECOND);
+        detector.setInputTime(base + 20 * ONE_SECOND);
+        detector.check();
+        assertTrue("No algorithms should be stalled",
+                   detector.getStalledAlgorithms().isEmpty());
+    }
+}
@@ -0,0 +1,220 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.payload.IByteBufferCache;
+import icecube.daq.payload.SourceIdRegistry;
+import icecube.daq.payload.impl.VitreousBufferCache;
+import icecube.daq.splicer.Spliceable;
+import icecube.daq.splicer.Splicer;
+import icecube.daq.splicer.SplicerChangedEvent;
+import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+import icecube.daq.trigger.config.ConfigSnapshot;
+import icecube.daq.trigger.config.DomSetFactory;
+import icecube.daq.trigger.config.TriggerCreator;
+import icecube.daq.trigger.test.MockOutputChannel;
+import icecube.daq.trigger.test.MockOutputProcess;
+import icecube.daq.trigger.test.MockSourceID;
+import icecube.daq.trigger.test.MockSplicer;
+import icecube.daq.util.DOMRegistryFactory;
+import icecube.daq.util.IDOMRegistry;
+import icecube.daq.util.JAXPUtil;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Compare the platform-thread and virtual-thread pipelines on the same
+ * synthetic hit stream.  For each thread model this reports the time
+ * needed to push the stream through the algorithms, collector and output
+ * thread, the worst 99th and 99.9th percentile queue wait across all
+ * algorithms, and the CPU used by the whole process while the started
+ * pipeline sits idle.
+ *
+ * This is not a unit test; run it by hand with the test classpath:
+ * <pre>
+ * java icecube.daq.trigger.control.ThreadModelBenchmark [hits [rounds]]
+ * </pre>
+ */
+public class ThreadModelBenchmark
+{
+    private static final MockSourceID srcId =
+        new MockSourceID(SourceIdRegistry.INICE_TRIGGER_SOURCE_ID);
+
+    private static final String CONFIG_NAME = "sps-2012-013";
+
+    /** Number of hits passed to the trigger manager at once */
+    private static final int BATCH_SIZE = 100;
+    /** Time the started pipeline is left idle */
+    private static final long IDLE_MILLIS = 2000L;
+    /** Longest time to wait for the pipeline to drain */
+    private static final long DRAIN_MILLIS = 60000L;
+
+    private IDOMRegistry registry;
+    private ConfigSnapshot snap;
+
+    ThreadModelBenchmark(String configDir)
+        throws Exception
+    {
+        registry = DOMRegistryFactory.load(configDir);
+
+        DomSetFactory.setConfigurationDirectory(configDir);
+        DomSetFactory.setDomRegistry(registry);
+
+        File trigCfgDir = new File(configDir, "trigger");
+        snap = ConfigSnapshot.parse(JAXPUtil.loadXMLDocument(trigCfgDir,
+                                                             CONFIG_NAME),
+                                    null);
+    }
+
+    /**
+     * Get the total CPU time used by this process.
+     *
+     * @return CPU time in nanoseconds (or <tt>-1</tt> if unavailable)
+     */
+    private static long getProcessCpuTime()
+    {
+        OperatingSystemMXBean bean =
+            ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).
+                getProcessCpuTime();
+        }
+
+        return -1L;
+    }
+
+    /**
+     * Get the largest value of one percentile across all algorithms.
+     *
+     * @param map latency percentiles
+     * @param suffix percentile name suffix
+     *
+     * @return largest value (in microseconds)
+     */
+    private static long worst(Map<String, Long> map, String suffix)
+    {
+        long worst = 0L;
+        for (Map.Entry<String, Long> entry : map.entrySet()) {
+            if (entry.getKey().endsWith(suffix) &&
+                entry.getValue() > worst)
+            {
+                worst = entry.getValue();
+            }
+        }
+
+        return worst;
+    }
+
+    /**
+     * Run one pass of the hit stream through a new pipeline.
+     *
+     * @param numHits number of hits
+     * @param virtual if <tt>true</tt>, use virtual threads
+     *
+     * @return one line summary
+     */
+    String run(int numHits, boolean virtual)
+        throws Exception
+    {
+        System.setProperty(VirtualThreads.PROPERTY, Boolean.toString(virtual));
+
+        IByteBufferCache cache = new VitreousBufferCache("Benchmark");
+
+        ArrayList<ITriggerAlgorithm> algorithms =
+            new ArrayList<ITriggerAlgorithm>();
+        TriggerCreator.buildTriggers(snap, srcId.getSourceID(), algorithms,
+                                     null);
+
+        TriggerManager mgr = new TriggerManager(srcId, cache);
+        mgr.setDOMRegistry(registry);
+        mgr.addTriggers(algorithms);
+
+        MockOutputProcess out = new MockOutputProcess();
+        out.setOutputChannel(new MockOutputChannel());
+        mgr.setOutputEngine(out);
+
+        MockSplicer spl = new MockSplicer();
+        mgr.setSplicer(spl);
+        mgr.setRunNumber(1);
+
+        mgr.starting(new SplicerChangedEvent<Spliceable>
+                     (spl, Splicer.State.STARTING, null, new ArrayList()));
+
+        // measure what the parked pipeline costs while no hits arrive
+        final long idleStart = getProcessCpuTime();
+        Thread.sleep(IDLE_MILLIS);
+        final long idleCpu = getProcessCpuTime() - idleStart;
+
+        WarmUp.HitStream stream = new WarmUp.HitStream(registry, cache, 1L);
+
+        final long start = System.nanoTime();
+
+        ArrayList<Spliceable> batch = new ArrayList<Spliceable>(BATCH_SIZE);
+        for (int n = 0; n < numHits; n++) {
+            batch.add(stream.next());
+            if (batch.size() >= BATCH_SIZE || n == numHits - 1) {
+                mgr.analyze(batch);
+                batch.clear();
+            }
+        }
+
+        mgr.stopped(new SplicerChangedEvent<Spliceable>
+                    (spl, Splicer.State.STOPPED, null, new ArrayList()));
+
+        final long drainEnd = System.currentTimeMillis() + DRAIN_MILLIS;
+        while (!mgr.isStopped() && System.currentTimeMillis() < drainEnd) {
+            Thread.sleep(1);
+        }
+
+        final long nanos = System.nanoTime() - start;
+
+        Map<String, Long> pcts = mgr.getLatencyPercentiles();
+
+        return String.format("%-8s %s %8d hits/s  queueWait p99 %6d us" +
+                             "  p999 %6d us  idle CPU %5.1f ms/s" +
+                             "  requests %d",
+                             virtual ? "virtual" : "platform",
+                             mgr.isStopped() ? "ok     " : "STALLED",
+                             (long) numHits * 1000000000L / nanos,
+                             worst(pcts, ".queueWait.p99"),
+                             worst(pcts, ".queueWait.p999"),
+                             idleCpu / 1000000.0 / (IDLE_MILLIS / 1000.0),
+                             mgr.getTotalRequestsCollected());
+    }
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        final int numHits = (args.length > 0 ? Integer.parseInt(args[0]) :
+                             500000);
+        final int rounds = (args.length > 1 ? Integer.parseInt(args[1]) : 3);
+
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel(Level.ERROR);
+
+        String configDir =
+            ThreadModelBenchmark.class.getResource("/config/").getPath();
+
+        ThreadModelBenchmark bench = new ThreadModelBenchmark(configDir);
+
+        if (!VirtualThreads.isSupported()) {
+            System.out.println("Virtual threads are not supported by Java " +
+                               System.getProperty("java.version") +
+                               "; only platform threads will be measured");
+        }
+
+        // alternate models so JIT and GC effects are shared evenly
+        for (int i = 0; i < rounds; i++) {
+            System.out.println(bench.run(numHits, false));
+            if (VirtualThreads.isSupported()) {
+                System.out.println(bench.run(numHits, true));
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package icecube.daq.trigger.control;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ThreadUsageTest
+{
+    private static long burn()
+    {
+        ArrayList<long[]> list = new ArrayList<long[]>();
+        long sum = 0;
+        for (int i = 0; i < 2000; i++) {
+            long[] array = new long[256];
+            for (int j = 0; j < array.length; j++) {
+                array[j] = i * j;
+                sum += array[j];
+            }
+            list.add(array);
+        }
+        return sum + list.size();
+    }
+
+    @Test
+    public void testCurrentThread()
+    {
+        ThreadUsage usage = new ThreadUsage();
+
+        // nothing is measured before the thread is started
+        usage.sample();
+        assertEquals("Bad CPU time", 0L, usage.getCpuMillis());
+        assertEquals("Bad allocation", 0L, usage.getAllocatedBytes());
+
+        usage.start(Thread.currentThread());
+        assertTrue("Bad sum", burn() > 0);
+        usage.sample();
+
+        assertTrue("Negative CPU time", usage.getCpuMillis() >= 0);
+        assertTrue("Negative allocation", usage.getAllocatedBytes() >= 0);
+        assertTrue("Negative CPU rate", usage.getCpuMillisPerSec() >= 0);
+        assertTrue("Negative allocation rate",
+                   usage.getAllocBytesPerSec() >= 0);
+
+        Map<String, Long> stats = usage.getStatistics();
+        assertEquals("Bad number of statistics", 4, stats.size());
+        assertNotNull("Missing cpuMillis", stats.get("cpuMillis"));
+        assertNotNull("Missing allocBytes", stats.get("allocBytes"));
+        assertNotNull("Missing cpuMillisPerSec", stats.get("cpuMillisPerSec"));
+        assertNotNull("Missing allocBytesPerSec",
+                      stats.get("allocBytesPerSec"));
+
+        // totals survive stop() but rates do not
+        usage.stop();
+        final long cpu = usage.getCpuMillis();
+        final long alloc = usage.getAllocatedBytes();
+        assertEquals("Bad CPU rate", 0L, usage.getCpuMillisPerSec());
+        assertEquals("Bad allocation rate", 0L, usage.getAllocBytesPerSec());
+
+        usage.sample();
+        assertEquals("CPU time changed after stop", cpu, usage.getCpuMillis());
+        assertEquals("Allocation changed after stop", alloc,
+                     usage.getAllocatedBytes());
+
+        usage.reset();
+        assertEquals("Bad CPU time after reset", 0L, usage.getCpuMillis());
+        assertEquals("Bad allocation after reset", 0L,
+                     usage.getAllocatedBytes());
+    }
+}
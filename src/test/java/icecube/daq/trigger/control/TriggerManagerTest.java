@@ -13,6 +13,7 @@ import icecube.daq.splicer.Spliceable;
 import icecube.daq.splicer.Splicer;
 import icecube.daq.splicer.SplicerChangedEvent;
 import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+import icecube.daq.trigger.algorithm.InlineAlgorithm;
 import icecube.daq.trigger.control.ITriggerManager;
 import icecube.daq.trigger.exceptions.TriggerException;
 import icecube.daq.trigger.test.MockAlerter;
@@ -113,6 +114,26 @@ public class TriggerManagerTest
                      0L, mgr.getTotalProcessed());
     }
 
+    @Test
+    public void testRuntimeFeatures()
+    {
+        MockSourceID src = new MockSourceID(INICE_ID);
+        MockBufferCache bufCache = new MockBufferCache("foo");
+
+        System.setProperty(HitTracer.INTERVAL_PROPERTY, "10");
+        try {
+            TriggerManager mgr = new TriggerManager(src, bufCache);
+            assertFalse("Tracer was not created",
+                        mgr.getTraceStatistics().isEmpty());
+
+            TriggerManager quiet = new TriggerManager(src, bufCache, false);
+            assertTrue("Tracer should not be created",
+                       quiet.getTraceStatistics().isEmpty());
+        } finally {
+            System.clearProperty(HitTracer.INTERVAL_PROPERTY);
+        }
+    }
+
     @Test
     public void testAddAlgo1()
     {
@@ -303,6 +324,92 @@ public class TriggerManagerTest
         splObjs.clear();
     }
 
+    @Test
+    public void testAnalyzeFused()
+    {
+        System.setProperty(SubscribedList.FUSED_PROPERTY, "true");
+        try {
+            MockSourceID src = new MockSourceID(INICE_ID);
+            MockBufferCache bufCache = new MockBufferCache("foo");
+
+            TriggerManager mgr = new TriggerManager(src, bufCache);
+
+            MyInlineAlgorithm inline = new MyInlineAlgorithm("inline");
+            mgr.addTrigger(inline);
+            mgr.addTrigger(new MockAlgorithm("queued"));
+            mgr.subscribeAll();
+
+            List splObjs = new ArrayList();
+            splObjs.add(new MyHit(123, 234));
+            splObjs.add(new MyHit(123, 246));
+
+            mgr.analyze(splObjs);
+            splObjs.clear();
+
+            assertEquals("Inline algorithm did not see all hits",
+                         2, inline.getNumRun());
+
+            Map<String, Integer> queued = mgr.getQueuedInputs();
+            assertEquals("Inline algorithm should not queue hits",
+                         Integer.valueOf(0), queued.get("inline"));
+            assertEquals("Queued algorithm should queue hits",
+                         Integer.valueOf(2), queued.get("queued"));
+        } finally {
+            System.clearProperty(SubscribedList.FUSED_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testAnalyzeHeartbeat()
+    {
+        System.setProperty(SubscribedList.FUSED_PROPERTY, "true");
+        System.setProperty(TriggerManager.HEARTBEAT_PROPERTY, "1");
+        try {
+            MockSourceID src = new MockSourceID(INICE_ID);
+            MockBufferCache bufCache = new MockBufferCache("foo");
+
+            TriggerManager mgr = new TriggerManager(src, bufCache);
+
+            MyInlineAlgorithm inline = new MyInlineAlgorithm("inline");
+            mgr.addTrigger(inline);
+            mgr.subscribeAll();
+
+            final long firstTime = 10000000000L;
+            final long oneMilli = 10000000L;
+
+            List splObjs = new ArrayList();
+            splObjs.add(new MyHit(123, firstTime));
+            splObjs.add(new MyHit(123, firstTime + 12));
+
+            mgr.analyze(splObjs);
+            splObjs.clear();
+
+            assertEquals("First batch should send a marker",
+                         firstTime + 12, inline.getMarkerTime());
+
+            splObjs.add(new MyHit(123, firstTime + oneMilli / 2));
+
+            mgr.analyze(splObjs);
+            splObjs.clear();
+
+            assertEquals("Marker sent before heartbeat interval",
+                         firstTime + 12, inline.getMarkerTime());
+
+            splObjs.add(new MyHit(123, firstTime + oneMilli + 12));
+
+            mgr.analyze(splObjs);
+            splObjs.clear();
+
+            assertEquals("Marker not sent after heartbeat interval",
+                         firstTime + oneMilli + 12, inline.getMarkerTime());
+            assertEquals("Markers should not be passed to runTrigger",
+                         4, inline.getNumRun());
+        } finally {
+            System.clearProperty(SubscribedList.FUSED_PROPERTY);
+            System.clearProperty(TriggerManager.HEARTBEAT_PROPERTY);
+        }
+    }
+
     @Test
     public void testAnalyzeTrigReqBadComp()
     {
@@ -414,6 +521,46 @@ public class TriggerManagerTest
         splObjs.clear();
     }
 
+    @Test
+    public void testAnalyzeLateTrigReqs()
+    {
+        MockSourceID src = new MockSourceID(GLOBAL_ID);
+        MockBufferCache bufCache = new MockBufferCache("foo");
+
+        TriggerManager mgr = new TriggerManager(src, bufCache);
+
+        mgr.addTrigger(new MockAlgorithm("foo"));
+        mgr.subscribeAll();
+
+        List splObjs = new ArrayList();
+        splObjs.add(new MockTriggerRequest(1, 2, 2, 10, 12));
+
+        mgr.analyze(splObjs);
+        splObjs.clear();
+        assertEquals("Bad number of inputs queued",
+                     1, getNumInputsQueued(mgr));
+
+        // a late request precedes the requests which were already sent
+        MockTriggerRequest late =
+            new MockTriggerRequest(2, INICE_ID, -1,
+                                   LagTolerance.LATE_CONFIG_ID, 4, 5);
+        late.addPayload(new MockTriggerRequest(3, INICE_ID, 2, 2, 4, 5));
+        splObjs.add(late);
+        splObjs.add(new MockTriggerRequest(4, 2, 2, 14, 16));
+
+        mgr.analyze(splObjs);
+        splObjs.clear();
+
+        appender.assertLogMessage("Ignoring late request " + late);
+        appender.assertNoLogMessages();
+
+        assertEquals("Late request was queued",
+                     2, getNumInputsQueued(mgr));
+        assertTrue("Late request was not counted",
+                   mgr.getMetricsRegistry().format().
+                   contains("trigger_late_requests_total 1\n"));
+    }
+
 /*
     @Test
     public void testMoniCountsUnstarted()
@@ -929,4 +1076,29 @@ public class TriggerManagerTest
             throw new Error("Unimplemented");
         }
     }
+
+    class MyInlineAlgorithm
+        extends MockAlgorithm
+        implements InlineAlgorithm
+    {
+        private int numRun;
+
+        MyInlineAlgorithm(String name)
+        {
+            super(name);
+        }
+
+        int getNumRun()
+        {
+            return numRun;
+        }
+
+        @Override
+        public void runTrigger(IPayload pay)
+            throws TriggerException
+        {
+            numRun++;
+            super.runTrigger(pay);
+        }
+    }
 }
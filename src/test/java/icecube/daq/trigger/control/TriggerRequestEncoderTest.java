@@ -0,0 +1,147 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.common.MockAppender;
+import icecube.daq.payload.IHitPayload;
+import icecube.daq.payload.IPayload;
+import icecube.daq.payload.IReadoutRequestElement;
+import icecube.daq.payload.ITriggerRequestPayload;
+import icecube.daq.payload.impl.ReadoutRequest;
+import icecube.daq.payload.impl.ReadoutRequestElement;
+import icecube.daq.payload.impl.TriggerRequestFactory;
+import icecube.daq.trigger.test.MockBufferCache;
+import icecube.daq.trigger.test.MockHit;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import org.apache.log4j.BasicConfigurator;
+
+public class TriggerRequestEncoderTest
+{
+    private static final MockAppender appender =
+        new MockAppender(/*org.apache.log4j.Level.ALL*/)/*.setVerbose(true)*/;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        BasicConfigurator.resetConfiguration();
+        BasicConfigurator.configure(appender);
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        appender.assertNoLogMessages();
+    }
+
+    @Test
+    public void testMatchesTriggerRequest()
+        throws Exception
+    {
+        final int uid = 17;
+        final int type = 0;
+        final int cfgId = 1006;
+        final int srcId = 4000;
+        final long firstTime = 123456789L;
+        final long lastTime = 123459999L;
+
+        final int[] types = new int[] {
+            IReadoutRequestElement.READOUT_TYPE_GLOBAL,
+            IReadoutRequestElement.READOUT_TYPE_II_MODULE,
+        };
+        final int[] srcIds = new int[] { -1, 12021 };
+        final long[] starts = new long[] { firstTime - 100, firstTime - 50 };
+        final long[] ends = new long[] { lastTime + 100, lastTime + 50 };
+        final long[] doms = new long[] { -1L, 0x123456789abcL };
+
+        ArrayList<IHitPayload> hits = new ArrayList<IHitPayload>();
+        hits.add(new MockHit(firstTime, 111L));
+        hits.add(new MockHit(lastTime, 222L));
+
+        ArrayList<IReadoutRequestElement> elems =
+            new ArrayList<IReadoutRequestElement>();
+        for (int i = 0; i < types.length; i++) {
+            elems.add(new ReadoutRequestElement(types[i], srcIds[i],
+                                                starts[i], ends[i],
+                                                doms[i]));
+        }
+
+        ArrayList<IPayload> hitList = new ArrayList<IPayload>(hits);
+
+        TriggerRequestFactory factory = new TriggerRequestFactory(null);
+        ITriggerRequestPayload expReq = (ITriggerRequestPayload)
+            factory.createPayload(uid, type, cfgId, srcId, firstTime,
+                                  lastTime,
+                                  new ReadoutRequest(firstTime, uid, srcId,
+                                                     elems),
+                                  hitList);
+
+        ByteBuffer expBuf = ByteBuffer.allocate(expReq.length());
+        expReq.writePayload(false, 0, expBuf);
+
+        MockBufferCache cache = new MockBufferCache("encoder");
+        TriggerRequestEncoder encoder = new TriggerRequestEncoder(cache);
+        assertTrue("Encoder should be valid", encoder.isValid());
+
+        EncodedTriggerRequest req =
+            encoder.encode(uid, type, cfgId, srcId, firstTime, lastTime,
+                           types.length, types, srcIds, starts, ends, doms,
+                           hits);
+        assertNotNull("Request was not encoded", req);
+
+        assertEquals("Bad length", expReq.length(), req.length());
+        assertEquals("Bad UID", uid, req.getUID());
+        assertEquals("Bad type", type, req.getTriggerType());
+        assertEquals("Bad config ID", cfgId, req.getTriggerConfigID());
+        assertEquals("Bad source ID", srcId,
+                     req.getSourceID().getSourceID());
+        assertEquals("Bad first time", firstTime,
+                     req.getFirstTimeUTC().longValue());
+        assertEquals("Bad last time", lastTime,
+                     req.getLastTimeUTC().longValue());
+
+        ByteBuffer buf = req.getPayloadBacking();
+        for (int i = 0; i < expReq.length(); i++) {
+            assertEquals("Mismatch at byte " + i, expBuf.get(i), buf.get(i));
+        }
+
+        assertEquals("Bad number of readout elements", types.length,
+                     req.getReadoutRequest().getReadoutRequestElements().
+                     size());
+
+        req.recycle();
+        assertTrue("Buffer was not returned", cache.isBalanced());
+    }
+
+    @Test
+    public void testDetachBuffer()
+        throws Exception
+    {
+        MockBufferCache cache = new MockBufferCache("encoder");
+        TriggerRequestEncoder encoder = new TriggerRequestEncoder(cache);
+
+        EncodedTriggerRequest req =
+            encoder.encode(1, 2, 3, 4000, 10000L, 20000L, 0, new int[0],
+                           new int[0], new long[0], new long[0], new long[0],
+                           null);
+        assertNotNull("Request was not encoded", req);
+
+        ByteBuffer buf = req.detachBuffer();
+        assertNotNull("No buffer detached", buf);
+        assertEquals("Bad buffer length", buf.getInt(0), buf.limit());
+
+        req.recycle();
+        assertFalse("Detached buffer should not be returned",
+                    cache.isBalanced());
+
+        cache.returnBuffer(buf);
+        assertTrue("Cache should be balanced", cache.isBalanced());
+    }
+}
@@ -190,6 +190,122 @@ public class TriggerThreadTest
         assertTrue("Thread is not stopped", thrd.isStopped());
     }
 
+    @Test
+    public void testPersistentRestart()
+    {
+        MockSubscriber sub = new MockSubscriber();
+        MockAlgorithm algo = new MockAlgorithm("foo");
+        algo.setSubscriber(sub);
+
+        TriggerThread thrd = new TriggerThread(1, algo);
+        thrd.setPersistent();
+        sub.setThread(thrd);
+
+        for (int run = 0; run < 3; run++) {
+            sub.reset();
+            sub.add(new MyPayload());
+            sub.add(TriggerManager.FLUSH_PAYLOAD);
+
+            thrd.start();
+            thrd.join();
+            assertTrue("Thread is not stopped after run " + run,
+                       thrd.isStopped());
+            assertTrue("Thread is not parked after run " + run,
+                       thrd.awaitParked(System.currentTimeMillis() + 1000L));
+        }
+
+        thrd.close();
+        assertFalse("Closed thread is still parked",
+                    thrd.awaitParked(System.currentTimeMillis()));
+    }
+
+    /**
+     * Wait for the thread to block in its stop wait.
+     *
+     * @param thrd trigger thread
+     */
+    private static void waitForStopWait(TriggerThread thrd)
+    {
+        final long deadline = System.currentTimeMillis() + 10000L;
+        while (!thrd.getDiagnostics().contains("awaitStopping")) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Thread never waited for stop: " +
+                     thrd.getDiagnostics());
+            }
+
+            Thread.yield();
+        }
+    }
+
+    @Test
+    public void testStopWakesWaitingThread()
+    {
+        MockSubscriber sub = new MockSubscriber();
+        MockAlgorithm algo = new MockAlgorithm("foo");
+        algo.setSubscriber(sub);
+
+        TriggerThread thrd = new TriggerThread(1, algo);
+
+        // make sure only stop() can wake the thread before the join ends
+        System.setProperty(TriggerCollector.STOP_TIMEOUT_PROPERTY, "600000");
+        try {
+            // subscriber is stopped but the thread has not been told to stop
+            sub.stop();
+            thrd.start();
+            waitForStopWait(thrd);
+            assertFalse("Thread stopped before stop notification",
+                        thrd.isStopped());
+
+            thrd.stop();
+            assertTrue("Thread did not stop",
+                       thrd.join(System.currentTimeMillis() + 60000L));
+            assertTrue("Thread is not stopped", thrd.isStopped());
+        } finally {
+            System.clearProperty(TriggerCollector.STOP_TIMEOUT_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testStopNoticeBeforeSubscriber()
+    {
+        MockSubscriber sub = new MockSubscriber();
+        MockAlgorithm algo = new MockAlgorithm("foo");
+        algo.setSubscriber(sub);
+
+        TriggerThread thrd = new TriggerThread(1, algo);
+
+        // the collector marks the thread before the subscriber is stopped
+        thrd.setStopping();
+        sub.stop();
+        thrd.run();
+
+        assertTrue("Thread is not stopped", thrd.isStopped());
+    }
+
+    @Test
+    public void testStopWithoutNotice()
+    {
+        MockSubscriber sub = new MockSubscriber();
+        MockAlgorithm algo = new MockAlgorithm("foo");
+        algo.setSubscriber(sub);
+
+        TriggerThread thrd = new TriggerThread(1, algo);
+
+        System.setProperty(TriggerCollector.STOP_TIMEOUT_PROPERTY, "1");
+        try {
+            sub.stop();
+            thrd.run();
+        } finally {
+            System.clearProperty(TriggerCollector.STOP_TIMEOUT_PROPERTY);
+        }
+
+        assertTrue("Thread is not stopped", thrd.isStopped());
+
+        appender.assertLogMessage("Subscriber for foo stopped without" +
+                                  " a stop notification");
+        appender.assertNoLogMessages();
+    }
+
     @Test
     public void testJoinNoThread()
     {
@@ -0,0 +1,97 @@
+package icecube.daq.trigger.control;
+
+import icecube.daq.common.MockAppender;
+import icecube.daq.payload.SourceIdRegistry;
+import icecube.daq.trigger.config.ConfigSnapshot;
+import icecube.daq.trigger.config.DomSetFactory;
+import icecube.daq.trigger.test.MockSourceID;
+import icecube.daq.util.DOMRegistryFactory;
+import icecube.daq.util.IDOMRegistry;
+import icecube.daq.util.JAXPUtil;
+
+import java.io.File;
+
+import org.apache.log4j.BasicConfigurator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class WarmUpTest
+{
+    private static final MockAppender appender =
+        new MockAppender(/*org.apache.log4j.Level.ALL*/)/*.setVerbose(true)*/;
+
+    private static final MockSourceID srcId =
+        new MockSourceID(SourceIdRegistry.INICE_TRIGGER_SOURCE_ID);
+
+    private static final String CONFIG_NAME = "sps-2012-013";
+
+    private String configDir;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        BasicConfigurator.resetConfiguration();
+        BasicConfigurator.configure(appender);
+
+        configDir = getClass().getResource("/config/").getPath();
+        DomSetFactory.setConfigurationDirectory(configDir);
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        System.clearProperty(WarmUp.HITS_PROPERTY);
+
+        try {
+            for (int i = 0; i < appender.getNumberOfMessages(); i++) {
+                String msg = (String) appender.getMessage(i);
+
+                if (!msg.startsWith("Using slow SMT algorithm") &&
+                    !msg.startsWith("Using quick SMT algorithm"))
+                {
+                    fail("Bad log message#" + i + ": " +
+                         appender.getMessage(i));
+                }
+            }
+        } finally {
+            appender.clear();
+        }
+    }
+
+    @Test
+    public void testCreate()
+    {
+        assertNull("Warm-up should be disabled", WarmUp.create(srcId));
+
+        System.setProperty(WarmUp.HITS_PROPERTY, "1000");
+        assertNotNull("Warm-up should be enabled", WarmUp.create(srcId));
+
+        MockSourceID gtId =
+            new MockSourceID(SourceIdRegistry.GLOBAL_TRIGGER_SOURCE_ID);
+        assertNull("Global trigger should not be warmed up",
+                   WarmUp.create(gtId));
+    }
+
+    @Test
+    public void testRun()
+        throws Exception
+    {
+        IDOMRegistry registry = DOMRegistryFactory.load(configDir);
+        DomSetFactory.setDomRegistry(registry);
+
+        File trigCfgDir = new File(configDir, "trigger");
+        ConfigSnapshot snap =
+            ConfigSnapshot.parse(JAXPUtil.loadXMLDocument(trigCfgDir,
+                                                          CONFIG_NAME),
+                                 null);
+
+        WarmUp warmUp = new WarmUp(srcId, 20000);
+        assertTrue("No requests were produced",
+                   warmUp.run(snap, registry) > 0);
+    }
+}
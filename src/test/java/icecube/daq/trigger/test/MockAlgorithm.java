@@ -5,11 +5,13 @@ import icecube.daq.payload.ITriggerRequestPayload;
 import icecube.daq.payload.SourceIdRegistry;
 import icecube.daq.payload.impl.TriggerRequestFactory;
 import icecube.daq.trigger.algorithm.ITriggerAlgorithm;
+import icecube.daq.trigger.control.AlgorithmLatency;
 import icecube.daq.trigger.control.ITriggerCollector;
 import icecube.daq.trigger.control.ITriggerManager;
 import icecube.daq.trigger.control.Interval;
 import icecube.daq.trigger.control.PayloadSubscriber;
 import icecube.daq.trigger.control.SubscribedList;
+import icecube.daq.trigger.control.ThreadUsage;
 import icecube.daq.trigger.control.TriggerManager;
 import icecube.daq.trigger.exceptions.ConfigException;
 import icecube.daq.trigger.exceptions.IllegalParameterValueException;
@@ -29,6 +31,8 @@ public class MockAlgorithm
 
     private TriggerException runException;
     private boolean sentLast;
+    private long markerTime = Long.MIN_VALUE;
+    private boolean paused;
     private ArrayList<Interval> intervals = new ArrayList<Interval>();
 
     private int nextUID;
@@ -44,6 +48,9 @@ public class MockAlgorithm
 
     private ITriggerCollector coll;
 
+    private AlgorithmLatency latency = new AlgorithmLatency();
+    private ThreadUsage threadUsage = new ThreadUsage();
+
     public MockAlgorithm(String name)
     {
         this(name, 1, 1, SourceIdRegistry.INICE_TRIGGER_SOURCE_ID, true);
@@ -100,6 +107,12 @@ public class MockAlgorithm
         trigMoniMap.put(key, value);
     }
 
+    @Override
+    public void advanceTime(long utcTime)
+    {
+        markerTime = utcTime;
+    }
+
     @Override
     public void checkTriggerType(int type)
         throws ConfigException
@@ -130,6 +143,12 @@ public class MockAlgorithm
         throw new Error("Unimplemented");
     }
 
+    @Override
+    public AlgorithmLatency getAlgorithmLatency()
+    {
+        return latency;
+    }
+
     @Override
     public IPayload getEarliestPayloadOfInterest()
     {
@@ -169,6 +188,11 @@ public class MockAlgorithm
         return -1L;
     }
 
+    public long getMarkerTime()
+    {
+        return markerTime;
+    }
+
     @Override
     public String getMonitoringName()
     {
@@ -215,6 +239,12 @@ public class MockAlgorithm
         return sub;
     }
 
+    @Override
+    public ThreadUsage getThreadUsage()
+    {
+        return threadUsage;
+    }
+
     @Override
     public int getTriggerConfigId()
     {
@@ -269,6 +299,16 @@ public class MockAlgorithm
         throw new Error("Unimplemented");
     }
 
+    /**
+     * Has this algorithm been paused by the load shedder?
+     *
+     * @return <tt>true</tt> if the algorithm is paused
+     */
+    public boolean isPaused()
+    {
+        return paused;
+    }
+
     /**
      * Has this algorithm's input stream been stopped?
      *
@@ -363,11 +403,22 @@ public class MockAlgorithm
         sentLast = true;
     }
 
+    public boolean sentLast()
+    {
+        return sentLast;
+    }
+
     public void setFetchAll(boolean val)
     {
         fetchAll = val;
     }
 
+    @Override
+    public void setPaused(boolean paused, long utcTime)
+    {
+        this.paused = paused;
+    }
+
     public void setRunException(TriggerException ex)
     {
         runException = ex;
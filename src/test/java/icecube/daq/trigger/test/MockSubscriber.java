@@ -58,6 +58,13 @@ public class MockSubscriber
         throw new Error("Unimplemented");
     }
 
+    @Override
+    public void reset()
+    {
+        payloads.clear();
+        stopping = false;
+    }
+
     @Override
     public int size()
     {